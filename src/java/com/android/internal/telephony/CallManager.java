@@ -110,6 +110,10 @@ public class CallManager {
     // mapping of phones to registered handler instances used for callbacks from RIL
     private final HashMap<Phone, CallManagerHandler> mHandlerMap = new HashMap<>();
 
+    // immutable copy of the phone and call lists above, republished on every (un)registration
+    // so that call state queries from any thread iterate plain arrays without locking
+    private volatile CallSnapshot mSnapshot = CallSnapshot.EMPTY;
+
     // default phone as the first phone registered, which is Phone obj
     private Phone mDefaultPhone;
 
@@ -189,6 +193,47 @@ public class CallManager {
     protected final RegistrantList mTtyModeReceivedRegistrants
     = new RegistrantList();
 
+    /**
+     * Registered phones and their ringing, foreground and background calls, in registration
+     * order. Everything that cannot change while a phone stays registered is resolved once here,
+     * so the frequent call state queries only read the live call states.
+     */
+    private static final class CallSnapshot {
+        static final CallSnapshot EMPTY = new CallSnapshot(new ArrayList<>(), new ArrayList<>(),
+                new ArrayList<>(), new ArrayList<>());
+
+        final Phone[] mPhones;
+        // phones which are not IMS phones, i.e. the candidates of getPhone(subId)
+        final Phone[] mNonImsPhones;
+        final Call[] mRingingCalls;
+        final Call[] mForegroundCalls;
+        final Call[] mBackgroundCalls;
+
+        CallSnapshot(ArrayList<Phone> phones, ArrayList<Call> ringingCalls,
+                ArrayList<Call> foregroundCalls, ArrayList<Call> backgroundCalls) {
+            mPhones = phones.toArray(new Phone[0]);
+            ArrayList<Phone> nonImsPhones = new ArrayList<>(phones.size());
+            for (Phone phone : phones) {
+                if (phone.getPhoneType() != PhoneConstants.PHONE_TYPE_IMS) {
+                    nonImsPhones.add(phone);
+                }
+            }
+            mNonImsPhones = nonImsPhones.toArray(new Phone[0]);
+            mRingingCalls = ringingCalls.toArray(new Call[0]);
+            mForegroundCalls = foregroundCalls.toArray(new Call[0]);
+            mBackgroundCalls = backgroundCalls.toArray(new Call[0]);
+        }
+    }
+
+    /**
+     * @return whether the call belongs to {@code subId}, or to a SIP phone whose calls match every
+     * subId. Resolved from the call itself, as the call lists are not kept aligned by index.
+     */
+    private static boolean isCallOfSubId(Call call, int subId) {
+        Phone phone = call.getPhone();
+        return phone.getSubId() == subId || phone instanceof SipPhone;
+    }
+
     private CallManager() {
         mPhones = new ArrayList<Phone>();
         mRingingCalls = new ArrayList<Call>();
@@ -197,6 +242,10 @@ public class CallManager {
         mDefaultPhone = null;
     }
 
+    private void publishSnapshot() {
+        mSnapshot = new CallSnapshot(mPhones, mRingingCalls, mForegroundCalls, mBackgroundCalls);
+    }
+
     /**
      * get singleton instance of CallManager
      * @return CallManager
@@ -211,15 +260,12 @@ public class CallManager {
      * @return Phone
      */
     private Phone getPhone(int subId) {
-        Phone p = null;
-        for (Phone phone : mPhones) {
-            if (phone.getSubId() == subId &&
-                    phone.getPhoneType() != PhoneConstants.PHONE_TYPE_IMS) {
-                p = phone;
-                break;
+        for (Phone phone : mSnapshot.mNonImsPhones) {
+            if (phone.getSubId() == subId) {
+                return phone;
             }
         }
-        return p;
+        return null;
     }
 
     /**
@@ -232,11 +278,13 @@ public class CallManager {
     public PhoneConstants.State getState() {
         PhoneConstants.State s = PhoneConstants.State.IDLE;
 
-        for (Phone phone : mPhones) {
-            if (phone.getState() == PhoneConstants.State.RINGING) {
-                s = PhoneConstants.State.RINGING;
-            } else if (phone.getState() == PhoneConstants.State.OFFHOOK) {
-                if (s == PhoneConstants.State.IDLE) s = PhoneConstants.State.OFFHOOK;
+        for (Phone phone : mSnapshot.mPhones) {
+            PhoneConstants.State phoneState = phone.getState();
+            if (phoneState == PhoneConstants.State.RINGING) {
+                // RINGING has the highest priority
+                return PhoneConstants.State.RINGING;
+            } else if (phoneState == PhoneConstants.State.OFFHOOK) {
+                s = PhoneConstants.State.OFFHOOK;
             }
         }
         return s;
@@ -252,12 +300,14 @@ public class CallManager {
     public PhoneConstants.State getState(int subId) {
         PhoneConstants.State s = PhoneConstants.State.IDLE;
 
-        for (Phone phone : mPhones) {
+        for (Phone phone : mSnapshot.mPhones) {
             if (phone.getSubId() == subId) {
-                if (phone.getState() == PhoneConstants.State.RINGING) {
-                    s = PhoneConstants.State.RINGING;
-                } else if (phone.getState() == PhoneConstants.State.OFFHOOK) {
-                    if (s == PhoneConstants.State.IDLE) s = PhoneConstants.State.OFFHOOK;
+                PhoneConstants.State phoneState = phone.getState();
+                if (phoneState == PhoneConstants.State.RINGING) {
+                    // RINGING has the highest priority
+                    return PhoneConstants.State.RINGING;
+                } else if (phoneState == PhoneConstants.State.OFFHOOK) {
+                    s = PhoneConstants.State.OFFHOOK;
                 }
             }
         }
@@ -277,7 +327,7 @@ public class CallManager {
     public int getServiceState() {
         int resultState = ServiceState.STATE_OUT_OF_SERVICE;
 
-        for (Phone phone : mPhones) {
+        for (Phone phone : mSnapshot.mPhones) {
             int serviceState = phone.getServiceState().getState();
             if (serviceState == ServiceState.STATE_IN_SERVICE) {
                 // IN_SERVICE has the highest priority
@@ -305,7 +355,7 @@ public class CallManager {
     public int getServiceState(int subId) {
         int resultState = ServiceState.STATE_OUT_OF_SERVICE;
 
-        for (Phone phone : mPhones) {
+        for (Phone phone : mSnapshot.mPhones) {
             if (phone.getSubId() == subId) {
                 int serviceState = phone.getServiceState().getState();
                 if (serviceState == ServiceState.STATE_IN_SERVICE) {
@@ -367,6 +417,7 @@ public class CallManager {
             mRingingCalls.add(phone.getRingingCall());
             mBackgroundCalls.add(phone.getBackgroundCall());
             mForegroundCalls.add(phone.getForegroundCall());
+            publishSnapshot();
             registerForPhoneStates(phone);
             return true;
         }
@@ -395,6 +446,7 @@ public class CallManager {
             mRingingCalls.remove(phone.getRingingCall());
             mBackgroundCalls.remove(phone.getBackgroundCall());
             mForegroundCalls.remove(phone.getForegroundCall());
+            publishSnapshot();
             unregisterForPhoneStates(phone);
             if (phone == mDefaultPhone) {
                 if (mPhones.isEmpty()) {
@@ -1667,7 +1719,7 @@ public class CallManager {
      */
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     public boolean hasActiveFgCall() {
-        return (getFirstActiveCall(mForegroundCalls) != null);
+        return (getFirstActiveCall(mSnapshot.mForegroundCalls) != null);
     }
 
     /**
@@ -1676,7 +1728,7 @@ public class CallManager {
      */
     @UnsupportedAppUsage
     public boolean hasActiveFgCall(int subId) {
-        return (getFirstActiveCall(mForegroundCalls, subId) != null);
+        return (getFirstActiveCall(mSnapshot.mForegroundCalls, subId) != null);
     }
 
     /**
@@ -1686,7 +1738,7 @@ public class CallManager {
     public boolean hasActiveBgCall() {
         // TODO since hasActiveBgCall may get called often
         // better to cache it to improve performance
-        return (getFirstActiveCall(mBackgroundCalls) != null);
+        return (getFirstActiveCall(mSnapshot.mBackgroundCalls) != null);
     }
 
     /**
@@ -1697,7 +1749,7 @@ public class CallManager {
     public boolean hasActiveBgCall(int subId) {
         // TODO since hasActiveBgCall may get called often
         // better to cache it to improve performance
-        return (getFirstActiveCall(mBackgroundCalls, subId) != null);
+        return (getFirstActiveCall(mSnapshot.mBackgroundCalls, subId) != null);
     }
 
     /**
@@ -1705,7 +1757,7 @@ public class CallManager {
      *
      */
     public boolean hasActiveRingingCall() {
-        return (getFirstActiveCall(mRingingCalls) != null);
+        return (getFirstActiveCall(mSnapshot.mRingingCalls) != null);
     }
 
     /**
@@ -1713,7 +1765,7 @@ public class CallManager {
      */
     @UnsupportedAppUsage
     public boolean hasActiveRingingCall(int subId) {
-        return (getFirstActiveCall(mRingingCalls, subId) != null);
+        return (getFirstActiveCall(mSnapshot.mRingingCalls, subId) != null);
     }
 
     /**
@@ -1728,7 +1780,7 @@ public class CallManager {
      *
      */
     public Call getActiveFgCall() {
-        Call call = getFirstNonIdleCall(mForegroundCalls);
+        Call call = getFirstNonIdleCall(mSnapshot.mForegroundCalls);
         if (call == null) {
             call = (mDefaultPhone == null)
                     ? null
@@ -1739,7 +1791,7 @@ public class CallManager {
 
     @UnsupportedAppUsage
     public Call getActiveFgCall(int subId) {
-        Call call = getFirstNonIdleCall(mForegroundCalls, subId);
+        Call call = getFirstNonIdleCall(mSnapshot.mForegroundCalls, subId);
         if (call == null) {
             Phone phone = getPhone(subId);
             call = (phone == null)
@@ -1751,7 +1803,7 @@ public class CallManager {
 
     // Returns the first call that is not in IDLE state. If both active calls
     // and disconnecting/disconnected calls exist, return the first active call.
-    private Call getFirstNonIdleCall(List<Call> calls) {
+    private Call getFirstNonIdleCall(Call[] calls) {
         Call result = null;
         for (Call call : calls) {
             if (!call.isIdle()) {
@@ -1765,11 +1817,10 @@ public class CallManager {
 
     // Returns the first call that is not in IDLE state. If both active calls
     // and disconnecting/disconnected calls exist, return the first active call.
-    private Call getFirstNonIdleCall(List<Call> calls, int subId) {
+    private Call getFirstNonIdleCall(Call[] calls, int subId) {
         Call result = null;
         for (Call call : calls) {
-            if ((call.getPhone().getSubId() == subId) ||
-                    (call.getPhone() instanceof SipPhone)) {
+            if (isCallOfSubId(call, subId)) {
                 if (!call.isIdle()) {
                     return call;
                 } else if (call.getState() != Call.State.IDLE) {
@@ -1795,7 +1846,7 @@ public class CallManager {
      */
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     public Call getFirstActiveBgCall() {
-        Call call = getFirstNonIdleCall(mBackgroundCalls);
+        Call call = getFirstNonIdleCall(mSnapshot.mBackgroundCalls);
         if (call == null) {
             call = (mDefaultPhone == null)
                     ? null
@@ -1824,7 +1875,7 @@ public class CallManager {
         if (hasMoreThanOneHoldingCall(subId)) {
             return phone.getBackgroundCall();
         } else {
-            Call call = getFirstNonIdleCall(mBackgroundCalls, subId);
+            Call call = getFirstNonIdleCall(mSnapshot.mBackgroundCalls, subId);
             if (call == null) {
                 call = (phone == null)
                         ? null
@@ -1849,7 +1900,7 @@ public class CallManager {
      */
     @UnsupportedAppUsage
     public Call getFirstActiveRingingCall() {
-        Call call = getFirstNonIdleCall(mRingingCalls);
+        Call call = getFirstNonIdleCall(mSnapshot.mRingingCalls);
         if (call == null) {
             call = (mDefaultPhone == null)
                     ? null
@@ -1861,7 +1912,7 @@ public class CallManager {
     @UnsupportedAppUsage
     public Call getFirstActiveRingingCall(int subId) {
         Phone phone = getPhone(subId);
-        Call call = getFirstNonIdleCall(mRingingCalls, subId);
+        Call call = getFirstNonIdleCall(mSnapshot.mRingingCalls, subId);
         if (call == null) {
             call = (phone == null)
                     ? null
@@ -1937,14 +1988,14 @@ public class CallManager {
      * @return true if there is at least one Foreground call in disconnected state
      */
     public boolean hasDisconnectedFgCall() {
-        return (getFirstCallOfState(mForegroundCalls, Call.State.DISCONNECTED) != null);
+        return (getFirstCallOfState(mSnapshot.mForegroundCalls, Call.State.DISCONNECTED) != null);
     }
 
     /**
      * @return true if there is at least one Foreground call in disconnected state
      */
     public boolean hasDisconnectedFgCall(int subId) {
-        return (getFirstCallOfState(mForegroundCalls, Call.State.DISCONNECTED,
+        return (getFirstCallOfState(mSnapshot.mForegroundCalls, Call.State.DISCONNECTED,
                 subId) != null);
     }
 
@@ -1952,14 +2003,14 @@ public class CallManager {
      * @return true if there is at least one background call in disconnected state
      */
     public boolean hasDisconnectedBgCall() {
-        return (getFirstCallOfState(mBackgroundCalls, Call.State.DISCONNECTED) != null);
+        return (getFirstCallOfState(mSnapshot.mBackgroundCalls, Call.State.DISCONNECTED) != null);
     }
 
     /**
      * @return true if there is at least one background call in disconnected state
      */
     public boolean hasDisconnectedBgCall(int subId) {
-        return (getFirstCallOfState(mBackgroundCalls, Call.State.DISCONNECTED,
+        return (getFirstCallOfState(mSnapshot.mBackgroundCalls, Call.State.DISCONNECTED,
                 subId) != null);
     }
 
@@ -1967,7 +2018,7 @@ public class CallManager {
     /**
      * @return the first active call from a call list
      */
-    private  Call getFirstActiveCall(ArrayList<Call> calls) {
+    private  Call getFirstActiveCall(Call[] calls) {
         for (Call call : calls) {
             if (!call.isIdle()) {
                 return call;
@@ -1979,10 +2030,9 @@ public class CallManager {
     /**
      * @return the first active call from a call list
      */
-    private  Call getFirstActiveCall(ArrayList<Call> calls, int subId) {
+    private  Call getFirstActiveCall(Call[] calls, int subId) {
         for (Call call : calls) {
-            if ((!call.isIdle()) && ((call.getPhone().getSubId() == subId) ||
-                    (call.getPhone() instanceof SipPhone))) {
+            if (!call.isIdle() && isCallOfSubId(call, subId)) {
                 return call;
             }
         }
@@ -1992,7 +2042,7 @@ public class CallManager {
     /**
      * @return the first call in a the Call.state from a call list
      */
-    private Call getFirstCallOfState(ArrayList<Call> calls, Call.State state) {
+    private Call getFirstCallOfState(Call[] calls, Call.State state) {
         for (Call call : calls) {
             if (call.getState() == state) {
                 return call;
@@ -2004,12 +2054,9 @@ public class CallManager {
     /**
      * @return the first call in a the Call.state from a call list
      */
-    private Call getFirstCallOfState(ArrayList<Call> calls, Call.State state,
-            int subId) {
+    private Call getFirstCallOfState(Call[] calls, Call.State state, int subId) {
         for (Call call : calls) {
-            if ((call.getState() == state) ||
-                ((call.getPhone().getSubId() == subId) ||
-                (call.getPhone() instanceof SipPhone))) {
+            if ((call.getState() == state) || isCallOfSubId(call, subId)) {
                 return call;
             }
         }
@@ -2019,7 +2066,7 @@ public class CallManager {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private boolean hasMoreThanOneRingingCall() {
         int count = 0;
-        for (Call call : mRingingCalls) {
+        for (Call call : mSnapshot.mRingingCalls) {
             if (call.getState().isRinging()) {
                 if (++count > 1) return true;
             }
@@ -2037,10 +2084,8 @@ public class CallManager {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private boolean hasMoreThanOneRingingCall(int subId) {
         int count = 0;
-        for (Call call : mRingingCalls) {
-            if ((call.getState().isRinging()) &&
-                ((call.getPhone().getSubId() == subId) ||
-                (call.getPhone() instanceof SipPhone))) {
+        for (Call call : mSnapshot.mRingingCalls) {
+            if (call.getState().isRinging() && isCallOfSubId(call, subId)) {
                 if (++count > 1) return true;
             }
         }
@@ -2056,10 +2101,8 @@ public class CallManager {
      */
     private boolean hasMoreThanOneHoldingCall(int subId) {
         int count = 0;
-        for (Call call : mBackgroundCalls) {
-            if ((call.getState() == Call.State.HOLDING) &&
-                ((call.getPhone().getSubId() == subId) ||
-                (call.getPhone() instanceof SipPhone))) {
+        for (Call call : mSnapshot.mBackgroundCalls) {
+            if (call.getState() == Call.State.HOLDING && isCallOfSubId(call, subId)) {
                 if (++count > 1) return true;
             }
         }
@@ -32,12 +32,14 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.Signature;
 import android.content.pm.UserInfo;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
@@ -54,9 +56,10 @@ import android.telephony.UiccAccessRule;
 import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.ArraySet;
-import android.util.IntArray;
 import android.util.LocalLog;
+import android.util.SparseIntArray;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.uicc.IccUtils;
 import com.android.telephony.Rlog;
 
@@ -69,6 +72,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * CarrierPrivilegesTracker will track the Carrier Privileges for a specific {@link Phone}.
@@ -83,6 +92,30 @@ public class CarrierPrivilegesTracker extends Handler {
     private static final String SHA_1 = "SHA-1";
     private static final String SHA_256 = "SHA-256";
 
+    private static final int INSTALLED_PACKAGES_FLAGS =
+            PackageManager.MATCH_DISABLED_COMPONENTS
+                    | PackageManager.MATCH_DISABLED_UNTIL_USED_COMPONENTS;
+    private static final int SIGNING_CERTIFICATES_FLAGS =
+            INSTALLED_PACKAGES_FLAGS | PackageManager.GET_SIGNING_CERTIFICATES;
+
+    /**
+     * Name of the SharedPreferences caching the certificate hashes of the installed packages
+     * across restarts of the phone process. An entry is keyed by package name and holds the
+     * version code and last update time of the package along with its hashes: the signing
+     * certificates of a package can only change with an install or an update.
+     */
+    @VisibleForTesting
+    public static final String CERT_HASH_CACHE_PREFS = "carrier_privileges_tracker_cert_hashes";
+    private static final String KEY_BUILD_FINGERPRINT = "build_fingerprint";
+    private static final String KEY_PREFIX_PACKAGE = "pkg:";
+
+    /**
+     * Number of threads of the default scan executor. The scan blocks on PackageManager binder
+     * calls, so it runs on threads of its own rather than on a shared pool.
+     */
+    private static final int SCAN_THREADS = 4;
+    private static final long SCAN_THREADS_KEEP_ALIVE_SECONDS = 10;
+
     /**
      * Action to register a Registrant with this Tracker.
      * obj: Registrant that will be notified of Carrier Privileged UID changes.
@@ -126,6 +159,12 @@ public class CarrierPrivilegesTracker extends Handler {
      */
     private static final int ACTION_INITIALIZE_TRACKER = 7;
 
+    /**
+     * Action for the result of the scan of the installed packages.
+     * obj: Map of PackageName -> Certificate hashes for the installed packages
+     */
+    private static final int ACTION_INSTALLED_PACKAGES_SCANNED = 9;
+
     private final Context mContext;
     private final Phone mPhone;
     private final CarrierConfigManager mCarrierConfigManager;
@@ -134,6 +173,8 @@ public class CarrierPrivilegesTracker extends Handler {
     private final TelephonyManager mTelephonyManager;
     private final RegistrantList mRegistrantList;
     private final LocalLog mLocalLog;
+    private final Executor mScanExecutor;
+    private final SharedPreferences mCertHashCache;
 
     // Stores rules for Carrier Config-loaded certs
     private final List<UiccAccessRule> mCarrierConfigCerts;
@@ -147,9 +188,23 @@ public class CarrierPrivilegesTracker extends Handler {
     // Map of PackageName -> UIDs for that Package
     private final Map<String, Set<Integer>> mCachedUids;
 
+    // Packages added, replaced or removed while the installed packages are scanned, whose state
+    // from the scan may be stale. Null if no scan is in progress.
+    private Set<String> mPackagesChangedDuringScan;
+
+    // Map of privileged PackageName -> UIDs it contributes to the privileged UIDs
+    private final Map<String, Set<Integer>> mPrivilegedPackageUids;
+
+    // Map of privileged UID -> number of privileged packages with that UID
+    private final SparseIntArray mPrivilegedUidCounts;
+
     // Privileged UIDs must be kept in sorted order for update-checks.
     private int[] mPrivilegedUids;
 
+    // Whether the initial scan of the installed packages completed. Until then the privileged
+    // UIDs are not published, so that registrants never see the UIDs of a partial scan.
+    private boolean mInstalledPackagesScanned;
+
     private final BroadcastReceiver mIntentReceiver =
             new BroadcastReceiver() {
                 @Override
@@ -208,8 +263,20 @@ public class CarrierPrivilegesTracker extends Handler {
 
     public CarrierPrivilegesTracker(
             @NonNull Looper looper, @NonNull Phone phone, @NonNull Context context) {
+        this(looper, phone, context, createScanExecutor());
+    }
+
+    /**
+     * @param scanExecutor Executor scanning the installed packages off the handler thread. The
+     *         signing certificates missing from the cert hash cache are fetched in parallel on it.
+     */
+    @VisibleForTesting
+    public CarrierPrivilegesTracker(@NonNull Looper looper, @NonNull Phone phone,
+            @NonNull Context context, @NonNull Executor scanExecutor) {
         super(looper);
         mContext = context;
+        mScanExecutor = scanExecutor;
+        mCertHashCache = mContext.getSharedPreferences(CERT_HASH_CACHE_PREFS, Context.MODE_PRIVATE);
         mCarrierConfigManager =
                 (CarrierConfigManager) mContext.getSystemService(Context.CARRIER_CONFIG_SERVICE);
         mPackageManager = mContext.getPackageManager();
@@ -239,11 +306,22 @@ public class CarrierPrivilegesTracker extends Handler {
         mUiccCerts = new ArraySet<>();
         mInstalledPackageCerts = new ArrayMap<>();
         mCachedUids = new ArrayMap<>();
+        mPrivilegedPackageUids = new ArrayMap<>();
+        mPrivilegedUidCounts = new SparseIntArray();
         mPrivilegedUids = new int[0];
 
         sendMessage(obtainMessage(ACTION_INITIALIZE_TRACKER));
     }
 
+    private static Executor createScanExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(SCAN_THREADS, SCAN_THREADS,
+                SCAN_THREADS_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, TAG + "Scan"));
+        // The executor is only busy while the tracker initializes
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     @Override
     public void handleMessage(Message msg) {
         switch (msg.what) {
@@ -279,6 +357,10 @@ public class CarrierPrivilegesTracker extends Handler {
                 handleInitializeTracker();
                 break;
             }
+            case ACTION_INSTALLED_PACKAGES_SCANNED: {
+                handleInstalledPackagesScanned((Map<String, Set<String>>) msg.obj);
+                break;
+            }
             default: {
                 Rlog.e(TAG, "Received unknown msg type: " + msg.what);
                 break;
@@ -288,7 +370,10 @@ public class CarrierPrivilegesTracker extends Handler {
 
     private void handleRegisterListener(Registrant registrant) {
         mRegistrantList.add(registrant);
-        registrant.notifyResult(mPrivilegedUids);
+        // Otherwise the registrant is notified once the scan completes
+        if (mInstalledPackagesScanned) {
+            registrant.notifyResult(mPrivilegedUids);
+        }
     }
 
     private void handleUnregisterListener(Handler handler) {
@@ -362,6 +447,10 @@ public class CarrierPrivilegesTracker extends Handler {
     }
 
     private void handlePackageAddedOrReplaced(String pkgName) {
+        if (mPackagesChangedDuringScan != null) {
+            mPackagesChangedDuringScan.add(pkgName);
+        }
+
         PackageInfo pkg;
         try {
             pkg = mPackageManager.getPackageInfo(pkgName, PackageManager.GET_SIGNING_CERTIFICATES);
@@ -370,16 +459,19 @@ public class CarrierPrivilegesTracker extends Handler {
             return;
         }
 
-        updateCertsForPackage(pkg);
+        Set<String> certs = getCertHashes(pkg);
+        mInstalledPackageCerts.put(pkg.packageName, certs);
+        putCachedCertHashes(pkg, certs);
         mCachedUids.put(pkg.packageName, getUidsForPackage(pkg.packageName));
         mLocalLog.log("Package added/replaced:"
                 + " pkg=" + Rlog.pii(TAG, pkgName)
                 + " cert hashes=" + mInstalledPackageCerts.get(pkgName));
 
+        updatePrivilegedPackage(pkg.packageName);
         maybeUpdatePrivilegedUidsAndNotifyRegistrants();
     }
 
-    private void updateCertsForPackage(PackageInfo pkg) {
+    private static Set<String> getCertHashes(PackageInfo pkg) {
         Set<String> certs = new ArraySet<>();
         List<Signature> signatures = UiccAccessRule.getSignatures(pkg);
         for (Signature signature : signatures) {
@@ -389,11 +481,15 @@ public class CarrierPrivilegesTracker extends Handler {
             byte[] sha256 = UiccAccessRule.getCertHash(signature, SHA_256);
             certs.add(IccUtils.bytesToHexString(sha256).toUpperCase());
         }
-
-        mInstalledPackageCerts.put(pkg.packageName, certs);
+        return certs;
     }
 
     private void handlePackageRemoved(String pkgName) {
+        if (mPackagesChangedDuringScan != null) {
+            mPackagesChangedDuringScan.add(pkgName);
+        }
+        mCertHashCache.edit().remove(KEY_PREFIX_PACKAGE + pkgName).apply();
+
         if (mInstalledPackageCerts.remove(pkgName) == null) {
             Rlog.e(TAG, "Unknown package was uninstalled: " + pkgName);
             return;
@@ -402,6 +498,7 @@ public class CarrierPrivilegesTracker extends Handler {
 
         mLocalLog.log("Package removed: pkg=" + Rlog.pii(TAG, pkgName));
 
+        updatePrivilegedPackage(pkgName);
         maybeUpdatePrivilegedUidsAndNotifyRegistrants();
     }
 
@@ -412,28 +509,130 @@ public class CarrierPrivilegesTracker extends Handler {
         // Cache SIM certs
         mUiccCerts.addAll(getSimCerts());
 
-        // Cache all installed packages and their certs
-        int flags =
-                PackageManager.MATCH_DISABLED_COMPONENTS
-                        | PackageManager.MATCH_DISABLED_UNTIL_USED_COMPONENTS
-                        | PackageManager.GET_SIGNING_CERTIFICATES;
+        // Cache all installed packages and their certs. The scan runs off the handler thread,
+        // packages changing meanwhile are handled by their broadcasts.
+        mPackagesChangedDuringScan = new ArraySet<>();
+        mScanExecutor.execute(this::scanInstalledPackages);
+
+        mLocalLog.log("Initializing state:"
+                + " CarrierConfig certs=" + mCarrierConfigCerts
+                + " SIM-loaded certs=" + mUiccCerts);
+    }
+
+    /**
+     * Scans the certificate hashes of the packages installed for the system user, and sends them
+     * with {@link #ACTION_INSTALLED_PACKAGES_SCANNED}.
+     *
+     * <p>Runs on the scan executor. Only the packages missing from the cert hash cache are fetched
+     * with their signing certificates, and they are fetched and hashed in parallel on the scan
+     * executor.
+     */
+    private void scanInstalledPackages() {
+        String fingerprint = Build.FINGERPRINT;
+        if (!fingerprint.equals(mCertHashCache.getString(KEY_BUILD_FINGERPRINT, null))) {
+            // System packages may be updated by an OTA without a change of version.
+            mCertHashCache.edit().clear().putString(KEY_BUILD_FINGERPRINT, fingerprint).apply();
+        }
+
         List<PackageInfo> installedPackages =
                 mPackageManager.getInstalledPackagesAsUser(
-                        flags, UserHandle.SYSTEM.getIdentifier());
+                        INSTALLED_PACKAGES_FLAGS, UserHandle.SYSTEM.getIdentifier());
+        Map<String, Set<String>> installedPackageCerts = new ConcurrentHashMap<>();
+        Map<String, String> newCacheEntries = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> fetches = new ArrayList<>();
         for (PackageInfo pkg : installedPackages) {
-            updateCertsForPackage(pkg);
+            Set<String> certs = getCachedCertHashes(pkg);
+            if (certs != null) {
+                installedPackageCerts.put(pkg.packageName, certs);
+                continue;
+            }
+            fetches.add(CompletableFuture.runAsync(() -> {
+                try {
+                    PackageInfo signedPkg = mPackageManager.getPackageInfo(
+                            pkg.packageName, SIGNING_CERTIFICATES_FLAGS);
+                    Set<String> signedCerts = getCertHashes(signedPkg);
+                    newCacheEntries.put(KEY_PREFIX_PACKAGE + pkg.packageName,
+                            getCertHashCacheEntry(signedPkg, signedCerts));
+                    installedPackageCerts.put(pkg.packageName, signedCerts);
+                } catch (NameNotFoundException e) {
+                    // Uninstalled since it was listed
+                }
+            }, mScanExecutor));
+        }
+
+        // Completes on the thread of the last fetch, without blocking a thread of the executor
+        CompletableFuture.allOf(fetches.toArray(new CompletableFuture[0]))
+                .whenComplete((result, t) -> {
+                    if (t != null) {
+                        Rlog.e(TAG, "Failed to fetch the certificates of installed packages", t);
+                    }
+                    onInstalledPackagesScanned(installedPackageCerts, newCacheEntries);
+                });
+    }
+
+    private void onInstalledPackagesScanned(
+            Map<String, Set<String>> installedPackageCerts, Map<String, String> newCacheEntries) {
+        SharedPreferences.Editor editor = mCertHashCache.edit();
+        for (Map.Entry<String, String> e : newCacheEntries.entrySet()) {
+            editor.putString(e.getKey(), e.getValue());
+        }
+        // Drop the entries of the packages uninstalled while the phone process was not running
+        for (String key : mCertHashCache.getAll().keySet()) {
+            if (key.startsWith(KEY_PREFIX_PACKAGE) && !installedPackageCerts.containsKey(
+                    key.substring(KEY_PREFIX_PACKAGE.length()))) {
+                editor.remove(key);
+            }
         }
+        editor.apply();
 
-        // Okay because no registrants exist yet
+        mLocalLog.log("Scanned installed packages:"
+                + " pkgs=" + installedPackageCerts.size()
+                + " cert hash cache misses=" + newCacheEntries.size());
+        sendMessage(obtainMessage(ACTION_INSTALLED_PACKAGES_SCANNED, installedPackageCerts));
+    }
+
+    private Set<String> getCachedCertHashes(PackageInfo pkg) {
+        String entry = mCertHashCache.getString(KEY_PREFIX_PACKAGE + pkg.packageName, null);
+        if (entry == null) return null;
+
+        String[] fields = entry.split(":", 3);
+        if (fields.length != 3
+                || !fields[0].equals(Long.toString(pkg.getLongVersionCode()))
+                || !fields[1].equals(Long.toString(pkg.lastUpdateTime))) {
+            return null;
+        }
+        Set<String> certs = new ArraySet<>();
+        if (!fields[2].isEmpty()) {
+            certs.addAll(Arrays.asList(fields[2].split(",")));
+        }
+        return certs;
+    }
+
+    private void putCachedCertHashes(PackageInfo pkg, Set<String> certs) {
+        mCertHashCache.edit()
+                .putString(KEY_PREFIX_PACKAGE + pkg.packageName, getCertHashCacheEntry(pkg, certs))
+                .apply();
+    }
+
+    private static String getCertHashCacheEntry(PackageInfo pkg, Set<String> certs) {
+        return pkg.getLongVersionCode() + ":" + pkg.lastUpdateTime + ":" + String.join(",", certs);
+    }
+
+    private void handleInstalledPackagesScanned(Map<String, Set<String>> installedPackageCerts) {
+        // Packages which changed during the scan are already up to date
+        installedPackageCerts.keySet().removeAll(mPackagesChangedDuringScan);
+        mPackagesChangedDuringScan = null;
+        mInstalledPackageCerts.putAll(installedPackageCerts);
+        mInstalledPackagesScanned = true;
+
+        updateAllPrivilegedPackages();
+        // The registrants haven't been notified yet, even if no UID is privileged
+        mPrivilegedUids = null;
         maybeUpdatePrivilegedUidsAndNotifyRegistrants();
 
-        String msg = "Initializing state:"
-                + " CarrierConfig certs=" + mCarrierConfigCerts
-                + " SIM-loaded certs=" + mUiccCerts;
         if (VDBG) {
-            msg += " installed pkgs=" + getObfuscatedPackages();
+            mLocalLog.log("Installed pkgs=" + getObfuscatedPackages());
         }
-        mLocalLog.log(msg);
     }
 
     private String getObfuscatedPackages() {
@@ -451,6 +650,7 @@ public class CarrierPrivilegesTracker extends Handler {
         currentCerts.clear();
         currentCerts.addAll(updatedCerts);
 
+        updateAllPrivilegedPackages();
         maybeUpdatePrivilegedUidsAndNotifyRegistrants();
     }
 
@@ -461,14 +661,58 @@ public class CarrierPrivilegesTracker extends Handler {
         currentCerts.clear();
         currentCerts.addAll(updatedCerts);
 
+        updateAllPrivilegedPackages();
         maybeUpdatePrivilegedUidsAndNotifyRegistrants();
     }
 
+    /**
+     * Re-evaluates whether the given package is privileged, and updates the UIDs it contributes
+     * to the privileged UIDs.
+     */
+    private void updatePrivilegedPackage(String pkgName) {
+        Set<Integer> oldUids = mPrivilegedPackageUids.remove(pkgName);
+        if (oldUids != null) {
+            for (int uid : oldUids) {
+                int count = mPrivilegedUidCounts.get(uid) - 1;
+                if (count > 0) {
+                    mPrivilegedUidCounts.put(uid, count);
+                } else {
+                    mPrivilegedUidCounts.delete(uid);
+                }
+            }
+        }
+
+        Set<String> certs = mInstalledPackageCerts.get(pkgName);
+        if (certs == null || !isPackagePrivileged(pkgName, certs)) return;
+
+        Set<Integer> uids = getUidsForPackage(pkgName);
+        mPrivilegedPackageUids.put(pkgName, uids);
+        for (int uid : uids) {
+            mPrivilegedUidCounts.put(uid, mPrivilegedUidCounts.get(uid) + 1);
+        }
+    }
+
+    /**
+     * Re-evaluates all the installed packages, after the certificates they are checked against
+     * changed.
+     */
+    private void updateAllPrivilegedPackages() {
+        mPrivilegedPackageUids.clear();
+        mPrivilegedUidCounts.clear();
+        for (String pkgName : mInstalledPackageCerts.keySet()) {
+            updatePrivilegedPackage(pkgName);
+        }
+    }
+
     private void maybeUpdatePrivilegedUidsAndNotifyRegistrants() {
-        int[] currentPrivilegedUids = getCurrentPrivilegedUidsForAllUsers();
+        // The privileged UIDs are published once the scan completes
+        if (!mInstalledPackagesScanned) return;
 
-        // Sort UIDs for the equality check
-        Arrays.sort(currentPrivilegedUids);
+        // The keys of a SparseIntArray are sorted, as needed for the equality check
+        int[] currentPrivilegedUids = new int[mPrivilegedUidCounts.size()];
+        for (int i = 0; i < currentPrivilegedUids.length; i++) {
+            currentPrivilegedUids[i] = mPrivilegedUidCounts.keyAt(i);
+        }
         if (Arrays.equals(mPrivilegedUids, currentPrivilegedUids)) return;
 
         mPrivilegedUids = currentPrivilegedUids;
@@ -477,21 +721,6 @@ public class CarrierPrivilegesTracker extends Handler {
         mLocalLog.log("Privileged UIDs changed. New UIDs=" + Arrays.toString(mPrivilegedUids));
     }
 
-    private int[] getCurrentPrivilegedUidsForAllUsers() {
-        Set<Integer> privilegedUids = new ArraySet<>();
-        for (Map.Entry<String, Set<String>> e : mInstalledPackageCerts.entrySet()) {
-            if (isPackagePrivileged(e.getKey(), e.getValue())) {
-                privilegedUids.addAll(getUidsForPackage(e.getKey()));
-            }
-        }
-
-        IntArray result = new IntArray(privilegedUids.size());
-        for (int uid : privilegedUids) {
-            result.add(uid);
-        }
-        return result.toArray();
-    }
-
     /**
      * Returns true iff there is an overlap between the provided certificate hashes and the
      * certificate hashes stored in mCarrierConfigCerts and mUiccCerts.
@@ -17,19 +17,24 @@
 package com.android.internal.telephony;
 
 import android.telephony.ClientRequestStats;
+import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.telephony.Rlog;
 
-import java.util.ArrayList;
-
 public class ClientWakelockAccountant {
     public static final String LOG_TAG = "ClientWakelockAccountant: ";
 
     @VisibleForTesting
     public ClientRequestStats mRequestStats = new ClientRequestStats();
+    // Pending requests keyed by their token. RIL serials increase, so a new request is normally
+    // appended at the end.
     @VisibleForTesting
-    public ArrayList<RilWakelockInfo> mPendingRilWakelocks = new ArrayList<>();
+    public SparseArray<RilWakelockInfo> mPendingRilWakelocks = new SparseArray<>();
+
+    // Whether this client is in ClientWakelockTracker#mActiveClients. Only accessed while
+    // holding the tracker's mActiveClients lock.
+    boolean mActive;
 
     @VisibleForTesting
     public ClientWakelockAccountant(String callingPackage) {
@@ -42,7 +47,21 @@ public class ClientWakelockAccountant {
 
         RilWakelockInfo wlInfo = new RilWakelockInfo(request, token, concurrentRequests, time);
         synchronized (mPendingRilWakelocks) {
-            mPendingRilWakelocks.add(wlInfo);
+            mPendingRilWakelocks.append(token, wlInfo);
+        }
+    }
+
+    /**
+     * Start attributing a request whose concurrency is tracked by a timeline shared with the
+     * other clients, so that later changes in the number of concurrent requests do not need to
+     * be applied to this client.
+     */
+    void startAttributingWakelock(int request, int token, int concurrentRequests,
+            RilWakelockInfo.Timeline timeline, long time) {
+        RilWakelockInfo wlInfo =
+                new RilWakelockInfo(request, token, concurrentRequests, timeline, time);
+        synchronized (mPendingRilWakelocks) {
+            mPendingRilWakelocks.append(token, wlInfo);
         }
     }
 
@@ -57,8 +76,8 @@ public class ClientWakelockAccountant {
     @VisibleForTesting
     public void stopAllPendingRequests(long time) {
         synchronized (mPendingRilWakelocks) {
-            for (RilWakelockInfo wlInfo : mPendingRilWakelocks) {
-                completeRequest(wlInfo, time);
+            for (int i = 0; i < mPendingRilWakelocks.size(); i++) {
+                completeRequest(mPendingRilWakelocks.valueAt(i), time);
             }
             mPendingRilWakelocks.clear();
         }
@@ -67,8 +86,8 @@ public class ClientWakelockAccountant {
     @VisibleForTesting
     public void changeConcurrentRequests(int concurrentRequests, long time) {
         synchronized (mPendingRilWakelocks) {
-            for (RilWakelockInfo wlInfo : mPendingRilWakelocks) {
-                wlInfo.updateConcurrentRequests(concurrentRequests, time);
+            for (int i = 0; i < mPendingRilWakelocks.size(); i++) {
+                mPendingRilWakelocks.valueAt(i).updateConcurrentRequests(concurrentRequests, time);
             }
         }
     }
@@ -92,7 +111,8 @@ public class ClientWakelockAccountant {
     public synchronized long updatePendingRequestWakelockTime(long uptime) {
         long totalPendingWakelockTime = 0;
         synchronized (mPendingRilWakelocks) {
-            for (RilWakelockInfo wlInfo : mPendingRilWakelocks) {
+            for (int i = 0; i < mPendingRilWakelocks.size(); i++) {
+                RilWakelockInfo wlInfo = mPendingRilWakelocks.valueAt(i);
                 wlInfo.updateTime(uptime);
                 totalPendingWakelockTime += wlInfo.getWakelockTimeAttributedToClient();
             }
@@ -107,14 +127,10 @@ public class ClientWakelockAccountant {
     private RilWakelockInfo removePendingWakelock(int request, int token) {
         RilWakelockInfo result = null;
         synchronized (mPendingRilWakelocks) {
-            for (RilWakelockInfo wlInfo : mPendingRilWakelocks) {
-                if ((wlInfo.getTokenNumber() == token) &&
-                    (wlInfo.getRilRequestSent() == request)) {
-                    result = wlInfo;
-                }
-            }
-            if( result != null ) {
-                mPendingRilWakelocks.remove(result);
+            int index = mPendingRilWakelocks.indexOfKey(token);
+            if (index >= 0 && mPendingRilWakelocks.valueAt(index).getRilRequestSent() == request) {
+                result = mPendingRilWakelocks.valueAt(index);
+                mPendingRilWakelocks.removeAt(index);
             }
         }
         if(result == null) {
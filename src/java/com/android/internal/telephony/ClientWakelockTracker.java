@@ -23,25 +23,40 @@ import com.android.internal.annotations.VisibleForTesting;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Attributes the RIL wakelock time to the clients whose requests are pending.
+ *
+ * The pending requests of each client, {@link #mActiveClients} and the shared timeline each
+ * have their own lock rather than one lock for the tracker. Sending a request and receiving its
+ * response happen on different threads, and each lock is held only for a lookup by token, a
+ * flag check or a timeline update, so the requests of one client do not wait on another.
+ * {@link #stopTrackingAll} is the only place taking a client lock while holding
+ * {@link #mActiveClients}; nothing takes them in the reverse order.
+ */
 public class ClientWakelockTracker {
     public static final String LOG_TAG = "ClientWakelockTracker";
     @VisibleForTesting
-    public HashMap<String, ClientWakelockAccountant> mClients =
-        new HashMap<String, ClientWakelockAccountant>();
+    public ConcurrentHashMap<String, ClientWakelockAccountant> mClients =
+        new ConcurrentHashMap<String, ClientWakelockAccountant>();
     @VisibleForTesting
     public ArrayList<ClientWakelockAccountant> mActiveClients = new ArrayList<>();
 
+    // Concurrency weighted time shared by the pending requests of all clients. Changing the
+    // number of requests in the queue is a single update here rather than one per request.
+    private final RilWakelockInfo.Timeline mTimeline = new RilWakelockInfo.Timeline();
+
     @VisibleForTesting
     public void startTracking(String clientId, int requestId, int token, int numRequestsInQueue) {
         ClientWakelockAccountant client = getClientWakelockAccountant(clientId);
         long uptime = SystemClock.uptimeMillis();
-        client.startAttributingWakelock(requestId, token, numRequestsInQueue, uptime);
-        updateConcurrentRequests(numRequestsInQueue, uptime);
+        client.startAttributingWakelock(requestId, token, numRequestsInQueue, mTimeline, uptime);
         synchronized (mActiveClients) {
-            if (!mActiveClients.contains(client)) {
+            if (!client.mActive) {
+                client.mActive = true;
                 mActiveClients.add(client);
             }
         }
@@ -54,7 +69,10 @@ public class ClientWakelockTracker {
         client.stopAttributingWakelock(requestId, token, uptime);
         if(client.getPendingRequestCount() == 0) {
             synchronized (mActiveClients) {
-                mActiveClients.remove(client);
+                if (client.mActive) {
+                    client.mActive = false;
+                    mActiveClients.remove(client);
+                }
             }
         }
         updateConcurrentRequests(numRequestsInQueue, uptime);
@@ -66,6 +84,7 @@ public class ClientWakelockTracker {
         synchronized (mActiveClients) {
             for (ClientWakelockAccountant client : mActiveClients) {
                 client.stopAllPendingRequests(uptime);
+                client.mActive = false;
             }
             mActiveClients.clear();
         }
@@ -74,58 +93,39 @@ public class ClientWakelockTracker {
     List<ClientRequestStats> getClientRequestStats() {
         List<ClientRequestStats> list;
         long uptime = SystemClock.uptimeMillis();
-        synchronized (mClients) {
-            list = new ArrayList<>(mClients.size());
-            for (String key :  mClients.keySet()) {
-                ClientWakelockAccountant client = mClients.get(key);
-                client.updatePendingRequestWakelockTime(uptime);
-                list.add(new ClientRequestStats(client.mRequestStats));
-            }
+        list = new ArrayList<>(mClients.size());
+        for (ClientWakelockAccountant client : mClients.values()) {
+            client.updatePendingRequestWakelockTime(uptime);
+            list.add(new ClientRequestStats(client.mRequestStats));
         }
         return list;
     }
 
     private ClientWakelockAccountant getClientWakelockAccountant(String clientId) {
-        ClientWakelockAccountant client;
-        synchronized (mClients) {
-            if (mClients.containsKey(clientId)) {
-                client = mClients.get(clientId);
-            } else {
-                client = new ClientWakelockAccountant(clientId);
-                mClients.put(clientId, client);
-            }
+        // Clients are only ever added, so the common case is a lock-free read.
+        ClientWakelockAccountant client = mClients.get(clientId);
+        if (client == null) {
+            client = mClients.computeIfAbsent(clientId, ClientWakelockAccountant::new);
         }
         return client;
     }
 
     private void updateConcurrentRequests(int numRequestsInQueue, long time) {
-        if(numRequestsInQueue != 0) {
-            synchronized (mActiveClients) {
-                for (ClientWakelockAccountant cI : mActiveClients) {
-                    cI.changeConcurrentRequests(numRequestsInQueue, time);
-                }
-            }
-        }
+        mTimeline.updateConcurrentRequests(numRequestsInQueue, time);
     }
 
     public boolean isClientActive(String clientId) {
         ClientWakelockAccountant client = getClientWakelockAccountant(clientId);
         synchronized (mActiveClients) {
-            if (mActiveClients.contains(client)) {
-                return true;
-            }
+            return client.mActive;
         }
-
-        return false;
     }
 
     void dumpClientRequestTracker(PrintWriter pw) {
         pw.println("-------mClients---------------");
-        synchronized (mClients) {
-            for (String key : mClients.keySet()) {
-                pw.println("Client : " + key);
-                pw.println(mClients.get(key).toString());
-            }
+        for (Map.Entry<String, ClientWakelockAccountant> entry : mClients.entrySet()) {
+            pw.println("Client : " + entry.getKey());
+            pw.println(entry.getValue().toString());
         }
     }
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+/**
+ * Timestamps the phases of the data switches done by {@link PhoneSwitcher} and keeps a latency
+ * histogram per phase.
+ *
+ * A switch goes through the following phases, some of which may be skipped:
+ * <ul>
+ *   <li>{@link #PHASE_VALIDATION}: the target subscription is validated by
+ *   {@link CellularNetworkValidator}.</li>
+ *   <li>{@link #PHASE_MODEM_COMMAND}: the preferred data modem or data allowed command is sent
+ *   until the modem confirms it, retries included.</li>
+ *   <li>{@link #PHASE_DEFAULT_NETWORK}: from the modem confirmation until the default network is
+ *   on the target subscription.</li>
+ * </ul>
+ * {@link #PHASE_TOTAL} spans the whole switch, from the request until the default network is on
+ * the target subscription. Switches which are cancelled or never reach the target are not
+ * recorded in the total.
+ *
+ * Histograms use the buckets of {@link RilLatencyRecorder}. All times are in elapsed realtime.
+ *
+ * {@hide}
+ */
+public class DataSwitchLatencyTracker {
+    public static final int PHASE_VALIDATION = 0;
+    public static final int PHASE_MODEM_COMMAND = 1;
+    public static final int PHASE_DEFAULT_NETWORK = 2;
+    public static final int PHASE_TOTAL = 3;
+    private static final int PHASE_COUNT = 4;
+
+    private static final String[] PHASE_NAMES = {
+            "validation", "modemCommand", "defaultNetwork", "total"};
+
+    private static final long NONE = -1;
+
+    // Start and end of each phase of the ongoing or last switch.
+    private final long[] mPhaseStart = new long[PHASE_COUNT];
+    private final long[] mPhaseEnd = new long[PHASE_COUNT];
+    private final long[][] mHistograms = new long[PHASE_COUNT][RilLatencyRecorder.BUCKET_COUNT];
+    private final long[] mCounts = new long[PHASE_COUNT];
+    private long mCancelledCount;
+
+    public DataSwitchLatencyTracker() {
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            mPhaseStart[phase] = NONE;
+            mPhaseEnd[phase] = NONE;
+        }
+    }
+
+    /**
+     * A switch was requested. Clears the timestamps of the previous switch, except for a modem
+     * command in progress, which may have been sent while the switch was being evaluated.
+     */
+    public synchronized void onSwitchStarted(long nowMs) {
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            if (phase != PHASE_MODEM_COMMAND || !isInProgressLocked(phase)) {
+                mPhaseStart[phase] = NONE;
+                mPhaseEnd[phase] = NONE;
+            }
+        }
+        mPhaseStart[PHASE_TOTAL] = nowMs;
+    }
+
+    /** A phase started; a phase already in progress keeps its start time. */
+    public synchronized void onPhaseStarted(int phase, long nowMs) {
+        if (isInProgressLocked(phase)) return;
+        mPhaseStart[phase] = nowMs;
+        mPhaseEnd[phase] = NONE;
+    }
+
+    /** A phase ended. Ignored if the phase was not in progress. */
+    public synchronized void onPhaseEnded(int phase, long nowMs) {
+        if (!isInProgressLocked(phase)) return;
+        mPhaseEnd[phase] = nowMs;
+        record(phase, nowMs - mPhaseStart[phase]);
+    }
+
+    /** The modem confirmed the switch; the default network is expected to follow. */
+    public synchronized void onModemCommandDone(long nowMs) {
+        onPhaseEnded(PHASE_MODEM_COMMAND, nowMs);
+        if (isInProgressLocked(PHASE_TOTAL)) {
+            onPhaseStarted(PHASE_DEFAULT_NETWORK, nowMs);
+        }
+    }
+
+    /** The default network is on the target subscription. */
+    public synchronized void onSwitchCompleted(long nowMs) {
+        onPhaseEnded(PHASE_DEFAULT_NETWORK, nowMs);
+        onPhaseEnded(PHASE_TOTAL, nowMs);
+    }
+
+    /** The switch was cancelled or timed out. Phases already recorded are kept. */
+    public synchronized void onSwitchCancelled() {
+        if (isInProgressLocked(PHASE_TOTAL)) mCancelledCount++;
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            if (isInProgressLocked(phase)) mPhaseStart[phase] = NONE;
+        }
+    }
+
+    private boolean isInProgressLocked(int phase) {
+        return mPhaseStart[phase] != NONE && mPhaseEnd[phase] == NONE;
+    }
+
+    private void record(int phase, long latencyMs) {
+        mHistograms[phase][RilLatencyRecorder.getBucket(latencyMs)]++;
+        mCounts[phase]++;
+    }
+
+    /** @return the number of latencies recorded for a phase */
+    @VisibleForTesting
+    public synchronized long getCount(int phase) {
+        return mCounts[phase];
+    }
+
+    /** @return the latency of a phase in the last switch, or -1 if it did not complete */
+    @VisibleForTesting
+    public synchronized long getLastLatency(int phase) {
+        if (mPhaseStart[phase] == NONE || mPhaseEnd[phase] == NONE) return NONE;
+        return mPhaseEnd[phase] - mPhaseStart[phase];
+    }
+
+    /** @return the latency of a phase for each of {@link RilLatencyRecorder#PERCENTILES} */
+    @VisibleForTesting
+    public synchronized long[] getPercentiles(int phase) {
+        return RilLatencyRecorder.getPercentiles(mHistograms[phase]);
+    }
+
+    /** Dump the last switch and the latency percentiles of each phase. */
+    public synchronized void dump(IndentingPrintWriter pw) {
+        pw.println("DataSwitchLatencyTracker: cancelled=" + mCancelledCount);
+        pw.increaseIndent();
+        for (int phase = 0; phase < PHASE_COUNT; phase++) {
+            StringBuilder sb = new StringBuilder(PHASE_NAMES[phase]);
+            sb.append(": count=").append(mCounts[phase]);
+            sb.append(" last=").append(getLastLatency(phase)).append("ms");
+            if (mCounts[phase] > 0) {
+                long[] percentiles = getPercentiles(phase);
+                for (int i = 0; i < percentiles.length; i++) {
+                    sb.append(" p").append(RilLatencyRecorder.Summary.percentileToString(
+                            RilLatencyRecorder.PERCENTILES[i]))
+                            .append('=').append(percentiles[i]).append("ms");
+                }
+            }
+            pw.println(sb.toString());
+        }
+        pw.decreaseIndent();
+    }
+}
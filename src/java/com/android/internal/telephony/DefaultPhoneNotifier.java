@@ -18,6 +18,7 @@ package com.android.internal.telephony;
 
 import android.annotation.NonNull;
 import android.content.Context;
+import android.os.Looper;
 import android.telephony.Annotation.RadioPowerState;
 import android.telephony.Annotation.SrvccState;
 import android.telephony.BarringInfo;
@@ -29,13 +30,16 @@ import android.telephony.PhysicalChannelConfig;
 import android.telephony.PreciseCallState;
 import android.telephony.PreciseDataConnectionState;
 import android.telephony.ServiceState;
+import android.telephony.SignalStrength;
 import android.telephony.TelephonyDisplayInfo;
 import android.telephony.TelephonyManager;
 import android.telephony.TelephonyRegistryManager;
 import android.telephony.emergency.EmergencyNumber;
 import android.telephony.ims.ImsReasonInfo;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.PhoneInternalInterface.DataActivityState;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.telephony.Rlog;
 
 import java.util.List;
@@ -48,12 +52,53 @@ public class DefaultPhoneNotifier implements PhoneNotifier {
     private static final String LOG_TAG = "DefaultPhoneNotifier";
     private static final boolean DBG = false; // STOPSHIP if true
 
+    /**
+     * Default minimum interval between two notifications of frequently changing, non critical
+     * state such as signal strength, cell info and data activity for the same phone.
+     */
+    public static final long DEFAULT_MIN_NOTIFICATION_INTERVAL_MS = 1000;
+
+    // A throttled value may be sent after notifications which followed it, so only state that
+    // listeners don't order against other notifications is throttled. Physical channel configs
+    // are combined with the service state and display info, they are only deduplicated.
+    private static final int[] THROTTLED_EVENTS = {
+            PhoneNotificationCoalescer.EVENT_SIGNAL_STRENGTH,
+            PhoneNotificationCoalescer.EVENT_CELL_INFO,
+            PhoneNotificationCoalescer.EVENT_DATA_ACTIVITY};
+
     private TelephonyRegistryManager mTelephonyRegistryMgr;
 
+    // Drops duplicate and throttles frequent state notifications. Call state, call quality and
+    // emergency notifications are always passed straight through.
+    private final PhoneNotificationCoalescer mCoalescer;
 
     public DefaultPhoneNotifier(Context context) {
+        this(context, Looper.myLooper() != null ? Looper.myLooper() : Looper.getMainLooper());
+    }
+
+    @VisibleForTesting
+    public DefaultPhoneNotifier(Context context, Looper looper) {
         mTelephonyRegistryMgr = (TelephonyRegistryManager) context.getSystemService(
             Context.TELEPHONY_REGISTRY_SERVICE);
+        mCoalescer = new PhoneNotificationCoalescer(looper);
+        setMinNotificationInterval(DEFAULT_MIN_NOTIFICATION_INTERVAL_MS);
+    }
+
+    /**
+     * Set the minimum interval between two notifications of signal strength, cell info and data
+     * activity for the same phone. Values notified within the interval are coalesced and the
+     * latest one is sent once it elapses, possibly after notifications of other state which were
+     * made meanwhile. Zero disables throttling.
+     */
+    public void setMinNotificationInterval(long intervalMs) {
+        for (int event : THROTTLED_EVENTS) {
+            mCoalescer.setMinInterval(event, intervalMs);
+        }
+    }
+
+    @VisibleForTesting
+    public PhoneNotificationCoalescer getCoalescer() {
+        return mCoalescer;
     }
 
     @Override
@@ -84,7 +129,10 @@ public class DefaultPhoneNotifier implements PhoneNotifier {
             ss = new ServiceState();
             ss.setStateOutOfService();
         }
-        mTelephonyRegistryMgr.notifyServiceStateChanged(subId, phoneId, ss);
+        // The service state tracker updates its instances in place, so compare against a copy.
+        final ServiceState state = new ServiceState(ss);
+        mCoalescer.notify(PhoneNotificationCoalescer.EVENT_SERVICE_STATE, subId, phoneId, state,
+                () -> mTelephonyRegistryMgr.notifyServiceStateChanged(subId, phoneId, state));
     }
 
     @Override
@@ -96,8 +144,10 @@ public class DefaultPhoneNotifier implements PhoneNotifier {
             Rlog.d(LOG_TAG, "notifySignalStrength: mRegistryMgr=" + mTelephonyRegistryMgr
                 + " ss=" + sender.getSignalStrength() + " sender=" + sender);
         }
-        mTelephonyRegistryMgr.notifySignalStrengthChanged(subId, phoneId,
-            sender.getSignalStrength());
+        SignalStrength signalStrength = sender.getSignalStrength();
+        mCoalescer.notify(PhoneNotificationCoalescer.EVENT_SIGNAL_STRENGTH, subId, phoneId,
+                signalStrength, () -> mTelephonyRegistryMgr.notifySignalStrengthChanged(subId,
+                        phoneId, signalStrength));
     }
 
     @Override
@@ -121,8 +171,10 @@ public class DefaultPhoneNotifier implements PhoneNotifier {
     @Override
     public void notifyDataActivity(Phone sender) {
         int subId = sender.getSubId();
-        mTelephonyRegistryMgr.notifyDataActivityChanged(subId,
-                convertDataActivityState(sender.getDataActivityState()));
+        int dataActivity = convertDataActivityState(sender.getDataActivityState());
+        mCoalescer.notify(PhoneNotificationCoalescer.EVENT_DATA_ACTIVITY, subId,
+                sender.getPhoneId(), dataActivity,
+                () -> mTelephonyRegistryMgr.notifyDataActivityChanged(subId, dataActivity));
     }
 
     @Override
@@ -134,13 +186,16 @@ public class DefaultPhoneNotifier implements PhoneNotifier {
     @Override
     public void notifyCellLocation(Phone sender, CellIdentity cellIdentity) {
         int subId = sender.getSubId();
-        mTelephonyRegistryMgr.notifyCellLocation(subId, cellIdentity);
+        mCoalescer.notify(PhoneNotificationCoalescer.EVENT_CELL_LOCATION, subId,
+                sender.getPhoneId(), cellIdentity,
+                () -> mTelephonyRegistryMgr.notifyCellLocation(subId, cellIdentity));
     }
 
     @Override
     public void notifyCellInfo(Phone sender, List<CellInfo> cellInfo) {
         int subId = sender.getSubId();
-        mTelephonyRegistryMgr.notifyCellInfoChanged(subId, cellInfo);
+        mCoalescer.notify(PhoneNotificationCoalescer.EVENT_CELL_INFO, subId, sender.getPhoneId(),
+                cellInfo, () -> mTelephonyRegistryMgr.notifyCellInfoChanged(subId, cellInfo));
     }
 
     public void notifyPreciseCallState(Phone sender) {
@@ -190,8 +245,11 @@ public class DefaultPhoneNotifier implements PhoneNotifier {
 
     @Override
     public void notifyDisplayInfoChanged(Phone sender, TelephonyDisplayInfo telephonyDisplayInfo) {
-        mTelephonyRegistryMgr.notifyDisplayInfoChanged(sender.getPhoneId(), sender.getSubId(),
-                telephonyDisplayInfo);
+        int phoneId = sender.getPhoneId();
+        int subId = sender.getSubId();
+        mCoalescer.notify(PhoneNotificationCoalescer.EVENT_DISPLAY_INFO, subId, phoneId,
+                telephonyDisplayInfo, () -> mTelephonyRegistryMgr.notifyDisplayInfoChanged(
+                        phoneId, subId, telephonyDisplayInfo));
     }
 
     @Override
@@ -232,15 +290,29 @@ public class DefaultPhoneNotifier implements PhoneNotifier {
 
     @Override
     public void notifyBarringInfoChanged(Phone sender, BarringInfo barringInfo) {
-        mTelephonyRegistryMgr.notifyBarringInfoChanged(sender.getPhoneId(), sender.getSubId(),
-                barringInfo);
+        int phoneId = sender.getPhoneId();
+        int subId = sender.getSubId();
+        mCoalescer.notify(PhoneNotificationCoalescer.EVENT_BARRING_INFO, subId, phoneId,
+                barringInfo, () -> mTelephonyRegistryMgr.notifyBarringInfoChanged(phoneId, subId,
+                        barringInfo));
     }
 
     @Override
     public void notifyPhysicalChannelConfig(Phone sender,
                                                    List<PhysicalChannelConfig> configs) {
         int subId = sender.getSubId();
-        mTelephonyRegistryMgr.notifyPhysicalChannelConfigForSubscriber(subId, configs);
+        mCoalescer.notify(PhoneNotificationCoalescer.EVENT_PHYSICAL_CHANNEL_CONFIG, subId,
+                sender.getPhoneId(), configs,
+                () -> mTelephonyRegistryMgr.notifyPhysicalChannelConfigForSubscriber(subId,
+                        configs));
+    }
+
+    /** Dump the notification statistics. */
+    public void dump(IndentingPrintWriter pw) {
+        pw.println(LOG_TAG + ":");
+        pw.increaseIndent();
+        mCoalescer.dump(pw);
+        pw.decreaseIndent();
     }
 
     /**
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.telephony.CellInfo;
+import android.text.TextUtils;
+import android.util.LocalLog;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.telephony.Rlog;
+
+import java.io.FileDescriptor;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The device locale tracker coordinates the {@link LocaleTracker}s of all the phones. The phones
+ * of a device are at the same place, so:
+ *
+ * <ul>
+ *   <li>Only one of the locale trackers which need cell info polls the modem for it, and the cell
+ *   info any of them gets is shared with the others.</li>
+ *   <li>No locale tracker polls the modem while one of the phones is camped on a network. The
+ *   country of that network is used by the phones which can't get a country on their own.</li>
+ *   <li>The country of the device is worked out once for all the phones, when it changes.</li>
+ * </ul>
+ */
+public class DeviceLocaleTracker {
+    private static final String TAG = DeviceLocaleTracker.class.getSimpleName();
+
+    private static DeviceLocaleTracker sInstance;
+
+    private final Object mLock = new Object();
+
+    /** All the locale trackers, in the order they were added. */
+    @GuardedBy("mLock")
+    private final List<LocaleTracker> mLocaleTrackers = new ArrayList<>();
+
+    /** The locale trackers which need cell info. The first one polls the modem. */
+    @GuardedBy("mLock")
+    private final List<LocaleTracker> mTrackingLocaleTrackers = new ArrayList<>();
+
+    /** The last non-empty cell info shared while some locale tracker needs cell info. */
+    @GuardedBy("mLock")
+    @Nullable
+    private List<CellInfo> mLastCellInfoList;
+
+    /** The country of the network a phone is camped on. Empty if none is. */
+    @GuardedBy("mLock")
+    @NonNull
+    private String mNetworkCountryIso = "";
+
+    /** The ISO-3166 two-letter code of the device's current country. */
+    @GuardedBy("mLock")
+    @NonNull
+    private String mCountryIso = "";
+
+    private final LocalLog mLocalLog = new LocalLog(20);
+
+    /**
+     * @return The device locale tracker shared by the locale trackers of all the phones
+     */
+    public static DeviceLocaleTracker getInstance() {
+        synchronized (DeviceLocaleTracker.class) {
+            if (sInstance == null) {
+                sInstance = new DeviceLocaleTracker();
+            }
+            return sInstance;
+        }
+    }
+
+    @VisibleForTesting
+    public DeviceLocaleTracker() {}
+
+    /**
+     * Add the locale tracker of a phone.
+     *
+     * @param localeTracker The locale tracker
+     */
+    void addLocaleTracker(@NonNull LocaleTracker localeTracker) {
+        synchronized (mLock) {
+            mLocaleTrackers.add(localeTracker);
+        }
+    }
+
+    /**
+     * Remove the locale tracker of a phone which is going away.
+     *
+     * @param localeTracker The locale tracker
+     */
+    void removeLocaleTracker(@NonNull LocaleTracker localeTracker) {
+        stopTracking(localeTracker);
+        synchronized (mLock) {
+            mLocaleTrackers.remove(localeTracker);
+        }
+        onCountryChanged();
+    }
+
+    /**
+     * Called when a locale tracker starts needing cell info. The cell info shared recently is
+     * handed to it right away.
+     *
+     * @param localeTracker The locale tracker
+     */
+    void startTracking(@NonNull LocaleTracker localeTracker) {
+        synchronized (mLock) {
+            if (mTrackingLocaleTrackers.contains(localeTracker)) return;
+            mTrackingLocaleTrackers.add(localeTracker);
+            if (mLastCellInfoList != null) {
+                localeTracker.onSharedCellInfo(mLastCellInfoList);
+            }
+        }
+    }
+
+    /**
+     * Called when a locale tracker stops needing cell info. If it was polling the modem, the next
+     * locale tracker needing cell info takes over.
+     *
+     * @param localeTracker The locale tracker
+     */
+    void stopTracking(@NonNull LocaleTracker localeTracker) {
+        synchronized (mLock) {
+            int index = mTrackingLocaleTrackers.indexOf(localeTracker);
+            if (index < 0) return;
+            mTrackingLocaleTrackers.remove(index);
+            if (mTrackingLocaleTrackers.isEmpty()) {
+                mLastCellInfoList = null;
+            } else if (index == 0) {
+                mTrackingLocaleTrackers.get(0).onPollingChanged();
+            }
+        }
+    }
+
+    /**
+     * @param localeTracker The locale tracker
+     * @return {@code true} if the locale tracker should poll the modem for cell info
+     */
+    boolean shouldPoll(@NonNull LocaleTracker localeTracker) {
+        synchronized (mLock) {
+            return mNetworkCountryIso.isEmpty() && !mTrackingLocaleTrackers.isEmpty()
+                    && mTrackingLocaleTrackers.get(0) == localeTracker;
+        }
+    }
+
+    /**
+     * Share the cell info a locale tracker got with the other locale trackers needing cell info.
+     *
+     * @param localeTracker The locale tracker which got the cell info
+     * @param cellInfoList The cell info
+     */
+    void onCellInfo(@NonNull LocaleTracker localeTracker, @Nullable List<CellInfo> cellInfoList) {
+        if (cellInfoList == null || cellInfoList.isEmpty()) return;
+        synchronized (mLock) {
+            mLastCellInfoList = cellInfoList;
+            for (LocaleTracker other : mTrackingLocaleTrackers) {
+                if (other != localeTracker) {
+                    other.onSharedCellInfo(cellInfoList);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called when the country of a locale tracker changes, to update the network country and the
+     * country of the device.
+     */
+    void onCountryChanged() {
+        String networkCountryIso = "";
+        String countryIso;
+        List<LocaleTracker> localeTrackersToNotify = null;
+        synchronized (mLock) {
+            for (LocaleTracker localeTracker : mLocaleTrackers) {
+                String iso = localeTracker.getNetworkCountryIso();
+                if (!TextUtils.isEmpty(iso)) {
+                    networkCountryIso = iso;
+                    break;
+                }
+            }
+            countryIso = networkCountryIso;
+            if (countryIso.isEmpty()) {
+                for (LocaleTracker localeTracker : mLocaleTrackers) {
+                    String iso = localeTracker.getCurrentCountry();
+                    if (!iso.isEmpty()) {
+                        countryIso = iso;
+                        break;
+                    }
+                }
+            }
+
+            if (!networkCountryIso.equals(mNetworkCountryIso)) {
+                log("Network country changes to \"" + networkCountryIso + "\"");
+                mNetworkCountryIso = networkCountryIso;
+                localeTrackersToNotify = new ArrayList<>(mLocaleTrackers);
+            }
+            if (!countryIso.equals(mCountryIso)) {
+                log("Device country changes to \"" + countryIso + "\"");
+                mCountryIso = countryIso;
+            }
+        }
+
+        if (localeTrackersToNotify != null) {
+            for (LocaleTracker localeTracker : localeTrackersToNotify) {
+                localeTracker.onNetworkCountryChanged();
+            }
+        }
+    }
+
+    /**
+     * @return The country of the network a phone is camped on. Empty string if none is.
+     */
+    @NonNull
+    public String getNetworkCountryIso() {
+        synchronized (mLock) {
+            return mNetworkCountryIso;
+        }
+    }
+
+    /**
+     * Get the device's current country. The country of the network a phone is camped on is
+     * preferred, then the country of the first phone which has one.
+     *
+     * @return The device's current country. Empty string if the information is not available.
+     */
+    @NonNull
+    public String getCurrentCountry() {
+        synchronized (mLock) {
+            return mCountryIso;
+        }
+    }
+
+    private void log(String msg) {
+        Rlog.d(TAG, msg);
+        mLocalLog.log(msg);
+    }
+
+    /**
+     * Dump the state of the device locale tracker.
+     *
+     * @param fd The raw file descriptor that the dump is being sent to.
+     * @param ipw The indenting print writer
+     * @param args Additional arguments to the dump request.
+     */
+    public void dump(FileDescriptor fd, IndentingPrintWriter ipw, String[] args) {
+        ipw.println("DeviceLocaleTracker:");
+        ipw.increaseIndent();
+        synchronized (mLock) {
+            ipw.println("mCountryIso = " + mCountryIso);
+            ipw.println("mNetworkCountryIso = " + mNetworkCountryIso);
+            ipw.println("mLocaleTrackers = " + mLocaleTrackers.size()
+                    + ", mTrackingLocaleTrackers = " + mTrackingLocaleTrackers.size());
+        }
+        ipw.println("Local logs:");
+        ipw.increaseIndent();
+        mLocalLog.dump(fd, ipw, args);
+        ipw.decreaseIndent();
+        ipw.decreaseIndent();
+    }
+}
@@ -198,6 +198,9 @@ public class DeviceStateMonitor extends Handler {
      */
     private int mUnsolicitedResponseFilter = IndicationFilter.ALL;
 
+    /** Decides the unsolicited response filter and the cell info rate from the device state. */
+    private IndicationReportingPolicy mReportingPolicy = IndicationReportingPolicy.createDefault();
+
     private final DisplayManager.DisplayListener mDisplayListener =
             new DisplayManager.DisplayListener() {
                 @Override
@@ -323,73 +326,40 @@ public class DeviceStateMonitor extends Handler {
      */
     @VisibleForTesting
     public int computeCellInfoMinInterval() {
-        // The screen is on and we're either on cellular or charging. Screen on + Charging is
-        // a likely vehicular scenario, even if there is a nomadic AP.
-        if (mIsScreenOn && !mIsWifiConnected) {
-            // Screen on without WiFi - We are in a high power likely mobile situation.
-            return CELL_INFO_INTERVAL_SHORT_MS;
-        } else if (mIsScreenOn && mIsCharging) {
-            // Screen is on and we're charging, so we favor accuracy over power.
-            return CELL_INFO_INTERVAL_SHORT_MS;
-        } else {
-            // If the screen is off, apps should not need cellular location at rapid intervals.
-            // If the screen is on but we are on wifi and not charging then cellular location
-            // accuracy is not crucial, so favor modem power saving over high accuracy.
-            return CELL_INFO_INTERVAL_LONG_MS;
-        }
-    }
-
-    /**
-     * @return True if signal strength update should be enabled. See details in
-     *         android.hardware.radio@1.2::IndicationFilter::SIGNAL_STRENGTH.
-     */
-    private boolean shouldEnableSignalStrengthReports() {
-        // We should enable signal strength update if one of the following condition is true.
-        // 1. The device is charging.
-        // 2. When the screen is on.
-        // 3. Any of system services is registrating to always listen to signal strength changes
-        return mIsAlwaysSignalStrengthReportingEnabled || mIsCharging || mIsScreenOn;
+        // If the screen is off, apps should not need cellular location at rapid intervals.
+        // If the screen is on but we are on wifi and not charging then cellular location
+        // accuracy is not crucial, so favor modem power saving over high accuracy.
+        return mReportingPolicy.shouldUseShortCellInfoInterval(getReportingConditions())
+                ? CELL_INFO_INTERVAL_SHORT_MS : CELL_INFO_INTERVAL_LONG_MS;
     }
 
     /**
-     * @return True if full network state update should be enabled. When off, only significant
-     *         changes will trigger the network update unsolicited response. See details in
-     *         android.hardware.radio@1.2::IndicationFilter::FULL_NETWORK_STATE.
+     * @return The unsolicited response filter for the current device state. See
+     *         IndicationFilter defined in types.hal for the definition of each bit.
      */
-    private boolean shouldEnableFullNetworkStateReports() {
-        return shouldEnableNrTrackingIndications();
-    }
-
-    /**
-     * @return True if data call dormancy changed update should be enabled. See details in
-     *         android.hardware.radio@1.2::IndicationFilter::DATA_CALL_DORMANCY_CHANGED.
-     */
-    private boolean shouldEnableDataCallDormancyChangedReports() {
-        return shouldEnableNrTrackingIndications();
-    }
-
-    /**
-     * @return True if link capacity estimate update should be enabled. See details in
-     *         android.hardware.radio@1.2::IndicationFilter::LINK_CAPACITY_ESTIMATE.
-     */
-    private boolean shouldEnableLinkCapacityEstimateReports() {
-        return shouldEnableHighPowerConsumptionIndications();
-    }
-
-    /**
-     * @return True if physical channel config update should be enabled. See details in
-     *         android.hardware.radio@1.2::IndicationFilter::PHYSICAL_CHANNEL_CONFIG.
-     */
-    private boolean shouldEnablePhysicalChannelConfigReports() {
-        return shouldEnableNrTrackingIndications();
+    @VisibleForTesting
+    public int computeUnsolResponseFilter() {
+        return mReportingPolicy.computeIndicationFilter(getReportingConditions());
     }
 
     /**
-     * @return True if barring info update should be enabled. See details in
-     *         android.hardware.radio@1.5::IndicationFilter::BARRING_INFO.
+     * @return The device state and listener demand as {@link IndicationReportingPolicy}
+     *         conditions.
      */
-    private boolean shouldEnableBarringInfoReports() {
-        return shouldEnableHighPowerConsumptionIndications();
+    private int getReportingConditions() {
+        int conditions = 0;
+        if (mIsScreenOn) conditions |= IndicationReportingPolicy.CONDITION_SCREEN_ON;
+        if (mIsCharging) conditions |= IndicationReportingPolicy.CONDITION_CHARGING;
+        if (mIsTetheringOn) conditions |= IndicationReportingPolicy.CONDITION_TETHERING_ON;
+        if (mIsCarModeOn) conditions |= IndicationReportingPolicy.CONDITION_CAR_MODE_ON;
+        if (mIsWifiConnected) conditions |= IndicationReportingPolicy.CONDITION_WIFI_CONNECTED;
+        if (mIsAlwaysSignalStrengthReportingEnabled) {
+            conditions |= IndicationReportingPolicy.CONDITION_SIGNAL_STRENGTH_REQUESTED;
+        }
+        if (isNrTrackingRequested()) {
+            conditions |= IndicationReportingPolicy.CONDITION_NR_TRACKING_REQUESTED;
+        }
+        return conditions;
     }
 
     /**
@@ -404,33 +374,41 @@ public class DeviceStateMonitor extends Handler {
         // 2. When the screen is on.
         // 3. When the tethering is on.
         // 4. When car mode (Android Auto) is on.
-        return mIsCharging || mIsScreenOn || mIsTetheringOn || mIsCarModeOn;
+        return (getReportingConditions() & IndicationReportingPolicy.CONDITIONS_HIGH_POWER) != 0;
     }
 
     /**
-     * For 5G NSA devices, a policy to determine if we should enable NR tracking indications.
+     * For 5G NSA devices, determine if NR tracking indications are requested regardless of the
+     * power consumption policy.
      *
-     * @return True if the response update should be enabled.
+     * @return True if the tracking mode requests the indications in the current state.
      */
-    private boolean shouldEnableNrTrackingIndications() {
+    private boolean isNrTrackingRequested() {
         int trackingMode = Settings.Global.getInt(mPhone.getContext().getContentResolver(),
                 Settings.Global.NR_NSA_TRACKING_SCREEN_OFF_MODE, NR_NSA_TRACKING_INDICATIONS_OFF);
         switch (trackingMode) {
             case NR_NSA_TRACKING_INDICATIONS_ALWAYS_ON:
                 return true;
             case NR_NSA_TRACKING_INDICATIONS_EXTENDED:
-                if (mPhone.getServiceState().getNrState()
-                        == NetworkRegistrationInfo.NR_STATE_CONNECTED) {
-                    return true;
-                }
-                // fallthrough
-            case NR_NSA_TRACKING_INDICATIONS_OFF:
-                return shouldEnableHighPowerConsumptionIndications();
+                return mPhone.getServiceState().getNrState()
+                        == NetworkRegistrationInfo.NR_STATE_CONNECTED;
             default:
-                return shouldEnableHighPowerConsumptionIndications();
+                return false;
         }
     }
 
+    /**
+     * Replace the rule table deciding the reported indications and the cell info rate, and
+     * apply it right away. Production code always uses the default table.
+     *
+     * @param policy The new rule table
+     */
+    @VisibleForTesting
+    public void setReportingPolicy(IndicationReportingPolicy policy) {
+        mReportingPolicy = policy;
+        updateReporting(mUnsolicitedResponseFilter);
+    }
+
     /**
      * Set if Telephony need always report signal strength.
      *
@@ -478,7 +456,7 @@ public class DeviceStateMonitor extends Handler {
      * @param state True if enabled/on, otherwise disabled/off.
      */
     private void onUpdateDeviceState(int eventType, boolean state) {
-        final boolean shouldEnableBarringInfoReportsOld = shouldEnableBarringInfoReports();
+        final int oldFilter = computeUnsolResponseFilter();
         final boolean wasHighPowerEnabled = shouldEnableHighPowerConsumptionIndications();
         switch (eventType) {
             case EVENT_SCREEN_STATE_CHANGED:
@@ -520,45 +498,29 @@ public class DeviceStateMonitor extends Handler {
             mPhone.notifyDeviceIdleStateChanged(!isHighPowerEnabled /*isIdle*/);
         }
 
-        final int newCellInfoMinInterval = computeCellInfoMinInterval();
-        if (mCellInfoMinInterval != newCellInfoMinInterval) {
-            mCellInfoMinInterval = newCellInfoMinInterval;
-            setCellInfoMinInterval(mCellInfoMinInterval);
-            log("CellInfo Min Interval Updated to " + newCellInfoMinInterval, true);
-        }
-
         if (mIsLowDataExpected != isLowDataExpected()) {
             mIsLowDataExpected = !mIsLowDataExpected;
             sendDeviceState(LOW_DATA_EXPECTED, mIsLowDataExpected);
         }
 
-        // Registration Failure is always reported.
-        int newFilter = IndicationFilter.REGISTRATION_FAILURE;
-
-        if (shouldEnableSignalStrengthReports()) {
-            newFilter |= IndicationFilter.SIGNAL_STRENGTH;
-        }
-
-        if (shouldEnableFullNetworkStateReports()) {
-            newFilter |= IndicationFilter.FULL_NETWORK_STATE;
-        }
-
-        if (shouldEnableDataCallDormancyChangedReports()) {
-            newFilter |= IndicationFilter.DATA_CALL_DORMANCY_CHANGED;
-        }
-
-        if (shouldEnableLinkCapacityEstimateReports()) {
-            newFilter |= IndicationFilter.LINK_CAPACITY_ESTIMATE;
-        }
+        updateReporting(oldFilter);
+    }
 
-        if (shouldEnablePhysicalChannelConfigReports()) {
-            newFilter |= IndicationFilter.PHYSICAL_CHANNEL_CONFIG;
+    /**
+     * Apply the reporting policy to the current device state: update the cell info rate and the
+     * unsolicited response filter.
+     *
+     * @param oldFilter The filter of the policy before the device state changed
+     */
+    private void updateReporting(int oldFilter) {
+        final int newCellInfoMinInterval = computeCellInfoMinInterval();
+        if (mCellInfoMinInterval != newCellInfoMinInterval) {
+            mCellInfoMinInterval = newCellInfoMinInterval;
+            setCellInfoMinInterval(mCellInfoMinInterval);
+            log("CellInfo Min Interval Updated to " + newCellInfoMinInterval, true);
         }
 
-        final boolean shouldEnableBarringInfoReports = shouldEnableBarringInfoReports();
-        if (shouldEnableBarringInfoReports) {
-            newFilter |= IndicationFilter.BARRING_INFO;
-        }
+        final int newFilter = computeUnsolResponseFilter();
 
         // notify PhysicalChannelConfig registrants if state changes
         if ((newFilter & IndicationFilter.PHYSICAL_CHANNEL_CONFIG)
@@ -570,7 +532,8 @@ public class DeviceStateMonitor extends Handler {
         setUnsolResponseFilter(newFilter, false);
 
         // Pull barring info AFTER setting filter, the order matters
-        if (shouldEnableBarringInfoReports && !shouldEnableBarringInfoReportsOld) {
+        if ((newFilter & IndicationFilter.BARRING_INFO) != 0
+                && (oldFilter & IndicationFilter.BARRING_INFO) == 0) {
             if (DBG) log("Manually pull barring info...", true);
             // use a null message since we don't care of receiving response
             mPhone.mCi.getBarringInfo(null);
@@ -804,6 +767,8 @@ public class DeviceStateMonitor extends Handler {
         ipw.println("mIsWifiConnected=" + mIsWifiConnected);
         ipw.println("mIsAlwaysSignalStrengthReportingEnabled="
                 + mIsAlwaysSignalStrengthReportingEnabled);
+        ipw.println("mCellInfoMinInterval=" + mCellInfoMinInterval);
+        mReportingPolicy.dump(ipw);
         ipw.println("Local logs:");
         ipw.increaseIndent();
         mLocalLog.dump(fd, ipw, args);
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.hardware.radio.V1_5.IndicationFilter;
+
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rule table used by {@link DeviceStateMonitor} to decide which unsolicited responses the modem
+ * should report, and how often cell info may be requested from it.
+ *
+ * The device state and the demand of the listeners are folded into a bitmask of
+ * {@code CONDITION_*} flags. Each rule enables a set of outputs when all of its required
+ * conditions are met and none of its excluded conditions are. An output is enabled if any rule
+ * enables it. The outputs are the {@link IndicationFilter} bits, plus
+ * {@link #OUTPUT_SHORT_CELL_INFO_INTERVAL} for the cell info rate.
+ *
+ * Only the {@link #createDefault() default table} is used in production, and it makes the same
+ * decisions as the fixed checks it replaced.
+ *
+ * {@hide}
+ */
+public class IndicationReportingPolicy {
+    public static final int CONDITION_SCREEN_ON = 1 << 0;
+    public static final int CONDITION_CHARGING = 1 << 1;
+    public static final int CONDITION_TETHERING_ON = 1 << 2;
+    public static final int CONDITION_CAR_MODE_ON = 1 << 3;
+    public static final int CONDITION_WIFI_CONNECTED = 1 << 4;
+    /** A system service asked to always receive signal strength updates. */
+    public static final int CONDITION_SIGNAL_STRENGTH_REQUESTED = 1 << 5;
+    /** NR NSA tracking indications are requested by the tracking mode setting. */
+    public static final int CONDITION_NR_TRACKING_REQUESTED = 1 << 6;
+
+    /**
+     * Any of the conditions under which indications with a high power cost are worth reporting.
+     */
+    public static final int CONDITIONS_HIGH_POWER = CONDITION_SCREEN_ON | CONDITION_CHARGING
+            | CONDITION_TETHERING_ON | CONDITION_CAR_MODE_ON;
+
+    /** Output selecting the short cell info interval rather than the long one. */
+    public static final int OUTPUT_SHORT_CELL_INFO_INTERVAL = 1 << 30;
+
+    /** A row of the rule table. */
+    private static final class Rule {
+        final int mOutputs;
+        final int mAnyOf;
+        final int mAllOf;
+        final int mNoneOf;
+
+        Rule(int outputs, int anyOf, int allOf, int noneOf) {
+            mOutputs = outputs;
+            mAnyOf = anyOf;
+            mAllOf = allOf;
+            mNoneOf = noneOf;
+        }
+
+        boolean matches(int conditions) {
+            return (mAnyOf == 0 || (conditions & mAnyOf) != 0)
+                    && (conditions & mAllOf) == mAllOf
+                    && (conditions & mNoneOf) == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "outputs=0x" + Integer.toHexString(mOutputs)
+                    + " anyOf=0x" + Integer.toHexString(mAnyOf)
+                    + " allOf=0x" + Integer.toHexString(mAllOf)
+                    + " noneOf=0x" + Integer.toHexString(mNoneOf);
+        }
+    }
+
+    private final List<Rule> mRules = new ArrayList<>();
+
+    /**
+     * Add a rule to the table.
+     *
+     * @param outputs the outputs enabled when the rule matches
+     * @param anyOf the rule only matches if one of these conditions is met; 0 for no constraint
+     * @param allOf the rule only matches if all of these conditions are met
+     * @param noneOf the rule only matches if none of these conditions are met
+     * @return this policy, for chaining
+     */
+    public IndicationReportingPolicy addRule(int outputs, int anyOf, int allOf, int noneOf) {
+        mRules.add(new Rule(outputs, anyOf, allOf, noneOf));
+        return this;
+    }
+
+    /**
+     * @param conditions the current {@code CONDITION_*} flags
+     * @return the enabled outputs
+     */
+    public int evaluate(int conditions) {
+        int outputs = 0;
+        for (int i = 0; i < mRules.size(); i++) {
+            Rule rule = mRules.get(i);
+            if (rule.matches(conditions)) outputs |= rule.mOutputs;
+        }
+        return outputs;
+    }
+
+    /**
+     * @param conditions the current {@code CONDITION_*} flags
+     * @return the unsolicited response filter, see IndicationFilter defined in types.hal
+     */
+    public int computeIndicationFilter(int conditions) {
+        return evaluate(conditions) & ~OUTPUT_SHORT_CELL_INFO_INTERVAL;
+    }
+
+    /**
+     * @param conditions the current {@code CONDITION_*} flags
+     * @return true if the short cell info interval should be used
+     */
+    public boolean shouldUseShortCellInfoInterval(int conditions) {
+        return (evaluate(conditions) & OUTPUT_SHORT_CELL_INFO_INTERVAL) != 0;
+    }
+
+    /**
+     * @return the default rule table
+     */
+    public static IndicationReportingPolicy createDefault() {
+        return new IndicationReportingPolicy()
+                // Registration failure is always reported.
+                .addRule(IndicationFilter.REGISTRATION_FAILURE, 0, 0, 0)
+                // Signal strength is reported while the user may look at it, or on request.
+                .addRule(IndicationFilter.SIGNAL_STRENGTH, CONDITION_SCREEN_ON | CONDITION_CHARGING
+                        | CONDITION_SIGNAL_STRENGTH_REQUESTED, 0, 0)
+                .addRule(IndicationFilter.LINK_CAPACITY_ESTIMATE | IndicationFilter.BARRING_INFO,
+                        CONDITIONS_HIGH_POWER, 0, 0)
+                // NR tracking indications.
+                .addRule(IndicationFilter.FULL_NETWORK_STATE
+                        | IndicationFilter.DATA_CALL_DORMANCY_CHANGED
+                        | IndicationFilter.PHYSICAL_CHANNEL_CONFIG,
+                        CONDITIONS_HIGH_POWER | CONDITION_NR_TRACKING_REQUESTED, 0, 0)
+                // Screen on without WiFi is a high power, likely mobile situation. Screen on and
+                // charging is a likely vehicular one, even with a nomadic AP.
+                .addRule(OUTPUT_SHORT_CELL_INFO_INTERVAL, 0, CONDITION_SCREEN_ON,
+                        CONDITION_WIFI_CONNECTED)
+                .addRule(OUTPUT_SHORT_CELL_INFO_INTERVAL, 0,
+                        CONDITION_SCREEN_ON | CONDITION_CHARGING, 0);
+    }
+
+    /**
+     * Dump the rule table.
+     *
+     * @param pw the print writer
+     */
+    public void dump(IndentingPrintWriter pw) {
+        pw.println("IndicationReportingPolicy:");
+        pw.increaseIndent();
+        for (int i = 0; i < mRules.size(); i++) {
+            pw.println(mRules.get(i));
+        }
+        pw.decreaseIndent();
+    }
+}
@@ -54,7 +54,8 @@ import java.util.Map;
 import java.util.Objects;
 
 /**
- * The locale tracker keeps tracking the current locale of the phone.
+ * The locale tracker keeps tracking the current locale of the phone. The locale trackers of all the
+ * phones share their cell info and network country through the {@link DeviceLocaleTracker}.
  */
 public class LocaleTracker extends Handler {
     private static final boolean DBG = true;
@@ -80,6 +81,15 @@ public class LocaleTracker extends Handler {
     /** Event to override the current locale */
     private static final int EVENT_OVERRIDE_LOCALE = 7;
 
+    /** Event for cell info shared by the locale tracker of another phone */
+    private static final int EVENT_SHARED_CELL_INFO = 8;
+
+    /** Event for this locale tracker becoming the one polling the modem for cell info */
+    private static final int EVENT_POLLING_CHANGED = 9;
+
+    /** Event for the country of the network a phone is camped on changed */
+    private static final int EVENT_NETWORK_COUNTRY_CHANGED = 10;
+
     /**
      * The broadcast intent action to override the current country for testing purposes
      *
@@ -134,6 +144,8 @@ public class LocaleTracker extends Handler {
 
     private final NitzStateMachine mNitzStateMachine;
 
+    private final DeviceLocaleTracker mDeviceLocaleTracker;
+
     /** SIM card state. Must be one of TelephonyManager.SIM_STATE_XXX */
     private int mSimState;
 
@@ -150,7 +162,11 @@ public class LocaleTracker extends Handler {
 
     /** The ISO-3166 two-letter code of device's current country */
     @Nullable
-    private String mCurrentCountryIso;
+    private volatile String mCurrentCountryIso;
+
+    /** The country of the network this phone is camped on. Empty string if it is not. */
+    @NonNull
+    private volatile String mNetworkCountryIso = "";
 
     /** The country override for testing purposes */
     @Nullable
@@ -194,6 +210,8 @@ public class LocaleTracker extends Handler {
     public void handleMessage(Message msg) {
         switch (msg.what) {
             case EVENT_REQUEST_CELL_INFO:
+                // Another locale tracker may have taken over, or a phone camped on a network.
+                if (!mDeviceLocaleTracker.shouldPoll(this)) break;
                 mPhone.requestCellInfoUpdate(null, obtainMessage(EVENT_RESPONSE_CELL_INFO));
                 break;
 
@@ -210,6 +228,32 @@ public class LocaleTracker extends Handler {
                 requestNextCellInfo(mCellInfoList != null && mCellInfoList.size() > 0);
                 break;
 
+            case EVENT_SHARED_CELL_INFO:
+                if (!mIsTracking) break;
+                mCellInfoList = (List<CellInfo>) msg.obj;
+                if (DBG) log("Shared cell info=" + mCellInfoList);
+                updateLocale();
+                // Like an unsol cell info, it postpones the next request.
+                requestNextCellInfo(true);
+                break;
+
+            case EVENT_POLLING_CHANGED:
+                if (mIsTracking && !hasMessages(EVENT_REQUEST_CELL_INFO)) {
+                    sendMessage(obtainMessage(EVENT_REQUEST_CELL_INFO));
+                }
+                break;
+
+            case EVENT_NETWORK_COUNTRY_CHANGED:
+                if (mDeviceLocaleTracker.shouldPoll(this)) {
+                    // No phone is camped on a network anymore. Keep the current country until the
+                    // cell info comes back rather than dropping it in the meantime.
+                    removeMessages(EVENT_REQUEST_CELL_INFO);
+                    sendMessage(obtainMessage(EVENT_REQUEST_CELL_INFO));
+                } else {
+                    updateLocale();
+                }
+                break;
+
             case EVENT_SERVICE_STATE_CHANGED:
                 AsyncResult ar = (AsyncResult) msg.obj;
                 onServiceStateChanged((ServiceState) ar.result);
@@ -242,9 +286,23 @@ public class LocaleTracker extends Handler {
      * @param looper The looper message handler
      */
     public LocaleTracker(Phone phone, NitzStateMachine nitzStateMachine, Looper looper)  {
+        this(phone, nitzStateMachine, looper, new DeviceLocaleTracker());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param phone The phone object
+     * @param nitzStateMachine NITZ state machine
+     * @param looper The looper message handler
+     * @param deviceLocaleTracker The device locale tracker shared with the other phones
+     */
+    public LocaleTracker(Phone phone, NitzStateMachine nitzStateMachine, Looper looper,
+            DeviceLocaleTracker deviceLocaleTracker) {
         super(looper);
         mPhone = phone;
         mNitzStateMachine = nitzStateMachine;
+        mDeviceLocaleTracker = deviceLocaleTracker;
         mSimState = TelephonyManager.SIM_STATE_UNKNOWN;
         mTag = LocaleTracker.class.getSimpleName() + "-" + mPhone.getPhoneId();
 
@@ -257,6 +315,12 @@ public class LocaleTracker extends Handler {
 
         mPhone.registerForServiceStateChanged(this, EVENT_SERVICE_STATE_CHANGED, null);
         mPhone.registerForCellInfo(this, EVENT_UNSOL_CELL_INFO, null);
+        mDeviceLocaleTracker.addLocaleTracker(this);
+    }
+
+    /** Stop sharing with the locale trackers of the other phones. */
+    public void dispose() {
+        mDeviceLocaleTracker.removeLocaleTracker(this);
     }
 
     private @NonNull String getCarrierCountry() {
@@ -277,7 +341,33 @@ public class LocaleTracker extends Handler {
      */
     @NonNull
     public String getCurrentCountry() {
-        return (mCurrentCountryIso != null) ? mCurrentCountryIso : "";
+        String currentCountryIso = mCurrentCountryIso;
+        return (currentCountryIso != null) ? currentCountryIso : "";
+    }
+
+    /**
+     * Get the country of the network this phone is camped on.
+     *
+     * @return The country of the network. Empty string if the phone is not camped on a network.
+     */
+    @NonNull
+    public String getNetworkCountryIso() {
+        return mNetworkCountryIso;
+    }
+
+    /** Called by the device locale tracker with the cell info of another phone. */
+    void onSharedCellInfo(@NonNull List<CellInfo> cellInfoList) {
+        obtainMessage(EVENT_SHARED_CELL_INFO, cellInfoList).sendToTarget();
+    }
+
+    /** Called by the device locale tracker when this locale tracker should poll the modem. */
+    void onPollingChanged() {
+        sendEmptyMessage(EVENT_POLLING_CHANGED);
+    }
+
+    /** Called by the device locale tracker when the network country of the device changed. */
+    void onNetworkCountryChanged() {
+        sendEmptyMessage(EVENT_NETWORK_COUNTRY_CHANGED);
     }
 
     /**
@@ -408,10 +498,13 @@ public class LocaleTracker extends Handler {
         if (DBG) log(msg);
         mCellInfoList = cellInfoList;
         updateLocale();
+        if (mIsTracking) {
+            mDeviceLocaleTracker.onCellInfo(this, cellInfoList);
+        }
     }
 
     private void requestNextCellInfo(boolean succeeded) {
-        if (!mIsTracking) return;
+        if (!mIsTracking || !mDeviceLocaleTracker.shouldPoll(this)) return;
 
         removeMessages(EVENT_REQUEST_CELL_INFO);
         if (succeeded) {
@@ -476,6 +569,7 @@ public class LocaleTracker extends Handler {
         mLocalLog.log(msg);
         mCellInfoList = null;
         resetCellInfoRetry();
+        mDeviceLocaleTracker.stopTracking(this);
     }
 
     private void startTracking() {
@@ -484,6 +578,7 @@ public class LocaleTracker extends Handler {
         mLocalLog.log(msg);
         if (DBG) log(msg);
         mIsTracking = true;
+        mDeviceLocaleTracker.startTracking(this);
         sendMessage(obtainMessage(EVENT_REQUEST_CELL_INFO));
     }
 
@@ -494,6 +589,7 @@ public class LocaleTracker extends Handler {
         // If MCC is available from network service state, use it first.
         String countryIso = getCarrierCountry();
         String countryIsoDebugInfo = "getCarrierCountry()";
+        String networkCountryIso = "";
 
         // For time zone detection we want the best geographical match we can get, which may differ
         // from the countryIso.
@@ -504,6 +600,7 @@ public class LocaleTracker extends Handler {
             MccMnc mccMnc = MccMnc.fromOperatorNumeric(mOperatorNumeric);
             if (mccMnc != null) {
                 countryIso = MccTable.countryCodeForMcc(mccMnc.mcc);
+                networkCountryIso = countryIso;
                 countryIsoDebugInfo = "OperatorNumeric(" + mOperatorNumeric
                         + "): MccTable.countryCodeForMcc(\"" + mccMnc.mcc + "\")";
                 timeZoneCountryIso = MccTable.geoCountryCodeForMccMnc(mccMnc);
@@ -532,6 +629,16 @@ public class LocaleTracker extends Handler {
             }
         }
 
+        // If there is still no country, use the country of the network another phone is camped
+        // on, as the phones of the device are at the same place.
+        if (TextUtils.isEmpty(countryIso)) {
+            String deviceNetworkCountryIso = mDeviceLocaleTracker.getNetworkCountryIso();
+            if (!TextUtils.isEmpty(deviceNetworkCountryIso)) {
+                countryIso = deviceNetworkCountryIso;
+                countryIsoDebugInfo = "DeviceLocaleTracker.getNetworkCountryIso()";
+            }
+        }
+
         if (mCountryOverride != null) {
             countryIso = mCountryOverride;
             countryIsoDebugInfo = "mCountryOverride = \"" + mCountryOverride + "\"";
@@ -541,11 +648,13 @@ public class LocaleTracker extends Handler {
 
         if (mLastServiceState == ServiceState.STATE_POWER_OFF) {
             countryIso = "";
+            networkCountryIso = "";
         }
 
         log("updateLocale: countryIso = " + countryIso
                 + ", countryIsoDebugInfo = " + countryIsoDebugInfo);
-        if (!Objects.equals(countryIso, mCurrentCountryIso)) {
+        boolean countryIsoChanged = !Objects.equals(countryIso, mCurrentCountryIso);
+        if (countryIsoChanged) {
             String msg = "updateLocale: Change the current country to \"" + countryIso + "\""
                     + ", countryIsoDebugInfo = " + countryIsoDebugInfo
                     + ", mCellInfoList = " + mCellInfoList;
@@ -575,6 +684,11 @@ public class LocaleTracker extends Handler {
             mPhone.getContext().sendBroadcast(intent);
         }
 
+        if (countryIsoChanged || !networkCountryIso.equals(mNetworkCountryIso)) {
+            mNetworkCountryIso = networkCountryIso;
+            mDeviceLocaleTracker.onCountryChanged();
+        }
+
         // Pass the geographical country information to the telephony time zone detection code.
 
         boolean isTestMcc = false;
@@ -656,6 +770,9 @@ public class LocaleTracker extends Handler {
         ipw.println("mCellInfoList = " + mCellInfoList);
         ipw.println("mCurrentCountryIso = " + mCurrentCountryIso);
         ipw.println("mFailCellInfoCount = " + mFailCellInfoCount);
+        ipw.println("mNetworkCountryIso = " + mNetworkCountryIso);
+        ipw.println("isPolling = " + (mIsTracking && mDeviceLocaleTracker.shouldPoll(this)));
+        mDeviceLocaleTracker.dump(fd, ipw, args);
         ipw.println("Local logs:");
         ipw.increaseIndent();
         mLocalLog.dump(fd, ipw, args);
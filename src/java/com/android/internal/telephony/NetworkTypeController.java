@@ -34,6 +34,7 @@ import android.telephony.TelephonyDisplayInfo;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.dataconnection.DcController;
 import com.android.internal.telephony.dataconnection.DcController.PhysicalLinkState;
 import com.android.internal.util.IState;
@@ -44,9 +45,7 @@ import com.android.telephony.Rlog;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -130,7 +129,13 @@ public class NetworkTypeController extends StateMachine {
     };
 
     private Map<String, OverrideTimerRule> mOverrideTimerRules = new HashMap<>();
+    private final TransitionTable mTransitionTable = new TransitionTable();
     private String mLteEnhancedPattern = "";
+    private Pattern mLteEnhancedCompiledPattern;
+    // Data network type of the last display info update, -1 until the first update.
+    private int mLastDataNetworkType = -1;
+    private long mEvaluationCount;
+    private long mOverrideNetworkTypeChangeCount;
     private int mOverrideNetworkType;
     private boolean mIsPhysicalChannelConfigOn;
     private boolean mIsPrimaryTimerActive;
@@ -172,6 +177,22 @@ public class NetworkTypeController extends StateMachine {
         return mOverrideNetworkType;
     }
 
+    /**
+     * @return The number of times the override network type changed, for detecting flapping.
+     */
+    @VisibleForTesting
+    public long getOverrideNetworkTypeChangeCount() {
+        return mOverrideNetworkTypeChangeCount;
+    }
+
+    /**
+     * @return The number of times the override network type was evaluated.
+     */
+    @VisibleForTesting
+    public long getEvaluationCount() {
+        return mEvaluationCount;
+    }
+
     /**
      * @return True if either the primary or secondary 5G hysteresis timer is active,
      * and false if neither are.
@@ -259,6 +280,8 @@ public class NetworkTypeController extends StateMachine {
                         mLtePlusThresholdBandwidth);
             }
         }
+        mLteEnhancedCompiledPattern = TextUtils.isEmpty(mLteEnhancedPattern)
+                ? null : Pattern.compile(mLteEnhancedPattern);
         createTimerRules(nrIconConfiguration, overrideTimerRule, overrideSecondaryTimerRule);
     }
 
@@ -346,6 +369,7 @@ public class NetworkTypeController extends StateMachine {
         }
 
         mOverrideTimerRules = tempRules;
+        mTransitionTable.compile(tempRules);
         if (DBG) log("mOverrideTimerRules: " + mOverrideTimerRules);
     }
 
@@ -354,11 +378,23 @@ public class NetworkTypeController extends StateMachine {
             if (DBG) log("Skip updating override network type since timer is active.");
             return;
         }
-        mOverrideNetworkType = getCurrentOverrideNetworkType();
+        int overrideNetworkType = getCurrentOverrideNetworkType();
+        int dataNetworkType = mPhone.getServiceState().getDataNetworkType();
+        if (overrideNetworkType == mOverrideNetworkType
+                && dataNetworkType == mLastDataNetworkType) {
+            // Nothing displayed changed, skip rebuilding the display info.
+            return;
+        }
+        if (overrideNetworkType != mOverrideNetworkType) {
+            mOverrideNetworkTypeChangeCount++;
+        }
+        mOverrideNetworkType = overrideNetworkType;
+        mLastDataNetworkType = dataNetworkType;
         mDisplayInfoController.updateTelephonyDisplayInfo();
     }
 
     private @Annotation.OverrideNetworkType int getCurrentOverrideNetworkType() {
+        mEvaluationCount++;
         int displayNetworkType = TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE;
         int dataNetworkType = getDataNetworkType();
         boolean nrNsa = isLte(dataNetworkType)
@@ -386,33 +422,9 @@ public class NetworkTypeController extends StateMachine {
                 & TelephonyManager.NETWORK_TYPE_BITMASK_NR) == 0) {
             return TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE;
         }
-        // Icon display keys in order of priority
-        List<String> keys = new ArrayList<>();
         // TODO: Update for NR SA
-        switch (mPhone.getServiceState().getNrState()) {
-            case NetworkRegistrationInfo.NR_STATE_CONNECTED:
-                if (isNrMmwave()) {
-                    keys.add(STATE_CONNECTED_MMWAVE);
-                }
-                keys.add(STATE_CONNECTED);
-                break;
-            case NetworkRegistrationInfo.NR_STATE_NOT_RESTRICTED:
-                keys.add(isPhysicalLinkActive() ? STATE_NOT_RESTRICTED_RRC_CON
-                        : STATE_NOT_RESTRICTED_RRC_IDLE);
-                break;
-            case NetworkRegistrationInfo.NR_STATE_RESTRICTED:
-                keys.add(STATE_RESTRICTED);
-                break;
-        }
-
-        for (String key : keys) {
-            OverrideTimerRule rule = mOverrideTimerRules.get(key);
-            if (rule != null && rule.mOverrideType
-                    != TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE) {
-                return rule.mOverrideType;
-            }
-        }
-        return TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE;
+        return mTransitionTable.getNrDisplayType(mPhone.getServiceState().getNrState(),
+                isNrMmwave(), isPhysicalLinkActive());
     }
 
     private @Annotation.OverrideNetworkType int getLteDisplayType() {
@@ -430,10 +442,10 @@ public class NetworkTypeController extends StateMachine {
     }
 
     private boolean isLteEnhancedAvailable() {
-        if (TextUtils.isEmpty(mLteEnhancedPattern)) {
+        Pattern stringPattern = mLteEnhancedCompiledPattern;
+        if (stringPattern == null) {
             return false;
         }
-        Pattern stringPattern = Pattern.compile(mLteEnhancedPattern);
         for (String opName : new String[] {mPhone.getServiceState().getOperatorAlphaLongRaw(),
                 mPhone.getServiceState().getOperatorAlphaShortRaw()}) {
             if (!TextUtils.isEmpty(opName)) {
@@ -827,29 +839,26 @@ public class NetworkTypeController extends StateMachine {
     private final NrConnectedState mNrConnectedState = new NrConnectedState();
 
     private void transitionWithTimerTo(IState destState) {
-        String destName = destState.getName();
-        OverrideTimerRule rule = mOverrideTimerRules.get(mPreviousState);
-        if (rule != null && rule.getTimer(destName) > 0) {
+        int timer = mTransitionTable.getPrimaryTimer(mPreviousState, destState.getName());
+        if (timer > 0) {
             if (DBG) log("Primary timer started for state: " + mPreviousState);
             mPrimaryTimerState = mPreviousState;
             mPreviousState = getCurrentState().getName();
             mIsPrimaryTimerActive = true;
-            sendMessageDelayed(EVENT_PRIMARY_TIMER_EXPIRED, destState,
-                    rule.getTimer(destName) * 1000);
+            sendMessageDelayed(EVENT_PRIMARY_TIMER_EXPIRED, destState, timer * 1000);
         }
         transitionTo(destState);
     }
 
     private void transitionWithSecondaryTimerTo(IState destState) {
         String currentName = getCurrentState().getName();
-        OverrideTimerRule rule = mOverrideTimerRules.get(mPrimaryTimerState);
-        if (rule != null && rule.getSecondaryTimer(currentName) > 0) {
+        int timer = mTransitionTable.getSecondaryTimer(mPrimaryTimerState, currentName);
+        if (timer > 0) {
             if (DBG) log("Secondary timer started for state: " + currentName);
             mSecondaryTimerState = currentName;
             mPreviousState = currentName;
             mIsSecondaryTimerActive = true;
-            sendMessageDelayed(EVENT_SECONDARY_TIMER_EXPIRED, destState,
-                    rule.getSecondaryTimer(currentName) * 1000);
+            sendMessageDelayed(EVENT_SECONDARY_TIMER_EXPIRED, destState, timer * 1000);
         }
         mIsPrimaryTimerActive = false;
         transitionTo(getCurrentState());
@@ -1010,6 +1019,99 @@ public class NetworkTypeController extends StateMachine {
         }
     }
 
+    /**
+     * The override timer rules compiled into arrays, so that the evaluation on each physical
+     * channel config or service state event is a few array lookups rather than building key lists
+     * and looking up maps. Rebuilt from {@link OverrideTimerRule}s whenever the carrier config
+     * changes. States are indexed by their position in {@link #ALL_STATES}.
+     */
+    private static final class TransitionTable {
+        // NR states are NR_STATE_NONE to NR_STATE_CONNECTED.
+        private static final int NR_STATE_COUNT = NetworkRegistrationInfo.NR_STATE_CONNECTED + 1;
+
+        /**
+         * Override network type keyed by (NR state, frequency range or physical link state). The
+         * second index is 1 for mmWave when connected, and for an active physical link when not
+         * restricted.
+         */
+        private final int[][] mNrDisplayTypes = new int[NR_STATE_COUNT][2];
+        /** Primary timer in seconds keyed by (primary timer state, destination state). */
+        private final int[][] mPrimaryTimers = new int[ALL_STATES.length][ALL_STATES.length];
+        /** Secondary timer in seconds keyed by (primary timer state, secondary state). */
+        private final int[][] mSecondaryTimers = new int[ALL_STATES.length][ALL_STATES.length];
+
+        void compile(Map<String, OverrideTimerRule> rules) {
+            for (int[] types : mNrDisplayTypes) {
+                types[0] = TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE;
+                types[1] = TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE;
+            }
+            int connected = getOverrideType(rules, STATE_CONNECTED);
+            int mmwave = getOverrideType(rules, STATE_CONNECTED_MMWAVE);
+            mNrDisplayTypes[NetworkRegistrationInfo.NR_STATE_CONNECTED][0] = connected;
+            mNrDisplayTypes[NetworkRegistrationInfo.NR_STATE_CONNECTED][1] =
+                    mmwave != TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE ? mmwave : connected;
+            mNrDisplayTypes[NetworkRegistrationInfo.NR_STATE_NOT_RESTRICTED][0] =
+                    getOverrideType(rules, STATE_NOT_RESTRICTED_RRC_IDLE);
+            mNrDisplayTypes[NetworkRegistrationInfo.NR_STATE_NOT_RESTRICTED][1] =
+                    getOverrideType(rules, STATE_NOT_RESTRICTED_RRC_CON);
+            mNrDisplayTypes[NetworkRegistrationInfo.NR_STATE_RESTRICTED][0] =
+                    getOverrideType(rules, STATE_RESTRICTED);
+            mNrDisplayTypes[NetworkRegistrationInfo.NR_STATE_RESTRICTED][1] =
+                    getOverrideType(rules, STATE_RESTRICTED);
+
+            for (int from = 0; from < ALL_STATES.length; from++) {
+                OverrideTimerRule rule = rules.get(ALL_STATES[from]);
+                for (int to = 0; to < ALL_STATES.length; to++) {
+                    mPrimaryTimers[from][to] = rule == null ? 0 : rule.getTimer(ALL_STATES[to]);
+                    mSecondaryTimers[from][to] =
+                            rule == null ? 0 : rule.getSecondaryTimer(ALL_STATES[to]);
+                }
+            }
+        }
+
+        private static int getOverrideType(Map<String, OverrideTimerRule> rules, String state) {
+            OverrideTimerRule rule = rules.get(state);
+            return rule == null ? TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE
+                    : rule.mOverrideType;
+        }
+
+        private static int indexOf(String state) {
+            if (state == null) return -1;
+            switch (state) {
+                case STATE_CONNECTED_MMWAVE: return 0;
+                case STATE_CONNECTED: return 1;
+                case STATE_NOT_RESTRICTED_RRC_IDLE: return 2;
+                case STATE_NOT_RESTRICTED_RRC_CON: return 3;
+                case STATE_RESTRICTED: return 4;
+                case STATE_LEGACY: return 5;
+                default: return -1;
+            }
+        }
+
+        int getNrDisplayType(int nrState, boolean isNrMmwave, boolean isPhysicalLinkActive) {
+            if (nrState < 0 || nrState >= NR_STATE_COUNT) {
+                return TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE;
+            }
+            boolean variant = nrState == NetworkRegistrationInfo.NR_STATE_CONNECTED
+                    ? isNrMmwave : isPhysicalLinkActive;
+            return mNrDisplayTypes[nrState][variant ? 1 : 0];
+        }
+
+        /** @return the primary timer in seconds, or 0 if not defined */
+        int getPrimaryTimer(String primaryState, String destination) {
+            int from = indexOf(primaryState);
+            int to = indexOf(destination);
+            return from < 0 || to < 0 ? 0 : mPrimaryTimers[from][to];
+        }
+
+        /** @return the secondary timer in seconds, or 0 if not defined */
+        int getSecondaryTimer(String primaryState, String secondaryState) {
+            int from = indexOf(primaryState);
+            int to = indexOf(secondaryState);
+            return from < 0 || to < 0 ? 0 : mSecondaryTimers[from][to];
+        }
+    }
+
     private boolean isNrConnected() {
         return mPhone.getServiceState().getNrState() == NetworkRegistrationInfo.NR_STATE_CONNECTED;
     }
@@ -1093,6 +1195,8 @@ public class NetworkTypeController extends StateMachine {
         pw.println("mSecondaryTimerState=" + mSecondaryTimerState);
         pw.println("mPreviousState=" + mPreviousState);
         pw.println("mPhysicalLinkState=" + mPhysicalLinkState);
+        pw.println("mEvaluationCount=" + mEvaluationCount);
+        pw.println("mOverrideNetworkTypeChangeCount=" + mOverrideNetworkTypeChangeCount);
         pw.decreaseIndent();
         pw.flush();
     }
@@ -600,6 +600,11 @@ public class PhoneFactory {
         pw.decreaseIndent();
         pw.println("++++++++++++++++++++++++++++++++");
 
+        if (sPhoneNotifier instanceof DefaultPhoneNotifier) {
+            ((DefaultPhoneNotifier) sPhoneNotifier).dump(pw);
+            pw.println("++++++++++++++++++++++++++++++++");
+        }
+
         pw.println("LocalLogs:");
         pw.increaseIndent();
         synchronized (sLocalLogs) {
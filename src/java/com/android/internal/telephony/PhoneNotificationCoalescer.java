@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.Objects;
+
+/**
+ * Coalesces state notifications sent to the telephony registry.
+ *
+ * Notifications are tracked per (event, phoneId), the way the registry stores them. A notification
+ * whose value and subId equal the last delivered ones is dropped. Events with a minimum interval
+ * are delivered on the leading edge and then at most once per interval; values arriving within the
+ * interval replace each other and only the latest one is delivered when the interval elapses. A
+ * value for another subId of the phone, e.g. while the subscriptions are reloaded, is always
+ * delivered right away and supersedes a value of the previous subId held back by the interval.
+ *
+ * The values of an event are delivered in the order they were notified. A value held back by the
+ * minimum interval is however delivered on the coalescer looper, after the notifications of other
+ * events which were notified meanwhile. Events whose order relative to other notifications matters
+ * must not be given a minimum interval.
+ *
+ * Events not routed through this class, e.g. call state and emergency notifications, are not
+ * affected.
+ *
+ * {@hide}
+ */
+public class PhoneNotificationCoalescer {
+    private static final String TAG = "PhoneNotificationCoalescer";
+
+    public static final int EVENT_SERVICE_STATE = 0;
+    public static final int EVENT_SIGNAL_STRENGTH = 1;
+    public static final int EVENT_DATA_ACTIVITY = 2;
+    public static final int EVENT_CELL_LOCATION = 3;
+    public static final int EVENT_CELL_INFO = 4;
+    public static final int EVENT_DISPLAY_INFO = 5;
+    public static final int EVENT_BARRING_INFO = 6;
+    public static final int EVENT_PHYSICAL_CHANNEL_CONFIG = 7;
+    private static final int EVENT_COUNT = 8;
+
+    private static final String[] EVENT_NAMES = {
+            "serviceState", "signalStrength", "dataActivity", "cellLocation", "cellInfo",
+            "displayInfo", "barringInfo", "physicalChannelConfig"};
+
+    /**
+     * Events whose values may be updated in place by their owner, e.g.
+     * {@link android.telephony.SignalStrength#updateLevel}. Notifying the very same instance again
+     * is never treated as a duplicate for these.
+     */
+    private static final int MUTABLE_EVENTS = (1 << EVENT_SIGNAL_STRENGTH)
+            | (1 << EVENT_CELL_INFO) | (1 << EVENT_PHYSICAL_CHANNEL_CONFIG);
+
+    /** Coalescing state of one (event, phoneId). */
+    private static final class Slot {
+        final int mEvent;
+        boolean mHasDelivered;
+        int mLastDeliveredSubId;
+        Object mLastDelivered;
+        // True until the minimum interval since the last delivery has elapsed.
+        boolean mIntervalPending;
+        Runnable mIntervalTimer;
+        int mPendingSubId;
+        Object mPendingValue;
+        Runnable mPendingDelivery;
+
+        Slot(int event) {
+            mEvent = event;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final Handler mHandler;
+    private final SparseArray<Slot> mSlots = new SparseArray<>();
+    private final long[] mMinIntervalMs = new long[EVENT_COUNT];
+    private final long[] mDeliveredCount = new long[EVENT_COUNT];
+    private final long[] mSuppressedCount = new long[EVENT_COUNT];
+
+    public PhoneNotificationCoalescer(Looper looper) {
+        mHandler = new Handler(looper);
+    }
+
+    /**
+     * Set the minimum interval between two deliveries of an event for the same phone. Zero, the
+     * default, only drops duplicates.
+     */
+    public void setMinInterval(int event, long intervalMs) {
+        synchronized (mLock) {
+            mMinIntervalMs[event] = Math.max(0, intervalMs);
+        }
+    }
+
+    /** @return the minimum interval between two deliveries of an event */
+    public long getMinInterval(int event) {
+        synchronized (mLock) {
+            return mMinIntervalMs[event];
+        }
+    }
+
+    /**
+     * Notify a new value of an event.
+     *
+     * @param event one of the EVENT_* constants
+     * @param subId the subscription the value belongs to
+     * @param phoneId the phone the value belongs to
+     * @param value the value, compared with {@link Object#equals} to detect duplicates
+     * @param delivery sends the value to the registry; runs on the calling thread when the value
+     *        is delivered right away and on the coalescer looper when it was deferred
+     */
+    public void notify(int event, int subId, int phoneId, Object value, Runnable delivery) {
+        synchronized (mLock) {
+            Slot slot = getSlotLocked(event, phoneId);
+            if (isDuplicateLocked(slot, subId, value)) {
+                // Whatever was waiting is superseded by a value the registry already has.
+                if (slot.mPendingDelivery != null) {
+                    clearPendingLocked(slot);
+                    mSuppressedCount[event]++;
+                }
+                mSuppressedCount[event]++;
+                return;
+            }
+            if (slot.mIntervalPending && subId == slot.mLastDeliveredSubId) {
+                if (slot.mPendingDelivery != null) mSuppressedCount[event]++;
+                slot.mPendingSubId = subId;
+                slot.mPendingValue = value;
+                slot.mPendingDelivery = delivery;
+                return;
+            }
+            // The subscription of the phone changed, what was waiting is out of date.
+            if (slot.mPendingDelivery != null) {
+                clearPendingLocked(slot);
+                mSuppressedCount[event]++;
+            }
+            onDeliveredLocked(slot, subId, value);
+        }
+        delivery.run();
+    }
+
+    private Slot getSlotLocked(int event, int phoneId) {
+        int key = phoneId * EVENT_COUNT + event;
+        Slot slot = mSlots.get(key);
+        if (slot == null) {
+            Slot newSlot = new Slot(event);
+            newSlot.mIntervalTimer = () -> onIntervalElapsed(newSlot);
+            slot = newSlot;
+            mSlots.put(key, slot);
+        }
+        return slot;
+    }
+
+    private boolean isDuplicateLocked(Slot slot, int subId, Object value) {
+        if (!slot.mHasDelivered || subId != slot.mLastDeliveredSubId) return false;
+        if (value == slot.mLastDelivered && (MUTABLE_EVENTS & (1 << slot.mEvent)) != 0) {
+            return false;
+        }
+        return Objects.equals(value, slot.mLastDelivered);
+    }
+
+    private void onDeliveredLocked(Slot slot, int subId, Object value) {
+        slot.mHasDelivered = true;
+        slot.mLastDeliveredSubId = subId;
+        slot.mLastDelivered = value;
+        mDeliveredCount[slot.mEvent]++;
+        long interval = mMinIntervalMs[slot.mEvent];
+        if (interval > 0) {
+            slot.mIntervalPending = true;
+            mHandler.removeCallbacks(slot.mIntervalTimer);
+            mHandler.postDelayed(slot.mIntervalTimer, interval);
+        }
+    }
+
+    private void onIntervalElapsed(Slot slot) {
+        Runnable delivery;
+        synchronized (mLock) {
+            slot.mIntervalPending = false;
+            delivery = slot.mPendingDelivery;
+            if (delivery == null) return;
+            int subId = slot.mPendingSubId;
+            Object value = slot.mPendingValue;
+            clearPendingLocked(slot);
+            onDeliveredLocked(slot, subId, value);
+        }
+        delivery.run();
+    }
+
+    private static void clearPendingLocked(Slot slot) {
+        slot.mPendingValue = null;
+        slot.mPendingDelivery = null;
+    }
+
+    /** @return the number of notifications of an event sent to the registry */
+    @VisibleForTesting
+    public long getDeliveredCount(int event) {
+        synchronized (mLock) {
+            return mDeliveredCount[event];
+        }
+    }
+
+    /** @return the number of notifications of an event dropped as duplicate or superseded */
+    @VisibleForTesting
+    public long getSuppressedCount(int event) {
+        synchronized (mLock) {
+            return mSuppressedCount[event];
+        }
+    }
+
+    /** Dump the coalescing statistics. */
+    public void dump(IndentingPrintWriter pw) {
+        synchronized (mLock) {
+            pw.println(TAG + ":");
+            pw.increaseIndent();
+            for (int event = 0; event < EVENT_COUNT; event++) {
+                pw.println(EVENT_NAMES[event] + ": minIntervalMs=" + mMinIntervalMs[event]
+                        + " delivered=" + mDeliveredCount[event]
+                        + " suppressed=" + mSuppressedCount[event]);
+            }
+            pw.decreaseIndent();
+        }
+    }
+}
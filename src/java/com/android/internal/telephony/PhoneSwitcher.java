@@ -49,6 +49,7 @@ import android.os.PersistableBundle;
 import android.os.Registrant;
 import android.os.RegistrantList;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.telephony.CarrierConfigManager;
 import android.telephony.PhoneCapability;
 import android.telephony.PhoneStateListener;
@@ -232,6 +233,9 @@ public class PhoneSwitcher extends Handler {
 
     private ISetOpportunisticDataCallback mSetOpptSubCallback;
 
+    // Latency of each phase of the data switches.
+    private final DataSwitchLatencyTracker mSwitchLatencyTracker = new DataSwitchLatencyTracker();
+
     private static final int EVENT_PRIMARY_DATA_SUB_CHANGED       = 101;
     protected static final int EVENT_SUBSCRIPTION_CHANGED           = 102;
     private static final int EVENT_REQUEST_NETWORK                = 103;
@@ -551,6 +555,9 @@ public class PhoneSwitcher extends Handler {
             case EVENT_MODEM_COMMAND_DONE: {
                 AsyncResult ar = (AsyncResult) msg.obj;
                 boolean commandSuccess = ar != null && ar.exception == null;
+                if (commandSuccess) {
+                    mSwitchLatencyTracker.onModemCommandDone(SystemClock.elapsedRealtime());
+                }
                 if (mEmergencyOverride != null) {
                     log("Emergency override result sent = " + commandSuccess);
                     mEmergencyOverride.sendOverrideCompleteCallbackResultAndClear(commandSuccess);
@@ -739,6 +746,8 @@ public class PhoneSwitcher extends Handler {
         mDefaultNetworkCallback.mSwitchReason =
                 TelephonyEvent.DataSwitch.Reason.DATA_SWITCH_REASON_UNKNOWN;
         mConnectivityManager.unregisterNetworkCallback(mDefaultNetworkCallback);
+        // No-op if the default network already moved to the expected subscription.
+        mSwitchLatencyTracker.onSwitchCancelled();
     }
 
     private void registerDefaultNetworkChangeCallback(int expectedSubId, int reason) {
@@ -988,10 +997,14 @@ public class PhoneSwitcher extends Handler {
         if (mHalCommandToUse == HAL_COMMAND_ALLOW_DATA || mHalCommandToUse == HAL_COMMAND_UNKNOWN) {
             // Skip ALLOW_DATA for single SIM device
             if (mActiveModemCount > 1) {
+                mSwitchLatencyTracker.onPhaseStarted(DataSwitchLatencyTracker.PHASE_MODEM_COMMAND,
+                        SystemClock.elapsedRealtime());
                 PhoneFactory.getPhone(phoneId).mCi.setDataAllowed(isPhoneActive(phoneId), message);
             }
         } else if (phoneId == mPreferredDataPhoneId) {
             // Only setPreferredDataModem if the phoneId equals to current mPreferredDataPhoneId.
+            mSwitchLatencyTracker.onPhaseStarted(DataSwitchLatencyTracker.PHASE_MODEM_COMMAND,
+                    SystemClock.elapsedRealtime());
             mRadioConfig.setPreferredDataModem(mPreferredDataPhoneId, message);
         }
     }
@@ -1230,6 +1243,8 @@ public class PhoneSwitcher extends Handler {
         mPendingSwitchNeedValidation = needValidation;
         mSetOpptSubCallback = callback;
         long validationTimeout = getValidationTimeout(subIdToValidate, needValidation);
+        mSwitchLatencyTracker.onPhaseStarted(DataSwitchLatencyTracker.PHASE_VALIDATION,
+                SystemClock.elapsedRealtime());
         mValidator.validate(subIdToValidate, validationTimeout, false, mValidationCallback);
     }
 
@@ -1269,6 +1284,8 @@ public class PhoneSwitcher extends Handler {
 
     private void confirmSwitch(int subId, boolean confirm) {
         log("confirmSwitch: subId " + subId + (confirm ? " confirmed." : " cancelled."));
+        mSwitchLatencyTracker.onPhaseEnded(DataSwitchLatencyTracker.PHASE_VALIDATION,
+                SystemClock.elapsedRealtime());
         int resultForCallBack;
         if (!mSubscriptionController.isActiveSubId(subId)) {
             log("confirmSwitch: subId " + subId + " is no longer active");
@@ -1284,6 +1301,9 @@ public class PhoneSwitcher extends Handler {
             }
             resultForCallBack = SET_OPPORTUNISTIC_SUB_SUCCESS;
         }
+        if (resultForCallBack != SET_OPPORTUNISTIC_SUB_SUCCESS) {
+            mSwitchLatencyTracker.onSwitchCancelled();
+        }
 
         // Trigger callback if needed
         sendSetOpptCallbackHelper(mSetOpptSubCallback, resultForCallBack);
@@ -1372,6 +1392,11 @@ public class PhoneSwitcher extends Handler {
 
     private void logDataSwitchEvent(int subId, int state, int reason) {
         log("logDataSwitchEvent subId " + subId + " state " + state + " reason " + reason);
+        if (state == TelephonyEvent.EventState.EVENT_STATE_START) {
+            mSwitchLatencyTracker.onSwitchStarted(SystemClock.elapsedRealtime());
+        } else if (state == TelephonyEvent.EventState.EVENT_STATE_END) {
+            mSwitchLatencyTracker.onSwitchCompleted(SystemClock.elapsedRealtime());
+        }
         DataSwitch dataSwitch = new DataSwitch();
         dataSwitch.state = state;
         dataSwitch.reason = reason;
@@ -1413,7 +1438,13 @@ public class PhoneSwitcher extends Handler {
                      String.format("%tm-%td %tH:%tM:%tS.%tL", c, c, c, c, c, c)));
         }
         pw.increaseIndent();
+        mSwitchLatencyTracker.dump(pw);
         mLocalLog.dump(fd, pw, args);
         pw.decreaseIndent();
     }
+
+    @VisibleForTesting
+    public DataSwitchLatencyTracker getSwitchLatencyTracker() {
+        return mSwitchLatencyTracker;
+    }
 }
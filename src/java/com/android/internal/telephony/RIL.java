@@ -272,6 +272,13 @@ public class RIL extends BaseCommands implements CommandsInterface {
     private TelephonyMetrics mMetrics = TelephonyMetrics.getInstance();
     /** Radio bug detector instance */
     private RadioBugDetector mRadioBugDetector = null;
+    /** Per request type latencies of this slot */
+    private final RilLatencyRecorder mLatencyRecorder;
+    /** Drops unchanged unsolicited signal strength reports of this slot */
+    final SignalStrengthIndicationFilter mSignalStrengthFilter =
+            new SignalStrengthIndicationFilter();
+    /** Batches the state changed indications of this slot */
+    final RilIndicationDispatcher mIndicationDispatcher;
 
     boolean mIsCellularSupported;
     RadioResponse mRadioResponse;
@@ -673,6 +680,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         mPreferredNetworkType = preferredNetworkType;
         mPhoneType = RILConstants.NO_PHONE;
         mPhoneId = instanceId == null ? 0 : instanceId;
+        mLatencyRecorder = new RilLatencyRecorder(mPhoneId);
         if (isRadioBugDetectionEnabled()) {
             mRadioBugDetector = new RadioBugDetector(context, mPhoneId);
         }
@@ -686,6 +694,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         mOemHookResponse = new OemHookResponse(this);
         mOemHookIndication = new OemHookIndication(this);
         mRilHandler = new RilHandler();
+        mIndicationDispatcher = new RilIndicationDispatcher(mRilHandler.getLooper());
         mRadioProxyDeathRecipient = new RadioProxyDeathRecipient();
 
         PowerManager pm = (PowerManager)context.getSystemService(Context.POWER_SERVICE);
@@ -5923,6 +5932,16 @@ public class RIL extends BaseCommands implements CommandsInterface {
      * @param indicationType RadioIndicationType received
      */
     void processIndication(int indicationType) {
+        // Deliver the state changes batched before this indication first.
+        mIndicationDispatcher.flushPending();
+        processBatchedIndication(indicationType);
+    }
+
+    /**
+     * Acknowledge an indication which is handed to the {@link RilIndicationDispatcher} instead of
+     * being delivered right away.
+     */
+    void processBatchedIndication(int indicationType) {
         if (indicationType == RadioIndicationType.UNSOLICITED_ACK_EXP) {
             sendAck();
             if (RILJ_LOGD) riljLog("Unsol response received; Sending ack to ril.cpp");
@@ -6003,8 +6022,11 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
         // Time logging for RIL command and storing it in TelephonyHistogram.
         addToRilHistogram(rr);
+        rr.mResponseTimeMs = SystemClock.elapsedRealtime();
+        long modemTimeMs = rr.mResponseTimeMs - rr.mStartTimeMs;
+        mLatencyRecorder.recordModemTime(rr.mRequest, modemTimeMs, rr.mResponseTimeMs);
         if (mRadioBugDetector != null) {
-            mRadioBugDetector.detectRadioBug(rr.mRequest, error);
+            mRadioBugDetector.detectRadioBug(rr.mRequest, error, modemTimeMs);
         }
         if (type == RadioResponseType.SOLICITED_ACK_EXP) {
             sendAck();
@@ -6137,6 +6159,10 @@ public class RIL extends BaseCommands implements CommandsInterface {
             if (responseType == RadioResponseType.SOLICITED) {
                 decrementWakeLock(rr);
             }
+            if (rr.mResponseTimeMs != 0) {
+                long now = SystemClock.elapsedRealtime();
+                mLatencyRecorder.recordProcessingTime(rr.mRequest, now - rr.mResponseTimeMs, now);
+            }
             rr.release();
         }
     }
@@ -7073,12 +7099,48 @@ public class RIL extends BaseCommands implements CommandsInterface {
         pw.println(" mLastRadioPowerResult=" + mLastRadioPowerResult);
         pw.println(" mTestingEmergencyCall=" + mTestingEmergencyCall.get());
         mClientWakelockTracker.dumpClientRequestTracker(pw);
+        mLatencyRecorder.dump(pw, SystemClock.elapsedRealtime());
+        mSignalStrengthFilter.dump(pw);
+        mIndicationDispatcher.dump(pw);
+        if (mRadioBugDetector != null) {
+            mRadioBugDetector.dump(pw);
+        }
     }
 
     public List<ClientRequestStats> getClientRequestStats() {
         return mClientWakelockTracker.getClientRequestStats();
     }
 
+    /**
+     * Get the latency percentiles of the requests of this slot, for metrics.
+     *
+     * @param rolling if true, only the recent rolling windows are summarized
+     */
+    public List<RilLatencyRecorder.Summary> getRequestLatencySummaries(boolean rolling) {
+        return mLatencyRecorder.getSummaries(rolling, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Get the latest signal strength reported by the modem, including reports which were not
+     * propagated because they did not change.
+     *
+     * @return the latest signal strength, or null if none was reported
+     */
+    public SignalStrength getLatestSignalStrength() {
+        Object sample = mSignalStrengthFilter.getLatestSample();
+        if (sample instanceof android.hardware.radio.V1_6.SignalStrength) {
+            return new SignalStrength((android.hardware.radio.V1_6.SignalStrength) sample);
+        } else if (sample instanceof android.hardware.radio.V1_4.SignalStrength) {
+            return new SignalStrength((android.hardware.radio.V1_4.SignalStrength) sample);
+        } else if (sample instanceof android.hardware.radio.V1_2.SignalStrength) {
+            return new SignalStrength((android.hardware.radio.V1_2.SignalStrength) sample);
+        } else if (sample instanceof android.hardware.radio.V1_0.SignalStrength) {
+            return fixupSignalStrength10(
+                    new SignalStrength((android.hardware.radio.V1_0.SignalStrength) sample));
+        }
+        return null;
+    }
+
     /** Append the data to the end of an ArrayList */
     public static void appendPrimitiveArrayToArrayList(byte[] src, ArrayList<Byte> dst) {
         for (byte b : src) {
@@ -57,6 +57,8 @@ public class RILRequest {
     String mClientId;
     // time in ms when RIL request was made
     long mStartTimeMs;
+    // time in ms when the response was received from the radio HAL, 0 until then
+    long mResponseTimeMs;
     /** Argument list for radio HAL fallback method call */
     Object[] mArguments;
 
@@ -105,6 +107,7 @@ public class RILRequest {
         rr.mWakeLockType = RIL.INVALID_WAKELOCK;
         rr.mWorkSource = null;
         rr.mStartTimeMs = SystemClock.elapsedRealtime();
+        rr.mResponseTimeMs = 0;
         if (result != null && result.getTarget() == null) {
             throw new NullPointerException("Message target must not be null");
         }
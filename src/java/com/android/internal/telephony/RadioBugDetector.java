@@ -16,20 +16,45 @@
 
 package com.android.internal.telephony;
 
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_CDMA_SEND_SMS;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_CDMA_SEND_SMS_EXPECT_MORE;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_DEACTIVATE_DATA_CALL;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_DIAL;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_EMERGENCY_DIAL;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_IMS_SEND_SMS;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_QUERY_AVAILABLE_NETWORKS;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_RADIO_POWER;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_SEND_SMS;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_SEND_SMS_EXPECT_MORE;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_SEND_USSD;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_SETUP_DATA_CALL;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_SET_NETWORK_SELECTION_AUTOMATIC;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_SET_NETWORK_SELECTION_MANUAL;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_START_NETWORK_SCAN;
+
 import android.content.Context;
 import android.hardware.radio.V1_0.RadioError;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.telephony.AnomalyReporter;
+import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.telephony.Rlog;
 
+import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.UUID;
 
 /**
  * This class aims to detect radio bug based on wakelock timeout and system error.
  *
+ * In addition to the repeated error thresholds, it keeps a sliding window of per request type
+ * response latencies, error counts and wakelock timeouts for its slot. The window is condensed
+ * into a health score so that a degrading modem (rising tail latency, error bursts) can be
+ * noticed before it gets stuck.
+ *
  * {@hide}
  */
 public class RadioBugDetector {
@@ -58,10 +83,160 @@ public class RadioBugDetector {
 
     private HashMap<Integer, Integer> mSysErrRecord = new HashMap<Integer, Integer>();
 
+    /** Health score of a modem with no errors, timeouts or slow responses in the window. */
+    public static final int HEALTH_SCORE_MAX = 100;
+
+    /** Below this score the modem is considered degraded. */
+    @VisibleForTesting
+    protected static final int HEALTH_SCORE_DEGRADED_THRESHOLD = 50;
+
+    /** The window is made of HEALTH_WINDOW_SLOTS slots of HEALTH_SLOT_DURATION_MS each. */
+    @VisibleForTesting
+    protected static final long HEALTH_SLOT_DURATION_MS = 5 * 60 * 1000;
+    @VisibleForTesting
+    protected static final int HEALTH_WINDOW_SLOTS = 12;
+
+    /**
+     * Minimum number of responses in the window before errors affect the score, and before a
+     * degraded score is reported.
+     */
+    @VisibleForTesting
+    protected static final int HEALTH_MIN_SAMPLES = 20;
+
+    /**
+     * Minimum number of latency samples in the window before the p99 latency affects the score.
+     * With fewer samples the p99 is just the slowest response.
+     */
+    @VisibleForTesting
+    protected static final int HEALTH_MIN_LATENCY_SAMPLES = 100;
+
+    /** p99 latency above which the score starts to decrease. */
+    private static final long HEALTH_SLOW_P99_MS = 2000;
+
+    /**
+     * Upper bounds in milliseconds of the latency histogram buckets. The last bucket has no
+     * upper bound.
+     */
+    private static final long[] LATENCY_BUCKET_BOUNDS_MS = {
+            10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, Long.MAX_VALUE};
+
+    /**
+     * Requests which take seconds by design or depend on the network, excluded from the latency
+     * of the score. Their latency is still tracked per request type.
+     */
+    private static final int[] LONG_RUNNING_REQUESTS = {
+            RIL_REQUEST_CDMA_SEND_SMS,
+            RIL_REQUEST_CDMA_SEND_SMS_EXPECT_MORE,
+            RIL_REQUEST_DEACTIVATE_DATA_CALL,
+            RIL_REQUEST_DIAL,
+            RIL_REQUEST_EMERGENCY_DIAL,
+            RIL_REQUEST_IMS_SEND_SMS,
+            RIL_REQUEST_QUERY_AVAILABLE_NETWORKS,
+            RIL_REQUEST_RADIO_POWER,
+            RIL_REQUEST_SEND_SMS,
+            RIL_REQUEST_SEND_SMS_EXPECT_MORE,
+            RIL_REQUEST_SEND_USSD,
+            RIL_REQUEST_SETUP_DATA_CALL,
+            RIL_REQUEST_SET_NETWORK_SELECTION_AUTOMATIC,
+            RIL_REQUEST_SET_NETWORK_SELECTION_MANUAL,
+            RIL_REQUEST_START_NETWORK_SCAN,
+    };
+
+    /** Responses, errors and latency histogram of one request type in one window slot. */
+    private static class RequestHealth {
+        int mResponses;
+        // Responses with an error hinting at a modem problem, see isHealthError.
+        int mErrors;
+        final int[] mLatencyBuckets = new int[LATENCY_BUCKET_BOUNDS_MS.length];
+
+        void clear() {
+            mResponses = 0;
+            mErrors = 0;
+            for (int i = 0; i < mLatencyBuckets.length; i++) {
+                mLatencyBuckets[i] = 0;
+            }
+        }
+
+        void add(RequestHealth other) {
+            mResponses += other.mResponses;
+            mErrors += other.mErrors;
+            for (int i = 0; i < mLatencyBuckets.length; i++) {
+                mLatencyBuckets[i] += other.mLatencyBuckets[i];
+            }
+        }
+
+        void subtract(RequestHealth other) {
+            mResponses -= other.mResponses;
+            mErrors -= other.mErrors;
+            for (int i = 0; i < mLatencyBuckets.length; i++) {
+                mLatencyBuckets[i] -= other.mLatencyBuckets[i];
+            }
+        }
+
+        int getLatencySamples() {
+            int samples = 0;
+            for (int count : mLatencyBuckets) {
+                samples += count;
+            }
+            return samples;
+        }
+
+        /**
+         * @return the upper bound of the bucket containing the given percentile, or 0 if there
+         *         is no latency sample.
+         */
+        long getPercentileMs(double percentile) {
+            int samples = getLatencySamples();
+            if (samples == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(samples * percentile / 100);
+            int seen = 0;
+            for (int i = 0; i < mLatencyBuckets.length; i++) {
+                seen += mLatencyBuckets[i];
+                if (seen >= rank) {
+                    return i == mLatencyBuckets.length - 1
+                            ? LATENCY_BUCKET_BOUNDS_MS[i - 1] : LATENCY_BUCKET_BOUNDS_MS[i];
+                }
+            }
+            return LATENCY_BUCKET_BOUNDS_MS[LATENCY_BUCKET_BOUNDS_MS.length - 2];
+        }
+    }
+
+    /** The responses and wakelock timeouts received during one HEALTH_SLOT_DURATION_MS. */
+    private static class HealthSlot {
+        long mStartMs = -1;
+        int mWakelockTimeouts;
+        // All request types together, so that the score does not need to walk every type. The
+        // latency of the long running requests is left out.
+        final RequestHealth mTotal = new RequestHealth();
+        final SparseArray<RequestHealth> mRequests = new SparseArray<>();
+
+        void reset(long startMs) {
+            mStartMs = startMs;
+            mWakelockTimeouts = 0;
+            mTotal.clear();
+            for (int i = 0; i < mRequests.size(); i++) {
+                mRequests.valueAt(i).clear();
+            }
+        }
+    }
+
+    private final HealthSlot[] mHealthSlots = new HealthSlot[HEALTH_WINDOW_SLOTS];
+    // Running totals of the slots within the window, updated as responses are recorded and as
+    // slots leave the window, so that the score is computed without walking the slots.
+    private final RequestHealth mWindowTotal = new RequestHealth();
+    private int mWindowWakelockTimeouts;
+    // Whether the degraded health was reported, until the score recovers.
+    private boolean mHealthDegraded;
+
     /** Constructor */
     public RadioBugDetector(Context context, int slotId) {
         mContext = context;
         mSlotId = slotId;
+        for (int i = 0; i < mHealthSlots.length; i++) {
+            mHealthSlots[i] = new HealthSlot();
+        }
         init();
     }
 
@@ -105,15 +280,246 @@ public class RadioBugDetector {
         }
     }
 
+    /**
+     * Detect radio bug and notify this issue once the threshold is reached, and record the
+     * response in the modem health window. Acks of requests are not responses, they must be
+     * passed to {@link #detectRadioBug(int, int)} to stay out of the window.
+     *
+     * @param requestType The command type information we retrieved
+     * @param error       The error we received
+     * @param latencyMs   Time between sending the request and receiving this response, or a
+     *                    negative value if unknown
+     */
+    public synchronized void detectRadioBug(int requestType, int error, long latencyMs) {
+        recordResponse(requestType, error, latencyMs, SystemClock.elapsedRealtime());
+        detectRadioBug(requestType, error);
+    }
+
     /**
      * When wakelock timeout is detected, accumulate its count and check if broadcast should be
      * sent or not.
      */
     public void processWakelockTimeout() {
-        mContinuousWakelockTimoutCount++;
+        synchronized (this) {
+            mContinuousWakelockTimoutCount++;
+            recordWakelockTimeout(SystemClock.elapsedRealtime());
+        }
         broadcastBug(false);
     }
 
+    /** Returns the slot for the given time, recycling the slot that fell out of the window. */
+    private HealthSlot getHealthSlot(long nowMs) {
+        expireHealthSlots(nowMs);
+        long slotStartMs = nowMs - nowMs % HEALTH_SLOT_DURATION_MS;
+        HealthSlot slot = mHealthSlots[(int) ((nowMs / HEALTH_SLOT_DURATION_MS)
+                % HEALTH_WINDOW_SLOTS)];
+        if (slot.mStartMs != slotStartMs) {
+            removeFromWindow(slot);
+            slot.reset(slotStartMs);
+        }
+        return slot;
+    }
+
+    /** Removes the slots which are not within the window anymore from the running totals. */
+    private void expireHealthSlots(long nowMs) {
+        long windowStartMs = nowMs - nowMs % HEALTH_SLOT_DURATION_MS
+                - (HEALTH_WINDOW_SLOTS - 1) * HEALTH_SLOT_DURATION_MS;
+        for (HealthSlot slot : mHealthSlots) {
+            if (slot.mStartMs >= 0 && slot.mStartMs < windowStartMs) {
+                removeFromWindow(slot);
+            }
+        }
+    }
+
+    private void removeFromWindow(HealthSlot slot) {
+        mWindowTotal.subtract(slot.mTotal);
+        mWindowWakelockTimeouts -= slot.mWakelockTimeouts;
+        slot.reset(-1);
+    }
+
+    @VisibleForTesting
+    protected synchronized void recordResponse(int requestType, int error, long latencyMs,
+            long nowMs) {
+        HealthSlot slot = getHealthSlot(nowMs);
+        RequestHealth health = slot.mRequests.get(requestType);
+        if (health == null) {
+            health = new RequestHealth();
+            slot.mRequests.put(requestType, health);
+        }
+        health.mResponses++;
+        slot.mTotal.mResponses++;
+        mWindowTotal.mResponses++;
+        if (isHealthError(error)) {
+            health.mErrors++;
+            slot.mTotal.mErrors++;
+            mWindowTotal.mErrors++;
+        }
+        if (latencyMs >= 0) {
+            int bucket = 0;
+            while (latencyMs > LATENCY_BUCKET_BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            health.mLatencyBuckets[bucket]++;
+            if (!isLongRunningRequest(requestType)) {
+                slot.mTotal.mLatencyBuckets[bucket]++;
+                mWindowTotal.mLatencyBuckets[bucket]++;
+            }
+        }
+        updateHealthStatus(nowMs);
+    }
+
+    /**
+     * @return whether the error hints at a modem problem. Errors such as RADIO_NOT_AVAILABLE in
+     *         airplane mode, REQUEST_NOT_SUPPORTED or SIM_ABSENT are expected and left out.
+     */
+    private static boolean isHealthError(int error) {
+        switch (error) {
+            case RadioError.GENERIC_FAILURE:
+            case RadioError.NO_MEMORY:
+            case RadioError.INTERNAL_ERR:
+            case RadioError.SYSTEM_ERR:
+            case RadioError.MODEM_ERR:
+            case RadioError.NO_RESOURCES:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isLongRunningRequest(int requestType) {
+        for (int request : LONG_RUNNING_REQUESTS) {
+            if (request == requestType) return true;
+        }
+        return false;
+    }
+
+    @VisibleForTesting
+    protected synchronized void recordWakelockTimeout(long nowMs) {
+        getHealthSlot(nowMs).mWakelockTimeouts++;
+        mWindowWakelockTimeouts++;
+        updateHealthStatus(nowMs);
+    }
+
+    /**
+     * Report an anomaly once when the modem becomes degraded, if enough responses were received
+     * in the window to tell. A degraded score with too few responses is reported once enough
+     * responses arrive.
+     */
+    private void updateHealthStatus(long nowMs) {
+        int score = getHealthScore(nowMs);
+        if (score >= HEALTH_SCORE_DEGRADED_THRESHOLD) {
+            mHealthDegraded = false;
+            return;
+        }
+        if (mHealthDegraded || mWindowTotal.mResponses < HEALTH_MIN_SAMPLES) return;
+
+        mHealthDegraded = true;
+        String message = "Degraded radio health " + score + " on slot " + mSlotId;
+        Rlog.d(TAG, message);
+        AnomalyReporter.reportAnomaly(
+                UUID.fromString("4a1b6a52-5e8b-4b7c-9a8c-1d0e3f2a6b71"),
+                message);
+    }
+
+    /**
+     * Sum the statistics of a request type over the slots within the window.
+     */
+    private RequestHealth getWindowHealth(int requestType, long nowMs) {
+        RequestHealth total = new RequestHealth();
+        long windowStartMs = nowMs - nowMs % HEALTH_SLOT_DURATION_MS
+                - (HEALTH_WINDOW_SLOTS - 1) * HEALTH_SLOT_DURATION_MS;
+        for (HealthSlot slot : mHealthSlots) {
+            if (slot.mStartMs < windowStartMs || slot.mStartMs > nowMs) continue;
+            RequestHealth health = slot.mRequests.get(requestType);
+            if (health != null) total.add(health);
+        }
+        return total;
+    }
+
+    /**
+     * Get the health score of the modem over the sliding window, from 0 (unusable) to
+     * {@link #HEALTH_SCORE_MAX}. The score is lowered by the rate of errors hinting at a modem
+     * problem, by a p99 latency of the short requests above 2 seconds and by wakelock timeouts.
+     * Scores below 50 mean the modem is degraded.
+     */
+    public synchronized int getHealthScore() {
+        return getHealthScore(SystemClock.elapsedRealtime());
+    }
+
+    @VisibleForTesting
+    protected synchronized int getHealthScore(long nowMs) {
+        expireHealthSlots(nowMs);
+        int score = HEALTH_SCORE_MAX;
+        RequestHealth total = mWindowTotal;
+        if (total.mResponses >= HEALTH_MIN_SAMPLES) {
+            score -= Math.min(50, total.mErrors * 100 / total.mResponses);
+        }
+        if (total.getLatencySamples() >= HEALTH_MIN_LATENCY_SAMPLES) {
+            long p99Ms = total.getPercentileMs(99);
+            if (p99Ms > HEALTH_SLOW_P99_MS) {
+                score -= Math.min(30, (int) ((p99Ms - HEALTH_SLOW_P99_MS) / 100));
+            }
+        }
+        score -= Math.min(60, mWindowWakelockTimeouts * 15);
+        return Math.max(0, score);
+    }
+
+    /** @return whether the degraded health was reported and the score has not recovered since. */
+    @VisibleForTesting
+    protected synchronized boolean isDegradedHealthReported() {
+        return mHealthDegraded;
+    }
+
+    /** @return whether the health score of the modem is below the degraded threshold. */
+    public synchronized boolean isHealthDegraded() {
+        return getHealthScore() < HEALTH_SCORE_DEGRADED_THRESHOLD;
+    }
+
+    /**
+     * Get the given latency percentile of a request type over the sliding window.
+     *
+     * @return the upper bound in milliseconds of the histogram bucket containing the
+     *         percentile, or 0 if no response of this type was received in the window.
+     */
+    public synchronized long getLatencyPercentileMs(int requestType, double percentile) {
+        return getWindowHealth(requestType, SystemClock.elapsedRealtime())
+                .getPercentileMs(percentile);
+    }
+
+    /** Dump the modem health window. */
+    public synchronized void dump(PrintWriter printWriter) {
+        IndentingPrintWriter pw = new IndentingPrintWriter(printWriter, "  ");
+        long nowMs = SystemClock.elapsedRealtime();
+        pw.println("RadioBugDetector:");
+        pw.increaseIndent();
+        pw.println("mRadioBugStatus=" + mRadioBugStatus
+                + " mContinuousWakelockTimoutCount=" + mContinuousWakelockTimoutCount);
+        pw.println("healthScore=" + getHealthScore(nowMs) + " degraded=" + mHealthDegraded
+                + " wakelockTimeouts=" + mWindowWakelockTimeouts
+                + " window=" + (HEALTH_WINDOW_SLOTS * HEALTH_SLOT_DURATION_MS / 60000) + "min");
+        SparseArray<RequestHealth> requests = new SparseArray<>();
+        for (HealthSlot slot : mHealthSlots) {
+            for (int i = 0; i < slot.mRequests.size(); i++) {
+                int requestType = slot.mRequests.keyAt(i);
+                if (requests.get(requestType) == null) {
+                    requests.put(requestType, getWindowHealth(requestType, nowMs));
+                }
+            }
+        }
+        pw.increaseIndent();
+        for (int i = 0; i < requests.size(); i++) {
+            RequestHealth health = requests.valueAt(i);
+            if (health.mResponses == 0) continue;
+            pw.println(RIL.requestToString(requests.keyAt(i))
+                    + ": responses=" + health.mResponses
+                    + " errors=" + health.mErrors
+                    + " p50=" + health.getPercentileMs(50) + "ms"
+                    + " p99=" + health.getPercentileMs(99) + "ms");
+        }
+        pw.decreaseIndent();
+        pw.decreaseIndent();
+    }
+
     private synchronized void broadcastBug(boolean isSystemError) {
         if (isSystemError) {
             if (!isFrequentSystemError()) {
@@ -89,6 +89,7 @@ import android.hardware.radio.V1_6.IRadioIndication;
 import android.hardware.radio.V1_6.PhysicalChannelConfig.Band;
 import android.os.AsyncResult;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.sysprop.TelephonyProperties;
 import android.telephony.Annotation.RadioPowerState;
 import android.telephony.AnomalyReporter;
@@ -140,6 +141,8 @@ public class RadioIndication extends IRadioIndication.Stub {
                     state);
         }
 
+        // The next report must reach the trackers, which reset their signal strength.
+        mRil.mSignalStrengthFilter.reset();
         mRil.setRadioState(state, false /* forceNotifyRegistrants */);
     }
 
@@ -156,11 +159,12 @@ public class RadioIndication extends IRadioIndication.Stub {
      * @param indicationType RadioIndicationType
      */
     public void networkStateChanged(int indicationType) {
-        mRil.processIndication(indicationType);
+        mRil.processBatchedIndication(indicationType);
 
         if (RIL.RILJ_LOGD) mRil.unsljLog(RIL_UNSOL_RESPONSE_NETWORK_STATE_CHANGED);
 
-        mRil.mNetworkStateRegistrants.notifyRegistrants();
+        mRil.mIndicationDispatcher.dispatchBatched(RIL_UNSOL_RESPONSE_NETWORK_STATE_CHANGED,
+                mRil.mNetworkStateRegistrants);
     }
 
     public void newSms(int indicationType, ArrayList<Byte> pdu) {
@@ -238,6 +242,9 @@ public class RadioIndication extends IRadioIndication.Stub {
     public void currentSignalStrength(int indicationType,
                                       android.hardware.radio.V1_0.SignalStrength signalStrength) {
         mRil.processIndication(indicationType);
+        if (!mRil.mSignalStrengthFilter.accept(signalStrength, SystemClock.elapsedRealtime())) {
+            return;
+        }
 
         SignalStrength ssInitial = new SignalStrength(signalStrength);
 
@@ -288,6 +295,9 @@ public class RadioIndication extends IRadioIndication.Stub {
     public void currentSignalStrength_1_2(int indicationType,
                                       android.hardware.radio.V1_2.SignalStrength signalStrength) {
         mRil.processIndication(indicationType);
+        if (!mRil.mSignalStrengthFilter.accept(signalStrength, SystemClock.elapsedRealtime())) {
+            return;
+        }
 
         SignalStrength ss = new SignalStrength(signalStrength);
         // Note this is set to "verbose" because it happens frequently
@@ -305,6 +315,9 @@ public class RadioIndication extends IRadioIndication.Stub {
             android.hardware.radio.V1_4.SignalStrength signalStrength) {
 
         mRil.processIndication(indicationType);
+        if (!mRil.mSignalStrengthFilter.accept(signalStrength, SystemClock.elapsedRealtime())) {
+            return;
+        }
 
         SignalStrength ss = new SignalStrength(signalStrength);
 
@@ -322,6 +335,9 @@ public class RadioIndication extends IRadioIndication.Stub {
             android.hardware.radio.V1_6.SignalStrength signalStrength) {
 
         mRil.processIndication(indicationType);
+        if (!mRil.mSignalStrengthFilter.accept(signalStrength, SystemClock.elapsedRealtime())) {
+            return;
+        }
 
         SignalStrength ss = new SignalStrength(signalStrength);
 
@@ -520,11 +536,12 @@ public class RadioIndication extends IRadioIndication.Stub {
     }
 
     public void simStatusChanged(int indicationType) {
-        mRil.processIndication(indicationType);
+        mRil.processBatchedIndication(indicationType);
 
         if (RIL.RILJ_LOGD) mRil.unsljLog(RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED);
 
-        mRil.mIccStatusChangedRegistrants.notifyRegistrants();
+        mRil.mIndicationDispatcher.dispatchBatched(RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED,
+                mRil.mIccStatusChangedRegistrants);
     }
 
     public void cdmaNewSms(int indicationType, CdmaSmsMessage msg) {
@@ -889,11 +906,12 @@ public class RadioIndication extends IRadioIndication.Stub {
     }
 
     public void imsNetworkStateChanged(int indicationType) {
-        mRil.processIndication(indicationType);
+        mRil.processBatchedIndication(indicationType);
 
         if (RIL.RILJ_LOGD) mRil.unsljLog(RIL_UNSOL_RESPONSE_IMS_NETWORK_STATE_CHANGED);
 
-        mRil.mImsNetworkStateChangedRegistrants.notifyRegistrants();
+        mRil.mIndicationDispatcher.dispatchBatched(RIL_UNSOL_RESPONSE_IMS_NETWORK_STATE_CHANGED,
+                mRil.mImsNetworkStateChangedRegistrants);
     }
 
     public void subscriptionStatusChanged(int indicationType, boolean activate) {
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RegistrantList;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+
+/**
+ * Batches the unsolicited indications of one slot which only tell that some state changed, such
+ * as {@code RIL_UNSOL_RESPONSE_VOICE_NETWORK_STATE_CHANGED}.
+ *
+ * Their registrants react by querying the current state from the modem. The first indication of
+ * a type is delivered right away and opens a batch window; the ones received within that window
+ * result in a single notification of the registrants once the window elapses. This avoids
+ * redundant handler messages and modem queries during bursts, e.g. when the radio is turned on,
+ * without delaying an isolated indication.
+ *
+ * Indications carrying a payload are not batched and never go through this class. To keep them
+ * ordered against the batched ones, {@link #flushPending()} must be called before they are
+ * dispatched. Registrants are notified with the lock held so that a delivery at the end of a
+ * window on the handler thread cannot be reordered against a flush on the binder thread.
+ *
+ * {@hide}
+ */
+public class RilIndicationDispatcher {
+    /** Default duration of the batch window opened by a delivered indication. */
+    public static final long DEFAULT_BATCH_WINDOW_MS = 20;
+
+    /** Counters and batch state of one indication type. */
+    private static final class IndicationStats {
+        final Runnable mWindowTimer;
+        RegistrantList mRegistrants;
+        boolean mWindowOpen;
+        boolean mBatchPending;
+        long mQueuedCount;
+        long mDeliveredCount;
+
+        IndicationStats(Runnable windowTimer) {
+            mWindowTimer = windowTimer;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final Handler mHandler;
+    private final long mBatchWindowMs;
+    private final SparseArray<IndicationStats> mStats = new SparseArray<>();
+
+    public RilIndicationDispatcher(Looper looper) {
+        this(looper, DEFAULT_BATCH_WINDOW_MS);
+    }
+
+    @VisibleForTesting
+    public RilIndicationDispatcher(Looper looper, long batchWindowMs) {
+        mHandler = new Handler(looper);
+        mBatchWindowMs = batchWindowMs;
+    }
+
+    /**
+     * Dispatch a state changed indication. The registrants are notified right away unless a batch
+     * window of the same type is open, in which case they are notified once when it elapses,
+     * however many indications of the same type are queued within it.
+     *
+     * @param unsolType the RIL_UNSOL_* type of the indication
+     * @param registrants the registrants to notify, without payload
+     */
+    public void dispatchBatched(int unsolType, RegistrantList registrants) {
+        synchronized (mLock) {
+            IndicationStats stats = getStatsLocked(unsolType);
+            stats.mQueuedCount++;
+            stats.mRegistrants = registrants;
+            if (stats.mWindowOpen) {
+                stats.mBatchPending = true;
+                return;
+            }
+            // Batches of other types were queued before this indication.
+            flushPendingLocked();
+            deliverLocked(stats);
+        }
+    }
+
+    /**
+     * Notify the registrants of all pending batches right away. Called before dispatching an
+     * indication which is not batched, so that it is not delivered ahead of earlier ones.
+     */
+    public void flushPending() {
+        synchronized (mLock) {
+            flushPendingLocked();
+        }
+    }
+
+    private void flushPendingLocked() {
+        for (int i = 0; i < mStats.size(); i++) {
+            IndicationStats stats = mStats.valueAt(i);
+            if (stats.mBatchPending) deliverLocked(stats);
+        }
+    }
+
+    private void onWindowElapsed(int unsolType) {
+        synchronized (mLock) {
+            IndicationStats stats = getStatsLocked(unsolType);
+            stats.mWindowOpen = false;
+            // A trailing delivery opens a new window, so a steady stream is still rate limited.
+            if (stats.mBatchPending) deliverLocked(stats);
+        }
+    }
+
+    private void deliverLocked(IndicationStats stats) {
+        stats.mBatchPending = false;
+        stats.mDeliveredCount++;
+        if (!stats.mWindowOpen) {
+            stats.mWindowOpen = true;
+            mHandler.postDelayed(stats.mWindowTimer, mBatchWindowMs);
+        }
+        stats.mRegistrants.notifyRegistrants();
+    }
+
+    private IndicationStats getStatsLocked(int unsolType) {
+        IndicationStats stats = mStats.get(unsolType);
+        if (stats == null) {
+            stats = new IndicationStats(() -> onWindowElapsed(unsolType));
+            mStats.put(unsolType, stats);
+        }
+        return stats;
+    }
+
+    /** @return the number of indications of a type queued since boot */
+    @VisibleForTesting
+    public long getQueuedCount(int unsolType) {
+        synchronized (mLock) {
+            IndicationStats stats = mStats.get(unsolType);
+            return stats == null ? 0 : stats.mQueuedCount;
+        }
+    }
+
+    /** @return the number of notifications of the registrants of a type since boot */
+    @VisibleForTesting
+    public long getDeliveredCount(int unsolType) {
+        synchronized (mLock) {
+            IndicationStats stats = mStats.get(unsolType);
+            return stats == null ? 0 : stats.mDeliveredCount;
+        }
+    }
+
+    /** Dump the per type counters. */
+    public void dump(PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println(" RilIndicationDispatcher: batchWindowMs=" + mBatchWindowMs);
+            for (int i = 0; i < mStats.size(); i++) {
+                IndicationStats stats = mStats.valueAt(i);
+                pw.println("  " + RIL.responseToString(mStats.keyAt(i))
+                        + " queued=" + stats.mQueuedCount
+                        + " delivered=" + stats.mDeliveredCount);
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records the latency of the RIL requests of one slot, per request type.
+ *
+ * Two latencies are recorded for each response:
+ * <ul>
+ *   <li>modem time: from the request being made to its response being received from the radio
+ *   HAL.</li>
+ *   <li>processing time: from the response being received to the end of its processing in the
+ *   framework, i.e. when the result has been sent to the requester.</li>
+ * </ul>
+ *
+ * Latencies are kept in log-linear histograms with 8 sub-buckets per power of two, which bounds
+ * the error of any percentile to 12.5% while using a fixed amount of memory. Recording is lock
+ * free so it can be done from the HAL callback threads. Besides the totals since boot, the
+ * latencies of the current and previous rolling window are kept so that recent slowdowns are not
+ * hidden by a long history.
+ *
+ * {@hide}
+ */
+public class RilLatencyRecorder {
+    /** The percentiles reported by {@link Summary}. */
+    public static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    /** Default duration of a rolling window. */
+    public static final long DEFAULT_WINDOW_MS = 10 * 60 * 1000;
+
+    /** Latencies below this many ms have their own bucket. */
+    private static final int SUB_BUCKET_COUNT = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+    /** Latencies are clamped to 2^MAX_EXPONENT ms (about 17 minutes). */
+    private static final int MAX_EXPONENT = 20;
+    @VisibleForTesting
+    static final int BUCKET_COUNT =
+            SUB_BUCKET_COUNT + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    /** Request types below this value are looked up in an array, others in a map. */
+    private static final int MAX_INDEXED_REQUEST = 1024;
+
+    private final int mPhoneId;
+    private final long mWindowMs;
+
+    private final AtomicReferenceArray<RequestLatency> mIndexedRequests =
+            new AtomicReferenceArray<>(MAX_INDEXED_REQUEST);
+    private final ConcurrentHashMap<Integer, RequestLatency> mOtherRequests =
+            new ConcurrentHashMap<>();
+
+    /** Latency histogram of one rolling window. */
+    private static class Window {
+        final AtomicLong mEpoch = new AtomicLong(-1);
+        final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    }
+
+    /** Latency histogram since boot, plus the current and previous rolling windows. */
+    private static class Histogram {
+        final AtomicLongArray mTotal = new AtomicLongArray(BUCKET_COUNT);
+        final Window[] mWindows = {new Window(), new Window()};
+
+        void record(int bucket, long epoch) {
+            mTotal.incrementAndGet(bucket);
+            Window window = mWindows[(int) (epoch & 1)];
+            long windowEpoch = window.mEpoch.get();
+            if (windowEpoch != epoch) {
+                // The window is two epochs old: recycle it. A sample recorded concurrently by
+                // another thread may be lost, which is acceptable for statistics.
+                if (windowEpoch < epoch && window.mEpoch.compareAndSet(windowEpoch, epoch)) {
+                    for (int i = 0; i < BUCKET_COUNT; i++) {
+                        window.mCounts.set(i, 0);
+                    }
+                } else if (window.mEpoch.get() != epoch) {
+                    return;
+                }
+            }
+            window.mCounts.incrementAndGet(bucket);
+        }
+
+        /** Copy the counts since boot, or of the last two windows if epoch is not negative. */
+        long[] snapshot(long epoch) {
+            long[] counts = new long[BUCKET_COUNT];
+            if (epoch < 0) {
+                for (int i = 0; i < BUCKET_COUNT; i++) {
+                    counts[i] = mTotal.get(i);
+                }
+                return counts;
+            }
+            for (Window window : mWindows) {
+                long windowEpoch = window.mEpoch.get();
+                if (windowEpoch != epoch && windowEpoch != epoch - 1) continue;
+                for (int i = 0; i < BUCKET_COUNT; i++) {
+                    counts[i] += window.mCounts.get(i);
+                }
+            }
+            return counts;
+        }
+    }
+
+    private static class RequestLatency {
+        final Histogram mModem = new Histogram();
+        final Histogram mProcessing = new Histogram();
+    }
+
+    /** Latency percentiles of one request type. */
+    public static class Summary {
+        /** RIL_REQUEST_* */
+        public final int requestType;
+        /** Number of responses with a modem time. */
+        public final long count;
+        /** Modem time for each of {@link #PERCENTILES}, in ms. */
+        public final long[] modemPercentilesMs;
+        /** Processing time for each of {@link #PERCENTILES}, in ms. */
+        public final long[] processingPercentilesMs;
+
+        Summary(int requestType, long count, long[] modemPercentilesMs,
+                long[] processingPercentilesMs) {
+            this.requestType = requestType;
+            this.count = count;
+            this.modemPercentilesMs = modemPercentilesMs;
+            this.processingPercentilesMs = processingPercentilesMs;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(RIL.requestToString(requestType)).append(": count=").append(count);
+            appendPercentiles(sb, " modem", modemPercentilesMs);
+            appendPercentiles(sb, " processing", processingPercentilesMs);
+            return sb.toString();
+        }
+
+        private static void appendPercentiles(StringBuilder sb, String name, long[] values) {
+            sb.append(name).append("={");
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                if (i > 0) sb.append(", ");
+                sb.append('p').append(percentileToString(PERCENTILES[i])).append('=')
+                        .append(values[i]).append("ms");
+            }
+            sb.append('}');
+        }
+
+        static String percentileToString(double percentile) {
+            return percentile == (long) percentile
+                    ? Long.toString((long) percentile)
+                    : Double.toString(percentile).replace(".", "");
+        }
+    }
+
+    public RilLatencyRecorder(int phoneId) {
+        this(phoneId, DEFAULT_WINDOW_MS);
+    }
+
+    @VisibleForTesting
+    public RilLatencyRecorder(int phoneId, long windowMs) {
+        mPhoneId = phoneId;
+        mWindowMs = windowMs;
+    }
+
+    /**
+     * Record the time between a request being made and its response arriving from the HAL.
+     *
+     * @param requestType RIL_REQUEST_*
+     * @param latencyMs the latency in ms
+     * @param nowMs the current elapsed realtime, used for the rolling window
+     */
+    public void recordModemTime(int requestType, long latencyMs, long nowMs) {
+        getRequestLatency(requestType).mModem.record(getBucket(latencyMs), nowMs / mWindowMs);
+    }
+
+    /**
+     * Record the time spent processing a response in the framework.
+     *
+     * @param requestType RIL_REQUEST_*
+     * @param latencyMs the latency in ms
+     * @param nowMs the current elapsed realtime, used for the rolling window
+     */
+    public void recordProcessingTime(int requestType, long latencyMs, long nowMs) {
+        getRequestLatency(requestType).mProcessing.record(getBucket(latencyMs), nowMs / mWindowMs);
+    }
+
+    private RequestLatency getRequestLatency(int requestType) {
+        if (requestType >= 0 && requestType < MAX_INDEXED_REQUEST) {
+            RequestLatency latency = mIndexedRequests.get(requestType);
+            if (latency == null) {
+                mIndexedRequests.compareAndSet(requestType, null, new RequestLatency());
+                latency = mIndexedRequests.get(requestType);
+            }
+            return latency;
+        }
+        return mOtherRequests.computeIfAbsent(requestType, k -> new RequestLatency());
+    }
+
+    /**
+     * Get the latency percentiles of every request type with at least one response.
+     *
+     * @param rolling if true, only the current and previous rolling windows are summarized,
+     *                otherwise all responses since the recorder was created
+     * @param nowMs the current elapsed realtime
+     */
+    public @NonNull List<Summary> getSummaries(boolean rolling, long nowMs) {
+        long epoch = rolling ? nowMs / mWindowMs : -1;
+        List<Summary> summaries = new ArrayList<>();
+        for (int i = 0; i < MAX_INDEXED_REQUEST; i++) {
+            RequestLatency latency = mIndexedRequests.get(i);
+            if (latency != null) {
+                addSummary(summaries, i, latency, epoch);
+            }
+        }
+        for (Map.Entry<Integer, RequestLatency> entry : mOtherRequests.entrySet()) {
+            addSummary(summaries, entry.getKey(), entry.getValue(), epoch);
+        }
+        return summaries;
+    }
+
+    private static void addSummary(List<Summary> summaries, int requestType,
+            RequestLatency latency, long epoch) {
+        long[] modem = latency.mModem.snapshot(epoch);
+        long count = 0;
+        for (long bucketCount : modem) {
+            count += bucketCount;
+        }
+        if (count == 0) return;
+        summaries.add(new Summary(requestType, count, getPercentiles(modem),
+                getPercentiles(latency.mProcessing.snapshot(epoch))));
+    }
+
+    /** Returns the upper bound of each of {@link #PERCENTILES} in a histogram, in ms. */
+    static long[] getPercentiles(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        long[] values = new long[PERCENTILES.length];
+        if (total == 0) return values;
+        for (int p = 0; p < PERCENTILES.length; p++) {
+            long rank = Math.max(1, (long) Math.ceil(total * PERCENTILES[p] / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    values[p] = getBucketUpperBound(i);
+                    break;
+                }
+            }
+        }
+        return values;
+    }
+
+    /** Returns the histogram bucket of a latency. */
+    @VisibleForTesting
+    static int getBucket(long latencyMs) {
+        if (latencyMs < SUB_BUCKET_COUNT) {
+            return (int) Math.max(0, latencyMs);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(latencyMs);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (latencyMs >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return SUB_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /** Returns the largest latency in ms that falls into the given bucket. */
+    @VisibleForTesting
+    static long getBucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        int exponent = (bucket - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT + SUB_BUCKET_BITS;
+        int subBucket = (bucket - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        long lower = (long) (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /** Dump the rolling window and since boot latency summaries. */
+    public void dump(PrintWriter printWriter, long nowMs) {
+        IndentingPrintWriter pw = new IndentingPrintWriter(printWriter, "  ");
+        pw.println("RilLatencyRecorder phoneId=" + mPhoneId + ":");
+        pw.increaseIndent();
+        pw.println("Current and previous " + (mWindowMs / 60000) + " min windows:");
+        pw.increaseIndent();
+        for (Summary summary : getSummaries(true, nowMs)) {
+            pw.println(summary);
+        }
+        pw.decreaseIndent();
+        pw.println("Since boot:");
+        pw.increaseIndent();
+        for (Summary summary : getSummaries(false, nowMs)) {
+            pw.println(summary);
+        }
+        pw.decreaseIndent();
+        pw.decreaseIndent();
+    }
+}
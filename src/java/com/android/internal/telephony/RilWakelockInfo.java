@@ -40,9 +40,52 @@ public class RilWakelockInfo {
     private long mLastAggregatedTime;
     private int mConcurrentRequests;
 
+    /* When the request is tracked against a Timeline shared by all outstanding requests, the
+    number of concurrent requests is read from the timeline and the attributed time is the
+    difference of the timeline's weighted time since the request was sent. A change in the
+    number of outstanding requests is then a single update of the timeline instead of an
+    update of every pending request.
+     */
+    private final Timeline mTimeline;
+    private final long mTimelineStart;
+
+    /**
+     * Concurrency weighted wakelock time shared by all outstanding requests of a
+     * {@link ClientWakelockTracker}.
+     */
+    static class Timeline {
+        private long mWeightedTime;
+        private long mLastAggregatedTime;
+        private int mConcurrentRequests;
+
+        /**
+         * Account the time up to {@code time} with the current number of concurrent requests
+         * and then switch to {@code concurrentRequests}. A value of 0 keeps the current number,
+         * since no request is outstanding.
+         */
+        synchronized void updateConcurrentRequests(int concurrentRequests, long time) {
+            updateTime(time);
+            if (concurrentRequests != 0) {
+                mConcurrentRequests = concurrentRequests;
+            }
+        }
+
+        synchronized long updateTime(long time) {
+            if (mConcurrentRequests > 0) {
+                mWeightedTime += (time - mLastAggregatedTime) / mConcurrentRequests;
+            }
+            mLastAggregatedTime = time;
+            return mWeightedTime;
+        }
+
+        synchronized int getConcurrentRequests() {
+            return mConcurrentRequests;
+        }
+    }
+
     @VisibleForTesting
     public int getConcurrentRequests() {
-        return mConcurrentRequests;
+        return mTimeline != null ? mTimeline.getConcurrentRequests() : mConcurrentRequests;
     }
 
     RilWakelockInfo(int rilRequest, int tokenNumber, int concurrentRequests, long requestTime) {
@@ -53,6 +96,22 @@ public class RilWakelockInfo {
         this.mRequestTime = requestTime;
         this.mWakelockTimeAttributedSoFar = 0;
         this.mLastAggregatedTime = requestTime;
+        this.mTimeline = null;
+        this.mTimelineStart = 0;
+    }
+
+    RilWakelockInfo(int rilRequest, int tokenNumber, int concurrentRequests, Timeline timeline,
+            long requestTime) {
+        concurrentRequests = validateConcurrentRequests(concurrentRequests);
+        this.mRilRequestSent = rilRequest;
+        this.mTokenNumber = tokenNumber;
+        this.mConcurrentRequests = concurrentRequests;
+        this.mRequestTime = requestTime;
+        this.mWakelockTimeAttributedSoFar = 0;
+        this.mLastAggregatedTime = requestTime;
+        timeline.updateConcurrentRequests(concurrentRequests, requestTime);
+        this.mTimeline = timeline;
+        this.mTimelineStart = timeline.updateTime(requestTime);
     }
 
     private int validateConcurrentRequests(int concurrentRequests) {
@@ -84,12 +143,21 @@ public class RilWakelockInfo {
 
     void updateConcurrentRequests(int concurrentRequests, long time) {
         concurrentRequests = validateConcurrentRequests(concurrentRequests);
+        if (mTimeline != null) {
+            mTimeline.updateConcurrentRequests(concurrentRequests, time);
+            updateTime(time);
+            return;
+        }
         updateTime(time);
         mConcurrentRequests = concurrentRequests;
     }
 
     synchronized void updateTime(long time) {
-        mWakelockTimeAttributedSoFar += (time - mLastAggregatedTime) / mConcurrentRequests;
+        if (mTimeline != null) {
+            mWakelockTimeAttributedSoFar = mTimeline.updateTime(time) - mTimelineStart;
+        } else {
+            mWakelockTimeAttributedSoFar += (time - mLastAggregatedTime) / mConcurrentRequests;
+        }
         mLastAggregatedTime = time;
     }
 
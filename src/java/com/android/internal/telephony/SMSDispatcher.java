@@ -78,8 +78,11 @@ import com.android.internal.telephony.GsmAlphabet.TextEncodingDetails;
 import com.android.internal.telephony.cdma.sms.UserData;
 import com.android.internal.telephony.uicc.UiccCard;
 import com.android.internal.telephony.uicc.UiccController;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.telephony.Rlog;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -154,6 +157,10 @@ public abstract class SMSDispatcher extends Handler {
     private static final int MAX_SEND_RETRIES = 3;
     /** Delay before next send attempt on a failed SMS, in milliseconds. */
     private static final int SEND_RETRY_DELAY = 2000;
+    /** Delay before next send attempt when the modem or network is congested, in milliseconds. */
+    private static final int CONGESTION_RETRY_DELAY = 5000;
+    /** Upper bound of the exponential retry backoff, in milliseconds. */
+    private static final int MAX_SEND_RETRY_DELAY = 30000;
     /** Message sending queue limit */
     private static final int MO_MSG_QUEUE_LIMIT = 5;
 
@@ -170,6 +177,16 @@ public abstract class SMSDispatcher extends Handler {
     /** Number of outgoing SmsTrackers waiting for user confirmation. */
     private int mPendingTrackerCount;
 
+    /**
+     * Carrier config key for the maximum number of SMS parts in flight at the modem for a
+     * subscription. Zero or absent means no limit.
+     */
+    @VisibleForTesting
+    public static final String KEY_SMS_MO_IN_FLIGHT_WINDOW_INT = "sms_mo_in_flight_window_int";
+
+    /** Admits approved messages into the modem's in-flight window. */
+    private final SmsSendScheduler mSendScheduler;
+
     /* Flags indicating whether the current device allows sms service */
     protected boolean mSmsCapable = true;
     protected boolean mSmsSendDisabled;
@@ -192,6 +209,7 @@ public abstract class SMSDispatcher extends Handler {
         mCi = phone.mCi;
         mTelephonyManager = (TelephonyManager) mContext.getSystemService(Context.TELEPHONY_SERVICE);
         mSettingsObserver = new SettingsObserver(this, mPremiumSmsRule, mContext);
+        mSendScheduler = new SmsSendScheduler(this::sendSms);
         mContext.getContentResolver().registerContentObserver(Settings.Global.getUriFor(
                 Settings.Global.SMS_SHORT_CODE_RULE), false, mSettingsObserver);
 
@@ -287,9 +305,7 @@ public abstract class SMSDispatcher extends Handler {
         case EVENT_SEND_CONFIRMED_SMS:
         {
             SmsTracker[] trackers = (SmsTracker[]) msg.obj;
-            for (SmsTracker tracker : trackers) {
-                sendSms(tracker);
-            }
+            mSendScheduler.admit(trackers);
             mPendingTrackerCount--;
             break;
         }
@@ -805,7 +821,7 @@ public abstract class SMSDispatcher extends Handler {
                         getNotInServiceError(ss),
                         tracker.mMessageId,
                         tracker.isFromDefaultSmsApplication(mContext));
-            } else if (error == SmsManager.RESULT_RIL_SMS_SEND_FAIL_RETRY
+            } else if (getSendRetryDelay(error, tracker.mRetryCount + 1) >= 0
                     && tracker.mRetryCount < MAX_SEND_RETRIES) {
                 // Retry after a delay if needed.
                 // TODO: According to TS 23.040, 9.2.3.6, we should resend
@@ -818,12 +834,12 @@ public abstract class SMSDispatcher extends Handler {
                 tracker.mRetryCount++;
                 int errorCode = (smsResponse != null) ? smsResponse.mErrorCode : NO_ERROR_CODE;
                 Message retryMsg = obtainMessage(EVENT_SEND_RETRY, tracker);
-                sendMessageDelayed(retryMsg, SEND_RETRY_DELAY);
+                sendMessageDelayed(retryMsg, getSendRetryDelay(error, tracker.mRetryCount));
                 mPhone.getSmsStats().onOutgoingSms(
                         tracker.mImsRetry > 0 /* isOverIms */,
                         SmsConstants.FORMAT_3GPP2.equals(getFormat()),
                         false /* fallbackToCs */,
-                        SmsManager.RESULT_RIL_SMS_SEND_FAIL_RETRY,
+                        error,
                         errorCode,
                         tracker.mMessageId,
                         tracker.isFromDefaultSmsApplication(mContext));
@@ -842,6 +858,34 @@ public abstract class SMSDispatcher extends Handler {
         }
     }
 
+    /**
+     * Get the delay before retrying a failed send. Transient failures reported by the network
+     * back off exponentially from {@link #SEND_RETRY_DELAY}; congestion of the modem or the
+     * network backs off from the longer {@link #CONGESTION_RETRY_DELAY}. Other failures are final.
+     *
+     * @param error the failure mapped by {@link #rilErrorToSmsManagerResult}
+     * @param retryCount the 1-based number of the upcoming retry
+     * @return the delay in milliseconds, or -1 if the failure should not be retried
+     */
+    @VisibleForTesting
+    public static long getSendRetryDelay(@SmsManager.Result int error, int retryCount) {
+        long baseDelay;
+        switch (error) {
+            case SmsManager.RESULT_RIL_SMS_SEND_FAIL_RETRY:
+                baseDelay = SEND_RETRY_DELAY;
+                break;
+            case SmsManager.RESULT_RIL_REQUEST_RATE_LIMITED:
+            case SmsManager.RESULT_RIL_NO_RESOURCES:
+            case SmsManager.RESULT_RIL_NETWORK_NOT_READY:
+                baseDelay = CONGESTION_RETRY_DELAY;
+                break;
+            default:
+                return -1;
+        }
+        int shift = Math.max(0, Math.min(retryCount - 1, MAX_SEND_RETRIES));
+        return Math.min(baseDelay << shift, MAX_SEND_RETRY_DELAY);
+    }
+
     @SmsManager.Result
     private static int rilErrorToSmsManagerResult(CommandException.Error rilError) {
         switch (rilError) {
@@ -1308,6 +1352,11 @@ public abstract class SMSDispatcher extends Handler {
 
         TextEncodingDetails[] encodingForParts = new TextEncodingDetails[msgCount];
         for (int i = 0; i < msgCount; i++) {
+            if (encoding == SmsConstants.ENCODING_16BIT) {
+                // Once any part needs UCS-2 the whole message is sent as UCS-2 and the national
+                // language tables of the parts are unused, so skip analysing the remaining parts.
+                break;
+            }
             TextEncodingDetails details = calculateLength(parts.get(i), false);
             if (encoding != details.codeUnitSize
                     && (encoding == SmsConstants.ENCODING_UNKNOWN
@@ -1317,6 +1366,15 @@ public abstract class SMSDispatcher extends Handler {
             encodingForParts[i] = details;
         }
 
+        // Resolve the per message encoding choices once instead of for every part.
+        final boolean isCdmaMo = isCdmaMo();
+        int cdmaMsgEncoding = UserData.ENCODING_UNICODE_16;
+        if (isCdmaMo && encoding == SmsConstants.ENCODING_7BIT) {
+            cdmaMsgEncoding = isAscii7bitSupportedForLongMessage()
+                    ? UserData.ENCODING_7BIT_ASCII : UserData.ENCODING_GSM_7BIT_ALPHABET;
+            Rlog.d(TAG, "Message encoding for proper 7 bit: " + cdmaMsgEncoding);
+        }
+
         SmsTracker[] trackers = new SmsTracker[msgCount];
 
         // States to track at the message level (for all parts)
@@ -1356,7 +1414,8 @@ public abstract class SMSDispatcher extends Handler {
 
             trackers[i] =
                 getNewSubmitPduTracker(callingPkg, destAddr, scAddr, parts.get(i), smsHeader,
-                        encoding, sentIntent, deliveryIntent, (i == (msgCount - 1)),
+                        encoding, isCdmaMo, cdmaMsgEncoding, sentIntent, deliveryIntent,
+                        (i == (msgCount - 1)),
                         unsentPartCount, anyPartFailed, messageUri,
                         fullMessageText, priority, expectMore, validityPeriod, messageId);
             if (trackers[i] == null) {
@@ -1389,24 +1448,22 @@ public abstract class SMSDispatcher extends Handler {
 
     /**
      * Create a new SubmitPdu and return the SMS tracker.
+     *
+     * @param isCdmaMo whether the part is sent in 3GPP2 format
+     * @param cdmaMsgEncoding the 3GPP2 user data encoding, used if {@code isCdmaMo} is true
      */
     private SmsTracker getNewSubmitPduTracker(String callingPackage, String destinationAddress,
             String scAddress, String message, SmsHeader smsHeader, int encoding,
+            boolean isCdmaMo, int cdmaMsgEncoding,
             PendingIntent sentIntent, PendingIntent deliveryIntent, boolean lastPart,
             AtomicInteger unsentPartCount, AtomicBoolean anyPartFailed, Uri messageUri,
             String fullMessageText, int priority, boolean expectMore, int validityPeriod,
             long messageId) {
-        if (isCdmaMo()) {
+        if (isCdmaMo) {
             UserData uData = new UserData();
             uData.payloadStr = message;
             uData.userDataHeader = smsHeader;
-            if (encoding == SmsConstants.ENCODING_7BIT) {
-                uData.msgEncoding = isAscii7bitSupportedForLongMessage()
-                        ? UserData.ENCODING_7BIT_ASCII : UserData.ENCODING_GSM_7BIT_ALPHABET;
-                Rlog.d(TAG, "Message encoding for proper 7 bit: " + uData.msgEncoding);
-            } else { // assume UTF-16
-                uData.msgEncoding = UserData.ENCODING_UNICODE_16;
-            }
+            uData.msgEncoding = cdmaMsgEncoding;
             uData.msgEncodingSet = true;
 
             /* By setting the statusReportRequested bit only for the
@@ -1582,9 +1639,8 @@ public abstract class SMSDispatcher extends Handler {
                 return;
             }
 
-            for (SmsTracker tracker : trackers) {
-                sendSms(tracker);
-            }
+            mSendScheduler.setWindow(getMoInFlightWindow());
+            mSendScheduler.admit(trackers);
         }
 
         if (mTelephonyManager.isEmergencyNumber(trackers[0].mDestAddress)) {
@@ -1932,6 +1988,14 @@ public abstract class SMSDispatcher extends Handler {
 
         private Boolean mIsFromDefaultSmsApplication;
 
+        // Scheduler holding a slot of its in-flight window for this tracker, if any
+        private volatile SmsSendScheduler mSendScheduler;
+
+        // Submit PDUs of this message per format, kept across IMS/CS fallbacks so that switching
+        // back to a format already used does not need to encode the message again.
+        private EncodedPdu mSubmitPdu3gpp;
+        private EncodedPdu mSubmitPdu3gpp2;
+
         // SMS anomaly uuid
         private final UUID mAnomalyUUID = UUID.fromString("43043600-ea7a-44d2-9ae6-a58567ac7886");
 
@@ -1979,6 +2043,61 @@ public abstract class SMSDispatcher extends Handler {
             return mAppInfo != null ? mAppInfo.packageName : null;
         }
 
+        /** An encoded submit PDU with the SMSC address it was encoded for. */
+        public static final class EncodedPdu {
+            public final byte[] mSmsc;
+            public final byte[] mPdu;
+
+            EncodedPdu(byte[] smsc, byte[] pdu) {
+                mSmsc = smsc;
+                mPdu = pdu;
+            }
+        }
+
+        /**
+         * Remember the submit PDU of this message in the given format.
+         *
+         * @param format {@link SmsConstants#FORMAT_3GPP} or {@link SmsConstants#FORMAT_3GPP2}
+         * @param smsc the encoded SMSC address, may be null
+         * @param pdu the encoded submit PDU; nothing is cached if null
+         */
+        void cacheSubmitPdu(String format, byte[] smsc, byte[] pdu) {
+            if (pdu == null) return;
+            EncodedPdu encoded = new EncodedPdu(smsc, pdu);
+            if (SmsConstants.FORMAT_3GPP2.equals(format)) {
+                mSubmitPdu3gpp2 = encoded;
+            } else if (SmsConstants.FORMAT_3GPP.equals(format)) {
+                mSubmitPdu3gpp = encoded;
+            }
+        }
+
+        /**
+         * @return the submit PDU of this message previously cached for the given format, or null
+         * if the message was never encoded in that format
+         */
+        EncodedPdu getCachedSubmitPdu(String format) {
+            if (SmsConstants.FORMAT_3GPP2.equals(format)) {
+                return mSubmitPdu3gpp2;
+            } else if (SmsConstants.FORMAT_3GPP.equals(format)) {
+                return mSubmitPdu3gpp;
+            }
+            return null;
+        }
+
+        /** Record the scheduler whose window slot this tracker occupies until it completes. */
+        void setSendScheduler(SmsSendScheduler scheduler) {
+            mSendScheduler = scheduler;
+        }
+
+        /** Give the window slot back to the scheduler, if this tracker still holds one. */
+        private void releaseSendSlot() {
+            SmsSendScheduler scheduler = mSendScheduler;
+            mSendScheduler = null;
+            if (scheduler != null) {
+                scheduler.onTrackerDone(this);
+            }
+        }
+
         /** Return if the SMS was originated from the default SMS application. */
         public boolean isFromDefaultSmsApplication(Context context) {
             if (mIsFromDefaultSmsApplication == null) {
@@ -2146,6 +2265,7 @@ public abstract class SMSDispatcher extends Handler {
                 }
             }
             reportAnomaly(error, errorCode);
+            releaseSendSlot();
         }
 
         private void reportAnomaly(int error, int errorCode) {
@@ -2209,6 +2329,7 @@ public abstract class SMSDispatcher extends Handler {
                     Rlog.e(TAG, "Failed to send result");
                 }
             }
+            releaseSendSlot();
         }
     }
 
@@ -2395,7 +2516,13 @@ public abstract class SMSDispatcher extends Handler {
 
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private String getMultipartMessageText(ArrayList<String> parts) {
-        final StringBuilder sb = new StringBuilder();
+        int length = 0;
+        for (String part : parts) {
+            if (part != null) {
+                length += part.length();
+            }
+        }
+        final StringBuilder sb = new StringBuilder(length);
         for (String part : parts) {
             if (part != null) {
                 sb.append(part);
@@ -2449,6 +2576,45 @@ public abstract class SMSDispatcher extends Handler {
         return mSmsDispatchersController.isCdmaMo();
     }
 
+    /**
+     * @return the maximum number of SMS parts in flight for this subscription, or
+     * {@link SmsSendScheduler#UNLIMITED_WINDOW} if the carrier does not limit it
+     */
+    private int getMoInFlightWindow() {
+        long token = Binder.clearCallingIdentity();
+        try {
+            CarrierConfigManager configManager = (CarrierConfigManager) mContext.getSystemService(
+                    Context.CARRIER_CONFIG_SERVICE);
+            PersistableBundle pb = configManager == null
+                    ? null : configManager.getConfigForSubId(mPhone.getSubId());
+            if (pb != null) {
+                int window = pb.getInt(KEY_SMS_MO_IN_FLIGHT_WINDOW_INT, 0);
+                if (window > 0) {
+                    return window;
+                }
+            }
+            return SmsSendScheduler.UNLIMITED_WINDOW;
+        } finally {
+            Binder.restoreCallingIdentity(token);
+        }
+    }
+
+    @VisibleForTesting
+    public SmsSendScheduler getSendScheduler() {
+        return mSendScheduler;
+    }
+
+    /** Dump the state of the outgoing send pipeline. */
+    public void dump(FileDescriptor fd, PrintWriter printWriter, String[] args) {
+        IndentingPrintWriter pw = new IndentingPrintWriter(printWriter, "  ");
+        pw.println(getClass().getSimpleName() + " format=" + getFormat()
+                + " pendingConfirmations=" + mPendingTrackerCount);
+        pw.increaseIndent();
+        mSendScheduler.dump(pw);
+        pw.decreaseIndent();
+        pw.flush();
+    }
+
     private boolean isAscii7bitSupportedForLongMessage() {
         //TODO: Do not rely on calling identity here, we should store UID & clear identity earlier.
         long token = Binder.clearCallingIdentity();
@@ -872,6 +872,7 @@ public class ServiceStateTracker extends Handler {
             mCSST.dispose();
             mCSST = null;
         }
+        mLocaleTracker.dispose();
     }
 
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
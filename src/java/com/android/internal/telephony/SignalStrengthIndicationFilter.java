@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.PrintWriter;
+import java.util.Objects;
+
+/**
+ * Filters the unsolicited signal strength reports of one slot before they are converted into a
+ * {@link android.telephony.SignalStrength}.
+ *
+ * Many modems report signal strength periodically whether or not it changed. A report whose radio
+ * HAL values are equal to the last propagated one cannot change any level, so it is dropped
+ * unless the last propagated report is older than {@link #DEFAULT_REFRESH_INTERVAL_MS}; the
+ * periodic refresh keeps the signal strength of {@link ServiceStateTracker} from being considered
+ * stale. Level thresholds and hysteresis are applied by the modem through
+ * {@link CommandsInterface#setSignalStrengthReportingCriteria} and by
+ * {@link android.telephony.SignalStrength#updateLevel}, so any difference in the HAL values is
+ * propagated.
+ *
+ * The latest report is always kept, whether or not it was propagated.
+ *
+ * {@hide}
+ */
+public class SignalStrengthIndicationFilter {
+    private static final String TAG = "SignalStrengthIndicationFilter";
+
+    /**
+     * Maximum time an unchanged report is held back. Must stay below the staleness threshold of
+     * {@link ServiceStateTracker}.
+     */
+    public static final long DEFAULT_REFRESH_INTERVAL_MS = 5000;
+
+    private final long mRefreshIntervalMs;
+
+    private Object mLatestSample;
+    private long mLatestSampleTime;
+    private Object mLastPropagatedSample;
+    private long mLastPropagatedTime;
+    private long mPropagatedCount;
+    private long mFilteredCount;
+
+    public SignalStrengthIndicationFilter() {
+        this(DEFAULT_REFRESH_INTERVAL_MS);
+    }
+
+    public SignalStrengthIndicationFilter(long refreshIntervalMs) {
+        mRefreshIntervalMs = refreshIntervalMs;
+    }
+
+    /**
+     * Record a signal strength report of the radio HAL.
+     *
+     * @param sample the HAL signal strength of any version
+     * @param now the time the report was received, in
+     *        {@link android.os.SystemClock#elapsedRealtime}
+     * @return true if the report should be converted and propagated
+     */
+    public synchronized boolean accept(Object sample, long now) {
+        mLatestSample = sample;
+        mLatestSampleTime = now;
+        if (mLastPropagatedSample != null && now - mLastPropagatedTime < mRefreshIntervalMs
+                && Objects.equals(sample, mLastPropagatedSample)) {
+            mFilteredCount++;
+            return false;
+        }
+        mLastPropagatedSample = sample;
+        mLastPropagatedTime = now;
+        mPropagatedCount++;
+        return true;
+    }
+
+    /** Forget the last propagated report, e.g. after the radio became unavailable. */
+    public synchronized void reset() {
+        mLastPropagatedSample = null;
+    }
+
+    /** @return the latest HAL signal strength reported, or null if none */
+    public synchronized Object getLatestSample() {
+        return mLatestSample;
+    }
+
+    /** @return the time the latest report was received, in elapsed realtime */
+    public synchronized long getLatestSampleTime() {
+        return mLatestSampleTime;
+    }
+
+    /** @return the number of reports propagated */
+    public synchronized long getPropagatedCount() {
+        return mPropagatedCount;
+    }
+
+    /** @return the number of reports dropped as unchanged */
+    public synchronized long getFilteredCount() {
+        return mFilteredCount;
+    }
+
+    /** Dump the filter state. */
+    public synchronized void dump(PrintWriter pw) {
+        pw.println(" " + TAG + ": propagated=" + mPropagatedCount + " filtered=" + mFilteredCount
+                + " latestSampleTime=" + mLatestSampleTime);
+    }
+}
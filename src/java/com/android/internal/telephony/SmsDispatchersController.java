@@ -476,65 +476,30 @@ public class SmsDispatchersController extends Handler {
             // format didn't match, need to re-encode.
             HashMap map = tracker.getData();
 
-            // to re-encode, fields needed are: scAddr, destAddr and text if originally sent as
-            // sendText or data and destPort if originally sent as sendData.
-            if (!(map.containsKey("scAddr") && map.containsKey("destAddr")
-                    && (map.containsKey("text")
-                    || (map.containsKey("data") && map.containsKey("destPort"))))) {
-                // should never come here...
-                Rlog.e(TAG, "sendRetrySms failed to re-encode per missing fields!");
-                tracker.onFailed(mContext, SmsManager.RESULT_SMS_SEND_RETRY_FAILED, NO_ERROR_CODE);
-                return;
-            }
-            String scAddr = (String) map.get("scAddr");
-            String destAddr = (String) map.get("destAddr");
-            if (destAddr == null) {
-                Rlog.e(TAG, "sendRetrySms failed due to null destAddr");
-                tracker.onFailed(mContext, SmsManager.RESULT_SMS_SEND_RETRY_FAILED, NO_ERROR_CODE);
-                return;
-            }
-
-            SmsMessageBase.SubmitPduBase pdu = null;
-            // figure out from tracker if this was sendText/Data
-            if (map.containsKey("text")) {
-                String text = (String) map.get("text");
-                Rlog.d(TAG, "sms failed was text with length: "
-                        + (text == null ? null : text.length()));
-
-                if (isCdmaFormat(newFormat)) {
-                    pdu = com.android.internal.telephony.cdma.SmsMessage.getSubmitPdu(
-                            scAddr, destAddr, text, (tracker.mDeliveryIntent != null), null);
-                } else {
-                    pdu = com.android.internal.telephony.gsm.SmsMessage.getSubmitPdu(
-                            scAddr, destAddr, text, (tracker.mDeliveryIntent != null), null);
-                }
-            } else if (map.containsKey("data")) {
-                byte[] data = (byte[]) map.get("data");
-                Integer destPort = (Integer) map.get("destPort");
-                Rlog.d(TAG, "sms failed was data with length: "
-                        + (data == null ? null : data.length));
-
-                if (isCdmaFormat(newFormat)) {
-                    pdu = com.android.internal.telephony.cdma.SmsMessage.getSubmitPdu(
-                            scAddr, destAddr, destPort.intValue(), data,
-                            (tracker.mDeliveryIntent != null));
-                } else {
-                    pdu = com.android.internal.telephony.gsm.SmsMessage.getSubmitPdu(
-                            scAddr, destAddr, destPort.intValue(), data,
-                            (tracker.mDeliveryIntent != null));
+            // Keep the PDU of the format being left, so that falling back to it later resends
+            // the original encoding instead of encoding the message again.
+            tracker.cacheSubmitPdu(oldFormat, (byte[]) map.get("smsc"), (byte[]) map.get("pdu"));
+
+            byte[] smsc;
+            byte[] pdu;
+            SMSDispatcher.SmsTracker.EncodedPdu cachedPdu = tracker.getCachedSubmitPdu(newFormat);
+            if (cachedPdu != null) {
+                Rlog.d(TAG, "sendRetrySms reusing cached " + newFormat + " pdu");
+                smsc = cachedPdu.mSmsc;
+                pdu = cachedPdu.mPdu;
+            } else {
+                SmsMessageBase.SubmitPduBase submitPdu = encodeRetrySubmitPdu(tracker, map,
+                        newFormat);
+                if (submitPdu == null) {
+                    return;
                 }
-            }
-
-            if (pdu == null) {
-                Rlog.e(TAG, String.format("sendRetrySms failed to encode message."
-                        + "scAddr: %s, "
-                        + "destPort: %s", scAddr, map.get("destPort")));
-                tracker.onFailed(mContext, SmsManager.RESULT_SMS_SEND_RETRY_FAILED, NO_ERROR_CODE);
-                return;
+                smsc = submitPdu.encodedScAddress;
+                pdu = submitPdu.encodedMessage;
+                tracker.cacheSubmitPdu(newFormat, smsc, pdu);
             }
             // replace old smsc and pdu with newly encoded ones
-            map.put("smsc", pdu.encodedScAddress);
-            map.put("pdu", pdu.encodedMessage);
+            map.put("smsc", smsc);
+            map.put("pdu", pdu);
             tracker.mFormat = newFormat;
         }
 
@@ -546,6 +511,75 @@ public class SmsDispatchersController extends Handler {
         dispatcher.sendSms(tracker);
     }
 
+    /**
+     * Encode the message of a tracker in another format for a retry.
+     *
+     * @param tracker the tracker to encode; it is failed if encoding is not possible
+     * @param map the data map of the tracker
+     * @param newFormat the format to encode in
+     * @return the submit PDU, or null if the tracker was failed
+     */
+    private SmsMessageBase.SubmitPduBase encodeRetrySubmitPdu(SMSDispatcher.SmsTracker tracker,
+            HashMap map, String newFormat) {
+        // to re-encode, fields needed are: scAddr, destAddr and text if originally sent as
+        // sendText or data and destPort if originally sent as sendData.
+        if (!(map.containsKey("scAddr") && map.containsKey("destAddr")
+                && (map.containsKey("text")
+                || (map.containsKey("data") && map.containsKey("destPort"))))) {
+            // should never come here...
+            Rlog.e(TAG, "sendRetrySms failed to re-encode per missing fields!");
+            tracker.onFailed(mContext, SmsManager.RESULT_SMS_SEND_RETRY_FAILED, NO_ERROR_CODE);
+            return null;
+        }
+        String scAddr = (String) map.get("scAddr");
+        String destAddr = (String) map.get("destAddr");
+        if (destAddr == null) {
+            Rlog.e(TAG, "sendRetrySms failed due to null destAddr");
+            tracker.onFailed(mContext, SmsManager.RESULT_SMS_SEND_RETRY_FAILED, NO_ERROR_CODE);
+            return null;
+        }
+
+        SmsMessageBase.SubmitPduBase pdu = null;
+        // figure out from tracker if this was sendText/Data
+        if (map.containsKey("text")) {
+            String text = (String) map.get("text");
+            Rlog.d(TAG, "sms failed was text with length: "
+                    + (text == null ? null : text.length()));
+
+            if (isCdmaFormat(newFormat)) {
+                pdu = com.android.internal.telephony.cdma.SmsMessage.getSubmitPdu(
+                        scAddr, destAddr, text, (tracker.mDeliveryIntent != null), null);
+            } else {
+                pdu = com.android.internal.telephony.gsm.SmsMessage.getSubmitPdu(
+                        scAddr, destAddr, text, (tracker.mDeliveryIntent != null), null);
+            }
+        } else if (map.containsKey("data")) {
+            byte[] data = (byte[]) map.get("data");
+            Integer destPort = (Integer) map.get("destPort");
+            Rlog.d(TAG, "sms failed was data with length: "
+                    + (data == null ? null : data.length));
+
+            if (isCdmaFormat(newFormat)) {
+                pdu = com.android.internal.telephony.cdma.SmsMessage.getSubmitPdu(
+                        scAddr, destAddr, destPort.intValue(), data,
+                        (tracker.mDeliveryIntent != null));
+            } else {
+                pdu = com.android.internal.telephony.gsm.SmsMessage.getSubmitPdu(
+                        scAddr, destAddr, destPort.intValue(), data,
+                        (tracker.mDeliveryIntent != null));
+            }
+        }
+
+        if (pdu == null) {
+            Rlog.e(TAG, String.format("sendRetrySms failed to encode message."
+                    + "scAddr: %s, "
+                    + "destPort: %s", scAddr, map.get("destPort")));
+            tracker.onFailed(mContext, SmsManager.RESULT_SMS_SEND_RETRY_FAILED, NO_ERROR_CODE);
+            return null;
+        }
+        return pdu;
+    }
+
     /**
      * SMS over IMS is supported if IMS is registered and SMS is supported on IMS.
      *
@@ -1056,6 +1090,9 @@ public class SmsDispatchersController extends Handler {
     public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
         mGsmInboundSmsHandler.dump(fd, pw, args);
         mCdmaInboundSmsHandler.dump(fd, pw, args);
+        mGsmDispatcher.dump(fd, pw, args);
+        mCdmaDispatcher.dump(fd, pw, args);
+        mImsSmsDispatcher.dump(fd, pw, args);
     }
 
     private void logd(String msg) {
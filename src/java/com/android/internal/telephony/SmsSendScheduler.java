@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.telephony.SMSDispatcher.SmsTracker;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Admits outgoing SMS into a bounded window of in-flight submissions.
+ *
+ * Each {@link SmsTracker} handed to the RIL occupies one slot of the window until the tracker
+ * reaches a final state through {@link SmsTracker#onSent} or {@link SmsTracker#onFailed}; retries
+ * keep their slot. Messages that do not fit into the window are queued in one of two lanes.
+ * The expedited lane holds interactive and urgent messages (e.g. one time passwords) and is
+ * always drained first. Within a lane, the queued messages of different packages are served
+ * round robin so a single bulk sender cannot starve everybody else, while the parts of a
+ * multipart message are kept in order.
+ *
+ * A window of {@link #UNLIMITED_WINDOW} sends every message as soon as it is admitted, which is
+ * the historical behavior of {@link SMSDispatcher}.
+ *
+ * {@hide}
+ */
+public class SmsSendScheduler {
+    private static final String TAG = "SmsSendScheduler";
+
+    /** Window size which never queues a message. */
+    public static final int UNLIMITED_WINDOW = Integer.MAX_VALUE;
+
+    /** Lane for interactive, urgent and emergency messages. */
+    @VisibleForTesting
+    public static final int LANE_EXPEDITED = 0;
+    /** Lane for every other message. */
+    @VisibleForTesting
+    public static final int LANE_NORMAL = 1;
+
+    /** Interactive priority per 3GPP2 C.S0015-B, v2.0, table 4.5.9-1. */
+    private static final int PRIORITY_INTERACTIVE = 1;
+
+    /** Sends a single tracker to the modem. */
+    public interface Sender {
+        /** Send the tracker; completion is reported through the tracker itself. */
+        void sendSms(SmsTracker tracker);
+    }
+
+    /** A queued message and the index of its next part to send. */
+    private static final class PendingMessage {
+        final SmsTracker[] mTrackers;
+        int mNextPart;
+
+        PendingMessage(SmsTracker[] trackers) {
+            mTrackers = trackers;
+        }
+    }
+
+    /** Queued messages of one lane, grouped per package for round robin admission. */
+    private static final class Lane {
+        // Message whose first part is already in flight; its remaining parts go next.
+        PendingMessage mCurrent;
+        // Iteration order is the round robin order; the served package moves to the back.
+        final LinkedHashMap<String, ArrayDeque<PendingMessage>> mPerPackage =
+                new LinkedHashMap<>();
+        int mQueuedMessages;
+
+        void add(String packageName, PendingMessage message) {
+            ArrayDeque<PendingMessage> queue = mPerPackage.get(packageName);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                mPerPackage.put(packageName, queue);
+            }
+            queue.addLast(message);
+            mQueuedMessages++;
+        }
+
+        boolean isEmpty() {
+            return mCurrent == null && mQueuedMessages == 0;
+        }
+
+        /** Returns the next tracker of this lane and advances the lane. */
+        SmsTracker poll() {
+            if (mCurrent == null) {
+                Iterator<Map.Entry<String, ArrayDeque<PendingMessage>>> it =
+                        mPerPackage.entrySet().iterator();
+                Map.Entry<String, ArrayDeque<PendingMessage>> head = it.next();
+                ArrayDeque<PendingMessage> queue = head.getValue();
+                mCurrent = queue.pollFirst();
+                mQueuedMessages--;
+                it.remove();
+                if (!queue.isEmpty()) {
+                    mPerPackage.put(head.getKey(), queue);
+                }
+            }
+            SmsTracker tracker = mCurrent.mTrackers[mCurrent.mNextPart++];
+            if (mCurrent.mNextPart == mCurrent.mTrackers.length) {
+                mCurrent = null;
+            }
+            return tracker;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final Sender mSender;
+    private final Lane[] mLanes = new Lane[] {new Lane(), new Lane()};
+    private int mWindow = UNLIMITED_WINDOW;
+    private int mInFlight;
+    private boolean mDraining;
+    private long mAdmittedCount;
+    private long mQueuedCount;
+
+    public SmsSendScheduler(Sender sender) {
+        mSender = sender;
+    }
+
+    /**
+     * Set the maximum number of trackers in flight. Values less than one mean unlimited.
+     * Shrinking the window does not affect trackers already sent.
+     */
+    public void setWindow(int window) {
+        synchronized (mLock) {
+            mWindow = window > 0 ? window : UNLIMITED_WINDOW;
+        }
+        drain();
+    }
+
+    /** @return the maximum number of trackers in flight */
+    public int getWindow() {
+        synchronized (mLock) {
+            return mWindow;
+        }
+    }
+
+    /** @return the number of trackers sent and not yet completed */
+    public int getInFlightCount() {
+        synchronized (mLock) {
+            return mInFlight;
+        }
+    }
+
+    /** @return the number of messages waiting for a free slot */
+    public int getQueuedMessageCount() {
+        synchronized (mLock) {
+            return mLanes[LANE_EXPEDITED].mQueuedMessages + mLanes[LANE_NORMAL].mQueuedMessages;
+        }
+    }
+
+    /**
+     * Admit a single or multipart message. Parts are sent right away while the window has free
+     * slots and queued otherwise.
+     *
+     * @param trackers the trackers of one message, in part order
+     */
+    public void admit(SmsTracker[] trackers) {
+        if (trackers == null || trackers.length == 0) return;
+        String packageName = trackers[0].getAppPackageName();
+        synchronized (mLock) {
+            mAdmittedCount++;
+            if (mInFlight >= mWindow || !mLanes[LANE_EXPEDITED].isEmpty()
+                    || !mLanes[LANE_NORMAL].isEmpty()) {
+                mQueuedCount++;
+            }
+            mLanes[getLane(trackers[0])].add(packageName == null ? "" : packageName,
+                    new PendingMessage(trackers));
+        }
+        drain();
+    }
+
+    /**
+     * Release the slot held by a tracker which reached its final state. Safe to call from any
+     * thread; {@link SmsTracker} makes sure it is called once per send.
+     */
+    void onTrackerDone(SmsTracker tracker) {
+        synchronized (mLock) {
+            if (mInFlight > 0) mInFlight--;
+        }
+        drain();
+    }
+
+    /**
+     * Send queued trackers while the window has free slots. Re-entrant calls, e.g. from a tracker
+     * that fails synchronously inside {@link Sender#sendSms}, are picked up by the outer loop.
+     */
+    private void drain() {
+        synchronized (mLock) {
+            if (mDraining) return;
+            mDraining = true;
+        }
+        try {
+            while (true) {
+                SmsTracker tracker;
+                synchronized (mLock) {
+                    tracker = pollLocked();
+                    if (tracker == null) {
+                        mDraining = false;
+                        return;
+                    }
+                    mInFlight++;
+                }
+                tracker.setSendScheduler(this);
+                mSender.sendSms(tracker);
+            }
+        } catch (RuntimeException e) {
+            synchronized (mLock) {
+                mDraining = false;
+            }
+            throw e;
+        }
+    }
+
+    private SmsTracker pollLocked() {
+        if (mInFlight >= mWindow) return null;
+        if (!mLanes[LANE_EXPEDITED].isEmpty()) return mLanes[LANE_EXPEDITED].poll();
+        if (!mLanes[LANE_NORMAL].isEmpty()) return mLanes[LANE_NORMAL].poll();
+        return null;
+    }
+
+    /** @return the lane a message is queued in, based on its first part */
+    @VisibleForTesting
+    public static int getLane(SmsTracker tracker) {
+        return tracker.mPriority >= PRIORITY_INTERACTIVE ? LANE_EXPEDITED : LANE_NORMAL;
+    }
+
+    /** Dump the scheduler state. */
+    public void dump(IndentingPrintWriter pw) {
+        synchronized (mLock) {
+            pw.println(TAG + ":");
+            pw.increaseIndent();
+            pw.println("window=" + (mWindow == UNLIMITED_WINDOW ? "unlimited" : mWindow)
+                    + " inFlight=" + mInFlight
+                    + " queuedExpedited=" + mLanes[LANE_EXPEDITED].mQueuedMessages
+                    + " queuedNormal=" + mLanes[LANE_NORMAL].mQueuedMessages
+                    + " admitted=" + mAdmittedCount
+                    + " admittedViaQueue=" + mQueuedCount);
+            pw.decreaseIndent();
+        }
+    }
+}
@@ -408,7 +408,8 @@ public class TelephonyComponentFactory {
 
     public LocaleTracker makeLocaleTracker(Phone phone, NitzStateMachine nitzStateMachine,
                                            Looper looper) {
-        return new LocaleTracker(phone, nitzStateMachine, looper);
+        return new LocaleTracker(phone, nitzStateMachine, looper,
+                DeviceLocaleTracker.getInstance());
     }
 
     public DataEnabledSettings makeDataEnabledSettings(Phone phone) {
@@ -307,10 +307,7 @@ public class WapPushOverSms implements ServiceConnection {
             if (pduDecoder.seekXWapApplicationId(index, index + headerLength - 1)) {
                 index = (int) pduDecoder.getValue32();
                 pduDecoder.decodeXWapApplicationId(index);
-                String wapAppId = pduDecoder.getValueString();
-                if (wapAppId == null) {
-                    wapAppId = Integer.toString((int) pduDecoder.getValue32());
-                }
+                String wapAppId = pduDecoder.getXWapApplicationIdString();
                 result.wapAppId = wapAppId;
                 String contentType = ((mimeType == null) ?
                         Long.toString(binaryContentType) : mimeType);
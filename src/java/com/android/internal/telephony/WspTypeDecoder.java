@@ -195,6 +195,22 @@ public class WspTypeDecoder {
         WELL_KNOWN_PARAMETERS.put(0x1D, "Path");
     }
 
+    /**
+     * Well-known MIME types indexed by their short-integer value. Filled in from
+     * WELL_KNOWN_MIME_TYPES so that the common single-octet lookups avoid boxing.
+     */
+    private static final String[] WELL_KNOWN_SHORT_MIME_TYPES = new String[0x80];
+
+    /** Decimal strings of the short-integer application IDs, shared across PDUs. */
+    private static final String[] SHORT_APPLICATION_ID_STRINGS = new String[0x80];
+
+    static {
+        for (int i = 0; i < WELL_KNOWN_SHORT_MIME_TYPES.length; i++) {
+            WELL_KNOWN_SHORT_MIME_TYPES[i] = WELL_KNOWN_MIME_TYPES.get(i);
+            SHORT_APPLICATION_ID_STRINGS[i] = Integer.toString(i);
+        }
+    }
+
     public static final String CONTENT_TYPE_B_PUSH_CO = "application/vnd.wap.coc";
     public static final String CONTENT_TYPE_B_MMS = "application/vnd.wap.mms-message";
     public static final String CONTENT_TYPE_B_PUSH_SYNCML_NOTI = "application/vnd.syncml.notification";
@@ -561,7 +577,11 @@ public class WspTypeDecoder {
     private void expandWellKnownMimeType() {
         if (mStringValue == null) {
             int binaryContentType = (int) mUnsigned32bit;
-            mStringValue = WELL_KNOWN_MIME_TYPES.get(binaryContentType);
+            if (binaryContentType >= 0 && binaryContentType < WELL_KNOWN_SHORT_MIME_TYPES.length) {
+                mStringValue = WELL_KNOWN_SHORT_MIME_TYPES[binaryContentType];
+            } else {
+                mStringValue = WELL_KNOWN_MIME_TYPES.get(binaryContentType);
+            }
         } else {
             mUnsigned32bit = -1;
         }
@@ -741,4 +761,21 @@ public class WspTypeDecoder {
     public HashMap<String, String> getContentParameters() {
         return mContentParameters;
     }
+
+    /**
+     * The X-Wap-Application-Id decoded by the last decodeXWapApplicationId() call as a string.
+     *
+     * @return the text application ID if one was present, otherwise the decimal representation
+     *         of the well-known application ID. Short-integer IDs share a preallocated string.
+     */
+    public String getXWapApplicationIdString() {
+        if (mStringValue != null) {
+            return mStringValue;
+        }
+        int appId = (int) mUnsigned32bit;
+        if (appId >= 0 && appId < SHORT_APPLICATION_ID_STRINGS.length) {
+            return SHORT_APPLICATION_ID_STRINGS[appId];
+        }
+        return Integer.toString(appId);
+    }
 }
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.ims;
+
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.telephony.ims.feature.ImsFeature;
+import android.util.ArrayMap;
+import android.util.LocalLog;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the latency of the binder calls made to ImsServices, per slot, feature and method, so
+ * that a slow ImsService can be told apart from a slow framework.
+ *
+ * Each call is counted in a latency histogram and calls slower than the slow call threshold are
+ * logged.
+ *
+ * Only the calls made from this project are tracked: the calls to IImsServiceController, and the
+ * calls to the MMTEL features and config of compat ImsServices through their adapters.
+ * The IImsMmTelFeature, IImsRegistration and IImsConfig binders of current ImsServices are handed
+ * as is to the clients of ImsFeatureBinderRepository, and their calls are not tracked.
+ */
+public class ImsBinderCallStats {
+    private static final String TAG = "ImsBinderCallStats";
+
+    /** The feature of calls made to the ImsService itself rather than to one of its features. */
+    public static final int FEATURE_NONE = -1;
+
+    // Calls taking longer than this are logged.
+    private static final long SLOW_CALL_THRESHOLD_MS = 200;
+
+    // Upper bounds of the latency histogram buckets. The last bucket has no upper bound.
+    @VisibleForTesting
+    public static final long[] BUCKET_UPPER_BOUNDS_MS =
+            {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    /** A binder call to an ImsService. */
+    public interface BinderCall<T> {
+        T call() throws RemoteException;
+    }
+
+    /** A binder call to an ImsService without a result. */
+    public interface BinderRunnable {
+        void run() throws RemoteException;
+    }
+
+    /** The latency statistics of one method. */
+    @VisibleForTesting
+    public static class CallStats {
+        public final int slotId;
+        public final int featureType;
+        public final String method;
+        public long count;
+        public long failureCount;
+        public long slowCount;
+        public long totalNanos;
+        public long maxNanos;
+        // Number of calls per latency bucket, see BUCKET_UPPER_BOUNDS_MS.
+        public final long[] buckets = new long[BUCKET_UPPER_BOUNDS_MS.length + 1];
+
+        CallStats(int slotId, int featureType, String method) {
+            this.slotId = slotId;
+            this.featureType = featureType;
+            this.method = method;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("slot=").append(slotId)
+                    .append(", feature=").append(featureType == FEATURE_NONE ? "none"
+                            : ImsFeature.FEATURE_LOG_MAP.getOrDefault(featureType, "?"))
+                    .append(", method=").append(method)
+                    .append(", count=").append(count)
+                    .append(", failures=").append(failureCount)
+                    .append(", slow=").append(slowCount)
+                    .append(", avgMs=")
+                    .append(count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos / count))
+                    .append(", maxMs=").append(TimeUnit.NANOSECONDS.toMillis(maxNanos))
+                    .append(", histogramMs=[");
+            for (int i = 0; i < buckets.length; i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(i < BUCKET_UPPER_BOUNDS_MS.length
+                        ? "<=" + BUCKET_UPPER_BOUNDS_MS[i]
+                        : ">" + BUCKET_UPPER_BOUNDS_MS[BUCKET_UPPER_BOUNDS_MS.length - 1]);
+                sb.append(":").append(buckets[i]);
+            }
+            return sb.append("]").toString();
+        }
+    }
+
+    private static ImsBinderCallStats sInstance;
+
+    private final Object mLock = new Object();
+
+    // Maps the slot and feature key (see getKey) -> method -> statistics.
+    @GuardedBy("mLock")
+    private final SparseArray<ArrayMap<String, CallStats>> mCallStats = new SparseArray<>();
+
+    private final LocalLog mSlowCallLog = new LocalLog(50);
+
+    /**
+     * @return The instance tracking the binder calls made to all the ImsServices.
+     */
+    public static ImsBinderCallStats getInstance() {
+        synchronized (ImsBinderCallStats.class) {
+            if (sInstance == null) {
+                sInstance = new ImsBinderCallStats();
+            }
+            return sInstance;
+        }
+    }
+
+    @VisibleForTesting
+    public ImsBinderCallStats() {}
+
+    /**
+     * Make a binder call to an ImsService and record its latency.
+     *
+     * @param slotId The slot the call is made for.
+     * @param featureType The ImsFeature the call is made to, or {@link #FEATURE_NONE}.
+     * @param method The name of the method called.
+     * @param call The binder call.
+     * @return The result of the call.
+     * @throws RemoteException if the call failed.
+     */
+    public <T> T trace(int slotId, int featureType, String method, BinderCall<T> call)
+            throws RemoteException {
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        boolean success = false;
+        try {
+            T result = call.call();
+            success = true;
+            return result;
+        } finally {
+            onCallCompleted(slotId, featureType, method,
+                    SystemClock.elapsedRealtimeNanos() - startNanos, success);
+        }
+    }
+
+    /**
+     * Make a binder call without a result to an ImsService and record its latency.
+     *
+     * @see #trace(int, int, String, BinderCall)
+     */
+    public void traceVoid(int slotId, int featureType, String method, BinderRunnable call)
+            throws RemoteException {
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        boolean success = false;
+        try {
+            call.run();
+            success = true;
+        } finally {
+            onCallCompleted(slotId, featureType, method,
+                    SystemClock.elapsedRealtimeNanos() - startNanos, success);
+        }
+    }
+
+    /**
+     * Record the latency of a call made to an ImsService. Used directly when the result of the call
+     * is reported asynchronously.
+     *
+     * @param slotId The slot the call is made for.
+     * @param featureType The ImsFeature the call is made to, or {@link #FEATURE_NONE}.
+     * @param method The name of the method called.
+     * @param durationNanos The latency of the call.
+     * @param success Whether the call succeeded.
+     */
+    public void onCallCompleted(int slotId, int featureType, String method, long durationNanos,
+            boolean success) {
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        int bucket = 0;
+        while (bucket < BUCKET_UPPER_BOUNDS_MS.length
+                && durationMs > BUCKET_UPPER_BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        boolean isSlow = durationMs > SLOW_CALL_THRESHOLD_MS;
+
+        synchronized (mLock) {
+            int key = getKey(slotId, featureType);
+            ArrayMap<String, CallStats> methodStats = mCallStats.get(key);
+            if (methodStats == null) {
+                methodStats = new ArrayMap<>();
+                mCallStats.put(key, methodStats);
+            }
+            CallStats stats = methodStats.get(method);
+            if (stats == null) {
+                stats = new CallStats(slotId, featureType, method);
+                methodStats.put(method, stats);
+            }
+            stats.count++;
+            if (!success) stats.failureCount++;
+            if (isSlow) stats.slowCount++;
+            stats.totalNanos += durationNanos;
+            stats.maxNanos = Math.max(stats.maxNanos, durationNanos);
+            stats.buckets[bucket]++;
+        }
+
+        if (isSlow) {
+            String msg = "Slow call: slot=" + slotId + ", feature=" + featureType + ", method="
+                    + method + ", durationMs=" + durationMs + ", success=" + success;
+            Log.w(TAG, msg);
+            mSlowCallLog.log(msg);
+        }
+    }
+
+    /**
+     * @return The statistics of a method, or {@code null} if it was never called.
+     */
+    @VisibleForTesting
+    public CallStats getCallStats(int slotId, int featureType, String method) {
+        synchronized (mLock) {
+            ArrayMap<String, CallStats> methodStats = mCallStats.get(getKey(slotId, featureType));
+            return methodStats != null ? methodStats.get(method) : null;
+        }
+    }
+
+    private static int getKey(int slotId, int featureType) {
+        // featureType is FEATURE_NONE or a small non-negative ImsFeature type.
+        return (slotId << 8) | (featureType + 1);
+    }
+
+    /**
+     * Dump the latency statistics and the slow calls.
+     */
+    public void dump(IndentingPrintWriter pw) {
+        pw.println("ImsService binder call latency:");
+        pw.increaseIndent();
+        synchronized (mLock) {
+            for (int i = 0; i < mCallStats.size(); i++) {
+                ArrayMap<String, CallStats> methodStats = mCallStats.valueAt(i);
+                for (int j = 0; j < methodStats.size(); j++) {
+                    pw.println(methodStats.valueAt(j));
+                }
+            }
+        }
+        pw.println("Slow calls (>" + SLOW_CALL_THRESHOLD_MS + "ms):");
+        pw.increaseIndent();
+        mSlowCallLog.dump(pw);
+        pw.decreaseIndent();
+        pw.decreaseIndent();
+    }
+}
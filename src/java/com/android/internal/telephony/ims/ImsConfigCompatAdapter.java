@@ -17,6 +17,8 @@
 package com.android.internal.telephony.ims;
 
 import android.os.RemoteException;
+import android.telephony.SubscriptionManager;
+import android.telephony.ims.feature.ImsFeature;
 import android.telephony.ims.stub.ImsConfigImplBase;
 import android.util.Log;
 
@@ -27,6 +29,9 @@ public class ImsConfigCompatAdapter extends ImsConfigImplBase {
     private static final String TAG = "ImsConfigCompatAdapter";
 
     private final IImsConfig mOldConfigInterface;
+    private final int mSlotId;
+    // Records the latency of the calls made to the old config interface.
+    private final ImsBinderCallStats mCallStats;
 
     // Compat constants
     public static final int UNKNOWN = -1;
@@ -34,13 +39,20 @@ public class ImsConfigCompatAdapter extends ImsConfigImplBase {
     public static final int FAILED =  1;
 
     public ImsConfigCompatAdapter(IImsConfig config) {
+        this(config, SubscriptionManager.INVALID_SIM_SLOT_INDEX, ImsBinderCallStats.getInstance());
+    }
+
+    public ImsConfigCompatAdapter(IImsConfig config, int slotId, ImsBinderCallStats callStats) {
         mOldConfigInterface = config;
+        mSlotId = slotId;
+        mCallStats = callStats;
     }
 
     @Override
     public int setConfig(int item, int value) {
         try {
-            if (mOldConfigInterface.setProvisionedValue(item, value) == SUCCESS) {
+            if (mCallStats.trace(mSlotId, ImsFeature.FEATURE_MMTEL, "setProvisionedValue",
+                    () -> mOldConfigInterface.setProvisionedValue(item, value)) == SUCCESS) {
                 return CONFIG_RESULT_SUCCESS;
             }
         } catch (RemoteException e) {
@@ -53,7 +65,8 @@ public class ImsConfigCompatAdapter extends ImsConfigImplBase {
     @Override
     public int setConfig(int item, String value) {
         try {
-            if (mOldConfigInterface.setProvisionedStringValue(item, value) == SUCCESS) {
+            if (mCallStats.trace(mSlotId, ImsFeature.FEATURE_MMTEL, "setProvisionedStringValue",
+                    () -> mOldConfigInterface.setProvisionedStringValue(item, value)) == SUCCESS) {
                 return CONFIG_RESULT_SUCCESS;
             }
         } catch (RemoteException e) {
@@ -66,7 +79,8 @@ public class ImsConfigCompatAdapter extends ImsConfigImplBase {
     @Override
     public int getConfigInt(int item) {
         try {
-            int value = mOldConfigInterface.getProvisionedValue(item);
+            int value = mCallStats.trace(mSlotId, ImsFeature.FEATURE_MMTEL, "getProvisionedValue",
+                    () -> mOldConfigInterface.getProvisionedValue(item));
             if (value != UNKNOWN) {
                 return value;
             }
@@ -79,7 +93,9 @@ public class ImsConfigCompatAdapter extends ImsConfigImplBase {
     @Override
     public String getConfigString(int item) {
         try {
-            return mOldConfigInterface.getProvisionedStringValue(item);
+            return mCallStats.trace(mSlotId, ImsFeature.FEATURE_MMTEL,
+                    "getProvisionedStringValue",
+                    () -> mOldConfigInterface.getProvisionedStringValue(item));
         } catch (RemoteException e) {
             Log.w(TAG, "getConfigInt: item=" + item + "failed: " + e.getMessage());
         }
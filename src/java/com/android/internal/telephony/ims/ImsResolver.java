@@ -24,6 +24,8 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.pm.ServiceInfo;
@@ -128,6 +130,12 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
     // Delay between dynamic ImsService queries.
     private static final int DELAY_DYNAMIC_QUERY_MS = 5000;
 
+    // Persists the features that the ImsServices reported in dynamic queries, by ComponentName.
+    // Each entry is the package version the features were queried for, followed by the features:
+    // "<version code>:<last update time>/<slot>:<feature>,<slot>:<feature>,..."
+    @VisibleForTesting
+    public static final String FEATURE_CACHE_PREFS = "ims_resolver_feature_cache";
+
     private static class OverrideConfig {
         public final int slotId;
         public final boolean isCarrierService;
@@ -151,6 +159,14 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
         // query.
         public boolean featureFromMetadata = true;
         public ImsServiceControllerFactory controllerFactory;
+        // Identifies the installed version of the package, or null if it is not known. Used to
+        // match the features persisted for dynamically queried ImsServices.
+        public String packageVersion;
+        // The features were loaded from the persisted cache and have not been confirmed by a
+        // dynamic query yet.
+        public boolean featuresFromCache = false;
+        // The package version that the features were last dynamically queried for.
+        String queriedPackageVersion;
 
         // Map slotId->Feature
         private final HashSet<ImsFeatureConfiguration.FeatureSlotPair> mSupportedFeatures;
@@ -205,6 +221,7 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
                     + name
                     + ", featureFromMetadata="
                     + featureFromMetadata
+                    + (featuresFromCache ? ", featuresFromCache" : "")
                     + ","
                     + printFeatures(mSupportedFeatures);
         }
@@ -531,6 +548,8 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
     // Active ImsServiceControllers, which are bound to ImsServices.
     private Map<ComponentName, ImsServiceController> mActiveControllers = new HashMap<>();
     private ImsServiceFeatureQueryManager mFeatureQueryManager;
+    // Persisted results of the dynamic queries, only accessed on the handler thread.
+    private SharedPreferences mFeatureCache;
 
     public ImsResolver(Context context, String defaultMmTelPackageName,
             String defaultRcsPackageName, int numSlots, ImsFeatureBinderRepository repo) {
@@ -597,6 +616,11 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
         mDynamicQueryManagerFactory = m;
     }
 
+    @VisibleForTesting
+    public void setFeatureCache(SharedPreferences featureCache) {
+        mFeatureCache = featureCache;
+    }
+
     /**
      * Needs to be called after the constructor to kick off the process of binding to ImsServices.
      */
@@ -612,6 +636,9 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
         for (ImsServiceInfo info : infos) {
             if (!mInstalledServicesCache.containsKey(info.name)) {
                 mInstalledServicesCache.put(info.name, info);
+                // Bind early to the features this version of the ImsService reported before, the
+                // dynamic query will confirm them.
+                loadCachedFeatures(info);
             }
         }
         // Update the package names of the carrier ImsServices if they do not exist already and
@@ -647,7 +674,9 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
                     if (info != null && info.featureFromMetadata) {
                         hasConfigChanged = true;
                     } else {
-                        // Config will change when this query completes
+                        // Bind with the cached features, if any. Config will change again if the
+                        // query completes with other features.
+                        if (info != null && info.featuresFromCache) hasConfigChanged = true;
                         scheduleQueryForFeatures(info);
                     }
                 }
@@ -914,7 +943,7 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
         List<ImsServiceInfo> infos = getImsServiceInfo(packageName);
         // Wait until all ImsServiceInfo is cached before calling
         // calculateFeatureConfigurationChange to reduce churn.
-        boolean requiresCalculation = false;
+        boolean requiresCalculation = removeMissingImsServices(packageName, infos);
         for (ImsServiceInfo info : infos) {
             // Checking to see if the ComponentName is the same, so we can update the supported
             // features. Will only be one (if it exists), since it is a set.
@@ -933,8 +962,14 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
                     // update features in the cache
                     match.replaceFeatures(info.getSupportedFeatures());
                     requiresCalculation = true;
+                } else if (info.packageVersion != null
+                        && info.packageVersion.equals(match.queriedPackageVersion)) {
+                    // The package changed, but not the ImsService itself (for example another
+                    // component was enabled), so the features queried before are still valid.
+                    mEventLog.log("maybeAddedImsService - features up to date for " + info.name);
                 } else {
                     mEventLog.log("maybeAddedImsService - scheduling query for " + info);
+                    match.packageVersion = info.packageVersion;
                     // start a query to get ImsService features
                     scheduleQueryForFeatures(info);
                 }
@@ -945,6 +980,9 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
                 if (info.featureFromMetadata) {
                     requiresCalculation = true;
                 } else {
+                    // Use the features this version of the ImsService reported before while the
+                    // query is in progress.
+                    if (loadCachedFeatures(info)) requiresCalculation = true;
                     // newly added ImsServiceInfo that has not had features queried yet. Start async
                     // bind and query features.
                     scheduleQueryForFeatures(info);
@@ -964,12 +1002,37 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
             mEventLog.log("maybeRemovedImsService - removing ImsService: " + match);
             Log.i(TAG, "Removing ImsService: " + match.name);
             unbindImsService(match);
+            removeCachedFeatures(match.name);
             calculateFeatureConfigurationChange();
             return true;
         }
         return false;
     }
 
+    // Remove the cached ImsServices of the package (or of all packages if the package name is
+    // null) which are no longer found, because they were disabled or removed by an update.
+    // Returns true if an ImsService was removed and the configuration must be recalculated.
+    // Called from the handler ONLY
+    private boolean removeMissingImsServices(String packageName, List<ImsServiceInfo> infos) {
+        Set<ComponentName> foundNames = new HashSet<>(infos.size());
+        for (ImsServiceInfo info : infos) {
+            foundNames.add(info.name);
+        }
+        List<ImsServiceInfo> missingInfos = mInstalledServicesCache.values().stream()
+                .filter(info -> packageName == null
+                        || packageName.equals(info.name.getPackageName()))
+                .filter(info -> !foundNames.contains(info.name))
+                .collect(Collectors.toList());
+        for (ImsServiceInfo info : missingInfos) {
+            mInstalledServicesCache.remove(info.name);
+            mEventLog.log("removeMissingImsServices - removing ImsService: " + info);
+            Log.i(TAG, "Removing ImsService that is no longer available: " + info.name);
+            unbindImsService(info);
+            removeCachedFeatures(info.name);
+        }
+        return !missingInfos.isEmpty();
+    }
+
     private boolean isDeviceService(ImsServiceInfo info) {
         if (info == null) return false;
         return mDeviceServices.containsValue(info.name.getPackageName());
@@ -1256,6 +1319,11 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
                     + ", hasConfigChanged=" + hasConfigChanged);
             if (info == null || info.featureFromMetadata) {
                 hasConfigChanged = true;
+            } else if (info.featuresFromCache) {
+                // Bind with the cached features, config will change again if the query
+                // completes with other features.
+                scheduleQueryForFeatures(info);
+                hasConfigChanged = true;
             } else {
                 // Config will change when this query completes
                 scheduleQueryForFeatures(info);
@@ -1429,6 +1497,9 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
         sanitizeFeatureConfig(features);
         // Add features to service
         service.replaceFeatures(features);
+        service.featuresFromCache = false;
+        service.queriedPackageVersion = service.packageVersion;
+        putCachedFeatures(service);
         // Wait until all queries have completed before changing the configuration to reduce churn.
         if (!mFeatureQueryManager.isQueryInProgress()) {
             if (mHandler.hasMessages(HANDLER_DYNAMIC_FEATURE_CHANGE)) {
@@ -1439,6 +1510,68 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
         }
     }
 
+    // Replace the features of a dynamically queried ImsService with the ones persisted for its
+    // package version. Returns true if cached features were found.
+    // Called from the handler ONLY
+    private boolean loadCachedFeatures(ImsServiceInfo info) {
+        if (info.featureFromMetadata || info.packageVersion == null) return false;
+        SharedPreferences featureCache = getFeatureCache();
+        if (featureCache == null) return false;
+        String entry = featureCache.getString(info.name.flattenToString(), null);
+        if (entry == null) return false;
+        String[] fields = entry.split("/", 2);
+        if (fields.length != 2 || !fields[0].equals(info.packageVersion)) return false;
+
+        Set<ImsFeatureConfiguration.FeatureSlotPair> features = new HashSet<>();
+        if (!fields[1].isEmpty()) {
+            try {
+                for (String pair : fields[1].split(",")) {
+                    String[] slotFeature = pair.split(":", 2);
+                    int slotId = Integer.parseInt(slotFeature[0]);
+                    // The number of slots may have changed since the features were cached.
+                    if (slotId >= mNumSlots) continue;
+                    features.add(new ImsFeatureConfiguration.FeatureSlotPair(slotId,
+                            Integer.parseInt(slotFeature[1])));
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                Log.w(TAG, "loadCachedFeatures: invalid entry for " + info.name + ": " + entry);
+                return false;
+            }
+        }
+        sanitizeFeatureConfig(features);
+        info.replaceFeatures(features);
+        info.featuresFromCache = true;
+        mEventLog.log("loadCachedFeatures - " + info);
+        return true;
+    }
+
+    // Called from the handler ONLY
+    private void putCachedFeatures(ImsServiceInfo info) {
+        SharedPreferences featureCache = getFeatureCache();
+        if (info.packageVersion == null || featureCache == null) return;
+        String features = info.getSupportedFeatures().stream()
+                .map(f -> f.slotId + ":" + f.featureType)
+                .collect(Collectors.joining(","));
+        featureCache.edit()
+                .putString(info.name.flattenToString(), info.packageVersion + "/" + features)
+                .apply();
+    }
+
+    // Called from the handler ONLY
+    private void removeCachedFeatures(ComponentName name) {
+        SharedPreferences featureCache = getFeatureCache();
+        if (featureCache == null) return;
+        featureCache.edit().remove(name.flattenToString()).apply();
+    }
+
+    private SharedPreferences getFeatureCache() {
+        if (mFeatureCache == null) {
+            mFeatureCache = mContext.getSharedPreferences(FEATURE_CACHE_PREFS,
+                    Context.MODE_PRIVATE);
+        }
+        return mFeatureCache;
+    }
+
     /**
      * Ensure the feature includes MMTEL when it supports EMERGENCY_MMTEL, if not, remove.
      */
@@ -1562,6 +1695,10 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
                     // We are a carrier service and not using the compat version of ImsService.
                     info.featureFromMetadata = false;
                 }
+                if (!info.featureFromMetadata) {
+                    info.packageVersion = getPackageVersion(packageManager,
+                            serviceInfo.packageName);
+                }
                 Log.i(TAG, "service name: " + info.name + ", manifest query: "
                         + info.featureFromMetadata);
                 // Check manifest permission to be sure that the service declares the correct
@@ -1580,6 +1717,18 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
         return infos;
     }
 
+    // Returns the version of the installed package, which changes when the package is updated, or
+    // null if it is not known.
+    private static String getPackageVersion(PackageManager packageManager, String packageName) {
+        try {
+            PackageInfo pkg = packageManager.getPackageInfo(packageName, 0 /*flags*/);
+            if (pkg == null) return null;
+            return pkg.getLongVersionCode() + ":" + pkg.lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
     // Dump is called on the main thread, since ImsResolver Handler is also handled on main thread,
     // we shouldn't need to worry about concurrent access of private params.
     public void dump(FileDescriptor fd, PrintWriter printWriter, String[] args) {
@@ -1630,6 +1779,7 @@ public class ImsResolver implements ImsServiceController.ImsServiceControllerCal
         pw.increaseIndent();
         mRepo.dump(pw);
         pw.decreaseIndent();
+        ImsBinderCallStats.getInstance().dump(pw);
         pw.println("Event Log:");
         pw.increaseIndent();
         mEventLog.dump(pw);
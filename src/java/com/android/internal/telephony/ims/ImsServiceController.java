@@ -30,6 +30,7 @@ import android.os.RemoteException;
 import android.os.UserHandle;
 import android.permission.PermissionManager;
 import android.telephony.AnomalyReporter;
+import android.telephony.SubscriptionManager;
 import android.telephony.ims.ImsService;
 import android.telephony.ims.aidl.IImsConfig;
 import android.telephony.ims.aidl.IImsRegistration;
@@ -245,6 +246,8 @@ public class ImsServiceController {
 
     protected final Object mLock = new Object();
     protected final Context mContext;
+    // Records the latency of the calls made to the ImsService.
+    protected final ImsBinderCallStats mCallStats = ImsBinderCallStats.getInstance();
 
     private ImsService.Listener mFeatureChangedListener = new ImsService.Listener() {
         @Override
@@ -508,7 +511,8 @@ public class ImsServiceController {
         try {
             synchronized (mLock) {
                 if (isServiceControllerAvailable()) {
-                    mIImsServiceController.enableIms(slotId);
+                    mCallStats.traceVoid(slotId, ImsBinderCallStats.FEATURE_NONE, "enableIms",
+                            () -> mIImsServiceController.enableIms(slotId));
                 }
             }
         } catch (RemoteException e) {
@@ -520,7 +524,8 @@ public class ImsServiceController {
         try {
             synchronized (mLock) {
                 if (isServiceControllerAvailable()) {
-                    mIImsServiceController.disableIms(slotId);
+                    mCallStats.traceVoid(slotId, ImsBinderCallStats.FEATURE_NONE, "disableIms",
+                            () -> mIImsServiceController.disableIms(slotId));
                 }
             }
         } catch (RemoteException e) {
@@ -534,7 +539,8 @@ public class ImsServiceController {
     public IImsRegistration getRegistration(int slotId) throws RemoteException {
         synchronized (mLock) {
             return isServiceControllerAvailable()
-                    ? mIImsServiceController.getRegistration(slotId) : null;
+                    ? mCallStats.trace(slotId, ImsBinderCallStats.FEATURE_NONE, "getRegistration",
+                            () -> mIImsServiceController.getRegistration(slotId)) : null;
         }
     }
 
@@ -543,7 +549,9 @@ public class ImsServiceController {
      */
     public IImsConfig getConfig(int slotId) throws RemoteException {
         synchronized (mLock) {
-            return isServiceControllerAvailable() ? mIImsServiceController.getConfig(slotId) : null;
+            return isServiceControllerAvailable()
+                    ? mCallStats.trace(slotId, ImsBinderCallStats.FEATURE_NONE, "getConfig",
+                            () -> mIImsServiceController.getConfig(slotId)) : null;
         }
     }
 
@@ -553,14 +561,17 @@ public class ImsServiceController {
     public ISipTransport getSipTransport(int slotId) throws RemoteException {
         synchronized (mLock) {
             return isServiceControllerAvailable()
-                    ? mIImsServiceController.getSipTransport(slotId) : null;
+                    ? mCallStats.trace(slotId, ImsBinderCallStats.FEATURE_NONE, "getSipTransport",
+                            () -> mIImsServiceController.getSipTransport(slotId)) : null;
         }
     }
 
     protected long getStaticServiceCapabilities() throws RemoteException {
         synchronized (mLock) {
             return isServiceControllerAvailable()
-                    ? mIImsServiceController.getImsServiceCapabilities() : 0L;
+                    ? mCallStats.trace(SubscriptionManager.INVALID_SIM_SLOT_INDEX,
+                            ImsBinderCallStats.FEATURE_NONE, "getImsServiceCapabilities",
+                            mIImsServiceController::getImsServiceCapabilities) : 0L;
         }
     }
 
@@ -571,8 +582,12 @@ public class ImsServiceController {
         synchronized (mLock) {
             if (isServiceControllerAvailable()) {
                 Log.d(LOG_TAG, "notifyImsServiceReady");
-                mIImsServiceController.setListener(mFeatureChangedListener);
-                mIImsServiceController.notifyImsServiceReadyForFeatureCreation();
+                mCallStats.traceVoid(SubscriptionManager.INVALID_SIM_SLOT_INDEX,
+                        ImsBinderCallStats.FEATURE_NONE, "setListener",
+                        () -> mIImsServiceController.setListener(mFeatureChangedListener));
+                mCallStats.traceVoid(SubscriptionManager.INVALID_SIM_SLOT_INDEX,
+                        ImsBinderCallStats.FEATURE_NONE, "notifyImsServiceReadyForFeatureCreation",
+                        mIImsServiceController::notifyImsServiceReadyForFeatureCreation);
             }
         }
     }
@@ -736,10 +751,12 @@ public class ImsServiceController {
             throws RemoteException {
         switch (featureType) {
             case ImsFeature.FEATURE_MMTEL: {
-                return mIImsServiceController.createMmTelFeature(slotId);
+                return mCallStats.trace(slotId, featureType, "createMmTelFeature",
+                        () -> mIImsServiceController.createMmTelFeature(slotId));
             }
             case ImsFeature.FEATURE_RCS: {
-                return mIImsServiceController.createRcsFeature(slotId);
+                return mCallStats.trace(slotId, featureType, "createRcsFeature",
+                        () -> mIImsServiceController.createRcsFeature(slotId));
             }
             default:
                 return null;
@@ -767,14 +784,17 @@ public class ImsServiceController {
     // overridden by compat layer to register feature status callbacks
     protected void registerImsFeatureStatusCallback(int slotId, int featureType,
             IImsFeatureStatusCallback c) throws RemoteException {
-        mIImsServiceController.addFeatureStatusCallback(slotId, featureType, c);
+        mCallStats.traceVoid(slotId, featureType, "addFeatureStatusCallback",
+                () -> mIImsServiceController.addFeatureStatusCallback(slotId, featureType, c));
     }
 
     // overridden by compat layer to deregister feature status callbacks
     protected void unregisterImsFeatureStatusCallback(int slotId, int featureType,
             IImsFeatureStatusCallback c) {
         try {
-            mIImsServiceController.removeFeatureStatusCallback(slotId, featureType, c);
+            mCallStats.traceVoid(slotId, featureType, "removeFeatureStatusCallback",
+                    () -> mIImsServiceController.removeFeatureStatusCallback(slotId, featureType,
+                            c));
         } catch (RemoteException e) {
             mLocalLog.log("unregisterImsFeatureStatusCallback - couldn't remove " + c);
         }
@@ -784,7 +804,8 @@ public class ImsServiceController {
     // overridden by compat layer to remove features
     protected void removeImsFeature(int slotId, int featureType)
             throws RemoteException {
-        mIImsServiceController.removeImsFeature(slotId, featureType);
+        mCallStats.traceVoid(slotId, featureType, "removeImsFeature",
+                () -> mIImsServiceController.removeImsFeature(slotId, featureType));
     }
 
     private void addImsFeatureBinder(int slotId, int featureType, IInterface b, long capabilities)
@@ -169,14 +169,16 @@ public class ImsServiceControllerCompat extends ImsServiceController {
     @Override
     protected void registerImsFeatureStatusCallback(int slotId, int featureType,
             IImsFeatureStatusCallback c) throws RemoteException {
-        mServiceController.addFeatureStatusCallback(slotId, featureType, c);
+        mCallStats.traceVoid(slotId, featureType, "addFeatureStatusCallback",
+                () -> mServiceController.addFeatureStatusCallback(slotId, featureType, c));
     }
 
     @Override
     protected void unregisterImsFeatureStatusCallback(int slotId, int featureType,
             IImsFeatureStatusCallback c) {
         try {
-            mServiceController.removeFeatureStatusCallback(slotId, featureType, c);
+            mCallStats.traceVoid(slotId, featureType, "removeFeatureStatusCallback",
+                    () -> mServiceController.removeFeatureStatusCallback(slotId, featureType, c));
         } catch (RemoteException e) {
             Log.w(TAG, "compat - unregisterImsFeatureStatusCallback - couldn't remove " + c);
         }
@@ -191,7 +193,8 @@ public class ImsServiceControllerCompat extends ImsServiceController {
             mConfigCompatAdapters.remove(slotId);
         }
         if (mServiceController != null) {
-            mServiceController.removeImsFeature(slotId, featureType);
+            mCallStats.traceVoid(slotId, featureType, "removeImsFeature",
+                    () -> mServiceController.removeImsFeature(slotId, featureType));
         }
     }
 
@@ -207,12 +210,13 @@ public class ImsServiceControllerCompat extends ImsServiceController {
 
     private MmTelInterfaceAdapter getInterface(int slotId)
             throws RemoteException {
-        IImsMMTelFeature feature = mServiceController.createMMTelFeature(slotId);
+        IImsMMTelFeature feature = mCallStats.trace(slotId, ImsFeature.MMTEL,
+                "createMMTelFeature", () -> mServiceController.createMMTelFeature(slotId));
         if (feature == null) {
             Log.w(TAG, "createMMTelCompat: createMMTelFeature returned null.");
             return null;
         }
-        return new MmTelInterfaceAdapter(slotId, feature.asBinder());
+        return new MmTelInterfaceAdapter(slotId, feature.asBinder(), mCallStats);
     }
 
     private IImsMmTelFeature createMMTelCompat(int slotId)
@@ -225,7 +229,7 @@ public class ImsServiceControllerCompat extends ImsServiceController {
         mmTelAdapter.addRegistrationAdapter(regAdapter);
         mRegCompatAdapters.put(slotId, regAdapter);
         mConfigCompatAdapters.put(slotId, new ImsConfigCompatAdapter(
-                mmTelAdapter.getOldConfigInterface()));
+                mmTelAdapter.getOldConfigInterface(), slotId, mCallStats));
         return mmTelAdapter.getBinder();
     }
 
@@ -20,19 +20,32 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.telephony.ims.aidl.IImsServiceController;
 import android.telephony.ims.stub.ImsFeatureConfiguration;
 import android.util.Log;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * Manages the querying of multiple ImsServices asynchronously in order to retrieve the ImsFeatures
  * they support.
+ *
+ * The queries run concurrently: the features are queried from each ImsService on a background
+ * thread as soon as it connects, so an ImsService which is slow to respond does not hold up the
+ * others. A query which does not complete within {@link #QUERY_TIMEOUT_MS} is abandoned and
+ * reported as an error, so that it is retried. The {@link Listener} is always called on the
+ * looper of this manager.
  */
 
 public class ImsServiceFeatureQueryManager {
@@ -43,6 +56,7 @@ public class ImsServiceFeatureQueryManager {
 
         private final ComponentName mName;
         private final String mIntentFilter;
+        private final Runnable mTimeoutRunnable = this::onTimeout;
 
         ImsServiceFeatureQuery(ComponentName name, String intentFilter) {
             mName = name;
@@ -62,6 +76,8 @@ public class ImsServiceFeatureQueryManager {
             if (!bindStarted) {
                 // Docs say to unbind if this fails.
                 cleanup();
+            } else {
+                mHandler.postDelayed(mTimeoutRunnable, QUERY_TIMEOUT_MS);
             }
             return bindStarted;
         }
@@ -70,11 +86,12 @@ public class ImsServiceFeatureQueryManager {
         public void onServiceConnected(ComponentName name, IBinder service) {
             Log.i(LOG_TAG, "onServiceConnected for component: " + name);
             if (service != null) {
-                queryImsFeatures(IImsServiceController.Stub.asInterface(service));
+                // Don't block the looper on the ImsService, it may take a while to respond.
+                IImsServiceController controller = IImsServiceController.Stub.asInterface(service);
+                mExecutor.execute(() -> queryImsFeatures(controller));
             } else {
                 Log.w(LOG_TAG, "onServiceConnected: " + name + " binder null.");
-                cleanup();
-                mListener.onPermanentError(name);
+                if (cleanup()) mListener.onPermanentError(name);
             }
         }
 
@@ -86,27 +103,35 @@ public class ImsServiceFeatureQueryManager {
         @Override
         public void onBindingDied(ComponentName name) {
             Log.w(LOG_TAG, "onBindingDied: " + name);
-            cleanup();
             // retry again!
-            mListener.onError(name);
+            if (cleanup()) mListener.onError(name);
         }
 
         @Override
         public void onNullBinding(ComponentName name) {
             Log.w(LOG_TAG, "onNullBinding: " + name);
-            cleanup();
-            mListener.onPermanentError(name);
+            if (cleanup()) mListener.onPermanentError(name);
         }
 
+        private void onTimeout() {
+            Log.w(LOG_TAG, "onTimeout: " + mName + " did not respond in " + QUERY_TIMEOUT_MS
+                    + " mS");
+            // Retry again!
+            if (cleanup()) mListener.onError(mName);
+        }
+
+        // Called on a background thread. The query stays active until the result is handled on
+        // the looper, so isQueryInProgress() does not report idle before the listener is called.
         private void queryImsFeatures(IImsServiceController controller) {
             ImsFeatureConfiguration config;
             try {
                 config = controller.querySupportedImsFeatures();
             } catch (Exception e) {
                 Log.w(LOG_TAG, "queryImsFeatures - error: " + e);
-                cleanup();
                 // Retry again!
-                mListener.onError(mName);
+                mHandler.post(() -> {
+                    if (cleanup()) mListener.onError(mName);
+                });
                 return;
             }
             Set<ImsFeatureConfiguration.FeatureSlotPair> servicePairs;
@@ -118,15 +143,24 @@ public class ImsServiceFeatureQueryManager {
                 servicePairs = config.getServiceFeatures();
             }
             // Complete, remove from active queries and notify.
-            cleanup();
-            mListener.onComplete(mName, servicePairs);
+            mHandler.post(() -> {
+                if (cleanup()) mListener.onComplete(mName, servicePairs);
+            });
         }
 
-        private void cleanup() {
-            mContext.unbindService(this);
+        /**
+         * Removes this query from the active queries and unbinds from the ImsService.
+         * @return true if the query was still active, false if it already completed or timed out
+         * and the listener must not be notified again.
+         */
+        private boolean cleanup() {
             synchronized (mLock) {
+                if (mActiveQueries.get(mName) != this) return false;
                 mActiveQueries.remove(mName);
             }
+            mHandler.removeCallbacks(mTimeoutRunnable);
+            mContext.unbindService(this);
+            return true;
         }
     }
 
@@ -149,15 +183,30 @@ public class ImsServiceFeatureQueryManager {
         void onPermanentError(ComponentName name);
     }
 
+    // The time an ImsService has to connect and report its features before the query is retried.
+    @VisibleForTesting
+    public static final int QUERY_TIMEOUT_MS = 15000;
+
     // Maps an active ImsService query (by Package Name String) its query.
+    @GuardedBy("mLock")
     private final Map<ComponentName, ImsServiceFeatureQuery> mActiveQueries = new HashMap<>();
     private final Context mContext;
     private final Listener mListener;
+    private final Handler mHandler;
+    private final Executor mExecutor;
     private final Object mLock = new Object();
 
     public ImsServiceFeatureQueryManager(Context context, Listener listener) {
+        this(context, listener, Looper.getMainLooper(), Executors.newCachedThreadPool());
+    }
+
+    @VisibleForTesting
+    public ImsServiceFeatureQueryManager(Context context, Listener listener, Looper looper,
+            Executor executor) {
         mContext = context;
         mListener = listener;
+        mHandler = new Handler(looper);
+        mExecutor = executor;
     }
 
     /**
@@ -24,10 +24,12 @@ import android.content.IntentFilter;
 import android.net.Uri;
 import android.os.Message;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.telephony.TelephonyManager;
 import android.telephony.ims.ImsCallProfile;
 import android.telephony.ims.ImsReasonInfo;
 import android.telephony.ims.feature.CapabilityChangeRequest;
+import android.telephony.ims.feature.ImsFeature;
 import android.telephony.ims.feature.MmTelFeature;
 import android.telephony.ims.stub.ImsRegistrationImplBase;
 import android.util.Log;
@@ -55,6 +57,7 @@ public class MmTelFeatureCompatAdapter extends MmTelFeature {
     private static final int WAIT_TIMEOUT_MS = 2000;
 
     private final MmTelInterfaceAdapter mCompatFeature;
+    private final ImsBinderCallStats mCallStats = ImsBinderCallStats.getInstance();
     private ImsRegistrationCompatAdapter mRegCompatAdapter;
     private int mSessionId = -1;
 
@@ -296,6 +299,7 @@ public class MmTelFeatureCompatAdapter extends MmTelFeature {
         returnValue[0] = FEATURE_UNKNOWN;
         int regTech = REG_TECH_TO_NET_TYPE.getOrDefault(radioTech,
                 ImsRegistrationImplBase.REGISTRATION_TECH_NONE);
+        long startNanos = SystemClock.elapsedRealtimeNanos();
         try {
             mCompatFeature.getConfigInterface().getFeatureValue(capConverted, regTech,
                     new ConfigListener(capConverted, regTech, latch) {
@@ -312,9 +316,17 @@ public class MmTelFeatureCompatAdapter extends MmTelFeature {
         } catch (InterruptedException e) {
             Log.w(TAG, "queryCapabilityConfiguration - error waiting: " + e.getMessage());
         }
+        recordConfigResponse("getFeatureValue", startNanos, latch);
         return returnValue[0] == FEATURE_ENABLED;
     }
 
+    // Record the time the old config interface took to report the result of a request, or to time
+    // out if it did not.
+    private void recordConfigResponse(String method, long startNanos, CountDownLatch latch) {
+        mCallStats.onCallCompleted(mCompatFeature.mSlotId, ImsFeature.FEATURE_MMTEL, method,
+                SystemClock.elapsedRealtimeNanos() - startNanos, latch.getCount() == 0);
+    }
+
     @Override
     public void changeEnabledCapabilities(CapabilityChangeRequest request,
             CapabilityCallbackProxy c) {
@@ -331,6 +343,7 @@ public class MmTelFeatureCompatAdapter extends MmTelFeature {
                         ImsRegistrationImplBase.REGISTRATION_TECH_NONE);
                 Log.i(TAG, "changeEnabledCapabilities - cap: " + capConverted + " radioTech: "
                         + radioTechConverted + " disabled");
+                long startNanos = SystemClock.elapsedRealtimeNanos();
                 imsConfig.setFeatureValue(capConverted, radioTechConverted, FEATURE_DISABLED,
                         new ConfigListener(capConverted, radioTechConverted, latch) {
                             @Override
@@ -347,6 +360,7 @@ public class MmTelFeatureCompatAdapter extends MmTelFeature {
                             }
                         });
                 latch.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                recordConfigResponse("setFeatureValue", startNanos, latch);
             }
             // Enable Capabilities
             for (CapabilityChangeRequest.CapabilityPair cap : request.getCapabilitiesToEnable()) {
@@ -356,6 +370,7 @@ public class MmTelFeatureCompatAdapter extends MmTelFeature {
                         ImsRegistrationImplBase.REGISTRATION_TECH_NONE);
                 Log.i(TAG, "changeEnabledCapabilities - cap: " + capConverted + " radioTech: "
                         + radioTechConverted + " enabled");
+                long startNanos = SystemClock.elapsedRealtimeNanos();
                 imsConfig.setFeatureValue(capConverted, radioTechConverted, FEATURE_ENABLED,
                         new ConfigListener(capConverted, radioTechConverted, latch) {
                             @Override
@@ -372,6 +387,7 @@ public class MmTelFeatureCompatAdapter extends MmTelFeature {
                             }
                         });
                 latch.await(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                recordConfigResponse("setFeatureValue", startNanos, latch);
             }
         } catch (RemoteException | InterruptedException e) {
             Log.w(TAG, "changeEnabledCapabilities: Error processing: " + e.getMessage());
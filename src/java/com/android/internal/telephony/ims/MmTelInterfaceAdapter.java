@@ -21,6 +21,7 @@ import android.os.IBinder;
 import android.os.Message;
 import android.os.RemoteException;
 import android.telephony.ims.ImsCallProfile;
+import android.telephony.ims.feature.ImsFeature;
 
 import com.android.ims.internal.IImsCallSession;
 import com.android.ims.internal.IImsConfig;
@@ -39,83 +40,107 @@ public class MmTelInterfaceAdapter {
 
     protected IBinder mBinder;
     protected int mSlotId;
+    // Records the latency of the calls made to the MmTel feature.
+    protected final ImsBinderCallStats mCallStats;
 
     public MmTelInterfaceAdapter(int slotId, IBinder binder) {
+        this(slotId, binder, ImsBinderCallStats.getInstance());
+    }
+
+    public MmTelInterfaceAdapter(int slotId, IBinder binder, ImsBinderCallStats callStats) {
         mBinder = binder;
         mSlotId = slotId;
+        mCallStats = callStats;
     }
 
     public int startSession(PendingIntent incomingCallIntent, IImsRegistrationListener listener)
             throws RemoteException {
-        return getInterface().startSession(incomingCallIntent, listener);
+        return mCallStats.trace(mSlotId, ImsFeature.FEATURE_MMTEL, "startSession",
+                () -> getInterface().startSession(incomingCallIntent, listener));
     }
 
     public void endSession(int sessionId) throws RemoteException {
-        getInterface().endSession(sessionId);
+        mCallStats.traceVoid(mSlotId, ImsFeature.FEATURE_MMTEL, "endSession",
+                () -> getInterface().endSession(sessionId));
     }
 
     public boolean isConnected(int callSessionType, int callType) throws RemoteException {
-        return getInterface().isConnected(callSessionType, callType);
+        return mCallStats.trace(mSlotId, ImsFeature.FEATURE_MMTEL, "isConnected",
+                () -> getInterface().isConnected(callSessionType, callType));
     }
 
     public boolean isOpened() throws RemoteException {
-        return getInterface().isOpened();
+        return mCallStats.trace(mSlotId, ImsFeature.FEATURE_MMTEL, "isOpened",
+                () -> getInterface().isOpened());
     }
 
     public int getFeatureState() throws RemoteException {
-        return getInterface().getFeatureStatus();
+        return mCallStats.trace(mSlotId, ImsFeature.FEATURE_MMTEL, "getFeatureStatus",
+                () -> getInterface().getFeatureStatus());
     }
 
     public void addRegistrationListener(IImsRegistrationListener listener) throws RemoteException {
-        getInterface().addRegistrationListener(listener);
+        mCallStats.traceVoid(mSlotId, ImsFeature.FEATURE_MMTEL, "addRegistrationListener",
+                () -> getInterface().addRegistrationListener(listener));
     }
 
     public void removeRegistrationListener(IImsRegistrationListener listener)
             throws RemoteException {
-        getInterface().removeRegistrationListener(listener);
+        mCallStats.traceVoid(mSlotId, ImsFeature.FEATURE_MMTEL, "removeRegistrationListener",
+                () -> getInterface().removeRegistrationListener(listener));
     }
 
     public ImsCallProfile createCallProfile(int sessionId, int callSessionType, int callType)
             throws RemoteException {
-        return getInterface().createCallProfile(sessionId, callSessionType, callType);
+        return mCallStats.trace(mSlotId, ImsFeature.FEATURE_MMTEL, "createCallProfile",
+                () -> getInterface().createCallProfile(sessionId, callSessionType, callType));
     }
 
     public IImsCallSession createCallSession(int sessionId, ImsCallProfile profile)
             throws RemoteException {
-        return getInterface().createCallSession(sessionId, profile);
+        return mCallStats.trace(mSlotId, ImsFeature.FEATURE_MMTEL, "createCallSession",
+                () -> getInterface().createCallSession(sessionId, profile));
     }
 
     public IImsCallSession getPendingCallSession(int sessionId, String callId)
             throws RemoteException {
-        return getInterface().getPendingCallSession(sessionId, callId);
+        return mCallStats.trace(mSlotId, ImsFeature.FEATURE_MMTEL, "getPendingCallSession",
+                () -> getInterface().getPendingCallSession(sessionId, callId));
     }
 
     public IImsUt getUtInterface() throws RemoteException {
-        return getInterface().getUtInterface();
+        return mCallStats.trace(mSlotId, ImsFeature.FEATURE_MMTEL, "getUtInterface",
+                () -> getInterface().getUtInterface());
     }
 
     public IImsConfig getConfigInterface() throws RemoteException {
-        return getInterface().getConfigInterface();
+        return mCallStats.trace(mSlotId, ImsFeature.FEATURE_MMTEL, "getConfigInterface",
+                () -> getInterface().getConfigInterface());
     }
 
     public void turnOnIms() throws RemoteException {
-        getInterface().turnOnIms();
+        mCallStats.traceVoid(mSlotId, ImsFeature.FEATURE_MMTEL, "turnOnIms",
+                () -> getInterface().turnOnIms());
     }
 
     public void turnOffIms() throws RemoteException {
-        getInterface().turnOffIms();
+        mCallStats.traceVoid(mSlotId, ImsFeature.FEATURE_MMTEL, "turnOffIms",
+                () -> getInterface().turnOffIms());
     }
 
     public IImsEcbm getEcbmInterface() throws RemoteException {
-        return getInterface().getEcbmInterface();
+        return mCallStats.trace(mSlotId, ImsFeature.FEATURE_MMTEL, "getEcbmInterface",
+                () -> getInterface().getEcbmInterface());
     }
 
     public void setUiTTYMode(int uiTtyMode, Message onComplete) throws RemoteException {
-        getInterface().setUiTTYMode(uiTtyMode, onComplete);
+        mCallStats.traceVoid(mSlotId, ImsFeature.FEATURE_MMTEL, "setUiTTYMode",
+                () -> getInterface().setUiTTYMode(uiTtyMode, onComplete));
     }
 
     public IImsMultiEndpoint getMultiEndpointInterface() throws RemoteException {
-        return getInterface().getMultiEndpointInterface();
+        return mCallStats.trace(mSlotId, ImsFeature.FEATURE_MMTEL, "getMultiEndpointInterface",
+                () -> getInterface().getMultiEndpointInterface());
     }
 
     private IImsMMTelFeature getInterface() throws RemoteException {
@@ -76,7 +76,6 @@ import android.telephony.ims.feature.ImsFeature;
 import android.telephony.ims.feature.MmTelFeature;
 import android.telephony.ims.stub.ImsRegistrationImplBase;
 import android.text.TextUtils;
-import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.LocalLog;
 import android.util.Log;
@@ -442,6 +441,9 @@ public class ImsPhoneCallTracker extends CallTracker implements ImsPullCall {
     //***** Instance Variables
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private ArrayList<ImsPhoneConnection> mConnections = new ArrayList<ImsPhoneConnection>();
+    // Indexes mConnections by ImsCall, all the changes to mConnections go through it.
+    private final ImsPhoneConnectionRegistry mConnectionRegistry =
+            new ImsPhoneConnectionRegistry(mConnections);
     private RegistrantList mVoiceCallEndedRegistrants = new RegistrantList();
     private RegistrantList mVoiceCallStartedRegistrants = new RegistrantList();
 
@@ -851,7 +853,7 @@ public class ImsPhoneCallTracker extends CallTracker implements ImsPullCall {
      *
      * See {@link CarrierConfigManager#KEY_IMS_REASONINFO_MAPPING_STRING_ARRAY}.
      */
-    private Map<Pair<Integer, String>, Integer> mImsReasonCodeMap = new ArrayMap<>();
+    private ImsReasonCodeRemapper mImsReasonCodeRemapper = new ImsReasonCodeRemapper();
 
 
     /**
@@ -1086,7 +1088,7 @@ public class ImsPhoneCallTracker extends CallTracker implements ImsPullCall {
             connection.onDisconnect(disconnectCause);
             connection.getCall().detach(connection);
         }
-        mConnections.clear();
+        mConnectionRegistry.clear();
         updatePhoneState();
     }
 
@@ -1485,6 +1487,8 @@ public class ImsPhoneCallTracker extends CallTracker implements ImsPullCall {
 
         String[] mappings = carrierConfig
                 .getStringArray(CarrierConfigManager.KEY_IMS_REASONINFO_MAPPING_STRING_ARRAY);
+        // Build the remappings once here rather than when calls end.
+        ImsReasonCodeRemapper remapper = new ImsReasonCodeRemapper();
         if (mappings != null && mappings.length > 0) {
             for (String mapping : mappings) {
                 String[] values = mapping.split(Pattern.quote("|"));
@@ -1505,20 +1509,16 @@ public class ImsPhoneCallTracker extends CallTracker implements ImsPullCall {
                     }
                     int toCode = Integer.parseInt(values[2]);
 
-                    addReasonCodeRemapping(fromCode, message, toCode);
-                    log("Loaded ImsReasonInfo mapping : fromCode = " +
-                            fromCode == null ? "any" : fromCode + " ; message = " +
-                            message + " ; toCode = " + toCode);
+                    remapper.add(fromCode, message, toCode);
                 } catch (NumberFormatException nfe) {
                     loge("Invalid ImsReasonInfo mapping found: " + mapping);
                 }
             }
+            log("Loaded " + remapper.size() + " ImsReasonInfo mappings.");
         } else {
             log("No carrier ImsReasonInfo mappings defined.");
-            if (!mImsReasonCodeMap.isEmpty()) {
-                mImsReasonCodeMap.clear();
-            }
         }
+        mImsReasonCodeRemapper = remapper;
     }
 
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
@@ -1627,7 +1627,9 @@ public class ImsPhoneCallTracker extends CallTracker implements ImsPullCall {
             ImsCall imsCall = mImsManager.makeCall(profile,
                     conn.isAdhocConference() ? conn.getParticipantsToDial() : callees,
                     mImsCallListener);
-            conn.setImsCall(imsCall);
+            synchronized (this) {
+                mConnectionRegistry.setImsCall(conn, imsCall);
+            }
 
             mMetrics.writeOnImsCallStart(mPhone.getPhoneId(), imsCall.getSession());
 
@@ -2379,7 +2381,7 @@ public class ImsPhoneCallTracker extends CallTracker implements ImsPullCall {
             if (DBG) log("callEndCleanupHandOverCallIfAny, mHandoverCall.mConnections="
                     + mHandoverCall.getConnections());
             mHandoverCall.clearConnections();
-            mConnections.clear();
+            mConnectionRegistry.clear();
             mState = PhoneConstants.State.IDLE;
         }
     }
@@ -2431,17 +2433,12 @@ public class ImsPhoneCallTracker extends CallTracker implements ImsPullCall {
 
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private synchronized ImsPhoneConnection findConnection(final ImsCall imsCall) {
-        for (ImsPhoneConnection conn : mConnections) {
-            if (conn.getImsCall() == imsCall) {
-                return conn;
-            }
-        }
-        return null;
+        return mConnectionRegistry.find(imsCall);
     }
 
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private synchronized void removeConnection(ImsPhoneConnection conn) {
-        mConnections.remove(conn);
+        mConnectionRegistry.remove(conn);
         // If not emergency call is remaining, notify emergency call registrants
         if (mIsInEmergencyCall) {
             boolean isEmergencyCallInList = false;
@@ -2465,7 +2462,7 @@ public class ImsPhoneCallTracker extends CallTracker implements ImsPullCall {
 
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private synchronized void addConnection(ImsPhoneConnection conn) {
-        mConnections.add(conn);
+        mConnectionRegistry.add(conn);
         if (conn.isEmergency()) {
             mIsInEmergencyCall = true;
             mPhone.sendEmergencyCallStateChange(true);
@@ -2564,17 +2561,14 @@ public class ImsPhoneCallTracker extends CallTracker implements ImsPullCall {
      */
     @VisibleForTesting
     public void addReasonCodeRemapping(Integer fromCode, String message, Integer toCode) {
-        if (message != null) {
-            message = message.toLowerCase();
-        }
-        mImsReasonCodeMap.put(new Pair<>(fromCode, message), toCode);
+        mImsReasonCodeRemapper.add(fromCode, message, toCode);
     }
 
     /**
      * Returns the {@link ImsReasonInfo#getCode()}, potentially remapping to a new value based on
      * the {@link ImsReasonInfo#getCode()} and {@link ImsReasonInfo#getExtraMessage()}.
      *
-     * See {@link #mImsReasonCodeMap}.
+     * See {@link #mImsReasonCodeRemapper}.
      *
      * @param reasonInfo The {@link ImsReasonInfo}.
      * @return The remapped code.
@@ -2582,34 +2576,12 @@ public class ImsPhoneCallTracker extends CallTracker implements ImsPullCall {
     @VisibleForTesting
     public @ImsReasonInfo.ImsCode int maybeRemapReasonCode(ImsReasonInfo reasonInfo) {
         int code = reasonInfo.getCode();
-        String reason = reasonInfo.getExtraMessage();
-        if (reason == null) {
-            reason = "";
-        } else {
-            reason = reason.toLowerCase();
-        }
-        log("maybeRemapReasonCode : fromCode = " + reasonInfo.getCode() + " ; message = "
-                + reason);
-        Pair<Integer, String> toCheck = new Pair<>(code, reason);
-        Pair<Integer, String> wildcardToCheck = new Pair<>(null, reason);
-        if (mImsReasonCodeMap.containsKey(toCheck)) {
-            int toCode = mImsReasonCodeMap.get(toCheck);
-
-            log("maybeRemapReasonCode : fromCode = " + reasonInfo.getCode() + " ; message = "
-                    + reason + " ; toCode = " + toCode);
-            return toCode;
-        } else if (!reason.isEmpty() && mImsReasonCodeMap.containsKey(wildcardToCheck)) {
-            // Handle the case where a wildcard is specified for the fromCode; in this case we will
-            // match without caring about the fromCode.
-            // If the reason is empty, we won't do wildcard remapping; otherwise we'd basically be
-            // able to remap all ImsReasonInfo codes to a single code, which is not desirable.
-            int toCode = mImsReasonCodeMap.get(wildcardToCheck);
-
-            log("maybeRemapReasonCode : fromCode(wildcard) = " + reasonInfo.getCode() +
-                    " ; message = " + reason + " ; toCode = " + toCode);
-            return toCode;
+        int toCode = mImsReasonCodeRemapper.remap(code, reasonInfo.getExtraMessage());
+        if (toCode != code) {
+            log("maybeRemapReasonCode : fromCode = " + code + " ; message = "
+                    + reasonInfo.getExtraMessage() + " ; toCode = " + toCode);
         }
-        return code;
+        return toCode;
     }
 
     /**
@@ -4366,6 +4338,7 @@ public class ImsPhoneCallTracker extends CallTracker implements ImsPullCall {
         pw.println(" mCallQualityMetricsHistory=" + mCallQualityMetricsHistory);
         pw.println(" mIsConferenceEventPackageHandlingEnabled=" + mIsConferenceEventPackageEnabled);
         pw.println(" mSupportCepOnPeer=" + mSupportCepOnPeer);
+        pw.println(" mImsReasonCodeRemappings=" + mImsReasonCodeRemapper.size());
         if (mConfig != null) {
             pw.println(" isDeviceToDeviceCommsSupported= " + mConfig.isD2DCommunicationSupported);
         }
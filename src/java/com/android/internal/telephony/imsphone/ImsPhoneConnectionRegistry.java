@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.internal.telephony.imsphone;
+
+import com.android.ims.ImsCall;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The connections of {@link ImsPhoneCallTracker}, indexed by their {@link ImsCall}.
+ *
+ * The connections must be added and removed, and given their ImsCall, through this class so that
+ * the index stays in sync with the list. A connection may still drop its ImsCall by itself when it
+ * disconnects, so an index hit is only returned if the connection still refers to the ImsCall.
+ * The ImsCall of a connection is kept across conference merges, which only swap the underlying
+ * sessions, so the index stays valid while calls are merged.
+ *
+ * This class is not thread safe, callers synchronize as they do for the list of connections.
+ */
+public class ImsPhoneConnectionRegistry {
+    private final ArrayList<ImsPhoneConnection> mConnections;
+    private final HashMap<ImsCall, ImsPhoneConnection> mConnectionsByImsCall = new HashMap<>();
+    // The ImsCall each connection is indexed by, to remove it from the index after it dropped
+    // its ImsCall.
+    private final HashMap<ImsPhoneConnection, ImsCall> mImsCallsByConnection = new HashMap<>();
+
+    public ImsPhoneConnectionRegistry() {
+        this(new ArrayList<>());
+    }
+
+    /**
+     * @param connections The list of connections to index. It must only be modified through this
+     *        class.
+     */
+    public ImsPhoneConnectionRegistry(ArrayList<ImsPhoneConnection> connections) {
+        mConnections = connections;
+    }
+
+    /**
+     * @return The live list of connections, not to be modified.
+     */
+    public ArrayList<ImsPhoneConnection> getConnections() {
+        return mConnections;
+    }
+
+    /**
+     * Add a connection.
+     *
+     * @param conn The connection to add
+     */
+    public void add(ImsPhoneConnection conn) {
+        mConnections.add(conn);
+        index(conn, conn.getImsCall());
+    }
+
+    /**
+     * Set the ImsCall of a connection, e.g. once a dialed call is made.
+     *
+     * @param conn The connection
+     * @param imsCall The ImsCall of the connection
+     */
+    public void setImsCall(ImsPhoneConnection conn, ImsCall imsCall) {
+        conn.setImsCall(imsCall);
+        if (mConnections.contains(conn)) {
+            unindex(conn);
+            index(conn, imsCall);
+        }
+    }
+
+    /**
+     * Remove a connection.
+     *
+     * @param conn The connection to remove
+     * @return {@code true} if the connection was registered
+     */
+    public boolean remove(ImsPhoneConnection conn) {
+        unindex(conn);
+        return mConnections.remove(conn);
+    }
+
+    /** Remove all the connections. */
+    public void clear() {
+        mConnections.clear();
+        mConnectionsByImsCall.clear();
+        mImsCallsByConnection.clear();
+    }
+
+    /**
+     * @param imsCall The ImsCall to look up
+     * @return The connection of the ImsCall, or {@code null} if none
+     */
+    public ImsPhoneConnection find(ImsCall imsCall) {
+        if (imsCall == null) {
+            // Connections without an ImsCall are not indexed
+            for (ImsPhoneConnection conn : mConnections) {
+                if (conn.getImsCall() == null) return conn;
+            }
+            return null;
+        }
+        ImsPhoneConnection conn = mConnectionsByImsCall.get(imsCall);
+        return conn != null && conn.getImsCall() == imsCall ? conn : null;
+    }
+
+    private void index(ImsPhoneConnection conn, ImsCall imsCall) {
+        if (imsCall == null) return;
+        mConnectionsByImsCall.put(imsCall, conn);
+        mImsCallsByConnection.put(conn, imsCall);
+    }
+
+    private void unindex(ImsPhoneConnection conn) {
+        ImsCall imsCall = mImsCallsByConnection.remove(conn);
+        if (imsCall != null && mConnectionsByImsCall.get(imsCall) == conn) {
+            mConnectionsByImsCall.remove(imsCall);
+        }
+    }
+}
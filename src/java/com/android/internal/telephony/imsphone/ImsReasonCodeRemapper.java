@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.imsphone;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.util.SparseArray;
+
+/**
+ * Remaps pairs of {@link android.telephony.ims.ImsReasonInfo#getCode()} and
+ * {@link android.telephony.ims.ImsReasonInfo#getExtraMessage()} values to a new
+ * {@code ImsReasonInfo#CODE_*} value, as defined by
+ * {@link android.telephony.CarrierConfigManager#KEY_IMS_REASONINFO_MAPPING_STRING_ARRAY}.
+ *
+ * The remappings are indexed when they are added, so that {@link #remap(int, String)} doesn't
+ * allocate when a call ends: remappings of a code are found by the code, wildcard remappings by a
+ * case-insensitive hash of their message. Messages match regardless of case.
+ */
+public class ImsReasonCodeRemapper {
+
+    private static final class Remapping {
+        // The lower case message, interned as the carrier configs repeat the same messages.
+        final String message;
+        int toCode;
+        // The next remapping of the same code, or of a message with the same hash.
+        Remapping next;
+
+        Remapping(String message, int toCode, Remapping next) {
+            this.message = message;
+            this.toCode = toCode;
+            this.next = next;
+        }
+    }
+
+    // Maps the from code -> the remappings of the code.
+    private final SparseArray<Remapping> mRemappings = new SparseArray<>();
+
+    // Maps the hash of the message (see hashIgnoreCase) -> the remappings of any code.
+    private final SparseArray<Remapping> mWildcardRemappings = new SparseArray<>();
+
+    private int mSize;
+
+    /**
+     * Add a remapping. Replaces the remapping of the same code and message, if any.
+     *
+     * @param fromCode The code to remap, or {@code null} to remap any code with the message.
+     * @param message The message to remap. {@code null} is the empty message.
+     * @param toCode The code to remap to.
+     */
+    public void add(@Nullable Integer fromCode, @Nullable String message, int toCode) {
+        message = message == null ? "" : message.toLowerCase().intern();
+        SparseArray<Remapping> remappings;
+        int key;
+        if (fromCode == null) {
+            remappings = mWildcardRemappings;
+            key = hashIgnoreCase(message);
+        } else {
+            remappings = mRemappings;
+            key = fromCode;
+        }
+
+        Remapping first = remappings.get(key);
+        for (Remapping remapping = first; remapping != null; remapping = remapping.next) {
+            if (remapping.message.equals(message)) {
+                remapping.toCode = toCode;
+                return;
+            }
+        }
+        remappings.put(key, new Remapping(message, toCode, first));
+        mSize++;
+    }
+
+    /**
+     * Remove all the remappings.
+     */
+    public void clear() {
+        mRemappings.clear();
+        mWildcardRemappings.clear();
+        mSize = 0;
+    }
+
+    /**
+     * @return The number of remappings.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Remap a code. The remapping of the code and message is preferred, then the remapping of any
+     * code with the message. An empty message is never remapped regardless of the code, otherwise
+     * all the codes could be remapped to a single one.
+     *
+     * @param code The code to remap.
+     * @param message The message, {@code null} is the empty message.
+     * @return The remapped code, or {@code code} if there is no remapping for it.
+     */
+    public int remap(int code, @Nullable String message) {
+        if (message == null) {
+            message = "";
+        }
+        Remapping remapping = find(mRemappings.get(code), message);
+        if (remapping == null && !message.isEmpty() && mWildcardRemappings.size() > 0) {
+            remapping = find(mWildcardRemappings.get(hashIgnoreCase(message)), message);
+        }
+        return remapping != null ? remapping.toCode : code;
+    }
+
+    private static Remapping find(Remapping remapping, @NonNull String message) {
+        for (; remapping != null; remapping = remapping.next) {
+            if (remapping.message.equalsIgnoreCase(message)) {
+                return remapping;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hash a string such that strings which are equal ignoring case have the same hash, without
+     * allocating.
+     */
+    private static int hashIgnoreCase(@NonNull String s) {
+        int hash = 0;
+        for (int i = 0; i < s.length(); i++) {
+            // The same folding as String#equalsIgnoreCase.
+            hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+        }
+        return hash;
+    }
+}
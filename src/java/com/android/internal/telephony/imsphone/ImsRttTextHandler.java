@@ -19,6 +19,7 @@ package com.android.internal.telephony.imsphone;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.telecom.Connection;
 
 import com.android.internal.annotations.VisibleForTesting;
@@ -46,6 +47,13 @@ public class ImsRttTextHandler extends Handler {
     // the buffer to grow to before sending as many as we can.
     public static final int MAX_BUFFERED_CHARACTER_COUNT = 5;
     private static final int MILLIS_PER_SECOND = 1000;
+    // Granularity of the rate limiter. Codepoints sent within a slot expire together, once the
+    // whole slot is more than a second old.
+    private static final int RATE_LIMIT_SLOT_MILLIS = 100;
+    private static final int RATE_LIMIT_SLOT_COUNT = MILLIS_PER_SECOND / RATE_LIMIT_SLOT_MILLIS + 1;
+    // Initial capacity of the buffer of codepoints to send to the network. It only grows if
+    // the in-call app writes faster than the rate limit for a long time.
+    private static final int INITIAL_NETWORK_BUFFER_CAPACITY = 64;
 
     // Messages for the handler.
     // Initializes the text handler. Should have an RttTextStream set in msg.obj
@@ -57,9 +65,6 @@ public class ImsRttTextHandler extends Handler {
     private static final int SEND_TO_INCALL = 3;
     // Send as many characters as possible, as constrained by the rate limit. No extra data.
     private static final int ATTEMPT_SEND_TO_NETWORK = 4;
-    // Indicates that N characters were sent a second ago and should be ignored by the rate
-    // limiter. msg.arg1 should be set to N.
-    private static final int EXPIRE_SENT_CODEPOINT_COUNT = 5;
     // Indicates that the call is over and we should teardown everything we have set up.
     private static final int TEARDOWN = 9999;
 
@@ -107,8 +112,25 @@ public class ImsRttTextHandler extends Handler {
         }
     }
 
-    private int mCodepointsAvailableForTransmission = MAX_CODEPOINTS_PER_SECOND;
-    private StringBuffer mBufferedTextToNetwork = new StringBuffer();
+    // Ring buffer of the codepoints to send to the network.
+    private int[] mBufferedTextToNetwork = new int[INITIAL_NETWORK_BUFFER_CAPACITY];
+    private int mNetworkBufferStart;
+    private int mNetworkBufferSize;
+    // Uptime at which the oldest codepoint still in the network buffer was received.
+    private long mNetworkBufferOldestMillis;
+    private final StringBuilder mNetworkSendBuilder = new StringBuilder();
+
+    // Timer wheel of the rate limiter: codepoints sent during each of the last slots.
+    private final int[] mSentCodepointsPerSlot = new int[RATE_LIMIT_SLOT_COUNT];
+    private long mCurrentSlot;
+    private int mCodepointsSentInLastSecond;
+
+    // Latency statistics. Reader latency is from the read from in-call to the processing on the
+    // handler, writer latency from the processing on the handler to the write to the network.
+    private long mReadCount;
+    private long mMaxReaderLatencyMillis;
+    private long mWriteCount;
+    private long mMaxWriterLatencyMillis;
     private InCallReaderThread mReaderThread;
     // This is only ever used when the pipes fail and we have to re-setup. Messages received
     // from the network are buffered here until Telecom gets back to us with the new pipes.
@@ -138,45 +160,24 @@ public class ImsRttTextHandler extends Handler {
                 }
                 break;
             case APPEND_TO_NETWORK_BUFFER:
-                // First, append the text-to-send to the string buffer
-                mBufferedTextToNetwork.append((String) msg.obj);
+                long now = SystemClock.uptimeMillis();
+                mReadCount++;
+                mMaxReaderLatencyMillis = Math.max(mMaxReaderLatencyMillis, now - msg.getWhen());
+                // First, append the text-to-send to the buffer
+                appendToNetworkBuffer((String) msg.obj, now);
                 // Check to see how many codepoints we have buffered. If we have more than 5,
-                // send immediately, otherwise, wait until a timeout happens.
-                int numCodepointsBuffered = mBufferedTextToNetwork
-                        .codePointCount(0, mBufferedTextToNetwork.length());
-                if (numCodepointsBuffered >= MAX_BUFFERED_CHARACTER_COUNT) {
-                    sendMessage(obtainMessage(ATTEMPT_SEND_TO_NETWORK));
-                } else {
+                // send immediately, otherwise, wait until a timeout happens. A single pending
+                // timeout covers all the codepoints buffered since the first one.
+                if (mNetworkBufferSize >= MAX_BUFFERED_CHARACTER_COUNT) {
+                    removeMessages(ATTEMPT_SEND_TO_NETWORK);
+                    sendEmptyMessage(ATTEMPT_SEND_TO_NETWORK);
+                } else if (!hasMessages(ATTEMPT_SEND_TO_NETWORK)) {
                     sendEmptyMessageDelayed(
                             ATTEMPT_SEND_TO_NETWORK, MAX_BUFFERING_DELAY_MILLIS);
                 }
                 break;
             case ATTEMPT_SEND_TO_NETWORK:
-                // Check to see how many codepoints we can send, and send that many.
-                int numCodePointsAvailableInBuffer = mBufferedTextToNetwork.codePointCount(0,
-                        mBufferedTextToNetwork.length());
-                int numCodePointsSent = Math.min(numCodePointsAvailableInBuffer,
-                        mCodepointsAvailableForTransmission);
-                if (numCodePointsSent == 0) {
-                    break;
-                }
-                int endSendIndex = mBufferedTextToNetwork.offsetByCodePoints(0,
-                        numCodePointsSent);
-
-                String stringToSend = mBufferedTextToNetwork.substring(0, endSendIndex);
-
-                mBufferedTextToNetwork.delete(0, endSendIndex);
-                mNetworkWriter.write(stringToSend);
-                mCodepointsAvailableForTransmission -= numCodePointsSent;
-                sendMessageDelayed(
-                        obtainMessage(EXPIRE_SENT_CODEPOINT_COUNT, numCodePointsSent, 0),
-                        MILLIS_PER_SECOND);
-                break;
-            case EXPIRE_SENT_CODEPOINT_COUNT:
-                mCodepointsAvailableForTransmission += msg.arg1;
-                if (mCodepointsAvailableForTransmission > 0) {
-                    sendMessage(obtainMessage(ATTEMPT_SEND_TO_NETWORK));
-                }
+                sendToNetwork(SystemClock.uptimeMillis());
                 break;
             case TEARDOWN:
                 try {
@@ -189,10 +190,105 @@ public class ImsRttTextHandler extends Handler {
                 }
                 mReaderThread = null;
                 mRttTextStream = null;
+                Rlog.i(LOG_TAG, "Torn down: reads=" + mReadCount
+                        + " maxReaderLatencyMs=" + mMaxReaderLatencyMillis
+                        + " writes=" + mWriteCount
+                        + " maxWriterLatencyMs=" + mMaxWriterLatencyMillis);
                 break;
         }
     }
 
+    private void appendToNetworkBuffer(String text, long now) {
+        if (mNetworkBufferSize == 0) {
+            mNetworkBufferOldestMillis = now;
+        }
+        int i = 0;
+        if (mNetworkBufferSize > 0 && text.length() > 0
+                && Character.isLowSurrogate(text.charAt(0))) {
+            // A surrogate pair split between two reads from in-call.
+            int last = (mNetworkBufferStart + mNetworkBufferSize - 1)
+                    % mBufferedTextToNetwork.length;
+            if (Character.isHighSurrogate((char) mBufferedTextToNetwork[last])) {
+                mBufferedTextToNetwork[last] = Character.toCodePoint(
+                        (char) mBufferedTextToNetwork[last], text.charAt(0));
+                i = 1;
+            }
+        }
+        while (i < text.length()) {
+            int codepoint = text.codePointAt(i);
+            i += Character.charCount(codepoint);
+            if (mNetworkBufferSize == mBufferedTextToNetwork.length) {
+                growNetworkBuffer();
+            }
+            mBufferedTextToNetwork[(mNetworkBufferStart + mNetworkBufferSize)
+                    % mBufferedTextToNetwork.length] = codepoint;
+            mNetworkBufferSize++;
+        }
+    }
+
+    private void growNetworkBuffer() {
+        int[] grown = new int[mBufferedTextToNetwork.length * 2];
+        for (int i = 0; i < mNetworkBufferSize; i++) {
+            grown[i] = mBufferedTextToNetwork[
+                    (mNetworkBufferStart + i) % mBufferedTextToNetwork.length];
+        }
+        mBufferedTextToNetwork = grown;
+        mNetworkBufferStart = 0;
+    }
+
+    /**
+     * Send as many buffered codepoints as the rate limit allows. If some are left, schedule the
+     * next attempt for when the oldest codepoints sent expire from the rate limiter.
+     */
+    private void sendToNetwork(long now) {
+        advanceRateLimiter(now);
+        int numCodePointsSent = Math.min(mNetworkBufferSize,
+                MAX_CODEPOINTS_PER_SECOND - mCodepointsSentInLastSecond);
+        if (numCodePointsSent > 0) {
+            mNetworkSendBuilder.setLength(0);
+            for (int i = 0; i < numCodePointsSent; i++) {
+                mNetworkSendBuilder.appendCodePoint(mBufferedTextToNetwork[mNetworkBufferStart]);
+                mNetworkBufferStart = (mNetworkBufferStart + 1) % mBufferedTextToNetwork.length;
+            }
+            mNetworkBufferSize -= numCodePointsSent;
+            mNetworkWriter.write(mNetworkSendBuilder.toString());
+
+            mWriteCount++;
+            mMaxWriterLatencyMillis = Math.max(mMaxWriterLatencyMillis,
+                    now - mNetworkBufferOldestMillis);
+            // The oldest codepoint left was received at the earliest now, as far as we know.
+            mNetworkBufferOldestMillis = now;
+            mSentCodepointsPerSlot[(int) (mCurrentSlot % RATE_LIMIT_SLOT_COUNT)] +=
+                    numCodePointsSent;
+            mCodepointsSentInLastSecond += numCodePointsSent;
+        }
+        if (mNetworkBufferSize > 0 && !hasMessages(ATTEMPT_SEND_TO_NETWORK)) {
+            sendEmptyMessageAtTime(ATTEMPT_SEND_TO_NETWORK, getNextSlotExpiryMillis());
+        }
+    }
+
+    /** Expire the slots of the rate limiter which are more than a second old. */
+    private void advanceRateLimiter(long now) {
+        long slot = now / RATE_LIMIT_SLOT_MILLIS;
+        long expired = Math.min(slot - mCurrentSlot, RATE_LIMIT_SLOT_COUNT);
+        for (long i = 1; i <= expired; i++) {
+            int index = (int) ((mCurrentSlot + i) % RATE_LIMIT_SLOT_COUNT);
+            mCodepointsSentInLastSecond -= mSentCodepointsPerSlot[index];
+            mSentCodepointsPerSlot[index] = 0;
+        }
+        mCurrentSlot = slot;
+    }
+
+    /** @return the uptime at which the oldest slot with sent codepoints expires */
+    private long getNextSlotExpiryMillis() {
+        for (int i = 1; i < RATE_LIMIT_SLOT_COUNT; i++) {
+            if (mSentCodepointsPerSlot[(int) ((mCurrentSlot + i) % RATE_LIMIT_SLOT_COUNT)] > 0) {
+                return (mCurrentSlot + i) * RATE_LIMIT_SLOT_MILLIS;
+            }
+        }
+        return (mCurrentSlot + RATE_LIMIT_SLOT_COUNT) * RATE_LIMIT_SLOT_MILLIS;
+    }
+
     public ImsRttTextHandler(Looper looper, NetworkWriter networkWriter) {
         super(looper);
         mNetworkWriter = networkWriter;
@@ -217,6 +313,23 @@ public class ImsRttTextHandler extends Handler {
     }
 
     public String getNetworkBufferText() {
-        return mBufferedTextToNetwork.toString();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mNetworkBufferSize; i++) {
+            sb.appendCodePoint(mBufferedTextToNetwork[
+                    (mNetworkBufferStart + i) % mBufferedTextToNetwork.length]);
+        }
+        return sb.toString();
+    }
+
+    /** @return the maximum latency from a read from in-call to its processing, in ms */
+    @VisibleForTesting
+    public long getMaxReaderLatencyMillis() {
+        return mMaxReaderLatencyMillis;
+    }
+
+    /** @return the maximum latency from buffering text to writing it to the network, in ms */
+    @VisibleForTesting
+    public long getMaxWriterLatencyMillis() {
+        return mMaxWriterLatencyMillis;
     }
 }
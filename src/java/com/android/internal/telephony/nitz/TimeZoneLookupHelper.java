@@ -22,19 +22,26 @@ import static com.android.internal.telephony.nitz.TimeZoneLookupHelper.CountryRe
 import android.annotation.IntDef;
 import android.annotation.NonNull;
 import android.annotation.Nullable;
+import android.icu.util.BasicTimeZone;
 import android.icu.util.TimeZone;
+import android.icu.util.TimeZoneTransition;
 import android.text.TextUtils;
 import android.timezone.CountryTimeZones;
 import android.timezone.CountryTimeZones.OffsetResult;
 import android.timezone.CountryTimeZones.TimeZoneMapping;
 import android.timezone.TimeZoneFinder;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.NitzData;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -109,9 +116,134 @@ public final class TimeZoneLookupHelper {
         }
     }
 
-    /** The last CountryTimeZones object retrieved. */
-    @Nullable
-    private CountryTimeZones mLastCountryTimeZones;
+    /**
+     * The lookups cached for a country. The offsets of the time zones used in a country only change
+     * at the transitions of the zones, and the set of time zones used only changes at fixed
+     * instants, so the results of the lookups are valid in the window of time between them.
+     */
+    private static final class CountryEntry {
+
+        /** The key of an offset lookup for which the DST state is unknown. */
+        private static final int DST_UNKNOWN = 0;
+        private static final int DST_FALSE = 1;
+        private static final int DST_TRUE = 2;
+
+        @NonNull
+        final CountryTimeZones countryTimeZones;
+
+        /** The start of the window, inclusive. */
+        long windowStartMillis;
+
+        /** The end of the window, exclusive. The window is empty until computed. */
+        long windowEndMillis = Long.MIN_VALUE;
+
+        /** The ID of the device default zone the offset lookups were made with. */
+        @Nullable
+        String biasId;
+
+        /**
+         * The offset lookups made in the window, keyed by {@link #offsetKey(int, Boolean)}. The
+         * value is {@code null} when no zone matches the offset.
+         */
+        final Map<Long, OffsetResult> offsetResults = new HashMap<>();
+
+        @Nullable
+        CountryResult countryResult;
+
+        @Nullable
+        Boolean usesUtc;
+
+        CountryEntry(@NonNull CountryTimeZones countryTimeZones) {
+            this.countryTimeZones = countryTimeZones;
+        }
+
+        /**
+         * Drops the cached lookups if {@code whenMillis} is outside of the window, and computes the
+         * window containing it.
+         */
+        void moveWindowTo(long whenMillis) {
+            if (whenMillis >= windowStartMillis && whenMillis < windowEndMillis) {
+                return;
+            }
+            offsetResults.clear();
+            countryResult = null;
+            usesUtc = null;
+
+            List<TimeZoneMapping> mappings =
+                    countryTimeZones.getEffectiveTimeZoneMappingsAt(whenMillis);
+            long start = Long.MIN_VALUE;
+            long end = Long.MAX_VALUE;
+            for (TimeZoneMapping mapping : mappings) {
+                TimeZone timeZone = mapping.getTimeZone();
+                if (!(timeZone instanceof BasicTimeZone)) {
+                    // The transitions are unknown, the lookups are only valid at whenMillis.
+                    start = whenMillis;
+                    end = whenMillis + 1;
+                    break;
+                }
+                BasicTimeZone basicTimeZone = (BasicTimeZone) timeZone;
+                TimeZoneTransition previous =
+                        basicTimeZone.getPreviousTransition(whenMillis, true /* inclusive */);
+                if (previous != null) {
+                    start = Math.max(start, previous.getTime());
+                }
+                TimeZoneTransition next =
+                        basicTimeZone.getNextTransition(whenMillis, false /* inclusive */);
+                if (next != null) {
+                    end = Math.min(end, next.getTime());
+                }
+            }
+
+            // Time zones stop being used at fixed instants and never come back, so the zones
+            // used at whenMillis are used in the whole window if they are used at both of its
+            // ends. Otherwise shrink the window rather than looking for the exact instant.
+            if (start < whenMillis && !sameTimeZones(mappings,
+                    countryTimeZones.getEffectiveTimeZoneMappingsAt(start))) {
+                start = whenMillis;
+            }
+            if (end - 1 > whenMillis && !sameTimeZones(mappings,
+                    countryTimeZones.getEffectiveTimeZoneMappingsAt(end - 1))) {
+                end = whenMillis + 1;
+            }
+            windowStartMillis = start;
+            windowEndMillis = end;
+        }
+
+        private static boolean sameTimeZones(@NonNull List<TimeZoneMapping> mappings1,
+                @NonNull List<TimeZoneMapping> mappings2) {
+            if (mappings1.size() != mappings2.size()) {
+                return false;
+            }
+            for (int i = 0; i < mappings1.size(); i++) {
+                if (!mappings1.get(i).getTimeZoneId().equals(mappings2.get(i).getTimeZoneId())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        static long offsetKey(int totalOffsetMillis, @Nullable Boolean isDst) {
+            int dstState = isDst == null ? DST_UNKNOWN : (isDst ? DST_TRUE : DST_FALSE);
+            return ((long) totalOffsetMillis << 2) | dstState;
+        }
+    }
+
+    /** The maximum number of countries kept in {@link #mCountryEntries}. */
+    private static final int MAX_CACHED_COUNTRIES = 8;
+
+    /**
+     * The countries looked up most recently, keyed by lower-case ISO country code, in access order.
+     * Devices near a border, or with SIMs from different countries, switch between a few countries.
+     */
+    @GuardedBy("this")
+    private final LinkedHashMap<String, CountryEntry> mCountryEntries =
+            new LinkedHashMap<String, CountryEntry>(
+                    MAX_CACHED_COUNTRIES, 0.75f, true /* accessOrder */) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CountryEntry> eldest) {
+                    return size() > MAX_CACHED_COUNTRIES;
+                }
+            };
 
     @VisibleForTesting
     public TimeZoneLookupHelper() {}
@@ -128,28 +260,40 @@ public final class TimeZoneLookupHelper {
     @Nullable
     public OffsetResult lookupByNitzCountry(
             @NonNull NitzData nitzData, @NonNull String isoCountryCode) {
-        CountryTimeZones countryTimeZones = getCountryTimeZones(isoCountryCode);
-        if (countryTimeZones == null) {
-            return null;
-        }
         TimeZone bias = TimeZone.getDefault();
+        long whenMillis = nitzData.getCurrentTimeInMillis();
+        int totalOffsetMillis = nitzData.getLocalOffsetMillis();
 
         // Android NITZ time zone matching doesn't try to do a precise match using the DST offset
         // supplied by the carrier. It only considers whether or not the carrier suggests local time
         // is DST (if known). NITZ is limited in only being able to express DST offsets in whole
         // hours and the DST info is optional.
         Integer dstAdjustmentMillis = nitzData.getDstAdjustmentMillis();
-        if (dstAdjustmentMillis == null) {
-            return countryTimeZones.lookupByOffsetWithBias(
-                    nitzData.getCurrentTimeInMillis(), bias, nitzData.getLocalOffsetMillis());
+        // We don't try to match the exact DST offset given, we just use it to work out if the
+        // country is in DST.
+        Boolean isDst = dstAdjustmentMillis == null ? null : dstAdjustmentMillis != 0;
 
-        } else {
-            // We don't try to match the exact DST offset given, we just use it to work out if
-            // the country is in DST.
-            boolean isDst = dstAdjustmentMillis != 0;
-            return countryTimeZones.lookupByOffsetWithBias(
-                    nitzData.getCurrentTimeInMillis(), bias,
-                    nitzData.getLocalOffsetMillis(), isDst);
+        synchronized (this) {
+            CountryEntry entry = getCountryEntry(isoCountryCode, whenMillis);
+            if (entry == null) {
+                return null;
+            }
+            if (!bias.getID().equals(entry.biasId)) {
+                entry.offsetResults.clear();
+                entry.biasId = bias.getID();
+            }
+
+            long key = CountryEntry.offsetKey(totalOffsetMillis, isDst);
+            if (entry.offsetResults.containsKey(key)) {
+                return entry.offsetResults.get(key);
+            }
+            CountryTimeZones countryTimeZones = entry.countryTimeZones;
+            OffsetResult result = isDst == null
+                    ? countryTimeZones.lookupByOffsetWithBias(whenMillis, bias, totalOffsetMillis)
+                    : countryTimeZones.lookupByOffsetWithBias(
+                            whenMillis, bias, totalOffsetMillis, isDst);
+            entry.offsetResults.put(key, result);
+            return result;
         }
     }
 
@@ -196,11 +340,22 @@ public final class TimeZoneLookupHelper {
     @VisibleForTesting
     @Nullable
     public CountryResult lookupByCountry(@NonNull String isoCountryCode, long whenMillis) {
-        CountryTimeZones countryTimeZones = getCountryTimeZones(isoCountryCode);
-        if (countryTimeZones == null) {
-            // Unknown country code.
-            return null;
+        synchronized (this) {
+            CountryEntry entry = getCountryEntry(isoCountryCode, whenMillis);
+            if (entry == null) {
+                // Unknown country code.
+                return null;
+            }
+            if (entry.countryResult == null) {
+                entry.countryResult = createCountryResult(entry.countryTimeZones, whenMillis);
+            }
+            return entry.countryResult;
         }
+    }
+
+    @Nullable
+    private static CountryResult createCountryResult(
+            @NonNull CountryTimeZones countryTimeZones, long whenMillis) {
         TimeZone countryDefaultZone = countryTimeZones.getDefaultTimeZone();
         if (countryDefaultZone == null) {
             // This is not expected: the country default should have been validated before.
@@ -312,30 +467,40 @@ public final class TimeZoneLookupHelper {
             return false;
         }
 
-        CountryTimeZones countryTimeZones = getCountryTimeZones(isoCountryCode);
-        return countryTimeZones != null && countryTimeZones.hasUtcZone(whenMillis);
+        synchronized (this) {
+            CountryEntry entry = getCountryEntry(isoCountryCode, whenMillis);
+            if (entry == null) {
+                return false;
+            }
+            if (entry.usesUtc == null) {
+                entry.usesUtc = entry.countryTimeZones.hasUtcZone(whenMillis);
+            }
+            return entry.usesUtc;
+        }
     }
 
+    /**
+     * Returns the cached lookups for the country, for the window of time containing
+     * {@code whenMillis}, or {@code null} if the country is unknown.
+     */
+    @GuardedBy("this")
     @Nullable
-    private CountryTimeZones getCountryTimeZones(@NonNull String isoCountryCode) {
+    private CountryEntry getCountryEntry(@NonNull String isoCountryCode, long whenMillis) {
         Objects.requireNonNull(isoCountryCode);
 
-        // A single entry cache of the last CountryTimeZones object retrieved since there should
-        // be strong consistency across calls.
-        synchronized (this) {
-            if (mLastCountryTimeZones != null) {
-                if (mLastCountryTimeZones.matchesCountryCode(isoCountryCode)) {
-                    return mLastCountryTimeZones;
-                }
-            }
-
+        String key = isoCountryCode.toLowerCase(Locale.ROOT);
+        CountryEntry entry = mCountryEntries.get(key);
+        if (entry == null) {
             // Perform the lookup. It's very unlikely to return null, but we won't cache null.
             CountryTimeZones countryTimeZones =
                     TimeZoneFinder.getInstance().lookupCountryTimeZones(isoCountryCode);
-            if (countryTimeZones != null) {
-                mLastCountryTimeZones = countryTimeZones;
+            if (countryTimeZones == null) {
+                return null;
             }
-            return countryTimeZones;
+            entry = new CountryEntry(countryTimeZones);
+            mCountryEntries.put(key, entry);
         }
+        entry.moveWindowTo(whenMillis);
+        return entry;
     }
 }
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import android.telephony.UiccAccessRule;
+
+import com.android.telephony.Rlog;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming decoder of the access rules read from the ARA-M and ARA-D applets.
+ *
+ * The response to GET DATA [All] is an ALL-REF-AR-DO, which may span several responses. The
+ * responses are fed as they arrive and each REF-AR-DO is decoded into a {@link UiccAccessRule} as
+ * soon as all of its bytes are available, so only the bytes of the rule being received are
+ * buffered.
+ *
+ * Rules format, with the tags of GlobalPlatform Secure Element Access Control:
+ *   ALL_REF_AR_DO = FF40 + len + [REF_AR_DO]*n
+ *   REF_AR_DO = E2 + len + REF_DO + AR_DO
+ *   REF_DO = E1 + len + (optional) AID_REF_DO + DEVICE_APP_ID_REF_DO + (optional) PKG_REF_DO
+ *   AR_DO = E3 + len + [other DO]*n + PERM_AR_DO
+ *   AID_REF_DO = 4F + len + AID, only FFFFFFFFFFFF denotes a carrier privilege rule
+ *   DEVICE_APP_ID_REF_DO = C1 + len + hash of the certificate
+ *   PKG_REF_DO = CA + len + package name
+ *   PERM_AR_DO = DB + len + detailed permission (8 bytes)
+ *
+ * Malformed data is reported with an {@link IllegalArgumentException}.
+ *
+ * {@hide}
+ */
+public class UiccAccessRuleDecoder {
+    private static final String LOG_TAG = "UiccAccessRuleDecoder";
+
+    private static final int TAG_ALL_REF_AR_DO_1 = 0xFF;
+    private static final int TAG_ALL_REF_AR_DO_2 = 0x40;
+    private static final int TAG_REF_AR_DO = 0xE2;
+    private static final int TAG_REF_DO = 0xE1;
+    private static final int TAG_DEVICE_APP_ID_REF_DO = 0xC1;
+    private static final int TAG_PKG_REF_DO = 0xCA;
+    private static final int TAG_AR_DO = 0xE3;
+    private static final int TAG_PERM_AR_DO = 0xDB;
+    private static final int TAG_AID_REF_DO = 0x4F;
+    private static final int CARRIER_PRIVILEGE_AID_LENGTH = 6;
+
+    // Length encoding is in GPC_Specification_2.2.1: 11.1.5 APDU Message and Data Length.
+    // Length field could be either 1 byte if length < 128, or multiple bytes with first byte
+    // specifying how many bytes are used for length, followed by length bytes.
+    private static final int SINGLE_BYTE_MAX_LENGTH = 0x80;
+    private static final int MAX_LENGTH_BYTES = 3;
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private final List<UiccAccessRule> mRules = new ArrayList<>();
+    private byte[] mBuffer = new byte[INITIAL_BUFFER_SIZE];
+    // Number of bytes in mBuffer.
+    private int mLength;
+    // Offset of the first byte in mBuffer not decoded yet.
+    private int mOffset;
+    // Offset in mBuffer of the end of the ALL-REF-AR-DO, or -1 if its header was not read yet.
+    private int mEnd = -1;
+    // Length of the value of the last TLV header read.
+    private int mValueLength;
+
+    /**
+     * Feed the payload of a GET DATA response, and decode the rules it completes.
+     *
+     * @param data The payload
+     * @throws IllegalArgumentException if the data is malformed
+     */
+    public void feed(byte[] data) {
+        if (mEnd >= 0 && mLength + data.length > mEnd) {
+            throw new IllegalArgumentException("Did not consume all.");
+        }
+        if (mLength + data.length > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mLength + data.length));
+        }
+        System.arraycopy(data, 0, mBuffer, mLength, data.length);
+        mLength += data.length;
+
+        if (mEnd < 0) {
+            if ((mLength > 0 && (mBuffer[0] & 0xFF) != TAG_ALL_REF_AR_DO_1)
+                    || (mLength > 1 && (mBuffer[1] & 0xFF) != TAG_ALL_REF_AR_DO_2)) {
+                throw new IllegalArgumentException("Tags don't match.");
+            }
+            int valueOffset = readHeader(mBuffer, 0, mLength, 2 /* tagLength */);
+            if (valueOffset < 0) return;
+            mOffset = valueOffset;
+            mEnd = valueOffset + mValueLength;
+            if (mLength > mEnd) {
+                throw new IllegalArgumentException("Did not consume all.");
+            }
+        }
+
+        while (mOffset < mLength) {
+            if ((mBuffer[mOffset] & 0xFF) != TAG_REF_AR_DO) {
+                throw new IllegalArgumentException("Tags don't match.");
+            }
+            int valueOffset = readHeader(mBuffer, mOffset, mLength, 1 /* tagLength */);
+            if (valueOffset < 0) {
+                if (mLength == mEnd) throw new IllegalArgumentException("Not enough data.");
+                break;
+            }
+            int ruleEnd = valueOffset + mValueLength;
+            if (ruleEnd > mEnd) throw new IllegalArgumentException("Not enough data.");
+            // Wait for the rest of the rule.
+            if (ruleEnd > mLength) break;
+
+            UiccAccessRule rule = decodeRefArDo(mBuffer, valueOffset, ruleEnd);
+            if (rule != null) {
+                mRules.add(rule);
+            } else {
+                Rlog.e(LOG_TAG, "Skip unrecognized rule." + IccUtils.bytesToHexString(
+                        Arrays.copyOfRange(mBuffer, valueOffset, ruleEnd)));
+            }
+            mOffset = ruleEnd;
+        }
+
+        // Drop the decoded bytes.
+        if (mOffset > 0) {
+            System.arraycopy(mBuffer, mOffset, mBuffer, 0, mLength - mOffset);
+            mLength -= mOffset;
+            mEnd -= mOffset;
+            mOffset = 0;
+        }
+    }
+
+    /**
+     * @return {@code true} if the whole ALL-REF-AR-DO was fed
+     */
+    public boolean isComplete() {
+        return mEnd >= 0 && mLength == mEnd;
+    }
+
+    /**
+     * @return The rules decoded so far
+     */
+    public List<UiccAccessRule> getRules() {
+        return mRules;
+    }
+
+    /** Drop the fed data and the decoded rules, to decode another ALL-REF-AR-DO. */
+    public void reset() {
+        mRules.clear();
+        mLength = 0;
+        mOffset = 0;
+        mEnd = -1;
+    }
+
+    /**
+     * Decodes a REF-AR-DO.
+     *
+     * @return The rule, or {@code null} if it is not a carrier privilege rule
+     */
+    private UiccAccessRule decodeRefArDo(byte[] data, int offset, int end) {
+        byte[] certificateHash = null;
+        String packageName = null;
+
+        while (offset < end) {
+            int tag = data[offset] & 0xFF;
+            int valueOffset = readValue(data, offset, end);
+            int valueEnd = valueOffset + mValueLength;
+            offset = valueEnd;
+
+            if (tag == TAG_REF_DO) {
+                // Allow 4F tag with a default value "FF FF FF FF FF FF" to be compatible with
+                // devices having GP access control enforcer:
+                //  - If no 4F tag is present, it's a CP rule.
+                //  - If 4F tag has value "FF FF FF FF FF FF", it's a CP rule.
+                //  - If 4F tag has other values, it's not a CP rule and Android should ignore it.
+                int p = valueOffset;
+                if (p < valueEnd && (data[p] & 0xFF) == TAG_AID_REF_DO) {
+                    int aidOffset = readValue(data, p, valueEnd);
+                    if (aidOffset != p + 2 || !isCarrierPrivilegeAid(data, aidOffset)) {
+                        return null;
+                    }
+                    p = aidOffset + CARRIER_PRIVILEGE_AID_LENGTH;
+                }
+                if (p >= valueEnd || (data[p] & 0xFF) != TAG_DEVICE_APP_ID_REF_DO) {
+                    return null;
+                }
+                int hashOffset = readValue(data, p, valueEnd);
+                certificateHash = Arrays.copyOfRange(data, hashOffset, hashOffset + mValueLength);
+                p = hashOffset + mValueLength;
+
+                if (p < valueEnd) {
+                    if ((data[p] & 0xFF) != TAG_PKG_REF_DO) {
+                        return null;
+                    }
+                    int pkgOffset = readValue(data, p, valueEnd);
+                    if (pkgOffset + mValueLength != valueEnd) {
+                        throw new IllegalArgumentException("Did not consume all.");
+                    }
+                    packageName = new String(data, pkgOffset, mValueLength,
+                            StandardCharsets.UTF_8);
+                } else {
+                    packageName = null;
+                }
+            } else if (tag == TAG_AR_DO) {
+                // Skip all the irrelevant tags (All the optional tags here are one byte
+                // according to the spec GlobalPlatform Secure Element Access Control).
+                int p = valueOffset;
+                while (p < valueEnd && (data[p] & 0xFF) != TAG_PERM_AR_DO) {
+                    p = readValue(data, p, valueEnd) + mValueLength;
+                }
+                if (p >= valueEnd) {
+                    return null;
+                }
+                int permOffset = readValue(data, p, valueEnd);
+                if (permOffset + mValueLength != valueEnd) {
+                    throw new IllegalArgumentException("Did not consume all.");
+                }
+            } else {
+                // Spec requires it must be either TAG_REF_DO or TAG_AR_DO.
+                throw new IllegalArgumentException("Invalid Rule type");
+            }
+        }
+
+        return new UiccAccessRule(certificateHash, packageName, 0);
+    }
+
+    private boolean isCarrierPrivilegeAid(byte[] data, int offset) {
+        if (mValueLength != CARRIER_PRIVILEGE_AID_LENGTH) return false;
+        for (int i = 0; i < CARRIER_PRIVILEGE_AID_LENGTH; i++) {
+            if (data[offset + i] != (byte) 0xFF) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the header of a TLV with a one byte tag, whose value must end before {@code end}.
+     *
+     * @return The offset of the value. Its length is in mValueLength.
+     */
+    private int readValue(byte[] data, int offset, int end) {
+        int valueOffset = readHeader(data, offset, end, 1 /* tagLength */);
+        if (valueOffset < 0 || valueOffset + mValueLength > end) {
+            throw new IllegalArgumentException("Not enough data.");
+        }
+        return valueOffset;
+    }
+
+    /**
+     * Reads the header of a TLV.
+     *
+     * @return The offset of the value, or -1 if the header does not end before {@code end}. The
+     *         length of the value is in mValueLength.
+     */
+    private int readHeader(byte[] data, int offset, int end, int tagLength) {
+        int p = offset + tagLength;
+        if (p >= end) return -1;
+        int firstByte = data[p++] & 0xFF;
+        if (firstByte < SINGLE_BYTE_MAX_LENGTH) {
+            mValueLength = firstByte;
+            return p;
+        }
+        int numBytes = firstByte - SINGLE_BYTE_MAX_LENGTH;
+        if (numBytes == 0 || numBytes > MAX_LENGTH_BYTES) {
+            throw new IllegalArgumentException("Invalid length.");
+        }
+        if (p + numBytes > end) return -1;
+        int length = 0;
+        for (int i = 0; i < numBytes; i++) {
+            length = (length << 8) | (data[p++] & 0xFF);
+        }
+        mValueLength = length;
+        return p;
+    }
+}
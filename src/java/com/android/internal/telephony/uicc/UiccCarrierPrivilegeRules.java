@@ -42,7 +42,6 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -71,38 +70,6 @@ public class UiccCarrierPrivilegeRules extends Handler {
     private static final int P3 = 0x00;
     private static final String DATA = "";
 
-    /*
-     * Rules format:
-     *   ALL_REF_AR_DO = TAG_ALL_REF_AR_DO + len + [REF_AR_DO]*n
-     *   REF_AR_DO = TAG_REF_AR_DO + len + REF-DO + AR-DO
-     *
-     *   REF_DO = TAG_REF_DO + len + DEVICE_APP_ID_REF_DO + (optional) PKG_REF_DO
-     *   AR_DO = TAG_AR_DO + len + PERM_AR_DO
-     *
-     *   DEVICE_APP_ID_REF_DO = TAG_DEVICE_APP_ID_REF_DO + len + sha256 hexstring of cert
-     *   PKG_REF_DO = TAG_PKG_REF_DO + len + package name
-     *   PERM_AR_DO = TAG_PERM_AR_DO + len + detailed permission (8 bytes)
-     *
-     * Data objects hierarchy by TAG:
-     * FF40
-     *   E2
-     *     E1
-     *       C1
-     *       CA
-     *     E3
-     *       DB
-     */
-    // Values from the data standard.
-    private static final String TAG_ALL_REF_AR_DO = "FF40";
-    private static final String TAG_REF_AR_DO = "E2";
-    private static final String TAG_REF_DO = "E1";
-    private static final String TAG_DEVICE_APP_ID_REF_DO = "C1";
-    private static final String TAG_PKG_REF_DO = "CA";
-    private static final String TAG_AR_DO = "E3";
-    private static final String TAG_PERM_AR_DO = "DB";
-    private static final String TAG_AID_REF_DO = "4F";
-    private static final String CARRIER_PRIVILEGE_AID = "FFFFFFFFFFFF";
-
     private static final int EVENT_OPEN_LOGICAL_CHANNEL_DONE = 1;
     private static final int EVENT_TRANSMIT_LOGICAL_CHANNEL_DONE = 2;
     private static final int EVENT_CLOSE_LOGICAL_CHANNEL_DONE = 3;
@@ -192,7 +159,8 @@ public class UiccCarrierPrivilegeRules extends Handler {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private AtomicInteger mState;
     private List<UiccAccessRule> mAccessRules;
-    private String mRules;
+    // Decodes the rules read from ARA-D or ARA-M as the responses arrive.
+    private final UiccAccessRuleDecoder mRuleDecoder = new UiccAccessRuleDecoder();
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private Message mLoadedCallback;
     // LocalLog buffer to hold important status messages for debugging.
@@ -222,7 +190,6 @@ public class UiccCarrierPrivilegeRules extends Handler {
         mState = new AtomicInteger(STATE_LOADING);
         mStatusMessage.log("Not loaded.");
         mLoadedCallback = loadedCallback;
-        mRules = "";
         mAccessRules = new ArrayList<>();
 
         // Open logical channel with ARA_D.
@@ -234,7 +201,6 @@ public class UiccCarrierPrivilegeRules extends Handler {
     public UiccCarrierPrivilegeRules(List<UiccAccessRule> rules) {
         mAccessRules = rules;
         mState = new AtomicInteger(STATE_LOADED);
-        mRules = "";
         mStatusMessage.log("Loaded from test rules.");
     }
 
@@ -486,7 +452,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
                     } else {
                         if (mAIDInUse == ARAD) {
                             // Open logical channel with ARA_M.
-                            mRules = "";
+                            mRuleDecoder.reset();
                             openChannel(ARAM);
                         }
                         if (mAIDInUse == ARAM) {
@@ -519,12 +485,11 @@ public class UiccCarrierPrivilegeRules extends Handler {
                     if (response.sw1 == 0x90 && response.sw2 == 0x00
                             && response.payload != null && response.payload.length > 0) {
                         try {
-                            mRules += IccUtils.bytesToHexString(response.payload)
-                                    .toUpperCase(Locale.US);
-                            if (isDataComplete()) {
+                            mRuleDecoder.feed(response.payload);
+                            if (mRuleDecoder.isComplete()) {
                                 //TODO: here's where AccessRules are being updated from the psim
                                 // b/139133814
-                                mAccessRules.addAll(parseRules(mRules));
+                                mAccessRules.addAll(mRuleDecoder.getRules());
                                 if (mAIDInUse == ARAD) {
                                     mCheckedRules = true;
                                 } else {
@@ -575,7 +540,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
                 log("EVENT_CLOSE_LOGICAL_CHANNEL_DONE");
                 if (mAIDInUse == ARAD) {
                     // Close logical channel with ARA_D and then open logical channel with ARA_M.
-                    mRules = "";
+                    mRuleDecoder.reset();
                     openChannel(ARAM);
                 }
                 break;
@@ -599,125 +564,6 @@ public class UiccCarrierPrivilegeRules extends Handler {
         }
     }
 
-    /*
-     * Check if all rule bytes have been read from UICC.
-     * For long payload, we need to fetch it repeatly before start parsing it.
-     */
-    private boolean isDataComplete() {
-        log("isDataComplete mRules:" + mRules);
-        if (mRules.startsWith(TAG_ALL_REF_AR_DO)) {
-            TLV allRules = new TLV(TAG_ALL_REF_AR_DO);
-            String lengthBytes = allRules.parseLength(mRules);
-            log("isDataComplete lengthBytes: " + lengthBytes);
-            if (mRules.length() == TAG_ALL_REF_AR_DO.length() + lengthBytes.length() +
-                    allRules.length) {
-                log("isDataComplete yes");
-                return true;
-            } else {
-                log("isDataComplete no");
-                return false;
-            }
-        } else {
-            throw new IllegalArgumentException("Tags don't match.");
-        }
-    }
-
-    /*
-     * Parses the rules from the input string.
-     */
-    private static List<UiccAccessRule> parseRules(String rules) {
-        log("Got rules: " + rules);
-
-        TLV allRefArDo = new TLV(TAG_ALL_REF_AR_DO); //FF40
-        allRefArDo.parse(rules, true);
-
-        String arDos = allRefArDo.value;
-        List<UiccAccessRule> accessRules = new ArrayList<>();
-        while (!arDos.isEmpty()) {
-            TLV refArDo = new TLV(TAG_REF_AR_DO); //E2
-            arDos = refArDo.parse(arDos, false);
-            UiccAccessRule accessRule = parseRefArdo(refArDo.value);
-            if (accessRule != null) {
-                accessRules.add(accessRule);
-            } else {
-                Rlog.e(LOG_TAG, "Skip unrecognized rule." + refArDo.value);
-            }
-        }
-        return accessRules;
-    }
-
-    /*
-     * Parses a single rule.
-     */
-    private static UiccAccessRule parseRefArdo(String rule) {
-        log("Got rule: " + rule);
-
-        String certificateHash = null;
-        String packageName = null;
-        String tmp = null;
-        long accessType = 0;
-
-        while (!rule.isEmpty()) {
-            if (rule.startsWith(TAG_REF_DO)) {
-                TLV refDo = new TLV(TAG_REF_DO); //E1
-                rule = refDo.parse(rule, false);
-                // Allow 4F tag with a default value "FF FF FF FF FF FF" to be compatible with
-                // devices having GP access control enforcer:
-                //  - If no 4F tag is present, it's a CP rule.
-                //  - If 4F tag has value "FF FF FF FF FF FF", it's a CP rule.
-                //  - If 4F tag has other values, it's not a CP rule and Android should ignore it.
-                TLV deviceDo = new TLV(TAG_DEVICE_APP_ID_REF_DO); //C1
-                if (refDo.value.startsWith(TAG_AID_REF_DO)) {
-                    TLV cpDo = new TLV(TAG_AID_REF_DO); //4F
-                    String remain = cpDo.parse(refDo.value, false);
-                    if (!cpDo.lengthBytes.equals("06") || !cpDo.value.equals(CARRIER_PRIVILEGE_AID)
-                            || remain.isEmpty() || !remain.startsWith(TAG_DEVICE_APP_ID_REF_DO)) {
-                        return null;
-                    }
-                    tmp = deviceDo.parse(remain, false);
-                    certificateHash = deviceDo.value;
-                } else if (refDo.value.startsWith(TAG_DEVICE_APP_ID_REF_DO)) {
-                    tmp = deviceDo.parse(refDo.value, false);
-                    certificateHash = deviceDo.value;
-                } else {
-                    return null;
-                }
-                if (!tmp.isEmpty()) {
-                    if (!tmp.startsWith(TAG_PKG_REF_DO)) {
-                        return null;
-                    }
-                    TLV pkgDo = new TLV(TAG_PKG_REF_DO); //CA
-                    pkgDo.parse(tmp, true);
-                    packageName = new String(IccUtils.hexStringToBytes(pkgDo.value));
-                } else {
-                    packageName = null;
-                }
-            } else if (rule.startsWith(TAG_AR_DO)) {
-                TLV arDo = new TLV(TAG_AR_DO); //E3
-                rule = arDo.parse(rule, false);
-                // Skip all the irrelevant tags (All the optional tags here are two bytes
-                // according to the spec GlobalPlatform Secure Element Access Control).
-                String remain = arDo.value;
-                while (!remain.isEmpty() && !remain.startsWith(TAG_PERM_AR_DO)) {
-                    TLV tmpDo = new TLV(remain.substring(0, 2));
-                    remain = tmpDo.parse(remain, false);
-                }
-                if (remain.isEmpty()) {
-                    return null;
-                }
-                TLV permDo = new TLV(TAG_PERM_AR_DO); //DB
-                permDo.parse(remain, true);
-            } else  {
-                // Spec requires it must be either TAG_REF_DO or TAG_AR_DO.
-                throw new RuntimeException("Invalid Rule type");
-            }
-        }
-
-        UiccAccessRule accessRule = new UiccAccessRule(
-                IccUtils.hexStringToBytes(certificateHash), packageName, accessType);
-        return accessRule;
-    }
-
     /*
      * Updates the state and notifies the UiccCard that the rules have finished loading.
      */
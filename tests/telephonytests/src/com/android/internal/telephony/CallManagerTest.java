@@ -17,6 +17,7 @@ package com.android.internal.telephony;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyInt;
@@ -210,6 +211,25 @@ public class CallManagerTest extends TelephonyTest {
         assertEquals(0, dialArgsCaptor.getValue().videoState);
     }
 
+    @SmallTest @Test
+    public void testCallQueriesFollowRegistration() throws Exception {
+        int subId = mPhone.getSubId();
+        doReturn(false).when(mFgCall).isIdle();
+        doReturn(PhoneConstants.State.OFFHOOK).when(mPhone).getState();
+        assertTrue(CallManager.getInstance().hasActiveFgCall(subId));
+        assertEquals(mFgCall, CallManager.getInstance().getActiveFgCall(subId));
+        assertEquals(PhoneConstants.State.OFFHOOK, CallManager.getInstance().getState(subId));
+
+        CallManager.getInstance().unregisterPhone(mPhone);
+        assertFalse(CallManager.getInstance().hasActiveFgCall());
+        assertFalse(CallManager.getInstance().hasActiveFgCall(subId));
+        assertNull(CallManager.getInstance().getActiveFgCall(subId));
+        assertEquals(PhoneConstants.State.IDLE, CallManager.getInstance().getState());
+
+        CallManager.getInstance().registerPhone(mPhone);
+        assertEquals(mFgCall, CallManager.getInstance().getActiveFgCall());
+    }
+
     @Test @SmallTest
     public void testRegisterEvent() throws Exception {
         Field field = CallManager.class.getDeclaredField("EVENT_CALL_WAITING");
@@ -271,4 +291,25 @@ public class CallManagerTest extends TelephonyTest {
                 CallManager.getInstance().getServiceState());
         CallManager.getInstance().unregisterPhone(mSecondPhone);
     }
+
+    @Test @SmallTest
+    public void testCallListsOutOfStepWithPhones() throws Exception {
+        GsmCdmaCall registeredRingingCall = mock(GsmCdmaCall.class);
+        GsmCdmaCall newRingingCall = mock(GsmCdmaCall.class);
+        doReturn(mSecondPhone).when(registeredRingingCall).getPhone();
+        doReturn(true).when(registeredRingingCall).isIdle();
+        doReturn(Call.State.IDLE).when(registeredRingingCall).getState();
+        doReturn(registeredRingingCall).when(mSecondPhone).getRingingCall();
+        CallManager.getInstance().registerPhone(mSecondPhone);
+        processAllMessages();
+
+        // The phone returns another ringing call by the time it is unregistered, so the call it
+        // was registered with stays in the ringing calls while the phone is gone.
+        doReturn(newRingingCall).when(mSecondPhone).getRingingCall();
+        CallManager.getInstance().unregisterPhone(mSecondPhone);
+
+        int subId = mPhone.getSubId();
+        assertFalse(CallManager.getInstance().hasActiveRingingCall(subId));
+        assertEquals(mRingingCall, CallManager.getInstance().getFirstActiveRingingCall(subId));
+    }
 }
@@ -31,6 +31,7 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.annotation.Nullable;
@@ -93,8 +94,7 @@ public class CarrierPrivilegesTrackerTest extends TelephonyTest {
 
     private static final int PM_FLAGS =
             PackageManager.MATCH_DISABLED_COMPONENTS
-                    | PackageManager.MATCH_DISABLED_UNTIL_USED_COMPONENTS
-                    | PackageManager.GET_SIGNING_CERTIFICATES;
+                    | PackageManager.MATCH_DISABLED_UNTIL_USED_COMPONENTS;
 
     @Mock private Signature mSignature;
 
@@ -149,6 +149,9 @@ public class CarrierPrivilegesTrackerTest extends TelephonyTest {
             when(mPackageManager.getPackageInfo(
                             eq(pkgCertInfo.pkgName), eq(GET_SIGNING_CERTIFICATES)))
                     .thenReturn(pkg);
+            when(mPackageManager.getPackageInfo(
+                            eq(pkgCertInfo.pkgName), eq(PM_FLAGS | GET_SIGNING_CERTIFICATES)))
+                    .thenReturn(pkg);
             when(mPackageManager.getPackageUidAsUser(
                             eq(pkgCertInfo.pkgName), eq(pkgCertInfo.userInfo.id)))
                     .thenReturn(pkgCertInfo.uid);
@@ -168,8 +171,8 @@ public class CarrierPrivilegesTrackerTest extends TelephonyTest {
      * See #setupCarrierConfigCerts, #setupSimLoadedCerts, #setupInstalledPackages.
      */
     private CarrierPrivilegesTracker createCarrierPrivilegesTracker() throws Exception {
-        CarrierPrivilegesTracker cpt =
-                new CarrierPrivilegesTracker(mTestableLooper.getLooper(), mPhone, mContext);
+        CarrierPrivilegesTracker cpt = new CarrierPrivilegesTracker(
+                mTestableLooper.getLooper(), mPhone, mContext, Runnable::run);
         mTestableLooper.processAllMessages();
 
         cpt.registerCarrierPrivilegesListener(mHandler, REGISTRANT_WHAT, null);
@@ -506,6 +509,51 @@ public class CarrierPrivilegesTrackerTest extends TelephonyTest {
         verifyPrivilegedUids(null /* expectedUids */, 0 /* expectedUidUpdates */);
     }
 
+    @Test
+    public void testInitialScanUsesCertHashCache() throws Exception {
+        setupCarrierPrivilegesTrackerWithCarrierConfigUids();
+        verify(mPackageManager)
+                .getPackageInfo(eq(PACKAGE_1), eq(PM_FLAGS | GET_SIGNING_CERTIFICATES));
+
+        // Restarting the tracker finds the certificate hashes of the unchanged packages in the
+        // cache, and does not fetch their signing certificates again.
+        mCarrierPrivilegesTracker = createCarrierPrivilegesTracker();
+        verifyRegisterListener(PRIVILEGED_UIDS, 1 /* expectedUidUpdates */);
+        verify(mPackageManager)
+                .getPackageInfo(eq(PACKAGE_1), eq(PM_FLAGS | GET_SIGNING_CERTIFICATES));
+        verify(mPackageManager)
+                .getPackageInfo(eq(PACKAGE_2), eq(PM_FLAGS | GET_SIGNING_CERTIFICATES));
+    }
+
+    @Test
+    public void testPackageRemovedDuringInitialScan() throws Exception {
+        setupCarrierConfigCerts(getHash(CERT_1), getHash(CERT_2));
+        setupInstalledPackages(
+                new PackageCertInfo(PACKAGE_1, CERT_1, USER_1, UID_1),
+                new PackageCertInfo(PACKAGE_2, CERT_2, USER_1, UID_2));
+        List<Runnable> scans = new ArrayList<>();
+        mCarrierPrivilegesTracker = new CarrierPrivilegesTracker(
+                mTestableLooper.getLooper(), mPhone, mContext, scans::add);
+        mCarrierPrivilegesTracker.registerCarrierPrivilegesListener(
+                mHandler, REGISTRANT_WHAT, null);
+        mTestableLooper.processAllMessages();
+        // The privileged UIDs are not published until the scan completes
+        verifyPrivilegedUids(null /* expectedUids */, 0 /* expectedUidUpdates */);
+
+        // PACKAGE_1 is removed after it was listed by the scan
+        sendPackageChangedIntent(Intent.ACTION_PACKAGE_REMOVED, PACKAGE_1);
+        mTestableLooper.processAllMessages();
+        verifyPrivilegedUids(null /* expectedUids */, 0 /* expectedUidUpdates */);
+        assertEquals(1, scans.size());
+        // Runs the scan, then the fetches of the signing certificates it submitted
+        while (!scans.isEmpty()) {
+            scans.remove(0).run();
+        }
+        mTestableLooper.processAllMessages();
+
+        verifyPrivilegedUids(new int[] {UID_2} /* expectedUids */, 1 /* expectedUidUpdates */);
+    }
+
     private void sendCarrierConfigChangedIntent(int subId, int phoneId) {
         mContext.sendBroadcast(
                 new Intent(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED)
@@ -81,6 +81,35 @@ public class ClientWakelockAccountantTest extends TestCase {
         Assert.assertEquals(2, mClient.mRequestStats.getRequestHistograms().size());
     }
 
+    /* Two clients share the timeline of their tracker. The first request runs alone from 100
+       to 200 and shares the wakelock with the second one until it completes at 300, so 100 + 50
+       is attributed to the first client. The second request gets 50 while shared and 400 alone
+       until 700. Together they account for the 600ms the wakelock was held.
+     */
+    public void testConcurrentClientsShareTimeline() throws Exception {
+        RilWakelockInfo.Timeline timeline = new RilWakelockInfo.Timeline();
+        ClientWakelockAccountant other = new ClientWakelockAccountant("Other Package");
+        mClient.startAttributingWakelock(15, 25, 1, timeline, 100);
+        other.startAttributingWakelock(22, 26, 2, timeline, 200);
+
+        mClient.stopAttributingWakelock(15, 25, 300);
+        timeline.updateConcurrentRequests(1, 300);
+        Assert.assertEquals(150, mClient.mRequestStats.getCompletedRequestsWakelockTime());
+        Assert.assertEquals(50, other.updatePendingRequestWakelockTime(300));
+
+        other.stopAttributingWakelock(22, 26, 700);
+        Assert.assertEquals(0, other.getPendingRequestCount());
+        Assert.assertEquals(450, other.mRequestStats.getCompletedRequestsWakelockTime());
+    }
+
+    public void testStopWithUnknownTokenKeepsPendingRequest() throws Exception {
+        mClient.startAttributingWakelock(15, 25, 1, 100);
+        mClient.stopAttributingWakelock(15, 26, 200);
+        mClient.stopAttributingWakelock(16, 25, 200);
+        Assert.assertEquals(1, mClient.getPendingRequestCount());
+        Assert.assertEquals(0, mClient.mRequestStats.getCompletedRequestsCount());
+    }
+
     public void testStartAttributingWithZeroConcurrentRequests() throws Exception {
         if (TelephonyUtils.IS_DEBUGGABLE) {
             try {
@@ -47,13 +47,13 @@ public class ClientWakelockTrackerTest extends TestCase {
         assertEquals(2, myTracker.mActiveClients.size());
         ClientWakelockAccountant abc = myTracker.mClients.get("ABC");
         ClientWakelockAccountant pqr = myTracker.mClients.get("PQR");
-        assertEquals(2, abc.mPendingRilWakelocks.get(0).getConcurrentRequests());
-        assertEquals(2, pqr.mPendingRilWakelocks.get(0).getConcurrentRequests());
+        assertEquals(2, abc.mPendingRilWakelocks.valueAt(0).getConcurrentRequests());
+        assertEquals(2, pqr.mPendingRilWakelocks.valueAt(0).getConcurrentRequests());
         waitForMs(20);
         myTracker.stopTracking("ABC", 101, 1, 1);
         assertEquals(1, myTracker.mActiveClients.size());
         assertEquals(0, abc.getPendingRequestCount());
-        assertEquals(1, pqr.mPendingRilWakelocks.get(0).getConcurrentRequests());
+        assertEquals(1, pqr.mPendingRilWakelocks.valueAt(0).getConcurrentRequests());
         waitForMs(80);
         myTracker.stopTracking("PQR", 102, 2, 0);
         assertEquals(0, myTracker.mActiveClients.size());
@@ -81,13 +81,13 @@ public class ClientWakelockTrackerTest extends TestCase {
         myTracker.startTracking("ABC", 102, 2, 2);
         assertEquals(1, myTracker.mActiveClients.size());
         ClientWakelockAccountant abc = myTracker.mClients.get("ABC");
-        assertEquals(2, abc.mPendingRilWakelocks.get(0).getConcurrentRequests());
-        assertEquals(2, abc.mPendingRilWakelocks.get(1).getConcurrentRequests());
+        assertEquals(2, abc.mPendingRilWakelocks.valueAt(0).getConcurrentRequests());
+        assertEquals(2, abc.mPendingRilWakelocks.valueAt(1).getConcurrentRequests());
         waitForMs(20);
         myTracker.stopTracking("ABC", 101, 1, 1);
         assertEquals(1, myTracker.mActiveClients.size());
         assertEquals(1, abc.getPendingRequestCount());
-        assertEquals(1, abc.mPendingRilWakelocks.get(0).getConcurrentRequests());
+        assertEquals(1, abc.mPendingRilWakelocks.valueAt(0).getConcurrentRequests());
         waitForMs(80);
         myTracker.stopTracking("ABC", 102, 2, 0);
         assertEquals(0, myTracker.mActiveClients.size());
@@ -108,8 +108,8 @@ public class ClientWakelockTrackerTest extends TestCase {
         myTracker.startTracking("ABC", 102, 2, 2);
         ClientWakelockAccountant abc = myTracker.mClients.get("ABC");
         assertEquals(1, myTracker.mActiveClients.size());
-        assertEquals(2, abc.mPendingRilWakelocks.get(0).getConcurrentRequests());
-        assertEquals(2, abc.mPendingRilWakelocks.get(1).getConcurrentRequests());
+        assertEquals(2, abc.mPendingRilWakelocks.valueAt(0).getConcurrentRequests());
+        assertEquals(2, abc.mPendingRilWakelocks.valueAt(1).getConcurrentRequests());
         waitForMs(20);
         myTracker.stopTrackingAll();
         assertEquals(0, myTracker.mActiveClients.size());
@@ -131,8 +131,8 @@ public class ClientWakelockTrackerTest extends TestCase {
         ClientWakelockAccountant abc = myTracker.mClients.get("ABC");
         ClientWakelockAccountant pqr = myTracker.mClients.get("PQR");
         assertEquals(2, myTracker.mActiveClients.size());
-        assertEquals(2, abc.mPendingRilWakelocks.get(0).getConcurrentRequests());
-        assertEquals(2, pqr.mPendingRilWakelocks.get(0).getConcurrentRequests());
+        assertEquals(2, abc.mPendingRilWakelocks.valueAt(0).getConcurrentRequests());
+        assertEquals(2, pqr.mPendingRilWakelocks.valueAt(0).getConcurrentRequests());
         waitForMs(20);
         myTracker.stopTrackingAll();
         assertEquals(0, myTracker.mActiveClients.size());
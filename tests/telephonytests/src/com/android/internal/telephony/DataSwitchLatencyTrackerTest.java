@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.DataSwitchLatencyTracker.PHASE_DEFAULT_NETWORK;
+import static com.android.internal.telephony.DataSwitchLatencyTracker.PHASE_MODEM_COMMAND;
+import static com.android.internal.telephony.DataSwitchLatencyTracker.PHASE_TOTAL;
+import static com.android.internal.telephony.DataSwitchLatencyTracker.PHASE_VALIDATION;
+
+import static org.junit.Assert.assertEquals;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+
+public class DataSwitchLatencyTrackerTest {
+    private final DataSwitchLatencyTracker mTracker = new DataSwitchLatencyTracker();
+
+    /** Replay a validated switch with the given phase durations, starting at startMs. */
+    private void replaySwitch(long startMs, long validationMs, long modemMs, long networkMs) {
+        long now = startMs;
+        mTracker.onSwitchStarted(now);
+        mTracker.onPhaseStarted(PHASE_VALIDATION, now);
+        now += validationMs;
+        mTracker.onPhaseEnded(PHASE_VALIDATION, now);
+        mTracker.onPhaseStarted(PHASE_MODEM_COMMAND, now);
+        now += modemMs;
+        mTracker.onModemCommandDone(now);
+        now += networkMs;
+        mTracker.onSwitchCompleted(now);
+    }
+
+    @Test @SmallTest
+    public void testPhasesOfOneSwitch() {
+        replaySwitch(1000, 1500, 120, 300);
+
+        assertEquals(1500, mTracker.getLastLatency(PHASE_VALIDATION));
+        assertEquals(120, mTracker.getLastLatency(PHASE_MODEM_COMMAND));
+        assertEquals(300, mTracker.getLastLatency(PHASE_DEFAULT_NETWORK));
+        assertEquals(1920, mTracker.getLastLatency(PHASE_TOTAL));
+        assertEquals(1, mTracker.getCount(PHASE_TOTAL));
+    }
+
+    @Test @SmallTest
+    public void testModemCommandSentBeforeSwitchStartIsKept() {
+        // In call switches are logged after the command was sent.
+        mTracker.onPhaseStarted(PHASE_MODEM_COMMAND, 0);
+        mTracker.onSwitchStarted(10);
+        mTracker.onModemCommandDone(50);
+        mTracker.onSwitchCompleted(250);
+
+        assertEquals(50, mTracker.getLastLatency(PHASE_MODEM_COMMAND));
+        assertEquals(200, mTracker.getLastLatency(PHASE_DEFAULT_NETWORK));
+        assertEquals(240, mTracker.getLastLatency(PHASE_TOTAL));
+    }
+
+    @Test @SmallTest
+    public void testCancelledSwitchIsNotRecorded() {
+        mTracker.onSwitchStarted(0);
+        mTracker.onPhaseStarted(PHASE_VALIDATION, 0);
+        mTracker.onPhaseEnded(PHASE_VALIDATION, 2000);
+        mTracker.onSwitchCancelled();
+        mTracker.onSwitchCompleted(2500);
+
+        assertEquals(1, mTracker.getCount(PHASE_VALIDATION));
+        assertEquals(0, mTracker.getCount(PHASE_TOTAL));
+        assertEquals(-1, mTracker.getLastLatency(PHASE_TOTAL));
+    }
+
+    @Test @SmallTest
+    public void testPercentilesOverReplayedSwitches() {
+        for (int i = 0; i < 100; i++) {
+            replaySwitch(i * 10000, 1000, i < 90 ? 100 : 2000, 200);
+        }
+
+        assertEquals(100, mTracker.getCount(PHASE_MODEM_COMMAND));
+        long[] percentiles = mTracker.getPercentiles(PHASE_MODEM_COMMAND);
+        // p50 and p90 fall into the bucket of 100ms, p99 into the one of 2000ms.
+        assertEquals(RilLatencyRecorder.getBucketUpperBound(RilLatencyRecorder.getBucket(100)),
+                percentiles[0]);
+        assertEquals(RilLatencyRecorder.getBucketUpperBound(RilLatencyRecorder.getBucket(100)),
+                percentiles[1]);
+        assertEquals(RilLatencyRecorder.getBucketUpperBound(RilLatencyRecorder.getBucket(2000)),
+                percentiles[2]);
+    }
+}
@@ -17,8 +17,12 @@ package com.android.internal.telephony;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -26,23 +30,33 @@ import android.telephony.CellIdentityGsm;
 import android.telephony.CellInfo;
 import android.telephony.DisconnectCause;
 import android.telephony.PreciseCallState;
+import android.telephony.PhysicalChannelConfig;
 import android.telephony.PreciseDisconnectCause;
+import android.telephony.ServiceState;
 import android.telephony.SignalStrength;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyDisplayInfo;
 import android.telephony.TelephonyManager;
 import android.test.suitebuilder.annotation.SmallTest;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
 
 import com.android.internal.telephony.PhoneInternalInterface.DataActivityState;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
 public class DefaultPhoneNotifierTest extends TelephonyTest {
     private static final int PHONE_ID = 1;
     private static final int SUB_ID = 0;
@@ -248,4 +262,133 @@ public class DefaultPhoneNotifierTest extends TelephonyTest {
         assertEquals(3, cellLocationCapture.getValue().asCellLocation().getCid());
         assertEquals(-1, cellLocationCapture.getValue().asCellLocation().getPsc());
     }
+
+    @Test @SmallTest
+    public void testSignalStrengthIsCoalescedWithinInterval() throws Exception {
+        SignalStrength first = new SignalStrength();
+        SignalStrength second = mock(SignalStrength.class);
+        SignalStrength third = mock(SignalStrength.class);
+
+        doReturn(first).when(mPhone).getSignalStrength();
+        mDefaultPhoneNotifierUT.notifySignalStrength(mPhone);
+        verify(mTelephonyRegistryManager).notifySignalStrengthChanged(eq(0), eq(0), eq(first));
+
+        // Values within the interval are held back and only the latest one is sent.
+        doReturn(second).when(mPhone).getSignalStrength();
+        mDefaultPhoneNotifierUT.notifySignalStrength(mPhone);
+        doReturn(third).when(mPhone).getSignalStrength();
+        mDefaultPhoneNotifierUT.notifySignalStrength(mPhone);
+        verify(mTelephonyRegistryManager, times(1)).notifySignalStrengthChanged(anyInt(),
+                anyInt(), any());
+
+        moveTimeForward(DefaultPhoneNotifier.DEFAULT_MIN_NOTIFICATION_INTERVAL_MS);
+        processAllMessages();
+        verify(mTelephonyRegistryManager, never()).notifySignalStrengthChanged(eq(0), eq(0),
+                eq(second));
+        verify(mTelephonyRegistryManager).notifySignalStrengthChanged(eq(0), eq(0), eq(third));
+
+        PhoneNotificationCoalescer coalescer = mDefaultPhoneNotifierUT.getCoalescer();
+        assertEquals(2, coalescer.getDeliveredCount(
+                PhoneNotificationCoalescer.EVENT_SIGNAL_STRENGTH));
+        assertEquals(1, coalescer.getSuppressedCount(
+                PhoneNotificationCoalescer.EVENT_SIGNAL_STRENGTH));
+    }
+
+    @Test @SmallTest
+    public void testDuplicateDisplayInfoIsSuppressed() throws Exception {
+        mDefaultPhoneNotifierUT.notifyDisplayInfoChanged(mPhone, new TelephonyDisplayInfo(
+                TelephonyManager.NETWORK_TYPE_LTE, TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE));
+        mDefaultPhoneNotifierUT.notifyDisplayInfoChanged(mPhone, new TelephonyDisplayInfo(
+                TelephonyManager.NETWORK_TYPE_LTE, TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE));
+        verify(mTelephonyRegistryManager, times(1)).notifyDisplayInfoChanged(anyInt(), anyInt(),
+                any());
+
+        // A change is delivered right away, as is the same value for another subscription.
+        TelephonyDisplayInfo nsa = new TelephonyDisplayInfo(TelephonyManager.NETWORK_TYPE_LTE,
+                TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_NSA);
+        mDefaultPhoneNotifierUT.notifyDisplayInfoChanged(mPhone, nsa);
+        verify(mTelephonyRegistryManager).notifyDisplayInfoChanged(eq(0), eq(0), eq(nsa));
+
+        doReturn(1).when(mPhone).getSubId();
+        mDefaultPhoneNotifierUT.notifyDisplayInfoChanged(mPhone, nsa);
+        verify(mTelephonyRegistryManager).notifyDisplayInfoChanged(eq(0), eq(1), eq(nsa));
+        assertEquals(1, mDefaultPhoneNotifierUT.getCoalescer().getSuppressedCount(
+                PhoneNotificationCoalescer.EVENT_DISPLAY_INFO));
+    }
+
+    @Test @SmallTest
+    public void testDuplicateIsTrackedPerPhone() throws Exception {
+        TelephonyDisplayInfo lte = new TelephonyDisplayInfo(TelephonyManager.NETWORK_TYPE_LTE,
+                TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE);
+        TelephonyDisplayInfo unknown = new TelephonyDisplayInfo(
+                TelephonyManager.NETWORK_TYPE_UNKNOWN,
+                TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NONE);
+        mDefaultPhoneNotifierUT.notifyDisplayInfoChanged(mPhone, lte);
+
+        // The registry keeps a single value per phone, so after the phone notified a value for
+        // another subscription, the first value is not a duplicate anymore.
+        doReturn(SubscriptionManager.INVALID_SUBSCRIPTION_ID).when(mPhone).getSubId();
+        mDefaultPhoneNotifierUT.notifyDisplayInfoChanged(mPhone, unknown);
+        doReturn(0).when(mPhone).getSubId();
+        mDefaultPhoneNotifierUT.notifyDisplayInfoChanged(mPhone, lte);
+
+        verify(mTelephonyRegistryManager, times(2)).notifyDisplayInfoChanged(eq(0), eq(0),
+                eq(lte));
+        verify(mTelephonyRegistryManager).notifyDisplayInfoChanged(eq(0),
+                eq(SubscriptionManager.INVALID_SUBSCRIPTION_ID), eq(unknown));
+    }
+
+    @Test @SmallTest
+    public void testSubscriptionChangeSupersedesThrottledValue() throws Exception {
+        SignalStrength first = new SignalStrength();
+        SignalStrength second = mock(SignalStrength.class);
+        SignalStrength third = mock(SignalStrength.class);
+
+        doReturn(first).when(mPhone).getSignalStrength();
+        mDefaultPhoneNotifierUT.notifySignalStrength(mPhone);
+        doReturn(second).when(mPhone).getSignalStrength();
+        mDefaultPhoneNotifierUT.notifySignalStrength(mPhone);
+
+        // The value of the new subscription is sent right away, the held back one is dropped.
+        doReturn(1).when(mPhone).getSubId();
+        doReturn(third).when(mPhone).getSignalStrength();
+        mDefaultPhoneNotifierUT.notifySignalStrength(mPhone);
+        verify(mTelephonyRegistryManager).notifySignalStrengthChanged(eq(1), eq(0), eq(third));
+
+        moveTimeForward(DefaultPhoneNotifier.DEFAULT_MIN_NOTIFICATION_INTERVAL_MS);
+        processAllMessages();
+        verify(mTelephonyRegistryManager, never()).notifySignalStrengthChanged(anyInt(),
+                anyInt(), eq(second));
+    }
+
+    @Test @SmallTest
+    public void testThrottledValueIsSentAfterLaterNotifications() throws Exception {
+        SignalStrength first = new SignalStrength();
+        SignalStrength second = mock(SignalStrength.class);
+        doReturn(first).when(mPhone).getSignalStrength();
+        mDefaultPhoneNotifierUT.notifySignalStrength(mPhone);
+        doReturn(second).when(mPhone).getSignalStrength();
+        mDefaultPhoneNotifierUT.notifySignalStrength(mPhone);
+
+        // Events which are not throttled are sent right away, ahead of the held back value.
+        mDefaultPhoneNotifierUT.notifyServiceStateForSubId(mPhone, new ServiceState(), 0);
+        List<PhysicalChannelConfig> configs = Collections.singletonList(
+                new PhysicalChannelConfig.Builder().setCellBandwidthDownlinkKhz(20000).build());
+        mDefaultPhoneNotifierUT.notifyPhysicalChannelConfig(mPhone, Collections.emptyList());
+        mDefaultPhoneNotifierUT.notifyPhysicalChannelConfig(mPhone, configs);
+
+        moveTimeForward(DefaultPhoneNotifier.DEFAULT_MIN_NOTIFICATION_INTERVAL_MS);
+        processAllMessages();
+
+        InOrder inOrder = inOrder(mTelephonyRegistryManager);
+        inOrder.verify(mTelephonyRegistryManager).notifySignalStrengthChanged(eq(0), eq(0),
+                eq(first));
+        inOrder.verify(mTelephonyRegistryManager).notifyServiceStateChanged(eq(0), eq(0), any());
+        inOrder.verify(mTelephonyRegistryManager).notifyPhysicalChannelConfigForSubscriber(eq(0),
+                eq(Collections.emptyList()));
+        inOrder.verify(mTelephonyRegistryManager).notifyPhysicalChannelConfigForSubscriber(eq(0),
+                eq(configs));
+        inOrder.verify(mTelephonyRegistryManager).notifySignalStrengthChanged(eq(0), eq(0),
+                eq(second));
+    }
 }
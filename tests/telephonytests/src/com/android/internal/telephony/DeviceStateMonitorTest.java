@@ -365,4 +365,25 @@ public class DeviceStateMonitorTest extends TelephonyTest {
         updateState(STATE_TYPE_SCREEN, STATE_ON);
         verify(mSimulatedCommandsVerifier).getBarringInfo(nullable(Message.class));
     }
+
+    @Test
+    public void testSetReportingPolicy() {
+        // Report signal strength only while tethering, and nothing else.
+        mDSM.setReportingPolicy(new IndicationReportingPolicy().addRule(
+                IndicationFilter.SIGNAL_STRENGTH,
+                IndicationReportingPolicy.CONDITION_TETHERING_ON, 0, 0));
+        // The new table applies right away, registration failures are no longer reported.
+        verify(mSimulatedCommandsVerifier).setUnsolResponseFilter(eq(0), nullable(Message.class));
+        reset(mSimulatedCommandsVerifier);
+
+        updateState(STATE_TYPE_SCREEN, STATE_ON);
+        verify(mSimulatedCommandsVerifier, never()).setUnsolResponseFilter(anyInt(),
+                nullable(Message.class));
+        assertEquals(
+                DeviceStateMonitor.CELL_INFO_INTERVAL_LONG_MS, mDSM.computeCellInfoMinInterval());
+
+        updateState(STATE_TYPE_TETHERING, STATE_ON);
+        verify(mSimulatedCommandsVerifier).setUnsolResponseFilter(
+                eq(IndicationFilter.SIGNAL_STRENGTH), nullable(Message.class));
+    }
 }
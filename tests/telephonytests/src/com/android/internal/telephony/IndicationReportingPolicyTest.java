@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.IndicationReportingPolicy.CONDITION_CAR_MODE_ON;
+import static com.android.internal.telephony.IndicationReportingPolicy.CONDITION_CHARGING;
+import static com.android.internal.telephony.IndicationReportingPolicy.CONDITION_NR_TRACKING_REQUESTED;
+import static com.android.internal.telephony.IndicationReportingPolicy.CONDITION_SCREEN_ON;
+import static com.android.internal.telephony.IndicationReportingPolicy.CONDITION_SIGNAL_STRENGTH_REQUESTED;
+import static com.android.internal.telephony.IndicationReportingPolicy.CONDITION_WIFI_CONNECTED;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.hardware.radio.V1_5.IndicationFilter;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+
+public class IndicationReportingPolicyTest {
+    private static final int NR_TRACKING_FILTERS = IndicationFilter.FULL_NETWORK_STATE
+            | IndicationFilter.DATA_CALL_DORMANCY_CHANGED
+            | IndicationFilter.PHYSICAL_CHANNEL_CONFIG;
+
+    private final IndicationReportingPolicy mPolicy = IndicationReportingPolicy.createDefault();
+
+    @Test @SmallTest
+    public void testIdleDeviceOnlyReportsRegistrationFailure() {
+        assertEquals(IndicationFilter.REGISTRATION_FAILURE, mPolicy.computeIndicationFilter(0));
+        assertFalse(mPolicy.shouldUseShortCellInfoInterval(0));
+    }
+
+    @Test @SmallTest
+    public void testListenerDemandOnIdleDevice() {
+        assertEquals(IndicationFilter.REGISTRATION_FAILURE | IndicationFilter.SIGNAL_STRENGTH,
+                mPolicy.computeIndicationFilter(CONDITION_SIGNAL_STRENGTH_REQUESTED));
+        assertEquals(IndicationFilter.REGISTRATION_FAILURE | NR_TRACKING_FILTERS,
+                mPolicy.computeIndicationFilter(CONDITION_NR_TRACKING_REQUESTED));
+    }
+
+    @Test @SmallTest
+    public void testCarModeDoesNotReportSignalStrength() {
+        int filter = mPolicy.computeIndicationFilter(CONDITION_CAR_MODE_ON);
+        assertEquals(0, filter & IndicationFilter.SIGNAL_STRENGTH);
+        assertEquals(NR_TRACKING_FILTERS, filter & NR_TRACKING_FILTERS);
+        assertTrue((filter & IndicationFilter.BARRING_INFO) != 0);
+    }
+
+    @Test @SmallTest
+    public void testCellInfoInterval() {
+        assertTrue(mPolicy.shouldUseShortCellInfoInterval(CONDITION_SCREEN_ON));
+        assertFalse(mPolicy.shouldUseShortCellInfoInterval(
+                CONDITION_SCREEN_ON | CONDITION_WIFI_CONNECTED));
+        assertTrue(mPolicy.shouldUseShortCellInfoInterval(
+                CONDITION_SCREEN_ON | CONDITION_WIFI_CONNECTED | CONDITION_CHARGING));
+        assertFalse(mPolicy.shouldUseShortCellInfoInterval(CONDITION_CHARGING));
+    }
+
+    @Test @SmallTest
+    public void testCellInfoOutputIsNotPartOfFilter() {
+        assertEquals(0, mPolicy.computeIndicationFilter(CONDITION_SCREEN_ON)
+                & IndicationReportingPolicy.OUTPUT_SHORT_CELL_INFO_INTERVAL);
+    }
+}
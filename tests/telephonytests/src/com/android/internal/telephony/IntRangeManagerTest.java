@@ -23,6 +23,7 @@ import com.android.internal.telephony.gsm.SmsBroadcastConfigInfo;
 
 import org.junit.Test;
 
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 
 /**
@@ -1161,4 +1162,83 @@ public class IntRangeManagerTest extends AndroidTestCase {
                 testManager.flags);
         assertEquals("configlist size", 0, testManager.mConfigList.size());
     }
+
+    @Test @SmallTest
+    public void testSameRangeFromTwoClients() {
+        TestIntRangeManager testManager = new TestIntRangeManager();
+        assertTrue("enabling range 1", testManager.enableRange(4370, 4383, "client1"));
+        assertEquals("flags after test", ALL_FLAGS_SET, testManager.flags);
+        testManager.reset();
+        assertTrue("enabling range 2", testManager.enableRange(4370, 4383, "client2"));
+        assertEquals("flags after test", 0, testManager.flags);
+
+        // still enabled by client2, so the radio must not be updated
+        testManager.reset();
+        assertTrue("disabling range 1", testManager.disableRange(4370, 4383, "client1"));
+        assertEquals("flags after test", 0, testManager.flags);
+        assertFalse("disabling range 1 again", testManager.disableRange(4370, 4383, "client1"));
+
+        testManager.reset();
+        assertTrue("disabling range 2", testManager.disableRange(4370, 4383, "client2"));
+        assertEquals("flags after test", FLAG_START_UPDATE_CALLED | FLAG_FINISH_UPDATE_CALLED,
+                testManager.flags);
+        assertEquals("configlist size", 0, testManager.mConfigList.size());
+        assertTrue("range manager empty", testManager.isEmpty());
+    }
+
+    @Test @SmallTest
+    public void testDisableFailureKeepsRange() {
+        TestIntRangeManager testManager = new TestIntRangeManager();
+        assertTrue("enabling range 1", testManager.enableRange(1, 5, "client1"));
+        assertTrue("enabling range 2", testManager.enableRange(3, 9, "client2"));
+        testManager.reset();
+        testManager.finishUpdateReturnValue = false;
+        assertFalse("disabling range", testManager.disableRange(3, 9, "client2"));
+        testManager.finishUpdateReturnValue = true;
+        testManager.reset();
+        assertTrue("updating ranges", testManager.updateRanges());
+        assertEquals("configlist size", 1, testManager.mConfigList.size());
+        checkConfigInfo(testManager.mConfigList.get(0), 1, 9, SMS_CB_CODE_SCHEME_MIN,
+                SMS_CB_CODE_SCHEME_MAX, true);
+        assertEquals("[1-9]", testManager.toString());
+    }
+
+    @Test @SmallTest
+    public void testInvalidRange() {
+        TestIntRangeManager testManager = new TestIntRangeManager();
+        assertFalse("enabling range", testManager.enableRange(10, 5, "client1"));
+        assertEquals("flags after test", 0, testManager.flags);
+        assertTrue("range manager empty", testManager.isEmpty());
+    }
+
+    @Test @SmallTest
+    public void testGreylistedRangesKeptInSync() throws Exception {
+        TestIntRangeManager testManager = new TestIntRangeManager();
+        Field rangesField = IntRangeManager.class.getDeclaredField("mRanges");
+        rangesField.setAccessible(true);
+        ArrayList<?> ranges = (ArrayList<?>) rangesField.get(testManager);
+
+        assertTrue("enabling range 1", testManager.enableRange(1, 5, "client1"));
+        assertTrue("enabling range 2", testManager.enableRange(6, 9, "client2"));
+        assertTrue("enabling range 3", testManager.enableRange(20, 30, "client1"));
+        assertEquals("ranges size", 2, ranges.size());
+        assertEquals("[1-9]", ranges.get(0).toString());
+        assertEquals("[20-30]", ranges.get(1).toString());
+
+        assertTrue("disabling range 2", testManager.disableRange(6, 9, "client2"));
+        assertEquals("ranges size", 2, ranges.size());
+        assertEquals("[1-5]", ranges.get(0).toString());
+
+        // a range bridging two runs merges them, and removing it splits them again
+        assertTrue("enabling range 4", testManager.enableRange(4, 25, "client3"));
+        assertEquals("ranges size", 1, ranges.size());
+        assertEquals("[1-30]", ranges.get(0).toString());
+        assertTrue("disabling range 4", testManager.disableRange(4, 25, "client3"));
+        assertEquals("ranges size", 2, ranges.size());
+        assertEquals("[1-5]", ranges.get(0).toString());
+        assertEquals("[20-30]", ranges.get(1).toString());
+
+        testManager.clearRanges();
+        assertEquals("ranges size", 0, ranges.size());
+    }
 }
@@ -22,6 +22,7 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -97,11 +98,15 @@ public class LocaleTrackerTest extends TelephonyTest {
     }
 
     private void sendServiceState(int state) {
+        sendServiceState(mLocaleTracker, state);
+    }
+
+    private void sendServiceState(LocaleTracker localeTracker, int state) {
         ServiceState ss = new ServiceState();
         ss.setState(state);
         AsyncResult ar = new AsyncResult(null, ss, null);
-        mLocaleTracker.sendMessage(
-                mLocaleTracker.obtainMessage(2 /*SERVICE_STATE_CHANGED*/, ar));
+        localeTracker.sendMessage(
+                localeTracker.obtainMessage(2 /*SERVICE_STATE_CHANGED*/, ar));
         processAllMessages();
     }
 
@@ -292,6 +297,55 @@ public class LocaleTrackerTest extends TelephonyTest {
         }
     }
 
+    @Test
+    @SmallTest
+    public void testCellInfoSharedBetweenPhones() throws Exception {
+        DeviceLocaleTracker deviceLocaleTracker = new DeviceLocaleTracker();
+        LocaleTracker localeTracker1 = new LocaleTracker(mPhone, mNitzStateMachine,
+                Looper.myLooper(), deviceLocaleTracker);
+        LocaleTracker localeTracker2 = new LocaleTracker(mPhone, mNitzStateMachine,
+                Looper.myLooper(), deviceLocaleTracker);
+        processAllMessages();
+
+        sendServiceState(localeTracker1, ServiceState.STATE_OUT_OF_SERVICE);
+        sendServiceState(localeTracker2, ServiceState.STATE_OUT_OF_SERVICE);
+
+        // Only the first locale tracker polls the modem, its cell info is shared with the second.
+        assertTrue(localeTracker1.isTracking());
+        assertTrue(localeTracker2.isTracking());
+        verify(mPhone, times(1)).requestCellInfoUpdate(any(), any());
+        assertEquals(US_COUNTRY_CODE, localeTracker1.getCurrentCountry());
+        assertEquals(US_COUNTRY_CODE, localeTracker2.getCurrentCountry());
+        assertEquals(US_COUNTRY_CODE, deviceLocaleTracker.getCurrentCountry());
+    }
+
+    @Test
+    @SmallTest
+    public void testNetworkCountrySharedBetweenPhones() throws Exception {
+        DeviceLocaleTracker deviceLocaleTracker = new DeviceLocaleTracker();
+        LocaleTracker localeTracker1 = new LocaleTracker(mPhone, mNitzStateMachine,
+                Looper.myLooper(), deviceLocaleTracker);
+        LocaleTracker localeTracker2 = new LocaleTracker(mPhone, mNitzStateMachine,
+                Looper.myLooper(), deviceLocaleTracker);
+        processAllMessages();
+
+        sendServiceState(localeTracker1, ServiceState.STATE_IN_SERVICE);
+        localeTracker1.updateOperatorNumeric(LIECHTENSTEIN_MCC + FAKE_MNC);
+        sendServiceState(localeTracker2, ServiceState.STATE_OUT_OF_SERVICE);
+
+        // The second phone uses the network the first one is camped on instead of polling.
+        assertTrue(localeTracker2.isTracking());
+        verify(mPhone, never()).requestCellInfoUpdate(any(), any());
+        assertEquals(LIECHTENSTEIN_COUNTRY_CODE, localeTracker2.getCurrentCountry());
+        assertEquals(LIECHTENSTEIN_COUNTRY_CODE, deviceLocaleTracker.getCurrentCountry());
+
+        // The modem is polled once the first phone loses the network.
+        sendServiceState(localeTracker1, ServiceState.STATE_POWER_OFF);
+        verify(mPhone, times(1)).requestCellInfoUpdate(any(), any());
+        assertEquals(US_COUNTRY_CODE, localeTracker2.getCurrentCountry());
+        assertEquals(US_COUNTRY_CODE, deviceLocaleTracker.getCurrentCountry());
+    }
+
     @Test
     @SmallTest
     public void updateOperatorNumeric_NoSim_shouldHandleNetworkCountryCodeUnavailable()
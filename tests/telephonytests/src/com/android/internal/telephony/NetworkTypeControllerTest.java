@@ -742,4 +742,65 @@ public class NetworkTypeControllerTest extends TelephonyTest {
                 mNetworkTypeController.getOverrideNetworkType());
         assertFalse(mNetworkTypeController.is5GHysteresisActive());
     }
+
+    /**
+     * Replay a recorded sequence of NR frequency range changes, as reported by physical channel
+     * config indications, one second apart.
+     */
+    private void replayFrequencyRangeTrace(int[] trace) {
+        for (int frequencyRange : trace) {
+            doReturn(frequencyRange).when(mServiceState).getNrFrequencyRange();
+            mNetworkTypeController.sendMessage(EVENT_NR_FREQUENCY_CHANGED);
+            processAllMessages();
+            moveTimeForward(1000);
+            processAllMessages();
+        }
+    }
+
+    private static final int[] MMWAVE_FLAPPING_TRACE = {
+            ServiceState.FREQUENCY_RANGE_LOW, ServiceState.FREQUENCY_RANGE_MMWAVE,
+            ServiceState.FREQUENCY_RANGE_LOW, ServiceState.FREQUENCY_RANGE_MMWAVE,
+            ServiceState.FREQUENCY_RANGE_LOW, ServiceState.FREQUENCY_RANGE_MMWAVE,
+            ServiceState.FREQUENCY_RANGE_LOW, ServiceState.FREQUENCY_RANGE_MMWAVE,
+            ServiceState.FREQUENCY_RANGE_LOW};
+
+    @Test
+    public void testReplayFrequencyRangeTraceWithoutTimer() throws Exception {
+        testTransitionToCurrentStateNrConnectedMmwave();
+        long changeCount = mNetworkTypeController.getOverrideNetworkTypeChangeCount();
+        long evaluationCount = mNetworkTypeController.getEvaluationCount();
+
+        replayFrequencyRangeTrace(MMWAVE_FLAPPING_TRACE);
+
+        // Without timer the icon follows every frequency range change.
+        assertEquals(MMWAVE_FLAPPING_TRACE.length,
+                mNetworkTypeController.getOverrideNetworkTypeChangeCount() - changeCount);
+        assertTrue(mNetworkTypeController.getEvaluationCount() - evaluationCount
+                >= MMWAVE_FLAPPING_TRACE.length);
+        assertEquals(TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_NSA,
+                mNetworkTypeController.getOverrideNetworkType());
+    }
+
+    @Test
+    public void testReplayFrequencyRangeTraceWithTimer() throws Exception {
+        doReturn(TelephonyManager.NETWORK_TYPE_LTE).when(mServiceState).getDataNetworkType();
+        doReturn(NetworkRegistrationInfo.NR_STATE_CONNECTED).when(mServiceState).getNrState();
+        doReturn(ServiceState.FREQUENCY_RANGE_MMWAVE).when(mServiceState).getNrFrequencyRange();
+        mBundle.putString(CarrierConfigManager.KEY_5G_ICON_DISPLAY_GRACE_PERIOD_STRING,
+                "connected_mmwave,any,10;connected,any,10;not_restricted_rrc_con,any,10");
+        broadcastCarrierConfigs();
+        assertEquals(TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_NSA_MMWAVE,
+                mNetworkTypeController.getOverrideNetworkType());
+        long changeCount = mNetworkTypeController.getOverrideNetworkTypeChangeCount();
+
+        replayFrequencyRangeTrace(MMWAVE_FLAPPING_TRACE);
+
+        // The timer hides the flapping, the icon only changes once it expires.
+        assertEquals(0, mNetworkTypeController.getOverrideNetworkTypeChangeCount() - changeCount);
+        moveTimeForward(10 * 1000);
+        processAllMessages();
+        assertEquals(1, mNetworkTypeController.getOverrideNetworkTypeChangeCount() - changeCount);
+        assertEquals(TelephonyDisplayInfo.OVERRIDE_NETWORK_TYPE_NR_NSA,
+                mNetworkTypeController.getOverrideNetworkType());
+    }
 }
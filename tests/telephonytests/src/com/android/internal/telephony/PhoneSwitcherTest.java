@@ -54,6 +54,7 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.SystemClock;
 import android.telephony.PhoneCapability;
 import android.telephony.SubscriptionManager;
 import android.test.suitebuilder.annotation.SmallTest;
@@ -996,6 +997,48 @@ public class PhoneSwitcherTest extends TelephonyTest {
         verify(mMockRadioConfig).setPreferredDataModem(eq(1), any());
     }
 
+    @Test
+    @SmallTest
+    public void testDataSwitchPhaseLatencies() throws Exception {
+        doReturn(true).when(mMockRadioConfig).isSetPreferredDataCommandSupported();
+        initialize();
+        doReturn(true).when(mSubscriptionController).isOpportunistic(2);
+        setSlotIndexToSubId(0, 1);
+        setSlotIndexToSubId(1, 2);
+        setDefaultDataSubId(1);
+        sendPreferredDataSuccessResult(0);
+        clearInvocations(mMockRadioConfig);
+        clearInvocations(mConnectivityManager);
+        DataSwitchLatencyTracker tracker = mPhoneSwitcher.getSwitchLatencyTracker();
+        long modemCommands = tracker.getCount(DataSwitchLatencyTracker.PHASE_MODEM_COMMAND);
+
+        // Replay a switch to the opportunistic sub: validation, DDS command, default network.
+        long startMs = SystemClock.elapsedRealtime();
+        mPhoneSwitcher.trySetOpportunisticDataSubscription(2, true, null);
+        processAllMessages();
+        ArgumentCaptor<ConnectivityManager.NetworkCallback> callbackCaptor =
+                ArgumentCaptor.forClass(ConnectivityManager.NetworkCallback.class);
+        verify(mConnectivityManager).registerDefaultNetworkCallback(callbackCaptor.capture(),
+                any());
+        mPhoneSwitcher.mValidationCallback.onValidationDone(true, 2);
+        processAllMessages();
+        sendPreferredDataSuccessResult(1);
+        callbackCaptor.getValue().onCapabilitiesChanged(null, new NetworkCapabilities()
+                .addTransportType(NetworkCapabilities.TRANSPORT_CELLULAR)
+                .setNetworkSpecifier(new TelephonyNetworkSpecifier.Builder()
+                        .setSubscriptionId(2).build()));
+        processAllMessages();
+        long switchMs = SystemClock.elapsedRealtime() - startMs;
+
+        assertEquals(1, tracker.getCount(DataSwitchLatencyTracker.PHASE_VALIDATION));
+        assertEquals(modemCommands + 1,
+                tracker.getCount(DataSwitchLatencyTracker.PHASE_MODEM_COMMAND));
+        assertEquals(1, tracker.getCount(DataSwitchLatencyTracker.PHASE_DEFAULT_NETWORK));
+        assertEquals(1, tracker.getCount(DataSwitchLatencyTracker.PHASE_TOTAL));
+        assertTrue(tracker.getLastLatency(DataSwitchLatencyTracker.PHASE_TOTAL) <= switchMs);
+        logd("testDataSwitchPhaseLatencies: end-to-end switch took " + switchMs + "ms");
+    }
+
     /* Private utility methods start here */
 
     private void setAllPhonesInactive() {
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_GET_SIM_STATUS;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_SIGNAL_STRENGTH;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_START_NETWORK_SCAN;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.hardware.radio.V1_0.RadioError;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RadioBugDetectorTest extends TelephonyTest {
+
+    private static final long NOW_MS = 1000 * RadioBugDetector.HEALTH_SLOT_DURATION_MS;
+
+    private RadioBugDetector mRadioBugDetectorUT;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        mRadioBugDetectorUT = new RadioBugDetector(mContext, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    @Test
+    public void testHealthyModem() {
+        for (int i = 0; i < RadioBugDetector.HEALTH_MIN_SAMPLES; i++) {
+            mRadioBugDetectorUT.recordResponse(RIL_REQUEST_SIGNAL_STRENGTH, RadioError.NONE,
+                    30, NOW_MS);
+        }
+        assertEquals(RadioBugDetector.HEALTH_SCORE_MAX,
+                mRadioBugDetectorUT.getHealthScore(NOW_MS));
+    }
+
+    @Test
+    public void testErrorsAndSlowResponsesDegradeHealth() {
+        for (int i = 0; i < RadioBugDetector.HEALTH_MIN_LATENCY_SAMPLES; i++) {
+            mRadioBugDetectorUT.recordResponse(RIL_REQUEST_GET_SIM_STATUS,
+                    RadioError.GENERIC_FAILURE, 6000, NOW_MS);
+        }
+        assertTrue(mRadioBugDetectorUT.getHealthScore(NOW_MS)
+                < RadioBugDetector.HEALTH_SCORE_DEGRADED_THRESHOLD);
+    }
+
+    @Test
+    public void testFewSamplesDoNotAffectHealth() {
+        mRadioBugDetectorUT.recordResponse(RIL_REQUEST_GET_SIM_STATUS,
+                RadioError.GENERIC_FAILURE, 6000, NOW_MS);
+        assertEquals(RadioBugDetector.HEALTH_SCORE_MAX,
+                mRadioBugDetectorUT.getHealthScore(NOW_MS));
+    }
+
+    @Test
+    public void testExpectedErrorsDoNotAffectHealth() {
+        int[] errors = {RadioError.RADIO_NOT_AVAILABLE, RadioError.REQUEST_NOT_SUPPORTED,
+                RadioError.SIM_ABSENT};
+        for (int i = 0; i < RadioBugDetector.HEALTH_MIN_SAMPLES; i++) {
+            mRadioBugDetectorUT.recordResponse(RIL_REQUEST_GET_SIM_STATUS,
+                    errors[i % errors.length], 30, NOW_MS);
+        }
+        assertEquals(RadioBugDetector.HEALTH_SCORE_MAX,
+                mRadioBugDetectorUT.getHealthScore(NOW_MS));
+    }
+
+    @Test
+    public void testSlowResponsesNeedEnoughSamples() {
+        for (int i = 0; i < RadioBugDetector.HEALTH_MIN_LATENCY_SAMPLES - 1; i++) {
+            mRadioBugDetectorUT.recordResponse(RIL_REQUEST_SIGNAL_STRENGTH, RadioError.NONE,
+                    i == 0 ? 6000 : 30, NOW_MS);
+        }
+        assertEquals(RadioBugDetector.HEALTH_SCORE_MAX,
+                mRadioBugDetectorUT.getHealthScore(NOW_MS));
+    }
+
+    @Test
+    public void testLongRunningRequestsDoNotAffectHealth() {
+        for (int i = 0; i < RadioBugDetector.HEALTH_MIN_LATENCY_SAMPLES; i++) {
+            mRadioBugDetectorUT.recordResponse(RIL_REQUEST_SIGNAL_STRENGTH, RadioError.NONE,
+                    30, NOW_MS);
+            mRadioBugDetectorUT.recordResponse(RIL_REQUEST_START_NETWORK_SCAN, RadioError.NONE,
+                    20000, NOW_MS);
+        }
+        assertEquals(RadioBugDetector.HEALTH_SCORE_MAX,
+                mRadioBugDetectorUT.getHealthScore(NOW_MS));
+    }
+
+    @Test
+    public void testWakelockTimeoutsDegradeHealth() {
+        for (int i = 0; i < 5; i++) {
+            mRadioBugDetectorUT.recordWakelockTimeout(NOW_MS);
+        }
+        assertTrue(mRadioBugDetectorUT.getHealthScore(NOW_MS)
+                < RadioBugDetector.HEALTH_SCORE_DEGRADED_THRESHOLD);
+    }
+
+    @Test
+    public void testDegradedHealthReportedOnceEnoughSamples() {
+        for (int i = 0; i < 4; i++) {
+            mRadioBugDetectorUT.recordWakelockTimeout(NOW_MS);
+        }
+        assertTrue(mRadioBugDetectorUT.getHealthScore(NOW_MS)
+                < RadioBugDetector.HEALTH_SCORE_DEGRADED_THRESHOLD);
+        assertFalse(mRadioBugDetectorUT.isDegradedHealthReported());
+
+        // Still degraded once enough responses were received to tell.
+        for (int i = 0; i < RadioBugDetector.HEALTH_MIN_SAMPLES; i++) {
+            mRadioBugDetectorUT.recordResponse(RIL_REQUEST_SIGNAL_STRENGTH, RadioError.NONE,
+                    30, NOW_MS);
+        }
+        assertTrue(mRadioBugDetectorUT.isDegradedHealthReported());
+    }
+
+    @Test
+    public void testAcksAreNotResponses() {
+        for (int i = 0; i < RadioBugDetector.HEALTH_MIN_SAMPLES; i++) {
+            mRadioBugDetectorUT.detectRadioBug(RIL_REQUEST_GET_SIM_STATUS,
+                    RadioError.GENERIC_FAILURE);
+        }
+        assertEquals(RadioBugDetector.HEALTH_SCORE_MAX, mRadioBugDetectorUT.getHealthScore());
+    }
+
+    @Test
+    public void testOldSamplesLeaveWindow() {
+        for (int i = 0; i < RadioBugDetector.HEALTH_MIN_SAMPLES; i++) {
+            mRadioBugDetectorUT.recordResponse(RIL_REQUEST_GET_SIM_STATUS,
+                    RadioError.GENERIC_FAILURE, 6000, NOW_MS);
+        }
+        mRadioBugDetectorUT.recordWakelockTimeout(NOW_MS);
+
+        long later = NOW_MS + RadioBugDetector.HEALTH_WINDOW_SLOTS
+                * RadioBugDetector.HEALTH_SLOT_DURATION_MS;
+        assertEquals(RadioBugDetector.HEALTH_SCORE_MAX,
+                mRadioBugDetectorUT.getHealthScore(later));
+
+        // A new sample recycles the slot of the expired ones.
+        mRadioBugDetectorUT.recordResponse(RIL_REQUEST_GET_SIM_STATUS, RadioError.NONE, 30, later);
+        assertEquals(RadioBugDetector.HEALTH_SCORE_MAX,
+                mRadioBugDetectorUT.getHealthScore(later));
+        assertFalse(mRadioBugDetectorUT.getHealthScore(later)
+                < RadioBugDetector.HEALTH_SCORE_DEGRADED_THRESHOLD);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.RIL_UNSOL_RESPONSE_NETWORK_STATE_CHANGED;
+import static com.android.internal.telephony.RILConstants.RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED;
+import static com.android.internal.telephony.RILConstants.RIL_UNSOL_SIM_REFRESH;
+
+import static org.junit.Assert.assertEquals;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.RegistrantList;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+public class RilIndicationDispatcherTest extends TelephonyTest {
+    private static final long WINDOW_MS = 20;
+
+    private RilIndicationDispatcher mDispatcher;
+    private final RegistrantList mNetworkStateRegistrants = new RegistrantList();
+    private final RegistrantList mSimStatusRegistrants = new RegistrantList();
+    private final RegistrantList mOtherRegistrants = new RegistrantList();
+    private final List<Integer> mDelivered = new ArrayList<>();
+    private int mNetworkStateCount;
+    private int mSimStatusCount;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        Handler handler = new Handler(Looper.myLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                mDelivered.add(msg.what);
+                if (msg.what == RIL_UNSOL_RESPONSE_NETWORK_STATE_CHANGED) {
+                    mNetworkStateCount++;
+                } else if (msg.what == RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED) {
+                    mSimStatusCount++;
+                }
+            }
+        };
+        mNetworkStateRegistrants.addUnique(handler, RIL_UNSOL_RESPONSE_NETWORK_STATE_CHANGED, null);
+        mSimStatusRegistrants.addUnique(handler, RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED, null);
+        mOtherRegistrants.addUnique(handler, RIL_UNSOL_SIM_REFRESH, null);
+        mDispatcher = new RilIndicationDispatcher(Looper.myLooper(), WINDOW_MS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    @Test @SmallTest
+    public void testFirstIndicationIsDeliveredRightAway() {
+        mDispatcher.dispatchBatched(RIL_UNSOL_RESPONSE_NETWORK_STATE_CHANGED,
+                mNetworkStateRegistrants);
+        processAllMessages();
+        assertEquals(1, mNetworkStateCount);
+
+        // Nothing was queued within the window, so nothing is delivered when it elapses.
+        moveTimeForward(WINDOW_MS);
+        processAllMessages();
+        assertEquals(1, mNetworkStateCount);
+        assertEquals(1, mDispatcher.getDeliveredCount(RIL_UNSOL_RESPONSE_NETWORK_STATE_CHANGED));
+    }
+
+    @Test @SmallTest
+    public void testIndicationsWithinWindowAreDeliveredOnce() {
+        for (int i = 0; i < 5; i++) {
+            mDispatcher.dispatchBatched(RIL_UNSOL_RESPONSE_NETWORK_STATE_CHANGED,
+                    mNetworkStateRegistrants);
+        }
+        processAllMessages();
+        assertEquals(1, mNetworkStateCount);
+
+        moveTimeForward(WINDOW_MS);
+        processAllMessages();
+        assertEquals(2, mNetworkStateCount);
+        assertEquals(5, mDispatcher.getQueuedCount(RIL_UNSOL_RESPONSE_NETWORK_STATE_CHANGED));
+        assertEquals(2, mDispatcher.getDeliveredCount(RIL_UNSOL_RESPONSE_NETWORK_STATE_CHANGED));
+
+        // The trailing delivery opened a new window.
+        mDispatcher.dispatchBatched(RIL_UNSOL_RESPONSE_NETWORK_STATE_CHANGED,
+                mNetworkStateRegistrants);
+        processAllMessages();
+        assertEquals(2, mNetworkStateCount);
+        moveTimeForward(WINDOW_MS);
+        processAllMessages();
+        assertEquals(3, mNetworkStateCount);
+    }
+
+    @Test @SmallTest
+    public void testTypesAreBatchedIndependently() {
+        mDispatcher.dispatchBatched(RIL_UNSOL_RESPONSE_NETWORK_STATE_CHANGED,
+                mNetworkStateRegistrants);
+        mDispatcher.dispatchBatched(RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED, mSimStatusRegistrants);
+        mDispatcher.dispatchBatched(RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED, mSimStatusRegistrants);
+        processAllMessages();
+        assertEquals(1, mNetworkStateCount);
+        assertEquals(1, mSimStatusCount);
+
+        moveTimeForward(WINDOW_MS);
+        processAllMessages();
+        assertEquals(1, mNetworkStateCount);
+        assertEquals(2, mSimStatusCount);
+        assertEquals(2, mDispatcher.getQueuedCount(RIL_UNSOL_RESPONSE_SIM_STATUS_CHANGED));
+    }
+
+    @Test @SmallTest
+    public void testFlushDeliversPendingBatchesInOrder() {
+        mDispatcher.dispatchBatched(RIL_UNSOL_RESPONSE_NETWORK_STATE_CHANGED,
+                mNetworkStateRegistrants);
+        mDispatcher.dispatchBatched(RIL_UNSOL_RESPONSE_NETWORK_STATE_CHANGED,
+                mNetworkStateRegistrants);
+        mDispatcher.flushPending();
+        mOtherRegistrants.notifyRegistrants();
+        processAllMessages();
+        assertEquals(Arrays.asList(RIL_UNSOL_RESPONSE_NETWORK_STATE_CHANGED,
+                RIL_UNSOL_RESPONSE_NETWORK_STATE_CHANGED, RIL_UNSOL_SIM_REFRESH), mDelivered);
+
+        // The flushed batch is not delivered again when the window elapses.
+        moveTimeForward(WINDOW_MS);
+        processAllMessages();
+        assertEquals(2, mNetworkStateCount);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_GET_SIM_STATUS;
+import static com.android.internal.telephony.RILConstants.RIL_REQUEST_SIGNAL_STRENGTH;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class RilLatencyRecorderTest {
+    private static final long WINDOW_MS = 1000;
+
+    @Test
+    @SmallTest
+    public void testBuckets() {
+        for (long latency = 0; latency < 100000; latency += 7) {
+            int bucket = RilLatencyRecorder.getBucket(latency);
+            long upper = RilLatencyRecorder.getBucketUpperBound(bucket);
+            assertTrue(latency <= upper);
+            // bounded relative error
+            assertTrue(upper - latency <= latency / 8);
+        }
+        assertEquals(RilLatencyRecorder.BUCKET_COUNT - 1,
+                RilLatencyRecorder.getBucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    @SmallTest
+    public void testPercentiles() {
+        RilLatencyRecorder recorder = new RilLatencyRecorder(0, WINDOW_MS);
+        for (int i = 1; i <= 1000; i++) {
+            recorder.recordModemTime(RIL_REQUEST_SIGNAL_STRENGTH, i, 0);
+            recorder.recordProcessingTime(RIL_REQUEST_SIGNAL_STRENGTH, 1, 0);
+        }
+        List<RilLatencyRecorder.Summary> summaries = recorder.getSummaries(false, 0);
+        assertEquals(1, summaries.size());
+        RilLatencyRecorder.Summary summary = summaries.get(0);
+        assertEquals(RIL_REQUEST_SIGNAL_STRENGTH, summary.requestType);
+        assertEquals(1000, summary.count);
+        assertInRange(500, summary.modemPercentilesMs[0]);
+        assertInRange(900, summary.modemPercentilesMs[1]);
+        assertInRange(990, summary.modemPercentilesMs[2]);
+        assertInRange(999, summary.modemPercentilesMs[3]);
+        assertEquals(1, summary.processingPercentilesMs[0]);
+    }
+
+    @Test
+    @SmallTest
+    public void testRollingWindow() {
+        RilLatencyRecorder recorder = new RilLatencyRecorder(0, WINDOW_MS);
+        recorder.recordModemTime(RIL_REQUEST_GET_SIM_STATUS, 5000, 0);
+        recorder.recordModemTime(RIL_REQUEST_GET_SIM_STATUS, 10, WINDOW_MS);
+
+        // The previous window is still reported.
+        assertEquals(2, recorder.getSummaries(true, WINDOW_MS).get(0).count);
+
+        // Two windows later only the recent sample is left.
+        recorder.recordModemTime(RIL_REQUEST_GET_SIM_STATUS, 10, 2 * WINDOW_MS);
+        List<RilLatencyRecorder.Summary> summaries = recorder.getSummaries(true, 2 * WINDOW_MS);
+        assertEquals(2, summaries.get(0).count);
+        assertEquals(10, summaries.get(0).modemPercentilesMs[3]);
+
+        assertEquals(3, recorder.getSummaries(false, 2 * WINDOW_MS).get(0).count);
+        assertTrue(recorder.getSummaries(true, 10 * WINDOW_MS).isEmpty());
+    }
+
+    private static void assertInRange(long expected, long actual) {
+        assertTrue("expected " + expected + " got " + actual,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+}
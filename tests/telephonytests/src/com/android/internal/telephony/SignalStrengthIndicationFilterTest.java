@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.hardware.radio.V1_0.SignalStrength;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+
+public class SignalStrengthIndicationFilterTest {
+    private static final long REFRESH_MS =
+            SignalStrengthIndicationFilter.DEFAULT_REFRESH_INTERVAL_MS;
+
+    private final SignalStrengthIndicationFilter mFilter = new SignalStrengthIndicationFilter();
+
+    private static SignalStrength gsm(int rssi) {
+        SignalStrength signalStrength = new SignalStrength();
+        signalStrength.gw.signalStrength = rssi;
+        return signalStrength;
+    }
+
+    @Test @SmallTest
+    public void testUnchangedReportIsFiltered() {
+        assertTrue(mFilter.accept(gsm(20), 0));
+        SignalStrength repeated = gsm(20);
+        assertFalse(mFilter.accept(repeated, 1000));
+        assertTrue(mFilter.accept(gsm(21), 2000));
+
+        assertEquals(2, mFilter.getPropagatedCount());
+        assertEquals(1, mFilter.getFilteredCount());
+    }
+
+    @Test @SmallTest
+    public void testLatestSampleIsKeptWhenFiltered() {
+        mFilter.accept(gsm(20), 0);
+        SignalStrength repeated = gsm(20);
+        mFilter.accept(repeated, 1000);
+
+        assertSame(repeated, mFilter.getLatestSample());
+        assertEquals(1000, mFilter.getLatestSampleTime());
+    }
+
+    @Test @SmallTest
+    public void testUnchangedReportIsRefreshedPeriodically() {
+        assertTrue(mFilter.accept(gsm(20), 0));
+        assertFalse(mFilter.accept(gsm(20), REFRESH_MS - 1));
+        assertTrue(mFilter.accept(gsm(20), REFRESH_MS));
+    }
+
+    @Test @SmallTest
+    public void testResetPropagatesNextReport() {
+        assertTrue(mFilter.accept(gsm(20), 0));
+        mFilter.reset();
+        assertTrue(mFilter.accept(gsm(20), 1));
+    }
+}
@@ -20,6 +20,7 @@ import static com.android.internal.telephony.SmsResponse.NO_ERROR_CODE;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
@@ -41,6 +42,8 @@ import android.testing.AndroidTestingRunner;
 import android.testing.TestableLooper;
 import android.util.Singleton;
 
+import com.android.internal.telephony.uicc.IccUtils;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -143,6 +146,28 @@ public class SmsDispatchersControllerTest extends TelephonyTest {
                 eq(0), any(Message.class));
     }
 
+    @Test @SmallTest
+    public void testSendRetrySmsReusesCachedPdu() throws Exception {
+        byte[] smsc = new byte[] {0x03, (byte) 0x81, 0x22, (byte) 0xF2};
+        byte[] pdu = new byte[] {0x01, 0x00, 0x03, (byte) 0x81, 0x11, (byte) 0xF1, 0x00, 0x00};
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("scAddr", "222");
+        map.put("destAddr", "111");
+        map.put("text", TAG);
+        switchImsSmsFormat(PhoneConstants.PHONE_TYPE_GSM);
+        replaceInstance(SMSDispatcher.SmsTracker.class, "mFormat", mTracker,
+                SmsConstants.FORMAT_3GPP2);
+        when(mTracker.getData()).thenReturn(map);
+        when(mTracker.getCachedSubmitPdu(SmsConstants.FORMAT_3GPP))
+                .thenReturn(new SMSDispatcher.SmsTracker.EncodedPdu(smsc, pdu));
+
+        mSmsDispatchersController.sendRetrySms(mTracker);
+
+        assertSame(pdu, map.get("pdu"));
+        verify(mSimulatedCommandsVerifier).sendImsGsmSms(eq(IccUtils.bytesToHexString(smsc)),
+                eq(IccUtils.bytesToHexString(pdu)), eq(0), eq(0), any(Message.class));
+    }
+
     @Test @SmallTest
     public void testSendRetrySmsNullPdu() throws Exception {
         HashMap<String, Object> map = new HashMap<>();
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import android.telephony.SmsManager;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.SMSDispatcher.SmsTracker;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SmsSendSchedulerTest {
+    private final List<SmsTracker> mSent = new ArrayList<>();
+    private final SmsSendScheduler mScheduler = new SmsSendScheduler(mSent::add);
+
+    private static SmsTracker tracker(String packageName, int priority) {
+        SmsTracker tracker = mock(SmsTracker.class);
+        doReturn(packageName).when(tracker).getAppPackageName();
+        tracker.mPriority = priority;
+        return tracker;
+    }
+
+    @Test @SmallTest
+    public void testUnlimitedWindowSendsImmediately() {
+        SmsTracker[] parts = {tracker("a", -1), tracker("a", -1), tracker("a", -1)};
+        mScheduler.admit(parts);
+
+        assertEquals(Arrays.asList(parts), mSent);
+        assertEquals(3, mScheduler.getInFlightCount());
+        assertEquals(0, mScheduler.getQueuedMessageCount());
+    }
+
+    @Test @SmallTest
+    public void testWindowQueuesUntilSlotReleased() {
+        mScheduler.setWindow(2);
+        SmsTracker first = tracker("a", -1);
+        SmsTracker second = tracker("a", -1);
+        SmsTracker third = tracker("a", -1);
+        mScheduler.admit(new SmsTracker[] {first});
+        mScheduler.admit(new SmsTracker[] {second});
+        mScheduler.admit(new SmsTracker[] {third});
+
+        assertEquals(Arrays.asList(first, second), mSent);
+        assertEquals(1, mScheduler.getQueuedMessageCount());
+
+        mScheduler.onTrackerDone(first);
+        assertEquals(Arrays.asList(first, second, third), mSent);
+        assertEquals(2, mScheduler.getInFlightCount());
+    }
+
+    @Test @SmallTest
+    public void testExpeditedLaneBypassesBulk() {
+        mScheduler.setWindow(1);
+        SmsTracker bulk1 = tracker("bulk", -1);
+        SmsTracker bulk2 = tracker("bulk", -1);
+        SmsTracker otp = tracker("otp", 1 /* interactive */);
+        mScheduler.admit(new SmsTracker[] {bulk1});
+        mScheduler.admit(new SmsTracker[] {bulk2});
+        mScheduler.admit(new SmsTracker[] {otp});
+
+        mScheduler.onTrackerDone(bulk1);
+        assertEquals(Arrays.asList(bulk1, otp), mSent);
+        mScheduler.onTrackerDone(otp);
+        assertEquals(Arrays.asList(bulk1, otp, bulk2), mSent);
+    }
+
+    @Test @SmallTest
+    public void testPackagesAreServedRoundRobin() {
+        mScheduler.setWindow(1);
+        SmsTracker a1 = tracker("a", -1);
+        SmsTracker a2 = tracker("a", -1);
+        SmsTracker a3 = tracker("a", -1);
+        SmsTracker b1 = tracker("b", -1);
+        mScheduler.admit(new SmsTracker[] {a1});
+        mScheduler.admit(new SmsTracker[] {a2});
+        mScheduler.admit(new SmsTracker[] {a3});
+        mScheduler.admit(new SmsTracker[] {b1});
+
+        mScheduler.onTrackerDone(a1);
+        mScheduler.onTrackerDone(a2);
+        mScheduler.onTrackerDone(b1);
+        assertEquals(Arrays.asList(a1, a2, b1, a3), mSent);
+    }
+
+    @Test @SmallTest
+    public void testMultipartPartsStayInOrder() {
+        mScheduler.setWindow(1);
+        SmsTracker[] parts = {tracker("a", -1), tracker("a", -1)};
+        SmsTracker other = tracker("b", -1);
+        mScheduler.admit(parts);
+        mScheduler.admit(new SmsTracker[] {other});
+
+        mScheduler.onTrackerDone(parts[0]);
+        mScheduler.onTrackerDone(parts[1]);
+        assertEquals(Arrays.asList(parts[0], parts[1], other), mSent);
+    }
+
+    @Test @SmallTest
+    public void testSynchronousCompletionDoesNotRecurse() {
+        List<SmsTracker> sent = new ArrayList<>();
+        SmsSendScheduler[] holder = new SmsSendScheduler[1];
+        holder[0] = new SmsSendScheduler(t -> {
+            sent.add(t);
+            holder[0].onTrackerDone(t);
+        });
+        holder[0].setWindow(1);
+        SmsTracker[] parts = new SmsTracker[50];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = tracker("a", -1);
+        }
+        holder[0].admit(parts);
+
+        assertEquals(Arrays.asList(parts), sent);
+        assertEquals(0, holder[0].getInFlightCount());
+    }
+
+    @Test @SmallTest
+    public void testSendRetryDelayFollowsErrorClass() {
+        assertEquals(2000, SMSDispatcher.getSendRetryDelay(
+                SmsManager.RESULT_RIL_SMS_SEND_FAIL_RETRY, 1));
+        assertEquals(8000, SMSDispatcher.getSendRetryDelay(
+                SmsManager.RESULT_RIL_SMS_SEND_FAIL_RETRY, 3));
+        assertEquals(10000, SMSDispatcher.getSendRetryDelay(
+                SmsManager.RESULT_RIL_REQUEST_RATE_LIMITED, 2));
+        assertEquals(30000, SMSDispatcher.getSendRetryDelay(
+                SmsManager.RESULT_RIL_NO_RESOURCES, 10));
+        assertEquals(-1, SMSDispatcher.getSendRetryDelay(
+                SmsManager.RESULT_RIL_INVALID_ARGUMENTS, 1));
+    }
+}
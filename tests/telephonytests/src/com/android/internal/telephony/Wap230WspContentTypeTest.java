@@ -870,4 +870,47 @@ public class Wap230WspContentTypeTest extends TestCase {
         WspTypeDecoder unit = new WspTypeDecoder(out.toByteArray());
         assertFalse(unit.decodeContentType(0));
     }
+
+    public void testContentParametersDoNotChangeLastDecodedValue() throws Exception {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x14); // Value-length, short-length
+        out.write(SHORT_MIME_TYPE_ROLLOVER_CERTIFICATE | WSP_SHORT_INTEGER_MASK);
+        out.write(TYPED_PARAM_DOMAIN | WSP_SHORT_INTEGER_MASK);
+        out.write("wdstechnology.com".getBytes("US-ASCII"));
+        out.write(WSP_STRING_TERMINATOR);
+
+        WspTypeDecoder unit = new WspTypeDecoder(out.toByteArray());
+        assertTrue(unit.decodeContentType(0));
+
+        Map<String, String> params = unit.getContentParameters();
+        assertEquals("wdstechnology.com", params.get("Domain"));
+        assertSame(params, unit.getContentParameters());
+
+        assertEquals(STRING_MIME_TYPE_ROLLOVER_CERTIFICATE, unit.getValueString());
+        assertEquals(SHORT_MIME_TYPE_ROLLOVER_CERTIFICATE, unit.getValue32());
+        assertEquals(out.toByteArray().length, unit.getDecodedDataLength());
+    }
+
+    public void testConstrainedMediaHasEmptyContentParameters() throws Exception {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(SHORT_MIME_TYPE_ROLLOVER_CERTIFICATE | WSP_SHORT_INTEGER_MASK);
+
+        WspTypeDecoder unit = new WspTypeDecoder(out.toByteArray());
+        assertTrue(unit.decodeContentType(0));
+
+        assertTrue(unit.getContentParameters().isEmpty());
+    }
+
+    public void testXWapApplicationIdString() throws Exception {
+
+        WspTypeDecoder unit = new WspTypeDecoder(new byte[] {(byte) 0x84});
+        assertTrue(unit.decodeXWapApplicationId(0));
+        assertEquals("4", unit.getXWapApplicationIdString());
+
+        unit = new WspTypeDecoder("x-wap-application:mms.ua\0".getBytes("US-ASCII"));
+        assertTrue(unit.decodeXWapApplicationId(0));
+        assertEquals("x-wap-application:mms.ua", unit.getXWapApplicationIdString());
+    }
 }
@@ -54,6 +54,7 @@ import com.android.internal.telephony.ContextFixture;
 import com.android.internal.telephony.ISub;
 import com.android.internal.telephony.SMSDispatcher;
 import com.android.internal.telephony.SmsDispatchersController;
+import com.android.internal.telephony.SmsSendScheduler;
 import com.android.internal.telephony.TelephonyTest;
 import com.android.internal.telephony.TelephonyTestUtils;
 import com.android.internal.telephony.TestApplication;
@@ -183,6 +184,38 @@ public class GsmSmsDispatcherTest extends TelephonyTest {
         assertEquals(1, mFakeBlockedNumberContentProvider.mNumEmergencyContactNotifications);
     }
 
+    @Test @MediumTest
+    public void testSendTextThroughputWithInFlightWindow() throws Exception {
+        setupMockPackagePermissionChecks();
+        mContextFixture.setSystemService(Context.COUNTRY_DETECTOR, mCountryDetector);
+        when(mCountryDetector.detectCountry())
+                .thenReturn(new Country("US", Country.COUNTRY_SOURCE_SIM));
+        mContextFixture.getCarrierConfigBundle().putInt(
+                SMSDispatcher.KEY_SMS_MO_IN_FLIGHT_WINDOW_INT, 4);
+
+        // SimulatedCommands acknowledges every submission, which frees the window slot again.
+        final int messageCount = 40;
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < messageCount; i++) {
+            mGsmSmsDispatcher.sendText("6501002000", "121" /*scAddr*/, "test sms " + i,
+                    null, null, null, null, false, -1, false, -1, false, 0L);
+        }
+        SmsSendScheduler scheduler = mGsmSmsDispatcher.getSendScheduler();
+        for (int i = 0; i < 100 && (scheduler.getInFlightCount() > 0
+                || scheduler.getQueuedMessageCount() > 0); i++) {
+            waitForMs(10);
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        assertEquals(4, scheduler.getWindow());
+        assertEquals(0, scheduler.getQueuedMessageCount());
+        assertEquals(0, scheduler.getInFlightCount());
+        verify(mSimulatedCommandsVerifier, times(messageCount)).sendSMS(anyString(), anyString(),
+                any(Message.class));
+        logd("Sent " + messageCount + " SMS at "
+                + (messageCount * 1_000_000_000L / Math.max(1, elapsedNanos)) + " msg/s");
+    }
+
     @Test @SmallTest
     public void testSmsMessageValidityPeriod() throws Exception {
         int vp;
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.ims;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import android.os.RemoteException;
+import android.telephony.ims.feature.ImsFeature;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class ImsBinderCallStatsTest {
+
+    private final ImsBinderCallStats mCallStats = new ImsBinderCallStats();
+
+    @Test
+    @SmallTest
+    public void testTrace() throws Exception {
+        assertEquals(Integer.valueOf(5), mCallStats.trace(0, ImsFeature.FEATURE_MMTEL,
+                "getFeatureStatus", () -> 5));
+        mCallStats.traceVoid(0, ImsFeature.FEATURE_MMTEL, "getFeatureStatus", () -> { });
+
+        ImsBinderCallStats.CallStats stats = mCallStats.getCallStats(0, ImsFeature.FEATURE_MMTEL,
+                "getFeatureStatus");
+        assertEquals(2, stats.count);
+        assertEquals(0, stats.failureCount);
+        assertNull(mCallStats.getCallStats(1, ImsFeature.FEATURE_MMTEL, "getFeatureStatus"));
+        assertNull(mCallStats.getCallStats(0, ImsFeature.FEATURE_RCS, "getFeatureStatus"));
+    }
+
+    @Test
+    @SmallTest
+    public void testTraceFailure() {
+        try {
+            mCallStats.traceVoid(1, ImsBinderCallStats.FEATURE_NONE, "enableIms", () -> {
+                throw new RemoteException();
+            });
+            fail("RemoteException not thrown");
+        } catch (RemoteException expected) {
+        }
+
+        ImsBinderCallStats.CallStats stats = mCallStats.getCallStats(1,
+                ImsBinderCallStats.FEATURE_NONE, "enableIms");
+        assertEquals(1, stats.count);
+        assertEquals(1, stats.failureCount);
+    }
+
+    @Test
+    @SmallTest
+    public void testHistogram() {
+        mCallStats.onCallCompleted(0, ImsFeature.FEATURE_RCS, "createRcsFeature",
+                TimeUnit.MILLISECONDS.toNanos(1), true);
+        mCallStats.onCallCompleted(0, ImsFeature.FEATURE_RCS, "createRcsFeature",
+                TimeUnit.MILLISECONDS.toNanos(150), true);
+        mCallStats.onCallCompleted(0, ImsFeature.FEATURE_RCS, "createRcsFeature",
+                TimeUnit.MILLISECONDS.toNanos(300), true);
+        mCallStats.onCallCompleted(0, ImsFeature.FEATURE_RCS, "createRcsFeature",
+                TimeUnit.SECONDS.toNanos(10), false);
+
+        ImsBinderCallStats.CallStats stats = mCallStats.getCallStats(0, ImsFeature.FEATURE_RCS,
+                "createRcsFeature");
+        long[] buckets = stats.buckets;
+        assertEquals(ImsBinderCallStats.BUCKET_UPPER_BOUNDS_MS.length + 1, buckets.length);
+        // <= 1ms
+        assertEquals(1, buckets[0]);
+        // <= 200ms
+        assertEquals(1, buckets[7]);
+        // <= 500ms
+        assertEquals(1, buckets[8]);
+        // > 5000ms
+        assertEquals(1, buckets[buckets.length - 1]);
+        assertEquals(4, stats.count);
+        assertEquals(1, stats.failureCount);
+        assertEquals(2, stats.slowCount);
+        assertEquals(TimeUnit.SECONDS.toNanos(10), stats.maxNanos);
+    }
+}
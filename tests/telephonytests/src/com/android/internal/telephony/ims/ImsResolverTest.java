@@ -39,6 +39,8 @@ import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.pm.ServiceInfo;
@@ -1241,6 +1243,98 @@ public class ImsResolverTest extends ImsTestBase {
         verify(deviceController).changeImsServiceFeatures(deviceFeatureSet);
     }
 
+    /**
+     * The features that the same version of the carrier ImsService reported before are persisted.
+     * Ensure that the carrier ImsService is bound with them right away, before the dynamic query
+     * completes, and that the query result is persisted.
+     */
+    @Test
+    @SmallTest
+    public void testBindCarrierImsServiceWithCachedFeatures() throws Exception {
+        setupResolver(1 /*numSlots*/, TEST_DEVICE_DEFAULT_NAME.getPackageName(),
+                TEST_DEVICE_DEFAULT_NAME.getPackageName());
+        setConfigCarrierStringMmTelRcs(0, TEST_CARRIER_DEFAULT_NAME.getPackageName());
+        setupPackageQuery(TEST_CARRIER_DEFAULT_NAME, new HashSet<>(), true);
+        PackageInfo carrierPackage = new PackageInfo();
+        carrierPackage.setLongVersionCode(5);
+        carrierPackage.lastUpdateTime = 100;
+        when(mMockPM.getPackageInfo(eq(TEST_CARRIER_DEFAULT_NAME.getPackageName()), anyInt()))
+                .thenReturn(carrierPackage);
+        SharedPreferences featureCache = mock(SharedPreferences.class);
+        SharedPreferences.Editor editor = mock(SharedPreferences.Editor.class);
+        when(featureCache.edit()).thenReturn(editor);
+        when(editor.putString(any(), any())).thenReturn(editor);
+        when(featureCache.getString(eq(TEST_CARRIER_DEFAULT_NAME.flattenToString()), any()))
+                .thenReturn("5:100/0:" + ImsFeature.FEATURE_MMTEL + ",0:" + ImsFeature.FEATURE_RCS);
+        mTestImsResolver.setFeatureCache(featureCache);
+        ImsServiceController controller = setupController();
+
+        startBindCarrierConfigAlreadySet();
+
+        // Bound with the cached features while the query is still in progress.
+        HashSet<ImsFeatureConfiguration.FeatureSlotPair> features = new HashSet<>();
+        features.add(new ImsFeatureConfiguration.FeatureSlotPair(0, ImsFeature.FEATURE_MMTEL));
+        features.add(new ImsFeatureConfiguration.FeatureSlotPair(0, ImsFeature.FEATURE_RCS));
+        verify(controller).bind(features);
+        verify(mMockQueryManager).startQuery(eq(TEST_CARRIER_DEFAULT_NAME), any(String.class));
+
+        // The ImsService no longer supports RCS.
+        HashSet<ImsFeatureConfiguration.FeatureSlotPair> newFeatures = new HashSet<>();
+        newFeatures.add(new ImsFeatureConfiguration.FeatureSlotPair(0, ImsFeature.FEATURE_MMTEL));
+        setupDynamicQueryFeatures(TEST_CARRIER_DEFAULT_NAME, newFeatures, 1);
+
+        verify(controller).changeImsServiceFeatures(newFeatures);
+        verify(editor).putString(TEST_CARRIER_DEFAULT_NAME.flattenToString(),
+                "5:100/0:" + ImsFeature.FEATURE_MMTEL);
+
+        // The package changed, but not its version: the features are still valid.
+        packageChanged(TEST_CARRIER_DEFAULT_NAME.getPackageName());
+        verify(mMockQueryManager).startQuery(eq(TEST_CARRIER_DEFAULT_NAME), any(String.class));
+    }
+
+    /**
+     * Ensure that a carrier ImsService which is no longer available after its package changed (for
+     * example because the component was disabled) is unbound.
+     */
+    @Test
+    @SmallTest
+    public void testCarrierImsServiceDisabled() throws RemoteException {
+        setupResolver(1 /*numSlots*/, TEST_DEVICE_DEFAULT_NAME.getPackageName(),
+                TEST_DEVICE_DEFAULT_NAME.getPackageName());
+        List<ResolveInfo> info = new ArrayList<>();
+        Set<String> deviceFeatures = new HashSet<>();
+        deviceFeatures.add(ImsResolver.METADATA_MMTEL_FEATURE);
+        deviceFeatures.add(ImsResolver.METADATA_RCS_FEATURE);
+        setConfigCarrierStringMmTelRcs(0, TEST_CARRIER_DEFAULT_NAME.getPackageName());
+        HashSet<ImsFeatureConfiguration.FeatureSlotPair> carrierFeatures = new HashSet<>();
+        carrierFeatures.add(new ImsFeatureConfiguration.FeatureSlotPair(0, ImsFeature.FEATURE_RCS));
+        info.add(getResolveInfo(TEST_CARRIER_DEFAULT_NAME, new HashSet<>(), true));
+        info.add(getResolveInfo(TEST_DEVICE_DEFAULT_NAME, deviceFeatures, true));
+        setupPackageQuery(info);
+        ImsServiceController deviceController = mock(ImsServiceController.class);
+        ImsServiceController carrierController = mock(ImsServiceController.class);
+        setImsServiceControllerFactory(deviceController, carrierController);
+
+        startBindCarrierConfigAlreadySet();
+        setupDynamicQueryFeatures(TEST_CARRIER_DEFAULT_NAME, carrierFeatures, 1);
+        verify(carrierController).bind(carrierFeatures);
+
+        // The carrier ImsService is disabled, its package is still installed.
+        info.clear();
+        info.add(getResolveInfo(TEST_DEVICE_DEFAULT_NAME, deviceFeatures, true));
+        packageChanged(TEST_CARRIER_DEFAULT_NAME.getPackageName());
+
+        verify(carrierController).unbind();
+        assertNull(mTestImsResolver.getImsServiceInfoFromCache(
+                TEST_CARRIER_DEFAULT_NAME.getPackageName()));
+        // The device ImsService takes over all the features.
+        HashSet<ImsFeatureConfiguration.FeatureSlotPair> deviceFeatureSet =
+                convertToHashSet(deviceFeatures, 0);
+        verify(deviceController).changeImsServiceFeatures(deviceFeatureSet);
+        verify(mMockQueryManager, times(1)).startQuery(eq(TEST_CARRIER_DEFAULT_NAME),
+                any(String.class));
+    }
+
     /**
      * Inform ImsResolver that the carrier config has changed to none, requiring the device
      * ImsService to be bound/set up and the previous carrier ImsService to be unbound.
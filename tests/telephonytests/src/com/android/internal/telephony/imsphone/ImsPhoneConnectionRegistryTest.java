@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.imsphone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.ims.ImsCall;
+
+import org.junit.Test;
+
+public class ImsPhoneConnectionRegistryTest {
+    private final ImsPhoneConnectionRegistry mRegistry = new ImsPhoneConnectionRegistry();
+
+    private static ImsPhoneConnection createConnection(ImsCall imsCall) {
+        ImsPhoneConnection conn = mock(ImsPhoneConnection.class);
+        doReturn(imsCall).when(conn).getImsCall();
+        return conn;
+    }
+
+    @Test @SmallTest
+    public void testFindByImsCall() {
+        ImsCall imsCall1 = mock(ImsCall.class);
+        ImsCall imsCall2 = mock(ImsCall.class);
+        ImsPhoneConnection conn1 = createConnection(imsCall1);
+        ImsPhoneConnection conn2 = createConnection(imsCall2);
+        mRegistry.add(conn1);
+        mRegistry.add(conn2);
+
+        assertSame(conn1, mRegistry.find(imsCall1));
+        assertSame(conn2, mRegistry.find(imsCall2));
+        assertNull(mRegistry.find(mock(ImsCall.class)));
+        assertEquals(2, mRegistry.getConnections().size());
+
+        mRegistry.remove(conn1);
+        assertNull(mRegistry.find(imsCall1));
+        assertSame(conn2, mRegistry.find(imsCall2));
+    }
+
+    @Test @SmallTest
+    public void testImsCallSetAfterAdd() {
+        // A dialed connection gets its ImsCall once the call is made.
+        ImsPhoneConnection conn = createConnection(null);
+        mRegistry.add(conn);
+        ImsCall imsCall = mock(ImsCall.class);
+        assertNull(mRegistry.find(imsCall));
+
+        doReturn(imsCall).when(conn).getImsCall();
+        mRegistry.setImsCall(conn, imsCall);
+        verify(conn).setImsCall(imsCall);
+        assertSame(conn, mRegistry.find(imsCall));
+    }
+
+    @Test @SmallTest
+    public void testConnectionWithoutImsCallIsRemoved() {
+        ImsCall imsCall = mock(ImsCall.class);
+        ImsPhoneConnection conn = createConnection(imsCall);
+        mRegistry.add(conn);
+        assertSame(conn, mRegistry.find(imsCall));
+
+        // The ImsCall is released when the connection disconnects, before it is removed.
+        doReturn(null).when(conn).getImsCall();
+        assertNull(mRegistry.find(imsCall));
+        assertSame(conn, mRegistry.find(null));
+
+        mRegistry.remove(conn);
+        assertNull(mRegistry.find(null));
+        assertEquals(0, mRegistry.getConnections().size());
+
+        // The ImsCall may be reused by another connection.
+        ImsPhoneConnection other = createConnection(imsCall);
+        mRegistry.add(other);
+        assertSame(other, mRegistry.find(imsCall));
+    }
+
+    @Test @SmallTest
+    public void testClear() {
+        ImsCall imsCall = mock(ImsCall.class);
+        mRegistry.add(createConnection(imsCall));
+
+        mRegistry.clear();
+        assertNull(mRegistry.find(imsCall));
+        assertEquals(0, mRegistry.getConnections().size());
+    }
+}
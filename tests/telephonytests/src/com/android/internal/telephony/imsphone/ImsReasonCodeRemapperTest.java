@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.imsphone;
+
+import static org.junit.Assert.assertEquals;
+
+import android.telephony.ims.ImsReasonInfo;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Test;
+
+public class ImsReasonCodeRemapperTest {
+
+    private final ImsReasonCodeRemapper mRemapper = new ImsReasonCodeRemapper();
+
+    @Test
+    @SmallTest
+    public void testExactRemappingPreferredOverWildcard() {
+        mRemapper.add(null, "Call answered elsewhere.", ImsReasonInfo.CODE_ANSWERED_ELSEWHERE);
+        mRemapper.add(501, "call ANSWERED elsewhere.", ImsReasonInfo.CODE_SIP_FORBIDDEN);
+
+        assertEquals(ImsReasonInfo.CODE_SIP_FORBIDDEN,
+                mRemapper.remap(501, "Call answered elsewhere."));
+        assertEquals(ImsReasonInfo.CODE_ANSWERED_ELSEWHERE,
+                mRemapper.remap(510, "CALL ANSWERED ELSEWHERE."));
+        assertEquals(510, mRemapper.remap(510, "Call answered somewhere."));
+    }
+
+    @Test
+    @SmallTest
+    public void testEmptyMessage() {
+        mRemapper.add(null, "", ImsReasonInfo.CODE_WIFI_LOST);
+        mRemapper.add(ImsReasonInfo.CODE_USER_TERMINATED_BY_REMOTE, null,
+                ImsReasonInfo.CODE_SIP_FORBIDDEN);
+
+        // A wildcard never remaps an empty message.
+        assertEquals(ImsReasonInfo.CODE_USER_TERMINATED,
+                mRemapper.remap(ImsReasonInfo.CODE_USER_TERMINATED, ""));
+        assertEquals(ImsReasonInfo.CODE_SIP_FORBIDDEN,
+                mRemapper.remap(ImsReasonInfo.CODE_USER_TERMINATED_BY_REMOTE, null));
+        assertEquals(ImsReasonInfo.CODE_SIP_FORBIDDEN,
+                mRemapper.remap(ImsReasonInfo.CODE_USER_TERMINATED_BY_REMOTE, ""));
+    }
+
+    @Test
+    @SmallTest
+    public void testReplaceAndClear() {
+        mRemapper.add(501, "Forbidden", ImsReasonInfo.CODE_SIP_FORBIDDEN);
+        mRemapper.add(501, "forbidden", ImsReasonInfo.CODE_WIFI_LOST);
+        mRemapper.add(501, "Not found", ImsReasonInfo.CODE_SIP_NOT_FOUND);
+
+        assertEquals(2, mRemapper.size());
+        assertEquals(ImsReasonInfo.CODE_WIFI_LOST, mRemapper.remap(501, "FORBIDDEN"));
+        assertEquals(ImsReasonInfo.CODE_SIP_NOT_FOUND, mRemapper.remap(501, "not found"));
+
+        mRemapper.clear();
+        assertEquals(0, mRemapper.size());
+        assertEquals(501, mRemapper.remap(501, "Forbidden"));
+    }
+}
@@ -212,6 +212,32 @@ public class ImsRttTextHandlerTest extends TelephonyTest {
         Assert.assertEquals(LONG_TEXT, mNetworkWriter.getContents());
     }
 
+    @Test
+    public void testThrottlingCountsCodepoints() throws Exception {
+        // 40 codepoints outside of the BMP, each of them made of two chars.
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            sb.appendCodePoint(0x1F600 + i);
+        }
+        String text = sb.toString();
+        mPipeToHandler.write(text);
+        mPipeToHandler.flush();
+        waitForMs(ImsRttTextHandler.MAX_BUFFERING_DELAY_MILLIS);
+        waitForHandlerAction(mRttTextHandler, TEST_TIMEOUT);
+
+        // Only the rate limit is sent at first, without splitting a surrogate pair.
+        String sent = mNetworkWriter.getContents();
+        Assert.assertEquals(ImsRttTextHandler.MAX_CODEPOINTS_PER_SECOND,
+                sent.codePointCount(0, sent.length()));
+        Assert.assertTrue(text.startsWith(sent));
+
+        // The rest follows once the first codepoints expire from the rate limiter.
+        waitForMs(1500);
+        waitForHandlerAction(mRttTextHandler, TEST_TIMEOUT);
+        Assert.assertEquals(text, mNetworkWriter.getContents());
+        Assert.assertTrue(mRttTextHandler.getMaxWriterLatencyMillis() >= 1000);
+    }
+
     @Test
     public void testProperTransmissionFromNetworkToInCall() throws Exception {
         // Make sure that nothing is in the pipe from the network to incall (us)
@@ -30,7 +30,10 @@ import static org.junit.Assert.assertTrue;
 
 import android.icu.util.GregorianCalendar;
 import android.icu.util.TimeZone;
+import android.timezone.CountryTimeZones;
 import android.timezone.CountryTimeZones.OffsetResult;
+import android.timezone.CountryTimeZones.TimeZoneMapping;
+import android.timezone.TimeZoneFinder;
 
 import com.android.internal.telephony.NitzData;
 import com.android.internal.telephony.nitz.TimeZoneLookupHelper.CountryResult;
@@ -42,6 +45,8 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 
 public class TimeZoneLookupHelperTest {
@@ -450,6 +455,64 @@ public class TimeZoneLookupHelperTest {
         assertTrue(mTimeZoneLookupHelper.countryUsesUtc("gb", NH_WINTER_TIME_MILLIS));
     }
 
+    @Test
+    public void testLookupsMatchCountryTimeZones() {
+        // More countries than the helper caches, looked up in turn as when the device switches
+        // between countries, at times around DST transitions and zones being merged.
+        String[] isoCountryCodes =
+                { "us", "gb", "fr", "au", "br", "ru", "ca", "mx", "cl", "nz", "in", "ua" };
+        long[] times = {
+                createUtcTime(2010, 11, 5, 0, 0, 0),
+                createUtcTime(2011, 11, 5, 0, 0, 0),
+                // US DST starts on 2015-03-08 at 02:00 local time.
+                createUtcTime(2015, 3, 8, 6, 59, 59),
+                createUtcTime(2015, 3, 8, 7, 0, 0),
+                createUtcTime(2015, 3, 8, 9, 59, 59),
+                createUtcTime(2015, 3, 8, 10, 0, 0),
+                createUtcTime(2015, 3, 8, 10, 0, 1),
+                NH_WINTER_TIME_MILLIS,
+                NH_SUMMER_TIME_MILLIS,
+                NH_WINTER_TIME_MILLIS,
+        };
+        TimeZone bias = TimeZone.getDefault();
+
+        for (long time : times) {
+            for (String isoCountryCode : isoCountryCodes) {
+                CountryTimeZones countryTimeZones =
+                        TimeZoneFinder.getInstance().lookupCountryTimeZones(isoCountryCode);
+                String message = isoCountryCode + " at " + time;
+                assertEquals(message, countryTimeZones.hasUtcZone(time),
+                        mTimeZoneLookupHelper.countryUsesUtc(isoCountryCode, time));
+                assertEquals(message, countryTimeZones.getDefaultTimeZone().getID(),
+                        mTimeZoneLookupHelper.lookupByCountry(isoCountryCode, time).zoneId);
+
+                // The offsets used in the country, and one that is not.
+                TreeSet<Integer> offsets = new TreeSet<>();
+                for (TimeZoneMapping mapping
+                        : countryTimeZones.getEffectiveTimeZoneMappingsAt(time)) {
+                    offsets.add(mapping.getTimeZone().getOffset(time));
+                }
+                offsets.add(offsets.first() - (int) TimeUnit.MINUTES.toMillis(15));
+
+                for (int offset : offsets) {
+                    for (Integer dstOffset : new Integer[] { null, 0, 3600000 }) {
+                        NitzData nitzData =
+                                NitzData.createForTests(offset, dstOffset, time, null);
+                        OffsetResult expected = dstOffset == null
+                                ? countryTimeZones.lookupByOffsetWithBias(time, bias, offset)
+                                : countryTimeZones.lookupByOffsetWithBias(
+                                        time, bias, offset, dstOffset != 0);
+                        OffsetResult actual =
+                                mTimeZoneLookupHelper.lookupByNitzCountry(nitzData, isoCountryCode);
+                        assertTrue(message + " offset=" + offset + " dst=" + dstOffset
+                                + " expected=" + expected + " actual=" + actual,
+                                Objects.equals(expected, actual));
+                    }
+                }
+            }
+        }
+    }
+
     @Test
     public void regressionTest_Bug167653885() {
         // This NITZ caused an error in Android R because lookupByNitz was returning a time zone
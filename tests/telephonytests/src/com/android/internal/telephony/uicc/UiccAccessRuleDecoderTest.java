@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2021 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.telephony.UiccAccessRule;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+public class UiccAccessRuleDecoderTest {
+    private static final String TAG = "UiccAccessRuleDecoderTest";
+
+    private static final String CERT_HASH = "ABCD92CBB156B280FA4E1429A6ECEEB6E5C1BFE4";
+
+    // Maximum payload of a GET DATA response.
+    private static final int CHUNK_SIZE = 255;
+
+    /**
+     * FF40 45
+     *   E2 43
+     *      E1 35
+     *         C1 14 ABCD92CBB156B280FA4E1429A6ECEEB6E5C1BFE4
+     *         CA 1D 636F6D2E676F6F676C652E616E64726F69642E617070732E6D79617070
+     *      E3 0A
+     *         DB 08 0000000000000001
+     */
+    private static final String RULES =
+            "FF4045E243E135C114ABCD92CBB156B280FA4E1429A6ECEEB6E5C1BFE4CA1D636F6D2E676F6F676"
+                    + "C652E616E64726F69642E617070732E6D79617070E30ADB080000000000000001";
+
+    private final UiccAccessRuleDecoder mDecoder = new UiccAccessRuleDecoder();
+
+    private static String encodeLength(int length) {
+        if (length < 0x80) return String.format(Locale.US, "%02X", length);
+        if (length < 0x100) return String.format(Locale.US, "81%02X", length);
+        return String.format(Locale.US, "82%04X", length);
+    }
+
+    private static String encodeTlv(String tag, String value) {
+        return tag + encodeLength(value.length() / 2) + value;
+    }
+
+    private static String encodeRule(String certHash, String packageName) {
+        String refDo = encodeTlv("C1", certHash);
+        if (packageName != null) {
+            refDo += encodeTlv("CA", IccUtils.bytesToHexString(packageName.getBytes()));
+        }
+        return encodeTlv("E2", encodeTlv("E1", refDo)
+                + encodeTlv("E3", encodeTlv("DB", "0000000000000001")));
+    }
+
+    private void feedInChunks(byte[] data, int chunkSize) {
+        for (int i = 0; i < data.length; i += chunkSize) {
+            mDecoder.feed(Arrays.copyOfRange(data, i, Math.min(data.length, i + chunkSize)));
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void testDecode() {
+        mDecoder.feed(IccUtils.hexStringToBytes(RULES));
+
+        assertTrue(mDecoder.isComplete());
+        List<UiccAccessRule> rules = mDecoder.getRules();
+        assertEquals(1, rules.size());
+        assertEquals(CERT_HASH, rules.get(0).getCertificateHexString().toUpperCase(Locale.US));
+        assertEquals("com.google.android.apps.myapp", rules.get(0).getPackageName());
+    }
+
+    @Test
+    @SmallTest
+    public void testDecodeByteByByte() {
+        byte[] data = IccUtils.hexStringToBytes(RULES);
+        for (int i = 0; i < data.length; i++) {
+            assertFalse(mDecoder.isComplete());
+            mDecoder.feed(new byte[] {data[i]});
+        }
+
+        assertTrue(mDecoder.isComplete());
+        assertEquals(1, mDecoder.getRules().size());
+        assertEquals("com.google.android.apps.myapp", mDecoder.getRules().get(0).getPackageName());
+    }
+
+    @Test
+    @SmallTest
+    public void testDecodeRulesWithAid() {
+        String rules = encodeTlv("FF40",
+                // Carrier privilege AID
+                encodeTlv("E2", encodeTlv("E1", encodeTlv("4F", "FFFFFFFFFFFF")
+                        + encodeTlv("C1", CERT_HASH))
+                        + encodeTlv("E3", encodeTlv("DB", "0000000000000001")))
+                // Other AID, not a carrier privilege rule
+                + encodeTlv("E2", encodeTlv("E1", encodeTlv("4F", "A00000015141434C00")
+                        + encodeTlv("C1", CERT_HASH))
+                        + encodeTlv("E3", encodeTlv("DB", "0000000000000001"))));
+        mDecoder.feed(IccUtils.hexStringToBytes(rules));
+
+        assertTrue(mDecoder.isComplete());
+        assertEquals(1, mDecoder.getRules().size());
+        assertNull(mDecoder.getRules().get(0).getPackageName());
+    }
+
+    @Test
+    @SmallTest
+    public void testMalformedRules() {
+        String[] malformedRules = {
+                // Wrong tag
+                "FF4102E200",
+                // More data than announced
+                "FF4045" + RULES.substring(6) + "00",
+                // Rule longer than the rules
+                "FF4002E203",
+                // Rule type neither REF-DO nor AR-DO
+                "FF4004E202DB00",
+        };
+        for (String rules : malformedRules) {
+            mDecoder.reset();
+            try {
+                mDecoder.feed(IccUtils.hexStringToBytes(rules));
+                fail("Decoded malformed rules " + rules);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    @LargeTest
+    public void testDecodeLargeRuleSet() {
+        final int numRules = 500;
+        final int iterations = 20;
+        StringBuilder ruleSet = new StringBuilder();
+        for (int i = 0; i < numRules; i++) {
+            ruleSet.append(encodeRule(CERT_HASH, "com.example.carrier.app" + i));
+        }
+        byte[] data = IccUtils.hexStringToBytes(encodeTlv("FF40", ruleSet.toString()));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            mDecoder.reset();
+            feedInChunks(data, CHUNK_SIZE);
+        }
+        long decoderNanos = (System.nanoTime() - start) / iterations;
+
+        assertTrue(mDecoder.isComplete());
+        List<UiccAccessRule> rules = mDecoder.getRules();
+        assertEquals(numRules, rules.size());
+        for (int i = 0; i < numRules; i++) {
+            assertEquals("com.example.carrier.app" + i, rules.get(i).getPackageName());
+        }
+
+        // Baseline: accumulate the responses as a hex string and split the rules with TLV.
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            String hex = "";
+            for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+                hex += IccUtils.bytesToHexString(Arrays.copyOfRange(
+                        data, offset, Math.min(data.length, offset + CHUNK_SIZE)))
+                        .toUpperCase(Locale.US);
+            }
+            UiccCarrierPrivilegeRules.TLV allRefArDo = new UiccCarrierPrivilegeRules.TLV("FF40");
+            allRefArDo.parse(hex, true);
+            String arDos = allRefArDo.getValue();
+            while (!arDos.isEmpty()) {
+                arDos = new UiccCarrierPrivilegeRules.TLV("E2").parse(arDos, false);
+            }
+        }
+        long baselineNanos = (System.nanoTime() - start) / iterations;
+
+        Log.d(TAG, "Decoded " + numRules + " rules (" + data.length + " bytes) in "
+                + decoderNanos / 1000 + "us, hex string TLV split in " + baselineNanos / 1000
+                + "us");
+    }
+}